@@ -0,0 +1,110 @@
+package com.ingrosso;
+
+import com.ingrosso.dao.DdtDao;
+import com.ingrosso.dao.ProdottoDao;
+import com.ingrosso.model.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+// Heap retained per row by the product and DDT lists, with the FX property models they used to load
+// and with the read-only DAO records they load now. Rows are synthetic, with distinct strings and
+// numbers like rows read from the database, so no database is needed:
+//
+//   mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=com.ingrosso.BenchmarkMemoria -Dbenchmark=[righe] \
+//       "-Dbenchmark.jvmArgs=-Xmx2g -XX:+UseSerialGC"
+public class BenchmarkMemoria {
+    private static final int RIGHE_DDT = 5;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        Categoria categoria = new Categoria();
+        categoria.setId(1);
+        categoria.setNome("Bevande");
+        Sottocategoria sottocategoria = new Sottocategoria();
+        sottocategoria.setId(1);
+        sottocategoria.setCategoriaId(1);
+        sottocategoria.setNome("Acque");
+        sottocategoria.setCategoria(categoria);
+        UnitaMisura unitaMisura = new UnitaMisura();
+        unitaMisura.setId(1);
+        unitaMisura.setSimbolo("pz");
+        Destinatario destinatario = new Destinatario();
+        destinatario.setId(1);
+        destinatario.setRagioneSociale("Cliente Srl");
+
+        // Enriched like ProdottoService.getAllProdotti: reference data shared, giacenza per product
+        report("PRODOTTI_MODELLO", n, i -> {
+            Prodotto p = prodotto(i);
+            p.setSottocategoria(sottocategoria);
+            p.setUnitaMisura(unitaMisura);
+            return p;
+        });
+        report("PRODOTTI_RECORD", n, i -> new ProdottoDao.ProdottoElenco(i, "P" + i, "80" + i, "Prodotto " + i,
+                1, categoria.getNome(), 1, sottocategoria.getNome(), unitaMisura.getSimbolo(),
+                BigDecimal.valueOf(i % 50), BigDecimal.valueOf(i, 2), BigDecimal.valueOf(i * 2L, 2),
+                BigDecimal.valueOf(i % 100), true));
+
+        // The DDT list used to load every DDT with its righe, each riga with its own Prodotto
+        report("DDT_MODELLO", n, i -> {
+            Ddt ddt = new Ddt();
+            ddt.setId(i);
+            ddt.setNumero(i);
+            ddt.setAnno(2024);
+            ddt.setDataDocumento(LocalDate.of(2024, 1, 1).plusDays(i % 365));
+            ddt.setDestinatarioId(1);
+            ddt.setDestinatario(destinatario);
+            ddt.setStato(StatoDdt.EMESSO);
+            for (int r = 0; r < RIGHE_DDT; r++) {
+                DdtRiga riga = new DdtRiga();
+                riga.setId(i * RIGHE_DDT + r);
+                riga.setDdtId(i);
+                riga.setProdottoId(r);
+                riga.setDescrizione("Prodotto " + r);
+                riga.setQuantita(BigDecimal.valueOf(r + 1));
+                riga.setUnitaMisura("pz");
+                riga.setPrezzoUnitario(BigDecimal.valueOf(r * 100L, 2));
+                riga.setProdotto(prodotto(r));
+                ddt.getRighe().add(riga);
+            }
+            return ddt;
+        });
+        report("DDT_RECORD", n, i -> new DdtDao.DdtElenco(i, i, 2024, LocalDate.of(2024, 1, 1).plusDays(i % 365),
+                1, destinatario.getRagioneSociale(), StatoDdt.EMESSO, RIGHE_DDT));
+    }
+
+    private static Prodotto prodotto(int i) {
+        Prodotto p = new Prodotto("P" + i, "Prodotto " + i, 1);
+        p.setId(i);
+        p.setBarcode("80" + i);
+        p.setSottocategoriaId(1);
+        p.setScortaMinima(BigDecimal.valueOf(i % 50));
+        p.setPrezzoAcquisto(BigDecimal.valueOf(i, 2));
+        p.setPrezzoVendita(BigDecimal.valueOf(i * 2L, 2));
+        p.setGiacenzaTotale(BigDecimal.valueOf(i % 100));
+        return p;
+    }
+
+    // Prints the heap still in use with the rows referenced, minus the heap before, per row
+    private static void report(String nome, int n, IntFunction<Object> riga) {
+        long prima = usata();
+        List<Object> righe = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            righe.add(riga.apply(i));
+        }
+        long dopo = usata();
+        System.out.printf("%s_BYTES_PER_RIGA=%d%n", nome, (dopo - prima) / righe.size());
+    }
+
+    private static long usata() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,147 @@
+package com.ingrosso;
+
+import com.ingrosso.model.*;
+import com.ingrosso.util.PdfUtil;
+import com.ingrosso.util.StampaDdt;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// DDT rendering throughput in pages per second: one DDT at a time with the header and logo rebuilt
+// for each, as printing worked before, against the cached header rendered in parallel by StampaDdt
+// into a single merged PDF. DDTs and logo are synthetic and the output is discarded, so no database
+// is needed:
+//
+//   mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=com.ingrosso.BenchmarkPdf "-Dbenchmark=[ddt] [righe per ddt]"
+public class BenchmarkPdf {
+    private static final int RIPETIZIONI_RISCALDAMENTO = 2;
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int righe = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        ConfigAzienda azienda = azienda();
+        List<Ddt> ddt = new ArrayList<>(n);
+        for (int i = 1; i <= n; i++) {
+            ddt.add(ddt(i, righe));
+        }
+
+        for (int i = 0; i < RIPETIZIONI_RISCALDAMENTO; i++) {
+            sequenziale(ddt, azienda);
+            parallelo(ddt, azienda, threads);
+        }
+
+        long start = System.nanoTime();
+        int pagine = sequenziale(ddt, azienda);
+        System.out.printf("BASELINE_PAGINE_AL_SECONDO=%d%n", pagineAlSecondo(pagine, start));
+
+        start = System.nanoTime();
+        pagine = parallelo(ddt, azienda, threads);
+        System.out.printf("PARALLELO_PAGINE_AL_SECONDO=%d%n", pagineAlSecondo(pagine, start));
+        System.out.printf("THREADS=%d DDT=%d PAGINE=%d%n", threads, n, pagine);
+    }
+
+    // The logo decoded and the header rebuilt for every DDT, one DDT after the other
+    private static int sequenziale(List<Ddt> ddt, ConfigAzienda azienda) throws IOException {
+        int pagine = 0;
+        for (Ddt d : ddt) {
+            try {
+                pagine += PdfUtil.writeDdtPdf(d, PdfUtil.intestazione(azienda), new ByteArrayOutputStream());
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+        return pagine;
+    }
+
+    private static int parallelo(List<Ddt> ddt, ConfigAzienda azienda, int threads) throws IOException {
+        try (StampaDdt stampa = new StampaDdt(PdfUtil.intestazione(azienda), StampaDdt.Formato.PDF_UNICO,
+                OutputStream.nullOutputStream(), threads)) {
+            for (Ddt d : ddt) {
+                stampa.aggiungi(d);
+            }
+            stampa.completa();
+            return stampa.getPagine();
+        }
+    }
+
+    private static long pagineAlSecondo(int pagine, long startNanos) {
+        long elapsedMs = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+        return pagine * 1000L / elapsedMs;
+    }
+
+    private static ConfigAzienda azienda() throws IOException {
+        ConfigAzienda azienda = new ConfigAzienda();
+        azienda.setNome("Ingrosso Srl");
+        azienda.setIndirizzo("Via Roma 1");
+        azienda.setCitta("Milano");
+        azienda.setCap("20100");
+        azienda.setProvincia("MI");
+        azienda.setPiva("01234567890");
+        azienda.setTelefono("02 1234567");
+        azienda.setEmail("info@ingrosso.it");
+
+        // A logo of the size companies upload, with enough detail not to compress to nothing
+        BufferedImage logo = new BufferedImage(600, 360, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = logo.createGraphics();
+        for (int x = 0; x < logo.getWidth(); x += 12) {
+            for (int y = 0; y < logo.getHeight(); y += 12) {
+                g.setColor(new Color((x * 7 + y * 3) % 256, (x + y * 5) % 256, (x * y) % 256));
+                g.fillRect(x, y, 12, 12);
+            }
+        }
+        g.dispose();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(logo, "png", png);
+        azienda.setLogo(png.toByteArray());
+        return azienda;
+    }
+
+    private static Ddt ddt(int i, int righe) {
+        Destinatario destinatario = new Destinatario();
+        destinatario.setId(i);
+        destinatario.setRagioneSociale("Cliente " + i + " Srl");
+        destinatario.setIndirizzo("Via Verdi " + i);
+        destinatario.setCitta("Torino");
+        destinatario.setCap("10100");
+        destinatario.setProvincia("TO");
+        destinatario.setPiva(String.format("%011d", i));
+
+        Ddt ddt = new Ddt();
+        ddt.setId(i);
+        ddt.setNumero(i);
+        ddt.setAnno(2024);
+        ddt.setDataDocumento(LocalDate.of(2024, 1, 1).plusDays(i % 365));
+        ddt.setDestinatarioId(i);
+        ddt.setDestinatario(destinatario);
+        ddt.setCausaleTrasporto("Vendita");
+        ddt.setAspettoBeni("Cartoni");
+        ddt.setColli(righe);
+        ddt.setPesoKg(BigDecimal.valueOf(i * 10L + 5, 1));
+        ddt.setPorto("Franco");
+        ddt.setVettore("Mittente");
+        ddt.setStato(StatoDdt.EMESSO);
+        for (int r = 0; r < righe; r++) {
+            DdtRiga riga = new DdtRiga();
+            riga.setDdtId(i);
+            riga.setProdottoId(r + 1);
+            riga.setDescrizione("Prodotto " + (i * righe + r));
+            riga.setQuantita(BigDecimal.valueOf(r + 1));
+            riga.setUnitaMisura("pz");
+            riga.setPrezzoUnitario(BigDecimal.valueOf(r * 100L + i, 2));
+            riga.setOrdine(r + 1);
+            ddt.getRighe().add(riga);
+        }
+        return ddt;
+    }
+}
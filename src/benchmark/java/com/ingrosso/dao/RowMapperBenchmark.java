@@ -0,0 +1,192 @@
+package com.ingrosso.dao;
+
+import com.ingrosso.model.Movimento;
+import com.ingrosso.model.TipoMovimento;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+// Mapping a movimenti result set with the index-bound RowMapper against the name-based getters it
+// replaced. The rows come from an in-memory ResultSet that resolves labels like Connector/J does, through
+// a case-insensitive TreeMap, so the difference measured is the column resolution and not the network
+// or the driver's decoding. Both variants pay the same proxy dispatch on every getter.
+//
+//   mvn -Pbenchmark test-compile exec:exec -Dbenchmark=RowMapperBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMapperBenchmark {
+    private static final String[] COLONNE = {
+            "id", "prodotto_id", "magazzino_id", "lotto_id", "tipo", "quantita", "quantita_precedente",
+            "quantita_successiva", "causale", "documento_rif", "magazzino_destinazione_id", "utente_id", "note",
+            "data_movimento"
+    };
+
+    // Same columns as MovimentoDao
+    private static final RowMapper<Movimento> MAPPER = RowMapper.<Movimento>of(Movimento::new)
+            .intCol("id", Movimento::setId)
+            .intCol("prodotto_id", Movimento::setProdottoId)
+            .intCol("magazzino_id", Movimento::setMagazzinoId)
+            .optionalIntCol("lotto_id", Movimento::setLottoId)
+            .enumCol("tipo", TipoMovimento.class, Movimento::setTipo)
+            .decimalCol("quantita", Movimento::setQuantita)
+            .decimalCol("quantita_precedente", Movimento::setQuantitaPrecedente)
+            .decimalCol("quantita_successiva", Movimento::setQuantitaSuccessiva)
+            .stringCol("causale", Movimento::setCausale)
+            .stringCol("documento_rif", Movimento::setDocumentoRif)
+            .optionalIntCol("magazzino_destinazione_id", Movimento::setMagazzinoDestinazioneId)
+            .optionalIntCol("utente_id", Movimento::setUtenteId)
+            .stringCol("note", Movimento::setNote)
+            .dateTimeCol("data_movimento", Movimento::setDataMovimento);
+
+    // Binding costs one metadata pass per result set, so it matters most for single-row queries
+    @Param({"1", "100", "10000"})
+    public int righe;
+
+    private Object[][] dati;
+
+    @Setup
+    public void prepara() {
+        TipoMovimento[] tipi = TipoMovimento.values();
+        LocalDateTime inizio = LocalDateTime.of(2024, 1, 1, 8, 0);
+        dati = new Object[righe][];
+        for (int i = 0; i < righe; i++) {
+            dati[i] = new Object[] {
+                    i + 1, 1 + i % 500, 1 + i % 3, i % 2 == 0 ? null : i / 2, tipi[i % tipi.length].name(),
+                    new BigDecimal(i % 100 + ".500"), new BigDecimal(i + ".000"), new BigDecimal(i + 1 + ".500"),
+                    "Causale " + i, "DDT " + i, null, 1, i % 10 == 0 ? "Nota " + i : null,
+                    Timestamp.valueOf(inizio.plusMinutes(i))
+            };
+        }
+    }
+
+    @Benchmark
+    public void rowMapper(Blackhole bh) throws SQLException {
+        ResultSet rs = resultSet(dati);
+        RowMapper.Bound<Movimento> mapper = MAPPER.bind(rs);
+        while (rs.next()) {
+            bh.consume(mapper.map(rs));
+        }
+    }
+
+    @Benchmark
+    public void perNome(Blackhole bh) throws SQLException {
+        ResultSet rs = resultSet(dati);
+        while (rs.next()) {
+            bh.consume(mapPerNome(rs));
+        }
+    }
+
+    // The mapResultSet MovimentoDao had before the RowMapper
+    private static Movimento mapPerNome(ResultSet rs) throws SQLException {
+        Movimento m = new Movimento();
+        m.setId(rs.getInt("id"));
+        m.setProdottoId(rs.getInt("prodotto_id"));
+        m.setMagazzinoId(rs.getInt("magazzino_id"));
+        int lottoId = rs.getInt("lotto_id");
+        if (!rs.wasNull()) m.setLottoId(lottoId);
+        m.setTipo(TipoMovimento.valueOf(rs.getString("tipo")));
+        m.setQuantita(rs.getBigDecimal("quantita"));
+        m.setQuantitaPrecedente(rs.getBigDecimal("quantita_precedente"));
+        m.setQuantitaSuccessiva(rs.getBigDecimal("quantita_successiva"));
+        m.setCausale(rs.getString("causale"));
+        m.setDocumentoRif(rs.getString("documento_rif"));
+        int magDestId = rs.getInt("magazzino_destinazione_id");
+        if (!rs.wasNull()) m.setMagazzinoDestinazioneId(magDestId);
+        int utenteId = rs.getInt("utente_id");
+        if (!rs.wasNull()) m.setUtenteId(utenteId);
+        m.setNote(rs.getString("note"));
+        Timestamp ts = rs.getTimestamp("data_movimento");
+        m.setDataMovimento(ts != null ? ts.toLocalDateTime() : null);
+        return m;
+    }
+
+    private static ResultSet resultSet(Object[][] dati) {
+        return (ResultSet) Proxy.newProxyInstance(RowMapperBenchmark.class.getClassLoader(),
+                new Class<?>[] {ResultSet.class}, new Righe(dati));
+    }
+
+    // Forward-only rows with the getters the mappers use; columns by 1-based index or by label
+    private static final class Righe implements InvocationHandler {
+        private final Object[][] dati;
+        private final Map<String, Integer> indici = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private int riga = -1;
+        private boolean nullo;
+
+        Righe(Object[][] dati) {
+            this.dati = dati;
+            for (int i = 0; i < COLONNE.length; i++) {
+                indici.put(COLONNE[i], i + 1);
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+            switch (method.getName()) {
+                case "next":
+                    return ++riga < dati.length;
+                case "wasNull":
+                    return nullo;
+                case "getMetaData":
+                    return metaData();
+                case "close":
+                    return null;
+                default:
+                    break;
+            }
+
+            Object valore = dati[riga][colonna(args[0]) - 1];
+            nullo = valore == null;
+            return switch (method.getName()) {
+                case "getInt" -> valore != null ? valore : 0;
+                case "getString", "getBigDecimal", "getTimestamp", "getObject" -> valore;
+                default -> throw new SQLException("Not supported: " + method.getName());
+            };
+        }
+
+        private int colonna(Object colonna) throws SQLException {
+            if (colonna instanceof Integer indice) {
+                return indice;
+            }
+            Integer indice = indici.get((String) colonna);
+            if (indice == null) {
+                throw new SQLException("Column '" + colonna + "' not found");
+            }
+            return indice;
+        }
+
+        private static ResultSetMetaData metaData() {
+            return (ResultSetMetaData) Proxy.newProxyInstance(RowMapperBenchmark.class.getClassLoader(),
+                    new Class<?>[] {ResultSetMetaData.class}, (proxy, method, args) -> switch (method.getName()) {
+                        case "getColumnCount" -> COLONNE.length;
+                        case "getColumnLabel", "getColumnName" -> COLONNE[(Integer) args[0] - 1];
+                        default -> throw new SQLException("Not supported: " + method.getName());
+                    });
+        }
+    }
+}
@@ -0,0 +1,43 @@
+#!/bin/sh
+# Startup benchmark: starts the application RUNS times (default 10) with -Dingrosso.benchmark.avvio=true,
+# which quits as soon as the login screen is shown, and prints the time from JVM start to login of
+# each run and their median. Requires a configured, reachable database.
+#
+#   ./benchmark-avvio.sh 10                         # bundled runtime with AppCDS
+#   JAVA_CMD=java ./benchmark-avvio.sh 10           # any JDK, without the archive
+#   JAVA_OPTS="-Xshare:off" ./benchmark-avvio.sh    # bundled runtime, class data sharing disabled
+#
+# The first run warms the file cache and, with AppCDS, creates the archive: it is reported but left
+# out of the median.
+DIR="$(cd "$(dirname "$0")" && pwd)"
+RUNS="${1:-10}"
+
+if [ -n "$JAVA_CMD" ]; then
+    set -- "$JAVA_CMD"
+else
+    set -- "$DIR/runtime/bin/java" -XX:SharedArchiveFile="$DIR/gestione-ingrosso.jsa" -XX:+AutoCreateSharedArchive
+fi
+
+RESULTS=""
+i=0
+while [ "$i" -le "$RUNS" ]; do
+    MS=$("$@" $JAVA_OPTS -Dingrosso.benchmark.avvio=true -jar "$DIR/gestione-ingrosso.jar" 2>/dev/null \
+        | sed -n 's/^AVVIO_MS=//p')
+    if [ -z "$MS" ]; then
+        echo "Run $i: the login screen was not reached" >&2
+        exit 1
+    fi
+    if [ "$i" -eq 0 ]; then
+        echo "Warm-up: $MS ms"
+    else
+        echo "Run $i: $MS ms"
+        RESULTS="$RESULTS$MS
+"
+    fi
+    i=$((i + 1))
+done
+
+printf '%s' "$RESULTS" | sort -n | awk '{ v[NR] = $1 } END {
+    m = (NR % 2) ? v[(NR + 1) / 2] : (v[NR / 2] + v[NR / 2 + 1]) / 2
+    printf "Median: %d ms (min %d, max %d)\n", m, v[1], v[NR]
+}'
@@ -0,0 +1,6 @@
+@echo off
+rem Starts the application on the bundled runtime. The first start writes an AppCDS archive of the
+rem loaded classes next to the jar; later starts map it instead of loading and verifying them again.
+rem The archive is recreated automatically when the jar or the runtime change.
+set DIR=%~dp0
+start "" "%DIR%runtime\bin\javaw.exe" -XX:SharedArchiveFile="%DIR%gestione-ingrosso.jsa" -XX:+AutoCreateSharedArchive %JAVA_OPTS% -jar "%DIR%gestione-ingrosso.jar" %*
@@ -0,0 +1,8 @@
+#!/bin/sh
+# Starts the application on the bundled runtime. The first start writes an AppCDS archive of the
+# loaded classes next to the jar; later starts map it instead of loading and verifying them again.
+# The archive is recreated automatically when the jar or the runtime change.
+DIR="$(cd "$(dirname "$0")" && pwd)"
+exec "$DIR/runtime/bin/java" \
+    -XX:SharedArchiveFile="$DIR/gestione-ingrosso.jsa" -XX:+AutoCreateSharedArchive \
+    $JAVA_OPTS -jar "$DIR/gestione-ingrosso.jar" "$@"
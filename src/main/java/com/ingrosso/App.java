@@ -14,7 +14,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public class App extends Application {
     private static final Logger logger = LoggerFactory.getLogger(App.class);
@@ -22,18 +25,24 @@ public class App extends Application {
     private static final String APP_TITLE = "Gestione Ingrosso";
     private static final int LOGIN_WIDTH = 400;
     private static final int LOGIN_HEIGHT = 500;
+    private static final String BENCHMARK_AVVIO = "ingrosso.benchmark.avvio";
+
+    private static CompletableFuture<Boolean> avvioDatabase;
 
     @Override
     public void start(Stage primaryStage) {
         try {
-            // Initialize database connection
-            if (!initializeDatabase()) {
-                showDatabaseConfigDialog(primaryStage);
-                return;
-            }
-
-            // Load login screen
-            showLoginScreen(primaryStage);
+            // The login screen is built while the database bootstrap started in main() runs
+            Scene loginScene = createLoginScene();
+
+            avvioDatabase.whenComplete((inizializzato, ex) -> Platform.runLater(() -> {
+                if (Boolean.TRUE.equals(inizializzato)) {
+                    showLoginScreen(primaryStage, loginScene);
+                } else {
+                    logger.error("Failed to initialize database connection");
+                    showDatabaseConfigDialog(primaryStage);
+                }
+            }));
 
         } catch (Exception e) {
             logger.error("Error starting application: {}", e.getMessage(), e);
@@ -42,29 +51,6 @@ public class App extends Application {
         }
     }
 
-    private boolean initializeDatabase() {
-        DatabaseService dbService = DatabaseService.getInstance();
-
-        // Check if config exists
-        if (!dbService.configExists()) {
-            logger.info("Database configuration not found");
-            return false;
-        }
-
-        // Try to connect
-        if (!dbService.initialize()) {
-            logger.error("Failed to initialize database connection");
-            return false;
-        }
-
-        // Initialize schema if needed
-        if (!dbService.initializeSchema()) {
-            logger.warn("Failed to initialize database schema");
-        }
-
-        return true;
-    }
-
     private void showDatabaseConfigDialog(Stage primaryStage) {
         Alert alert = new Alert(Alert.AlertType.WARNING);
         alert.setTitle("Configurazione Database");
@@ -97,27 +83,32 @@ public class App extends Application {
         }
     }
 
-    private void showLoginScreen(Stage primaryStage) {
-        try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/login.fxml"));
-            Parent root = loader.load();
-
-            Scene scene = new Scene(root, LOGIN_WIDTH, LOGIN_HEIGHT);
-            scene.getStylesheets().add(getClass().getResource("/css/style.css").toExternalForm());
+    private Scene createLoginScene() throws IOException {
+        FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/login.fxml"));
+        Parent root = loader.load();
 
-            primaryStage.setTitle(APP_TITLE + " - Login");
-            primaryStage.setScene(scene);
-            primaryStage.setMinWidth(LOGIN_WIDTH);
-            primaryStage.setMinHeight(LOGIN_HEIGHT);
-            primaryStage.setResizable(false);
-            primaryStage.centerOnScreen();
-            primaryStage.show();
-
-            logger.info("Application started successfully");
+        Scene scene = new Scene(root, LOGIN_WIDTH, LOGIN_HEIGHT);
+        scene.getStylesheets().add(getClass().getResource("/css/style.css").toExternalForm());
+        return scene;
+    }
 
-        } catch (IOException e) {
-            logger.error("Error loading login screen: {}", e.getMessage(), e);
-            showFatalError("Errore", "Impossibile caricare la schermata di login");
+    private void showLoginScreen(Stage primaryStage, Scene scene) {
+        primaryStage.setTitle(APP_TITLE + " - Login");
+        primaryStage.setScene(scene);
+        primaryStage.setMinWidth(LOGIN_WIDTH);
+        primaryStage.setMinHeight(LOGIN_HEIGHT);
+        primaryStage.setResizable(false);
+        primaryStage.centerOnScreen();
+        primaryStage.show();
+
+        long avvioMs = ProcessHandle.current().info().startInstant()
+                .map(inizio -> Duration.between(inizio, Instant.now()).toMillis())
+                .orElse(-1L);
+        logger.info("Application started successfully, login shown {} ms after JVM start", avvioMs);
+
+        // Startup benchmark (-Dingrosso.benchmark.avvio=true): report the time and quit
+        if (Boolean.getBoolean(BENCHMARK_AVVIO)) {
+            System.out.println("AVVIO_MS=" + avvioMs);
             Platform.exit();
         }
     }
@@ -138,6 +129,8 @@ public class App extends Application {
     }
 
     public static void main(String[] args) {
+        // Connecting and checking the schema overlap with the JavaFX toolkit startup and the login FXML load
+        avvioDatabase = DatabaseService.getInstance().initializeAsync();
         launch(args);
     }
 }
@@ -4,6 +4,7 @@ import com.ingrosso.dao.GiacenzaDao;
 import com.ingrosso.dao.LottoDao;
 import com.ingrosso.service.MagazzinoService;
 import com.ingrosso.service.ReportService;
+import com.ingrosso.util.BackgroundLoader;
 import com.ingrosso.util.FormatUtil;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
@@ -16,7 +17,7 @@ import org.slf4j.LoggerFactory;
 import java.math.BigDecimal;
 import java.util.List;
 
-public class DashboardController {
+public class DashboardController implements RefreshableController {
     private static final Logger logger = LoggerFactory.getLogger(DashboardController.class);
 
     // KPI Labels
@@ -42,6 +43,10 @@ public class DashboardController {
     private final ReportService reportService = ReportService.getInstance();
     private final MagazzinoService magazzinoService = MagazzinoService.getInstance();
 
+    private final BackgroundLoader kpiLoader = new BackgroundLoader();
+    private final BackgroundLoader sottoScortaLoader = new BackgroundLoader();
+    private final BackgroundLoader lottiLoader = new BackgroundLoader();
+
     @FXML
     public void initialize() {
         setupTables();
@@ -73,65 +78,57 @@ public class DashboardController {
     }
 
     private void loadData() {
-        try {
-            ReportService.DashboardKpi kpi = reportService.getDashboardKpi();
+        kpiLoader.load(reportService::getDashboardKpi, this::showKpi);
+        loadAlertsData();
+    }
 
-            // Update KPI cards
-            if (lblTotaleProdotti != null) {
-                lblTotaleProdotti.setText(String.valueOf(kpi.totaleProdotti));
-            }
-            if (lblValoreMagazzino != null) {
-                lblValoreMagazzino.setText(FormatUtil.formatCurrency(kpi.valoreMagazzinoVendita));
-            }
-            if (lblSottoScorta != null) {
-                lblSottoScorta.setText(String.valueOf(kpi.prodottiSottoScorta));
-                if (kpi.prodottiSottoScorta > 0) {
-                    lblSottoScorta.getStyleClass().add("text-danger");
-                }
-            }
-            if (lblLottiScadenza != null) {
-                lblLottiScadenza.setText(String.valueOf(kpi.lottiInScadenza));
-                if (kpi.lottiInScadenza > 0) {
-                    lblLottiScadenza.getStyleClass().add("text-warning");
-                }
+    private void showKpi(ReportService.DashboardKpi kpi) {
+        // Update KPI cards
+        if (lblTotaleProdotti != null) {
+            lblTotaleProdotti.setText(String.valueOf(kpi.totaleProdotti));
+        }
+        if (lblValoreMagazzino != null) {
+            lblValoreMagazzino.setText(FormatUtil.formatCurrency(kpi.valoreMagazzinoVendita));
+        }
+        if (lblSottoScorta != null) {
+            lblSottoScorta.setText(String.valueOf(kpi.prodottiSottoScorta));
+            lblSottoScorta.getStyleClass().remove("text-danger");
+            if (kpi.prodottiSottoScorta > 0) {
+                lblSottoScorta.getStyleClass().add("text-danger");
             }
-            if (lblDdtMese != null) {
-                lblDdtMese.setText(String.valueOf(kpi.ddtMeseCorrente));
+        }
+        if (lblLottiScadenza != null) {
+            lblLottiScadenza.setText(String.valueOf(kpi.lottiInScadenza));
+            lblLottiScadenza.getStyleClass().remove("text-warning");
+            if (kpi.lottiInScadenza > 0) {
+                lblLottiScadenza.getStyleClass().add("text-warning");
             }
-
-            // Load alerts tables
-            loadAlertsData();
-
-        } catch (Exception e) {
-            logger.error("Error loading dashboard data: {}", e.getMessage());
+        }
+        if (lblDdtMese != null) {
+            lblDdtMese.setText(String.valueOf(kpi.ddtMeseCorrente));
         }
     }
 
     private void loadAlertsData() {
-        try {
-            // Get magazzino principale
-            magazzinoService.getMagazzinoPrincipale().ifPresent(mag -> {
-                // Prodotti sotto scorta
-                if (tblSottoScorta != null) {
-                    List<GiacenzaDao.GiacenzaCompleta> sottoScorta =
-                            reportService.getProdottiSottoScorta(mag.getId());
-                    tblSottoScorta.getItems().setAll(sottoScorta);
-                }
-            });
-
-            // Lotti in scadenza
-            if (tblLottiScadenza != null) {
-                List<LottoDao.LottoCompleto> lottiScadenza =
-                        reportService.getLottiInScadenza(30);
-                tblLottiScadenza.getItems().setAll(lottiScadenza);
-            }
+        // Prodotti sotto scorta nel magazzino principale
+        if (tblSottoScorta != null) {
+            sottoScortaLoader.load(tblSottoScorta,
+                    () -> magazzinoService.getMagazzinoPrincipale()
+                            .map(mag -> reportService.getProdottiSottoScorta(mag.getId()))
+                            .orElse(List.of()),
+                    tblSottoScorta.getItems()::setAll);
+        }
 
-        } catch (Exception e) {
-            logger.error("Error loading alerts data: {}", e.getMessage());
+        // Lotti in scadenza
+        if (tblLottiScadenza != null) {
+            lottiLoader.load(tblLottiScadenza,
+                    () -> reportService.getLottiInScadenza(30),
+                    tblLottiScadenza.getItems()::setAll);
         }
     }
 
     @FXML
+    @Override
     public void refreshData() {
         loadData();
     }
@@ -1,17 +1,20 @@
 package com.ingrosso.controller;
 
+import com.ingrosso.dao.DdtDao;
 import com.ingrosso.model.*;
+import com.ingrosso.service.DdtPdfService;
 import com.ingrosso.service.DdtService;
 import com.ingrosso.util.AlertUtil;
+import com.ingrosso.util.BackgroundLoader;
+import com.ingrosso.util.CellValues;
 import com.ingrosso.util.FormatUtil;
-import javafx.beans.property.SimpleStringProperty;
+import com.ingrosso.util.StampaDdt;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
 import org.slf4j.Logger;
@@ -24,7 +27,7 @@ import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
 
-public class DdtController {
+public class DdtController implements RefreshableController {
     private static final Logger logger = LoggerFactory.getLogger(DdtController.class);
 
     @FXML private DatePicker dpDataInizio;
@@ -33,19 +36,23 @@ public class DdtController {
     @FXML private ComboBox<StatoDdt> cmbStato;
     @FXML private TextField txtSearch;
 
-    @FXML private TableView<Ddt> tblDdt;
-    @FXML private TableColumn<Ddt, String> colNumero;
-    @FXML private TableColumn<Ddt, String> colData;
-    @FXML private TableColumn<Ddt, String> colDestinatario;
-    @FXML private TableColumn<Ddt, String> colStato;
-    @FXML private TableColumn<Ddt, Integer> colRighe;
-    @FXML private TableColumn<Ddt, Void> colAzioni;
+    @FXML private TableView<DdtDao.DdtElenco> tblDdt;
+    @FXML private TableColumn<DdtDao.DdtElenco, String> colNumero;
+    @FXML private TableColumn<DdtDao.DdtElenco, String> colData;
+    @FXML private TableColumn<DdtDao.DdtElenco, String> colDestinatario;
+    @FXML private TableColumn<DdtDao.DdtElenco, String> colStato;
+    @FXML private TableColumn<DdtDao.DdtElenco, Integer> colRighe;
+    @FXML private TableColumn<DdtDao.DdtElenco, Void> colAzioni;
 
     @FXML private Label lblTotaleDdt;
 
     private final DdtService ddtService = DdtService.getInstance();
+    private final DdtPdfService ddtPdfService = DdtPdfService.getInstance();
 
-    private ObservableList<Ddt> allDdt = FXCollections.observableArrayList();
+    private final BackgroundLoader ddtLoader = new BackgroundLoader();
+    private final BackgroundLoader stampaLoader = new BackgroundLoader();
+
+    private ObservableList<DdtDao.DdtElenco> allDdt = FXCollections.observableArrayList();
 
     @FXML
     public void initialize() {
@@ -57,9 +64,8 @@ public class DdtController {
 
     private void setupComboBoxes() {
         // Destinatari
-        List<Destinatario> destinatari = ddtService.getAllDestinatari();
         cmbDestinatario.getItems().add(null);
-        cmbDestinatario.getItems().addAll(destinatari);
+        BackgroundLoader.run(ddtService::getAllDestinatari, cmbDestinatario.getItems()::addAll);
         cmbDestinatario.setConverter(new javafx.util.StringConverter<>() {
             @Override
             public String toString(Destinatario d) {
@@ -89,25 +95,18 @@ public class DdtController {
     }
 
     private void setupTable() {
-        colNumero.setCellValueFactory(cellData ->
-                new SimpleStringProperty(cellData.getValue().getNumeroCompleto()));
+        colNumero.setCellValueFactory(CellValues.of(DdtDao.DdtElenco::numeroCompleto));
 
-        colData.setCellValueFactory(cellData -> {
-            LocalDate data = cellData.getValue().getDataDocumento();
-            return new SimpleStringProperty(data != null ? FormatUtil.formatDate(data) : "");
-        });
+        colData.setCellValueFactory(CellValues.of(ddt ->
+                ddt.dataDocumento() != null ? FormatUtil.formatDate(ddt.dataDocumento()) : ""));
 
-        colDestinatario.setCellValueFactory(cellData -> {
-            Destinatario dest = cellData.getValue().getDestinatario();
-            return new SimpleStringProperty(dest != null ? dest.getRagioneSociale() : "");
-        });
+        colDestinatario.setCellValueFactory(CellValues.of(ddt ->
+                ddt.destinatario() != null ? ddt.destinatario() : ""));
 
-        colStato.setCellValueFactory(cellData -> {
-            StatoDdt stato = cellData.getValue().getStato();
-            return new SimpleStringProperty(stato != null ? stato.getDescrizione() : "");
-        });
+        colStato.setCellValueFactory(CellValues.of(ddt ->
+                ddt.stato() != null ? ddt.stato().getDescrizione() : ""));
 
-        colRighe.setCellValueFactory(new PropertyValueFactory<>("totaleRighe"));
+        colRighe.setCellValueFactory(CellValues.of(DdtDao.DdtElenco::numeroRighe));
 
         // Action buttons
         colAzioni.setCellFactory(col -> new TableCell<>() {
@@ -120,12 +119,12 @@ public class DdtController {
                 btnPrint.getStyleClass().addAll("button-small", "button-outline");
 
                 btnView.setOnAction(e -> {
-                    Ddt ddt = getTableView().getItems().get(getIndex());
+                    DdtDao.DdtElenco ddt = getTableView().getItems().get(getIndex());
                     apriDdt(ddt);
                 });
 
                 btnPrint.setOnAction(e -> {
-                    Ddt ddt = getTableView().getItems().get(getIndex());
+                    DdtDao.DdtElenco ddt = getTableView().getItems().get(getIndex());
                     stampaDdt(ddt);
                 });
             }
@@ -139,7 +138,7 @@ public class DdtController {
 
         // Double-click to open
         tblDdt.setRowFactory(tv -> {
-            TableRow<Ddt> row = new TableRow<>();
+            TableRow<DdtDao.DdtElenco> row = new TableRow<>();
             row.setOnMouseClicked(event -> {
                 if (event.getClickCount() == 2 && !row.isEmpty()) {
                     apriDdt(row.getItem());
@@ -151,12 +150,12 @@ public class DdtController {
         // Color code by status
         tblDdt.setRowFactory(tv -> new TableRow<>() {
             @Override
-            protected void updateItem(Ddt item, boolean empty) {
+            protected void updateItem(DdtDao.DdtElenco item, boolean empty) {
                 super.updateItem(item, empty);
                 if (empty || item == null) {
                     setStyle("");
                 } else {
-                    switch (item.getStato()) {
+                    switch (item.stato()) {
                         case BOZZA -> setStyle("-fx-background-color: #FEF9C3;");
                         case EMESSO -> setStyle("-fx-background-color: #DCFCE7;");
                         case ANNULLATO -> setStyle("-fx-background-color: #FEE2E2;");
@@ -177,18 +176,10 @@ public class DdtController {
         LocalDate dataInizio = dpDataInizio.getValue();
         LocalDate dataFine = dpDataFine.getValue();
 
-        List<Ddt> ddtList = ddtService.getDdtByPeriodo(dataInizio, dataFine);
-
-        // Load righe for each DDT
-        for (Ddt ddt : ddtList) {
-            ddtService.loadRighe(ddt);
-            ddtService.getDdtById(ddt.getId()).ifPresent(fullDdt -> {
-                ddt.setDestinatario(fullDdt.getDestinatario());
-            });
-        }
-
-        allDdt.setAll(ddtList);
-        applyFilters();
+        ddtLoader.load(tblDdt, () -> ddtService.getElencoDdt(dataInizio, dataFine), ddtList -> {
+            allDdt.setAll(ddtList);
+            applyFilters();
+        });
     }
 
     @FXML
@@ -202,20 +193,18 @@ public class DdtController {
         StatoDdt stato = cmbStato.getValue();
         String searchText = txtSearch.getText().toLowerCase().trim();
 
-        ObservableList<Ddt> filtered = allDdt.filtered(ddt -> {
-            if (destinatario != null && (ddt.getDestinatario() == null ||
-                    ddt.getDestinatarioId() != destinatario.getId())) {
+        ObservableList<DdtDao.DdtElenco> filtered = allDdt.filtered(ddt -> {
+            if (destinatario != null && ddt.destinatarioId() != destinatario.getId()) {
                 return false;
             }
 
-            if (stato != null && ddt.getStato() != stato) {
+            if (stato != null && ddt.stato() != stato) {
                 return false;
             }
 
             if (!searchText.isEmpty()) {
-                String numero = String.valueOf(ddt.getNumero());
-                String dest = ddt.getDestinatario() != null ?
-                        ddt.getDestinatario().getRagioneSociale().toLowerCase() : "";
+                String numero = String.valueOf(ddt.numero());
+                String dest = ddt.destinatario() != null ? ddt.destinatario().toLowerCase() : "";
                 if (!numero.contains(searchText) && !dest.contains(searchText)) {
                     return false;
                 }
@@ -258,6 +247,18 @@ public class DdtController {
         }
     }
 
+    // The list rows are read-only: the detail screen gets the full DDT, loaded by id
+    private void apriDdt(DdtDao.DdtElenco riga) {
+        BackgroundLoader.run(() -> ddtService.getTestataDdt(riga.id()), ddt -> {
+            if (ddt.isPresent()) {
+                apriDdt(ddt.get());
+            } else {
+                AlertUtil.showError("Errore", "DDT non trovato");
+                loadData();
+            }
+        });
+    }
+
     private void apriDdt(Ddt ddt) {
         try {
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/ddt-dettaglio.fxml"));
@@ -280,14 +281,17 @@ public class DdtController {
         }
     }
 
-    private void stampaDdt(Ddt ddt) {
-        byte[] pdfData = ddtService.generatePdf(ddt);
+    private void stampaDdt(DdtDao.DdtElenco ddt) {
+        BackgroundLoader.run(() -> ddtService.generatePdf(ddt.id()), pdfData -> salvaPdf(ddt, pdfData));
+    }
+
+    private void salvaPdf(DdtDao.DdtElenco ddt, byte[] pdfData) {
         if (pdfData != null) {
             FileChooser fileChooser = new FileChooser();
             fileChooser.setTitle("Salva DDT PDF");
             fileChooser.getExtensionFilters().add(
                     new FileChooser.ExtensionFilter("PDF Files", "*.pdf"));
-            fileChooser.setInitialFileName("DDT_" + ddt.getNumero() + "_" + ddt.getAnno() + ".pdf");
+            fileChooser.setInitialFileName("DDT_" + ddt.numero() + "_" + ddt.anno() + ".pdf");
 
             File file = fileChooser.showSaveDialog(tblDdt.getScene().getWindow());
             if (file != null) {
@@ -302,7 +306,39 @@ public class DdtController {
         }
     }
 
+    // Every DDT in the filtered list, in list order, as one PDF to print or a ZIP with a PDF per DDT
+    @FXML
+    public void stampaElenco() {
+        List<Integer> ids = tblDdt.getItems().stream().map(DdtDao.DdtElenco::id).toList();
+        if (ids.isEmpty()) {
+            AlertUtil.showWarning("Attenzione", "Nessun DDT da stampare");
+            return;
+        }
+
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Stampa DDT");
+        FileChooser.ExtensionFilter pdf = new FileChooser.ExtensionFilter("PDF unico", "*.pdf");
+        FileChooser.ExtensionFilter zip = new FileChooser.ExtensionFilter("Archivio ZIP (un PDF per DDT)", "*.zip");
+        fileChooser.getExtensionFilters().addAll(pdf, zip);
+        fileChooser.setInitialFileName("DDT_" + LocalDate.now() + ".pdf");
+
+        File file = fileChooser.showSaveDialog(tblDdt.getScene().getWindow());
+        if (file == null) return;
+
+        StampaDdt.Formato formato = fileChooser.getSelectedExtensionFilter() == zip
+                || file.getName().toLowerCase().endsWith(".zip") ? StampaDdt.Formato.ZIP : StampaDdt.Formato.PDF_UNICO;
+        stampaLoader.load(() -> ddtPdfService.stampa(ids, formato, file, null), risultato -> {
+            if (risultato.isPresent()) {
+                AlertUtil.showInfo("Stampa completata", String.format("%d DDT, %d pagine salvati in %s",
+                        risultato.get().documenti(), risultato.get().pagine(), file.getAbsolutePath()));
+            } else {
+                AlertUtil.showError("Errore", "Impossibile generare il file dei DDT");
+            }
+        });
+    }
+
     @FXML
+    @Override
     public void refreshData() {
         loadData();
     }
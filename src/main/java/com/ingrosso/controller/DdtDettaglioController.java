@@ -5,6 +5,7 @@ import com.ingrosso.service.DdtService;
 import com.ingrosso.service.MagazzinoService;
 import com.ingrosso.service.ProdottoService;
 import com.ingrosso.util.AlertUtil;
+import com.ingrosso.util.BackgroundLoader;
 import com.ingrosso.util.FormatUtil;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.fxml.FXML;
@@ -16,7 +17,6 @@ import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.util.List;
 import java.util.Optional;
 
 public class DdtDettaglioController {
@@ -60,6 +60,8 @@ public class DdtDettaglioController {
     private final MagazzinoService magazzinoService = MagazzinoService.getInstance();
     private final ProdottoService prodottoService = ProdottoService.getInstance();
 
+    private final BackgroundLoader righeLoader = new BackgroundLoader();
+
     private Ddt ddt;
     private Runnable onSave;
 
@@ -72,8 +74,7 @@ public class DdtDettaglioController {
 
     private void setupComboBoxes() {
         // Destinatari
-        List<Destinatario> destinatari = ddtService.getAllDestinatari();
-        cmbDestinatario.getItems().addAll(destinatari);
+        BackgroundLoader.run(ddtService::getAllDestinatari, cmbDestinatario.getItems()::addAll);
         cmbDestinatario.setConverter(new javafx.util.StringConverter<>() {
             @Override
             public String toString(Destinatario d) {
@@ -87,8 +88,7 @@ public class DdtDettaglioController {
         });
 
         // Magazzini
-        List<Magazzino> magazzini = magazzinoService.getAllMagazzini();
-        cmbMagazzino.getItems().addAll(magazzini);
+        BackgroundLoader.run(magazzinoService::getAllMagazzini, cmbMagazzino.getItems()::addAll);
         cmbMagazzino.setConverter(new javafx.util.StringConverter<>() {
             @Override
             public String toString(Magazzino m) {
@@ -100,11 +100,13 @@ public class DdtDettaglioController {
                 return null;
             }
         });
-        magazzinoService.getMagazzinoPrincipale().ifPresent(cmbMagazzino::setValue);
+        // Default only for new DDTs, when the form has not set a magazzino yet
+        BackgroundLoader.run(magazzinoService::getMagazzinoPrincipale, principale -> {
+            if (cmbMagazzino.getValue() == null) principale.ifPresent(cmbMagazzino::setValue);
+        });
 
         // Prodotti
-        List<Prodotto> prodotti = prodottoService.getAllProdottiAttivi();
-        cmbProdotto.getItems().addAll(prodotti);
+        BackgroundLoader.run(prodottoService::getAllProdotti, cmbProdotto.getItems()::addAll);
         cmbProdotto.setConverter(new javafx.util.StringConverter<>() {
             @Override
             public String toString(Prodotto p) {
@@ -189,14 +191,19 @@ public class DdtDettaglioController {
     public void setDdt(Ddt ddt) {
         if (ddt != null) {
             this.ddt = ddt;
-            ddtService.loadRighe(ddt);
             populateForm();
+            righeLoader.load(tblRighe, () -> {
+                ddtService.loadRighe(ddt);
+                return ddt.getRighe();
+            }, tblRighe.getItems()::setAll);
         } else {
             this.ddt = new Ddt();
             this.ddt.setDataDocumento(LocalDate.now());
-            int nextNumero = ddtService.getNextNumero(LocalDate.now().getYear());
-            this.ddt.setNumero(nextNumero);
-            lblNumero.setText(this.ddt.getNumeroCompleto());
+            lblNumero.setText("...");
+            BackgroundLoader.run(() -> ddtService.getNextNumero(LocalDate.now().getYear()), nextNumero -> {
+                this.ddt.setNumero(nextNumero);
+                lblNumero.setText(this.ddt.getNumeroCompleto());
+            });
             dpData.setValue(LocalDate.now());
             lblStato.setText("Bozza");
         }
@@ -217,8 +224,6 @@ public class DdtDettaglioController {
         txtVettore.setText(ddt.getVettore());
         txtNote.setText(ddt.getNote());
         lblStato.setText(ddt.getStato().getDescrizione());
-
-        tblRighe.getItems().setAll(ddt.getRighe());
     }
 
     private void updateEditability() {
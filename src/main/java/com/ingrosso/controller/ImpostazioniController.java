@@ -4,6 +4,7 @@ import com.ingrosso.model.*;
 import com.ingrosso.service.AuthService;
 import com.ingrosso.service.DatabaseService;
 import com.ingrosso.util.AlertUtil;
+import com.ingrosso.util.BackgroundLoader;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
@@ -12,11 +13,10 @@ import javafx.scene.layout.HBox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
 
-public class ImpostazioniController {
+public class ImpostazioniController implements RefreshableController {
     private static final Logger logger = LoggerFactory.getLogger(ImpostazioniController.class);
 
     // Azienda fields
@@ -49,6 +49,8 @@ public class ImpostazioniController {
     private final AuthService authService = AuthService.getInstance();
     private final DatabaseService databaseService = DatabaseService.getInstance();
 
+    private final BackgroundLoader utentiLoader = new BackgroundLoader();
+
     @FXML
     public void initialize() {
         loadAziendaData();
@@ -58,7 +60,7 @@ public class ImpostazioniController {
     }
 
     private void loadAziendaData() {
-        authService.getConfigAzienda().ifPresent(config -> {
+        BackgroundLoader.run(authService::getConfigAzienda, configAzienda -> configAzienda.ifPresent(config -> {
             txtNomeAzienda.setText(config.getNome());
             txtIndirizzo.setText(config.getIndirizzo());
             txtCitta.setText(config.getCitta());
@@ -68,7 +70,7 @@ public class ImpostazioniController {
             txtCodiceFiscale.setText(config.getCodiceFiscale());
             txtTelefono.setText(config.getTelefono());
             txtEmail.setText(config.getEmail());
-        });
+        }));
     }
 
     private void loadDatabaseConfig() {
@@ -132,8 +134,13 @@ public class ImpostazioniController {
     }
 
     private void loadUtenti() {
-        List<Utente> utenti = authService.getAllUtenti();
-        tblUtenti.getItems().setAll(utenti);
+        utentiLoader.load(tblUtenti, authService::getAllUtenti, tblUtenti.getItems()::setAll);
+    }
+
+    // The company and connection forms are left as they are, so unsaved edits survive a tab switch
+    @Override
+    public void refreshData() {
+        loadUtenti();
     }
 
     @FXML
@@ -1,26 +1,43 @@
 package com.ingrosso.controller;
 
+import com.ingrosso.dao.ListinoDao;
 import com.ingrosso.model.*;
 import com.ingrosso.service.ListinoService;
+import com.ingrosso.service.ProdottoService;
 import com.ingrosso.util.AlertUtil;
+import com.ingrosso.util.BackgroundLoader;
+import com.ingrosso.util.CellValues;
 import com.ingrosso.util.FormatUtil;
+import com.ingrosso.util.PagedTableLoader;
+import javafx.animation.PauseTransition;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 
-public class ListiniController {
+public class ListiniController implements RefreshableController {
     private static final Logger logger = LoggerFactory.getLogger(ListiniController.class);
+    private static final int PAGE_SIZE = 200;
+    private static final Duration PAUSA_RICERCA = Duration.millis(250);
+    private static final BigDecimal[] ARROTONDAMENTI = {
+            null, new BigDecimal("0.01"), new BigDecimal("0.05"), new BigDecimal("0.10"),
+            new BigDecimal("0.50"), BigDecimal.ONE
+    };
 
     @FXML private TableView<Listino> tblListini;
     @FXML private TableColumn<Listino, String> colCodice;
@@ -32,22 +49,36 @@ public class ListiniController {
     @FXML private Label lblListinoSelezionato;
     @FXML private Button btnModificaListino;
     @FXML private TextField txtSearchPrezzi;
+    @FXML private ComboBox<ListinoDao.ValiditaPrezzo> cmbValidita;
+    @FXML private Label lblStatusPrezzi;
 
-    @FXML private TableView<ListinoPrezzo> tblPrezzi;
-    @FXML private TableColumn<ListinoPrezzo, String> colProdottoCodice;
-    @FXML private TableColumn<ListinoPrezzo, String> colProdottoNome;
-    @FXML private TableColumn<ListinoPrezzo, BigDecimal> colPrezzo;
-    @FXML private TableColumn<ListinoPrezzo, String> colDataInizio;
-    @FXML private TableColumn<ListinoPrezzo, String> colDataFine;
+    @FXML private TableView<ListinoDao.PrezzoElenco> tblPrezzi;
+    @FXML private TableColumn<ListinoDao.PrezzoElenco, String> colProdottoCodice;
+    @FXML private TableColumn<ListinoDao.PrezzoElenco, String> colProdottoNome;
+    @FXML private TableColumn<ListinoDao.PrezzoElenco, String> colUnitaMisura;
+    @FXML private TableColumn<ListinoDao.PrezzoElenco, BigDecimal> colPrezzo;
+    @FXML private TableColumn<ListinoDao.PrezzoElenco, String> colDataInizio;
+    @FXML private TableColumn<ListinoDao.PrezzoElenco, String> colDataFine;
 
     private final ListinoService listinoService = ListinoService.getInstance();
+    private final ProdottoService prodottoService = ProdottoService.getInstance();
+
+    private final BackgroundLoader listiniLoader = new BackgroundLoader();
+    private final BackgroundLoader totalePrezziLoader = new BackgroundLoader();
+    private final BackgroundLoader sottocategorieLoader = new BackgroundLoader();
+    private final BackgroundLoader anteprimaLoader = new BackgroundLoader();
+    private final BackgroundLoader revisioneLoader = new BackgroundLoader();
 
     private ObservableList<Listino> allListini = FXCollections.observableArrayList();
-    private ObservableList<ListinoPrezzo> allPrezzi = FXCollections.observableArrayList();
+    private PagedTableLoader<ListinoDao.PrezzoElenco> prezziLoader;
+    private final PauseTransition ricercaPrezzi = new PauseTransition(PAUSA_RICERCA);
+    private int totalePrezzi;
     private Listino selectedListino;
 
     @FXML
     public void initialize() {
+        prezziLoader = new PagedTableLoader<>(tblPrezzi, PAGE_SIZE);
+        prezziLoader.setOnPaginaCaricata(this::updateStatusPrezzi);
         setupListiniTable();
         setupPrezziTable();
         loadListini();
@@ -92,23 +123,19 @@ public class ListiniController {
             } else {
                 lblListinoSelezionato.setText("Seleziona un listino");
                 btnModificaListino.setDisable(true);
-                tblPrezzi.getItems().clear();
+                ricercaPrezzi.stop();
+                totalePrezziLoader.cancel();
+                prezziLoader.clear();
+                lblStatusPrezzi.setText("");
             }
         });
     }
 
     private void setupPrezziTable() {
-        colProdottoCodice.setCellValueFactory(cellData -> {
-            Prodotto p = cellData.getValue().getProdotto();
-            return new SimpleStringProperty(p != null ? p.getCodice() : "");
-        });
-
-        colProdottoNome.setCellValueFactory(cellData -> {
-            Prodotto p = cellData.getValue().getProdotto();
-            return new SimpleStringProperty(p != null ? p.getNome() : "");
-        });
-
-        colPrezzo.setCellValueFactory(new PropertyValueFactory<>("prezzo"));
+        colProdottoCodice.setCellValueFactory(CellValues.of(ListinoDao.PrezzoElenco::codice));
+        colProdottoNome.setCellValueFactory(CellValues.of(ListinoDao.PrezzoElenco::nome));
+        colUnitaMisura.setCellValueFactory(CellValues.of(ListinoDao.PrezzoElenco::unitaMisura));
+        colPrezzo.setCellValueFactory(CellValues.of(ListinoDao.PrezzoElenco::prezzo));
         colPrezzo.setCellFactory(col -> new TableCell<>() {
             @Override
             protected void updateItem(BigDecimal item, boolean empty) {
@@ -118,18 +145,43 @@ public class ListiniController {
         });
 
         colDataInizio.setCellValueFactory(cellData -> {
-            LocalDate data = cellData.getValue().getDataInizio();
+            LocalDate data = cellData.getValue().dataInizio();
             return new SimpleStringProperty(data != null ? FormatUtil.formatDate(data) : "");
         });
 
         colDataFine.setCellValueFactory(cellData -> {
-            LocalDate data = cellData.getValue().getDataFine();
+            LocalDate data = cellData.getValue().dataFine();
             return new SimpleStringProperty(data != null ? FormatUtil.formatDate(data) : "");
         });
 
+        cmbValidita.getItems().add(null);
+        cmbValidita.getItems().addAll(ListinoDao.ValiditaPrezzo.values());
+        cmbValidita.setConverter(new javafx.util.StringConverter<>() {
+            @Override
+            public String toString(ListinoDao.ValiditaPrezzo v) {
+                if (v == null) return "Tutti i prezzi";
+                return switch (v) {
+                    case IN_VIGORE -> "In vigore";
+                    case FUTURI -> "Futuri";
+                    case SCADUTI -> "Scaduti";
+                };
+            }
+
+            @Override
+            public ListinoDao.ValiditaPrezzo fromString(String s) {
+                return null;
+            }
+        });
+        cmbValidita.getSelectionModel().selectFirst();
+
+        // Typing restarts the pause, so the query runs once the user stops
+        ricercaPrezzi.setOnFinished(event -> {
+            if (selectedListino != null) loadPrezzi(selectedListino.getId());
+        });
+
         // Double-click to edit price
         tblPrezzi.setRowFactory(tv -> {
-            TableRow<ListinoPrezzo> row = new TableRow<>();
+            TableRow<ListinoDao.PrezzoElenco> row = new TableRow<>();
             row.setOnMouseClicked(event -> {
                 if (event.getClickCount() == 2 && !row.isEmpty()) {
                     modificaPrezzo(row.getItem());
@@ -139,16 +191,37 @@ public class ListiniController {
         });
     }
 
+    @Override
+    public void refreshData() {
+        loadListini();
+    }
+
     private void loadListini() {
-        List<Listino> listini = listinoService.getAllListini();
-        allListini.setAll(listini);
         tblListini.setItems(allListini);
+        listiniLoader.load(tblListini, listinoService::getAllListini, allListini::setAll);
     }
 
+    // The detail is fetched a page at a time while scrolling, filtered by the database; the total
+    // comes from a separate COUNT query
     private void loadPrezzi(int listinoId) {
-        List<ListinoPrezzo> prezzi = listinoService.getPrezziByListino(listinoId);
-        allPrezzi.setAll(prezzi);
-        tblPrezzi.setItems(allPrezzi);
+        ricercaPrezzi.stop();
+        ListinoDao.FiltroPrezzi filtro = new ListinoDao.FiltroPrezzi();
+        filtro.testo = txtSearchPrezzi.getText();
+        filtro.validita = cmbValidita.getValue();
+
+        lblStatusPrezzi.setText("Caricamento...");
+        totalePrezzi = -1;
+        prezziLoader.reset((ultimo, limite) -> listinoService.getPaginaPrezzi(listinoId, filtro, ultimo, limite));
+        totalePrezziLoader.load(() -> listinoService.countPrezzi(listinoId, filtro), totale -> {
+            totalePrezzi = totale;
+            updateStatusPrezzi();
+        });
+    }
+
+    private void updateStatusPrezzi() {
+        if (totalePrezzi < 0) return;
+        lblStatusPrezzi.setText(String.format("Visualizzati %d di %d prezzi",
+                prezziLoader.getItems().size(), totalePrezzi));
     }
 
     @FXML
@@ -253,11 +326,12 @@ public class ListiniController {
         });
     }
 
-    private void modificaPrezzo(ListinoPrezzo prezzo) {
+    private void modificaPrezzo(ListinoDao.PrezzoElenco riga) {
+        ListinoPrezzo prezzo = riga.toListinoPrezzo();
         TextInputDialog dialog = new TextInputDialog(
                 prezzo.getPrezzo() != null ? prezzo.getPrezzo().toString() : "");
         dialog.setTitle("Modifica Prezzo");
-        dialog.setHeaderText("Prodotto: " + (prezzo.getProdotto() != null ? prezzo.getProdotto().getNome() : ""));
+        dialog.setHeaderText("Prodotto: " + riga.nome());
         dialog.setContentText("Nuovo prezzo:");
 
         Optional<String> result = dialog.showAndWait();
@@ -276,21 +350,216 @@ public class ListiniController {
 
     @FXML
     public void handleSearchPrezzi() {
-        String searchText = txtSearchPrezzi.getText().toLowerCase().trim();
+        ricercaPrezzi.playFromStart();
+    }
 
-        if (searchText.isEmpty()) {
-            tblPrezzi.setItems(allPrezzi);
-        } else {
-            ObservableList<ListinoPrezzo> filtered = allPrezzi.filtered(p ->
-                    (p.getProdotto() != null && (
-                            p.getProdotto().getCodice().toLowerCase().contains(searchText) ||
-                                    p.getProdotto().getNome().toLowerCase().contains(searchText))));
-            tblPrezzi.setItems(filtered);
-        }
+    @FXML
+    public void handleFilterPrezzi() {
+        if (selectedListino != null) loadPrezzi(selectedListino.getId());
     }
 
     @FXML
     public void importaCsv() {
         AlertUtil.showInfo("Import CSV", "Funzionalita' in sviluppo");
     }
+
+    // Mass revision of the selected listino, filtered by categoria, sottocategoria or codice prefix.
+    // The preview is a dry run computed by the database; Applica writes every price in one go
+    @FXML
+    public void revisionePrezzi() {
+        if (selectedListino == null) {
+            AlertUtil.showWarning("Attenzione", "Selezionare un listino");
+            return;
+        }
+        Listino listino = selectedListino;
+
+        Dialog<ListinoDao.RevisionePrezzi> dialog = new Dialog<>();
+        dialog.setTitle("Revisione Prezzi");
+        dialog.setHeaderText("Listino: " + listino.getNome());
+
+        ComboBox<Categoria> cmbCategoria = new ComboBox<>();
+        ComboBox<Sottocategoria> cmbSottocategoria = new ComboBox<>();
+        TextField txtPrefisso = new TextField();
+        txtPrefisso.setPromptText("Tutti i codici");
+        ComboBox<ListinoDao.TipoVariazione> cmbTipo = new ComboBox<>(
+                FXCollections.observableArrayList(ListinoDao.TipoVariazione.values()));
+        TextField txtValore = new TextField();
+        txtValore.setPromptText("es. 3 oppure -2,5");
+        ComboBox<BigDecimal> cmbArrotondamento = new ComboBox<>(FXCollections.observableArrayList(Arrays.asList(ARROTONDAMENTI)));
+        DatePicker dpInizio = new DatePicker(LocalDate.now());
+
+        cmbCategoria.getItems().add(null);
+        BackgroundLoader.run(prodottoService::getCategorieActive, cmbCategoria.getItems()::addAll);
+        cmbCategoria.setConverter(new javafx.util.StringConverter<>() {
+            @Override
+            public String toString(Categoria c) {
+                return c == null ? "Tutte le categorie" : c.getNome();
+            }
+
+            @Override
+            public Categoria fromString(String s) {
+                return null;
+            }
+        });
+        cmbSottocategoria.setConverter(new javafx.util.StringConverter<>() {
+            @Override
+            public String toString(Sottocategoria s) {
+                return s == null ? "Tutte le sottocategorie" : s.getNome();
+            }
+
+            @Override
+            public Sottocategoria fromString(String s) {
+                return null;
+            }
+        });
+        cmbCategoria.valueProperty().addListener((obs, oldVal, newVal) -> {
+            cmbSottocategoria.getItems().clear();
+            cmbSottocategoria.getItems().add(null);
+            if (newVal != null) {
+                sottocategorieLoader.load(() -> prodottoService.getSottocategorieByCategoria(newVal.getId()),
+                        cmbSottocategoria.getItems()::addAll);
+            } else {
+                sottocategorieLoader.cancel();
+            }
+        });
+        cmbTipo.setConverter(new javafx.util.StringConverter<>() {
+            @Override
+            public String toString(ListinoDao.TipoVariazione t) {
+                if (t == null) return "";
+                return switch (t) {
+                    case PERCENTUALE -> "Variazione %";
+                    case IMPORTO -> "Variazione in euro";
+                    case ARROTONDAMENTO -> "Solo arrotondamento";
+                };
+            }
+
+            @Override
+            public ListinoDao.TipoVariazione fromString(String s) {
+                return null;
+            }
+        });
+        cmbTipo.valueProperty().addListener((obs, oldVal, newVal) ->
+                txtValore.setDisable(newVal == ListinoDao.TipoVariazione.ARROTONDAMENTO));
+        cmbTipo.setValue(ListinoDao.TipoVariazione.PERCENTUALE);
+        cmbArrotondamento.setConverter(new javafx.util.StringConverter<>() {
+            @Override
+            public String toString(BigDecimal a) {
+                return a == null ? "Nessuno" : FormatUtil.formatCurrency(a);
+            }
+
+            @Override
+            public BigDecimal fromString(String s) {
+                return null;
+            }
+        });
+        cmbArrotondamento.getSelectionModel().selectFirst();
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.add(new Label("Categoria:"), 0, 0);
+        grid.add(cmbCategoria, 1, 0);
+        grid.add(new Label("Sottocategoria:"), 0, 1);
+        grid.add(cmbSottocategoria, 1, 1);
+        grid.add(new Label("Codice inizia per:"), 0, 2);
+        grid.add(txtPrefisso, 1, 2);
+        grid.add(new Label("Tipo:"), 0, 3);
+        grid.add(cmbTipo, 1, 3);
+        grid.add(new Label("Valore:"), 0, 4);
+        grid.add(txtValore, 1, 4);
+        grid.add(new Label("Arrotonda a:"), 0, 5);
+        grid.add(cmbArrotondamento, 1, 5);
+        grid.add(new Label("Valido dal:"), 0, 6);
+        grid.add(dpInizio, 1, 6);
+
+        Label lblAnteprima = new Label("Premere Anteprima per vedere le variazioni");
+        lblAnteprima.setWrapText(true);
+        TableView<ListinoDao.RigaRevisione> tblAnteprima = new TableView<>();
+        tblAnteprima.setPrefHeight(240);
+        TableColumn<ListinoDao.RigaRevisione, String> colCodiceAnteprima = new TableColumn<>("Codice");
+        colCodiceAnteprima.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().codice()));
+        TableColumn<ListinoDao.RigaRevisione, String> colNomeAnteprima = new TableColumn<>("Prodotto");
+        colNomeAnteprima.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().nome()));
+        colNomeAnteprima.setPrefWidth(220);
+        TableColumn<ListinoDao.RigaRevisione, String> colAttuale = new TableColumn<>("Attuale");
+        colAttuale.setCellValueFactory(data ->
+                new SimpleStringProperty(FormatUtil.formatCurrency(data.getValue().prezzoPrecedente())));
+        TableColumn<ListinoDao.RigaRevisione, String> colNuovo = new TableColumn<>("Nuovo");
+        colNuovo.setCellValueFactory(data ->
+                new SimpleStringProperty(FormatUtil.formatCurrency(data.getValue().prezzoNuovo())));
+        tblAnteprima.getColumns().addAll(List.of(colCodiceAnteprima, colNomeAnteprima, colAttuale, colNuovo));
+
+        VBox content = new VBox(12, grid, lblAnteprima, tblAnteprima);
+        dialog.getDialogPane().setContent(content);
+        ButtonType btnAnteprima = new ButtonType("Anteprima", ButtonBar.ButtonData.LEFT);
+        ButtonType btnApplica = new ButtonType("Applica", ButtonBar.ButtonData.OK_DONE);
+        dialog.getDialogPane().getButtonTypes().addAll(btnAnteprima, btnApplica, ButtonType.CANCEL);
+
+        // Built from the current fields; null with a warning shown when they are not valid
+        Supplier<ListinoDao.RevisionePrezzi> revisione = () -> {
+            ListinoDao.TipoVariazione tipo = cmbTipo.getValue();
+            BigDecimal valore = tipo == ListinoDao.TipoVariazione.ARROTONDAMENTO
+                    ? BigDecimal.ZERO : FormatUtil.parseQuantity(txtValore.getText());
+            if (valore == null) {
+                AlertUtil.showWarning("Attenzione", "Inserire la variazione");
+                return null;
+            }
+            if (tipo == ListinoDao.TipoVariazione.ARROTONDAMENTO && cmbArrotondamento.getValue() == null) {
+                AlertUtil.showWarning("Attenzione", "Scegliere l'arrotondamento");
+                return null;
+            }
+            if (dpInizio.getValue() == null) {
+                AlertUtil.showWarning("Attenzione", "Inserire la data di inizio validita'");
+                return null;
+            }
+            return new ListinoDao.RevisionePrezzi(listino.getId(),
+                    cmbCategoria.getValue() != null ? cmbCategoria.getValue().getId() : null,
+                    cmbSottocategoria.getValue() != null ? cmbSottocategoria.getValue().getId() : null,
+                    txtPrefisso.getText(), tipo, valore, cmbArrotondamento.getValue(), dpInizio.getValue());
+        };
+
+        // Anteprima must not close the dialog
+        dialog.getDialogPane().lookupButton(btnAnteprima).addEventFilter(ActionEvent.ACTION, event -> {
+            event.consume();
+            ListinoDao.RevisionePrezzi r = revisione.get();
+            if (r == null) return;
+            lblAnteprima.setText("Calcolo anteprima...");
+            anteprimaLoader.load(tblAnteprima, () -> listinoService.anteprimaRevisione(r), anteprima -> {
+                if (anteprima.isEmpty()) {
+                    lblAnteprima.setText("Impossibile calcolare l'anteprima");
+                    tblAnteprima.getItems().clear();
+                    return;
+                }
+                ListinoDao.RiepilogoRevisione riepilogo = anteprima.get().riepilogo();
+                lblAnteprima.setText(riepilogo.prodotti() == 0 ? "Nessun prezzo da modificare" : String.format(
+                        "%d prezzi da modificare (%d aumenti, %d riduzioni), variazione da %s a %s, media %s",
+                        riepilogo.prodotti(), riepilogo.aumenti(), riepilogo.diminuzioni(),
+                        FormatUtil.formatPercentage(riepilogo.variazioneMinima()),
+                        FormatUtil.formatPercentage(riepilogo.variazioneMassima()),
+                        FormatUtil.formatPercentage(riepilogo.variazioneMedia())));
+                tblAnteprima.getItems().setAll(anteprima.get().righe());
+            });
+        });
+        dialog.getDialogPane().lookupButton(btnApplica).addEventFilter(ActionEvent.ACTION, event -> {
+            if (revisione.get() == null) event.consume();
+        });
+        dialog.setResultConverter(button -> button == btnApplica ? revisione.get() : null);
+
+        dialog.showAndWait().ifPresent(r -> {
+            if (!AlertUtil.showConfirm("Conferma", "Applicare la revisione ai prezzi del listino " + listino.getNome()
+                    + " dal " + FormatUtil.formatDate(r.dataInizio()) + "?")) {
+                return;
+            }
+            revisioneLoader.load(null, () -> listinoService.revisionePrezzi(r), revisionati -> {
+                if (revisionati < 0) {
+                    AlertUtil.showError("Errore", "Impossibile applicare la revisione prezzi");
+                } else {
+                    AlertUtil.showInfo("Revisione completata", revisionati + " prezzi aggiornati");
+                    if (selectedListino != null && selectedListino.getId() == listino.getId()) {
+                        loadPrezzi(listino.getId());
+                    }
+                }
+            }, ex -> AlertUtil.showError("Errore", "Impossibile applicare la revisione prezzi"));
+        });
+    }
 }
@@ -1,8 +1,8 @@
 package com.ingrosso.controller;
 
-import com.ingrosso.model.Utente;
 import com.ingrosso.service.AuthService;
 import com.ingrosso.util.AlertUtil;
+import com.ingrosso.util.BackgroundLoader;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -14,7 +14,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Optional;
 
 public class LoginController {
     private static final Logger logger = LoggerFactory.getLogger(LoginController.class);
@@ -26,6 +25,7 @@ public class LoginController {
     @FXML private ProgressIndicator progressIndicator;
 
     private final AuthService authService = AuthService.getInstance();
+    private final BackgroundLoader loginLoader = new BackgroundLoader();
 
     @FXML
     public void initialize() {
@@ -72,19 +72,22 @@ public class LoginController {
         setLoading(true);
         hideError();
 
-        // Attempt login
-        Optional<Utente> utenteOpt = authService.login(username, password);
+        // Attempt login; password hashing and the query run off the FX thread
+        loginLoader.load(null, () -> authService.login(username, password), riuscito -> {
+            setLoading(false);
 
-        setLoading(false);
-
-        if (utenteOpt.isPresent()) {
-            logger.info("Login successful for user: {}", username);
-            openMainWindow();
-        } else {
-            showError("Username o password non validi");
-            txtPassword.clear();
-            txtPassword.requestFocus();
-        }
+            if (riuscito) {
+                logger.info("Login successful for user: {}", username);
+                openMainWindow();
+            } else {
+                showError("Username o password non validi");
+                txtPassword.clear();
+                txtPassword.requestFocus();
+            }
+        }, ex -> {
+            setLoading(false);
+            showError("Errore di connessione al database");
+        });
     }
 
     private void openMainWindow() {
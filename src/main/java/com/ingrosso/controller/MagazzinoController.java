@@ -2,7 +2,10 @@ package com.ingrosso.controller;
 
 import com.ingrosso.dao.GiacenzaDao;
 import com.ingrosso.model.Magazzino;
+import com.ingrosso.service.ExportService;
 import com.ingrosso.service.MagazzinoService;
+import com.ingrosso.util.AlertUtil;
+import com.ingrosso.util.BackgroundLoader;
 import com.ingrosso.util.FormatUtil;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
@@ -11,13 +14,16 @@ import javafx.collections.transformation.FilteredList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.stage.FileChooser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Optional;
 
-public class MagazzinoController {
+public class MagazzinoController implements RefreshableController {
     private static final Logger logger = LoggerFactory.getLogger(MagazzinoController.class);
 
     @FXML private ComboBox<Magazzino> cmbMagazzino;
@@ -39,14 +45,19 @@ public class MagazzinoController {
     @FXML private Label lblValoreVendita;
 
     private final MagazzinoService magazzinoService = MagazzinoService.getInstance();
+    private final ExportService exportService = ExportService.getInstance();
+
+    private final BackgroundLoader giacenzeLoader = new BackgroundLoader();
+    private final BackgroundLoader exportLoader = new BackgroundLoader();
 
     private ObservableList<GiacenzaDao.GiacenzaCompleta> allGiacenze = FXCollections.observableArrayList();
-    private FilteredList<GiacenzaDao.GiacenzaCompleta> filteredGiacenze;
+    private final FilteredList<GiacenzaDao.GiacenzaCompleta> filteredGiacenze = new FilteredList<>(allGiacenze, g -> true);
 
     @FXML
     public void initialize() {
         setupComboBox();
         setupTable();
+        tblGiacenze.setItems(filteredGiacenze);
         loadMagazzini();
     }
 
@@ -118,28 +129,28 @@ public class MagazzinoController {
     }
 
     private void loadMagazzini() {
-        List<Magazzino> magazzini = magazzinoService.getAllMagazzini();
-        cmbMagazzino.getItems().setAll(magazzini);
-
-        // Select principale or first
-        magazzinoService.getMagazzinoPrincipale().ifPresentOrElse(
-                mag -> cmbMagazzino.setValue(mag),
-                () -> {
-                    if (!magazzini.isEmpty()) {
-                        cmbMagazzino.setValue(magazzini.get(0));
-                    }
-                }
-        );
+        BackgroundLoader.run(
+                () -> new MagazziniData(magazzinoService.getAllMagazzini(), magazzinoService.getMagazzinoPrincipale()),
+                data -> {
+                    cmbMagazzino.getItems().setAll(data.magazzini());
+
+                    // Select principale or first
+                    data.principale().ifPresentOrElse(
+                            mag -> cmbMagazzino.setValue(mag),
+                            () -> {
+                                if (!data.magazzini().isEmpty()) {
+                                    cmbMagazzino.setValue(data.magazzini().get(0));
+                                }
+                            }
+                    );
+                });
     }
 
     private void loadGiacenze(int magazzinoId) {
-        List<GiacenzaDao.GiacenzaCompleta> giacenze = magazzinoService.getGiacenzeComplete(magazzinoId);
-        allGiacenze.setAll(giacenze);
-        filteredGiacenze = new FilteredList<>(allGiacenze, g -> true);
-        tblGiacenze.setItems(filteredGiacenze);
-
-        applyFilters();
-        updateTotals();
+        giacenzeLoader.load(tblGiacenze, () -> magazzinoService.getGiacenzeComplete(magazzinoId), giacenze -> {
+            allGiacenze.setAll(giacenze);
+            applyFilters();
+        });
     }
 
     @FXML
@@ -188,6 +199,7 @@ public class MagazzinoController {
     }
 
     @FXML
+    @Override
     public void refreshData() {
         Magazzino selected = cmbMagazzino.getValue();
         if (selected != null) {
@@ -195,6 +207,36 @@ public class MagazzinoController {
         }
     }
 
+    // Situazione of the whole magazzino, or only the products under stock when that filter is on
+    @FXML
+    public void esporta() {
+        Magazzino mag = cmbMagazzino.getValue();
+        if (mag == null) {
+            AlertUtil.showWarning("Attenzione", "Selezionare un magazzino");
+            return;
+        }
+        boolean soloSottoScorta = chkSottoScorta.isSelected();
+
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Esporta Giacenze");
+        fileChooser.getExtensionFilters().add(
+                new FileChooser.ExtensionFilter("Excel Files", "*.xlsx"));
+        fileChooser.setInitialFileName(soloSottoScorta ? "sotto_scorta.xlsx" : "situazione_magazzino.xlsx");
+
+        File file = fileChooser.showSaveDialog(tblGiacenze.getScene().getWindow());
+        if (file == null) return;
+
+        exportLoader.load(null, () -> soloSottoScorta
+                ? exportService.esportaProdottiSottoScorta(mag.getId(), file)
+                : exportService.esportaSituazioneMagazzino(mag.getId(), file), righe -> {
+            if (righe < 0) {
+                AlertUtil.showError("Errore", "Impossibile esportare le giacenze");
+            } else {
+                AlertUtil.showInfo("Export completato", "File salvato in " + file.getAbsolutePath());
+            }
+        }, ex -> AlertUtil.showError("Errore", "Impossibile esportare le giacenze"));
+    }
+
     @FXML
     public void nuovoMovimento() {
         GiacenzaDao.GiacenzaCompleta selected = tblGiacenze.getSelectionModel().getSelectedItem();
@@ -202,4 +244,6 @@ public class MagazzinoController {
         logger.info("Opening movimento dialog for product: {}",
                 selected != null ? selected.getCodice() : "none");
     }
+
+    private record MagazziniData(List<Magazzino> magazzini, Optional<Magazzino> principale) {}
 }
@@ -15,6 +15,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.List;
 
 public class MainController {
     private static final Logger logger = LoggerFactory.getLogger(MainController.class);
@@ -33,8 +34,17 @@ public class MainController {
     @FXML private Button btnReport;
     @FXML private Button btnImpostazioni;
 
+    // Views the user most often opens after the dashboard, parsed in the background after login
+    private static final List<String> VISTE_DA_PRECARICARE = List.of(
+            "/fxml/prodotti.fxml",
+            "/fxml/magazzino.fxml",
+            "/fxml/movimenti.fxml",
+            "/fxml/ddt-lista.fxml"
+    );
+
     private Button currentSelectedButton;
     private final AuthService authService = AuthService.getInstance();
+    private final ViewRegistry viewRegistry = new ViewRegistry();
 
     @FXML
     public void initialize() {
@@ -47,6 +57,7 @@ public class MainController {
 
         // Load dashboard as default view
         navigateToDashboard();
+        viewRegistry.precarica(VISTE_DA_PRECARICARE);
     }
 
     @FXML
@@ -136,9 +147,7 @@ public class MainController {
 
     private void loadContent(String fxmlPath) {
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource(fxmlPath));
-            Parent content = loader.load();
-            contentArea.getChildren().setAll(content);
+            contentArea.getChildren().setAll(viewRegistry.mostra(fxmlPath));
         } catch (IOException e) {
             logger.error("Error loading content {}: {}", fxmlPath, e.getMessage());
             Label errorLabel = new Label("Errore nel caricamento della pagina");
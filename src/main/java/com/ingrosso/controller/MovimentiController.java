@@ -2,37 +2,43 @@ package com.ingrosso.controller;
 
 import com.ingrosso.dao.MovimentoDao;
 import com.ingrosso.model.*;
+import com.ingrosso.service.ExportService;
 import com.ingrosso.service.MagazzinoService;
 import com.ingrosso.service.MovimentoService;
+import com.ingrosso.util.AlertUtil;
+import com.ingrosso.util.BackgroundLoader;
 import com.ingrosso.util.FormatUtil;
+import com.ingrosso.util.PagedTableLoader;
+import javafx.animation.PauseTransition;
 import javafx.beans.property.SimpleStringProperty;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.stage.FileChooser;
+import javafx.util.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.util.List;
 import java.util.Optional;
 
-public class MovimentiController {
+public class MovimentiController implements RefreshableController {
     private static final Logger logger = LoggerFactory.getLogger(MovimentiController.class);
 
     @FXML private DatePicker dpDataInizio;
     @FXML private DatePicker dpDataFine;
     @FXML private ComboBox<Magazzino> cmbMagazzino;
     @FXML private ComboBox<TipoMovimento> cmbTipo;
-    @FXML private TextField txtSearch;
+    @FXML private TextField txtProdotto;
 
     @FXML private TableView<MovimentoDao.MovimentoCompleto> tblMovimenti;
     @FXML private TableColumn<MovimentoDao.MovimentoCompleto, String> colData;
     @FXML private TableColumn<MovimentoDao.MovimentoCompleto, String> colTipo;
+    @FXML private TableColumn<MovimentoDao.MovimentoCompleto, String> colCodice;
     @FXML private TableColumn<MovimentoDao.MovimentoCompleto, String> colProdotto;
     @FXML private TableColumn<MovimentoDao.MovimentoCompleto, BigDecimal> colQuantita;
     @FXML private TableColumn<MovimentoDao.MovimentoCompleto, String> colMagazzino;
@@ -40,26 +46,39 @@ public class MovimentiController {
     @FXML private TableColumn<MovimentoDao.MovimentoCompleto, String> colDocumento;
     @FXML private TableColumn<MovimentoDao.MovimentoCompleto, String> colUtente;
 
-    @FXML private Label lblTotaleMovimenti;
+    @FXML private Label lblStatus;
 
     private final MovimentoService movimentoService = MovimentoService.getInstance();
     private final MagazzinoService magazzinoService = MagazzinoService.getInstance();
+    private final ExportService exportService = ExportService.getInstance();
 
-    private ObservableList<MovimentoDao.MovimentoCompleto> allMovimenti = FXCollections.observableArrayList();
+    private static final int PAGE_SIZE = 200;
+    private static final Duration PAUSA_RICERCA = Duration.millis(250);
+
+    private final BackgroundLoader totaleLoader = new BackgroundLoader();
+    private final BackgroundLoader exportLoader = new BackgroundLoader();
+    private PagedTableLoader<MovimentoDao.MovimentoCompleto> movimentiLoader;
+    private final PauseTransition ricerca = new PauseTransition(PAUSA_RICERCA);
+    private int totaleMovimenti;
 
     @FXML
     public void initialize() {
+        // Created first: the date pickers fire handleFilter as soon as their value is set
+        movimentiLoader = new PagedTableLoader<>(tblMovimenti, PAGE_SIZE);
+        movimentiLoader.setOnPaginaCaricata(this::updateStatus);
         setupComboBoxes();
         setupTable();
         setupDatePickers();
+
+        // Typing restarts the pause, so the query runs once the user stops
+        ricerca.setOnFinished(event -> loadData());
         loadData();
     }
 
     private void setupComboBoxes() {
         // Magazzini
-        List<Magazzino> magazzini = magazzinoService.getAllMagazzini();
         cmbMagazzino.getItems().add(null); // All option
-        cmbMagazzino.getItems().addAll(magazzini);
+        BackgroundLoader.run(magazzinoService::getAllMagazzini, cmbMagazzino.getItems()::addAll);
         cmbMagazzino.setConverter(new javafx.util.StringConverter<>() {
             @Override
             public String toString(Magazzino m) {
@@ -101,6 +120,7 @@ public class MovimentiController {
             return new SimpleStringProperty(tipo != null ? tipo.getDescrizione() : "");
         });
 
+        colCodice.setCellValueFactory(new PropertyValueFactory<>("codice"));
         colProdotto.setCellValueFactory(new PropertyValueFactory<>("prodottoNome"));
         colQuantita.setCellValueFactory(new PropertyValueFactory<>("quantita"));
         colMagazzino.setCellValueFactory(new PropertyValueFactory<>("magazzinoNome"));
@@ -135,21 +155,18 @@ public class MovimentiController {
         dpDataInizio.setValue(today.minusDays(30));
     }
 
+    // Rows are fetched a page at a time while scrolling; the total comes from a separate COUNT query
     private void loadData() {
-        LocalDate dataInizio = dpDataInizio.getValue();
-        LocalDate dataFine = dpDataFine.getValue();
-        Magazzino magazzino = cmbMagazzino.getValue();
-        TipoMovimento tipo = cmbTipo.getValue();
-
-        Integer magazzinoId = magazzino != null ? magazzino.getId() : null;
-
-        List<MovimentoDao.MovimentoCompleto> movimenti = movimentoService.getMovimentiCompleti(
-                dataInizio, dataFine, magazzinoId, tipo);
-
-        allMovimenti.setAll(movimenti);
-        tblMovimenti.setItems(allMovimenti);
-
-        updateTotals();
+        ricerca.stop();
+        MovimentoDao.FiltroMovimenti filtro = filtroCorrente();
+
+        lblStatus.setText("Caricamento...");
+        totaleMovimenti = -1;
+        movimentiLoader.reset((ultimo, limite) -> movimentoService.getPaginaMovimenti(filtro, ultimo, limite));
+        totaleLoader.load(() -> movimentoService.countMovimenti(filtro), totale -> {
+            totaleMovimenti = totale;
+            updateStatus();
+        });
     }
 
     @FXML
@@ -159,23 +176,23 @@ public class MovimentiController {
 
     @FXML
     public void handleSearch() {
-        String searchText = txtSearch.getText().toLowerCase().trim();
-
-        if (searchText.isEmpty()) {
-            tblMovimenti.setItems(allMovimenti);
-        } else {
-            ObservableList<MovimentoDao.MovimentoCompleto> filtered = allMovimenti.filtered(m ->
-                    (m.getProdottoNome() != null && m.getProdottoNome().toLowerCase().contains(searchText)) ||
-                            (m.getCausale() != null && m.getCausale().toLowerCase().contains(searchText)) ||
-                            (m.getDocumentoRif() != null && m.getDocumentoRif().toLowerCase().contains(searchText)));
-            tblMovimenti.setItems(filtered);
-        }
+        ricerca.playFromStart();
+    }
 
-        updateTotals();
+    private MovimentoDao.FiltroMovimenti filtroCorrente() {
+        MovimentoDao.FiltroMovimenti filtro = new MovimentoDao.FiltroMovimenti();
+        filtro.dataInizio = dpDataInizio.getValue();
+        filtro.dataFine = dpDataFine.getValue();
+        filtro.magazzinoId = cmbMagazzino.getValue() != null ? cmbMagazzino.getValue().getId() : null;
+        filtro.tipo = cmbTipo.getValue();
+        filtro.testo = txtProdotto.getText();
+        return filtro;
     }
 
-    private void updateTotals() {
-        lblTotaleMovimenti.setText(String.valueOf(tblMovimenti.getItems().size()));
+    private void updateStatus() {
+        if (totaleMovimenti < 0) return;
+        lblStatus.setText(String.format("Visualizzati %d di %d movimenti",
+                movimentiLoader.getItems().size(), totaleMovimenti));
     }
 
     @FXML
@@ -208,7 +225,31 @@ public class MovimentiController {
         }
     }
 
+    // Every movimento matching the filters, not only the pages loaded in the table, streamed in the background
+    @FXML
+    public void esporta() {
+        MovimentoDao.FiltroMovimenti filtro = filtroCorrente();
+
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Esporta Movimenti");
+        fileChooser.getExtensionFilters().add(
+                new FileChooser.ExtensionFilter("Excel Files", "*.xlsx"));
+        fileChooser.setInitialFileName("movimenti.xlsx");
+
+        File file = fileChooser.showSaveDialog(tblMovimenti.getScene().getWindow());
+        if (file == null) return;
+
+        exportLoader.load(null, () -> exportService.esportaMovimenti(filtro, file), righe -> {
+            if (righe < 0) {
+                AlertUtil.showError("Errore", "Impossibile esportare i movimenti");
+            } else {
+                AlertUtil.showInfo("Export completato", righe + " movimenti salvati in " + file.getAbsolutePath());
+            }
+        }, ex -> AlertUtil.showError("Errore", "Impossibile esportare i movimenti"));
+    }
+
     @FXML
+    @Override
     public void refreshData() {
         loadData();
     }
@@ -3,13 +3,13 @@ package com.ingrosso.controller;
 import com.ingrosso.model.*;
 import com.ingrosso.service.MagazzinoService;
 import com.ingrosso.service.ProdottoService;
+import com.ingrosso.util.BackgroundLoader;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
-import java.util.List;
 
 public class MovimentoDialogController {
     private static final Logger logger = LoggerFactory.getLogger(MovimentoDialogController.class);
@@ -28,6 +28,8 @@ public class MovimentoDialogController {
     private final ProdottoService prodottoService = ProdottoService.getInstance();
     private final MagazzinoService magazzinoService = MagazzinoService.getInstance();
 
+    private final BackgroundLoader lottiLoader = new BackgroundLoader();
+
     private Movimento movimento;
 
     @FXML
@@ -52,8 +54,7 @@ public class MovimentoDialogController {
         });
 
         // Prodotti
-        List<Prodotto> prodotti = prodottoService.getAllProdottiAttivi();
-        cmbProdotto.getItems().addAll(prodotti);
+        BackgroundLoader.run(prodottoService::getAllProdotti, cmbProdotto.getItems()::addAll);
         cmbProdotto.setConverter(new javafx.util.StringConverter<>() {
             @Override
             public String toString(Prodotto p) {
@@ -67,9 +68,10 @@ public class MovimentoDialogController {
         });
 
         // Magazzini
-        List<Magazzino> magazzini = magazzinoService.getAllMagazzini();
-        cmbMagazzino.getItems().addAll(magazzini);
-        cmbMagazzinoDestinazione.getItems().addAll(magazzini);
+        BackgroundLoader.run(magazzinoService::getAllMagazzini, magazzini -> {
+            cmbMagazzino.getItems().addAll(magazzini);
+            cmbMagazzinoDestinazione.getItems().addAll(magazzini);
+        });
 
         javafx.util.StringConverter<Magazzino> magConverter = new javafx.util.StringConverter<>() {
             @Override
@@ -99,7 +101,9 @@ public class MovimentoDialogController {
         });
 
         // Select magazzino principale
-        magazzinoService.getMagazzinoPrincipale().ifPresent(cmbMagazzino::setValue);
+        BackgroundLoader.run(magazzinoService::getMagazzinoPrincipale, principale -> {
+            if (cmbMagazzino.getValue() == null) principale.ifPresent(cmbMagazzino::setValue);
+        });
 
         // Hide destinazione by default
         lblMagazzinoDestinazione.setVisible(false);
@@ -120,11 +124,14 @@ public class MovimentoDialogController {
             if (newVal != null && newVal.isGestisceLotti()) {
                 Magazzino mag = cmbMagazzino.getValue();
                 if (mag != null) {
-                    List<Lotto> lotti = magazzinoService.getLottiByProdotto(newVal.getId(), mag.getId());
-                    cmbLotto.getItems().addAll(lotti);
+                    lottiLoader.load(() -> magazzinoService.getLottiByProdotto(newVal.getId(), mag.getId()),
+                            cmbLotto.getItems()::addAll);
+                } else {
+                    lottiLoader.cancel();
                 }
                 cmbLotto.setDisable(false);
             } else {
+                lottiLoader.cancel();
                 cmbLotto.setDisable(true);
             }
         });
@@ -1,32 +1,35 @@
 package com.ingrosso.controller;
 
+import com.ingrosso.dao.ProdottoDao;
 import com.ingrosso.model.*;
-import com.ingrosso.service.MagazzinoService;
+import com.ingrosso.service.ExportService;
+import com.ingrosso.service.ImportService;
 import com.ingrosso.service.ProdottoService;
 import com.ingrosso.util.AlertUtil;
+import com.ingrosso.util.BackgroundLoader;
+import com.ingrosso.util.CellValues;
 import com.ingrosso.util.FormatUtil;
-import javafx.beans.property.SimpleStringProperty;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.FilteredList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Optional;
 
-public class ProdottiController {
+public class ProdottiController implements RefreshableController {
     private static final Logger logger = LoggerFactory.getLogger(ProdottiController.class);
+    private static final int ERRORI_MOSTRATI = 20;
 
     @FXML private TextField txtSearch;
     @FXML private ComboBox<Categoria> cmbCategoria;
@@ -34,60 +37,56 @@ public class ProdottiController {
     @FXML private CheckBox chkSoloAttivi;
     @FXML private CheckBox chkSottoScorta;
 
-    @FXML private TableView<Prodotto> tblProdotti;
-    @FXML private TableColumn<Prodotto, String> colCodice;
-    @FXML private TableColumn<Prodotto, String> colBarcode;
-    @FXML private TableColumn<Prodotto, String> colNome;
-    @FXML private TableColumn<Prodotto, String> colCategoria;
-    @FXML private TableColumn<Prodotto, String> colUM;
-    @FXML private TableColumn<Prodotto, BigDecimal> colGiacenza;
-    @FXML private TableColumn<Prodotto, BigDecimal> colPrezzoAcquisto;
-    @FXML private TableColumn<Prodotto, BigDecimal> colPrezzoVendita;
-    @FXML private TableColumn<Prodotto, Void> colAzioni;
+    @FXML private TableView<ProdottoDao.ProdottoElenco> tblProdotti;
+    @FXML private TableColumn<ProdottoDao.ProdottoElenco, String> colCodice;
+    @FXML private TableColumn<ProdottoDao.ProdottoElenco, String> colBarcode;
+    @FXML private TableColumn<ProdottoDao.ProdottoElenco, String> colNome;
+    @FXML private TableColumn<ProdottoDao.ProdottoElenco, String> colCategoria;
+    @FXML private TableColumn<ProdottoDao.ProdottoElenco, String> colUM;
+    @FXML private TableColumn<ProdottoDao.ProdottoElenco, BigDecimal> colGiacenza;
+    @FXML private TableColumn<ProdottoDao.ProdottoElenco, BigDecimal> colPrezzoAcquisto;
+    @FXML private TableColumn<ProdottoDao.ProdottoElenco, BigDecimal> colPrezzoVendita;
+    @FXML private TableColumn<ProdottoDao.ProdottoElenco, Void> colAzioni;
 
     @FXML private Label lblStatus;
 
     private final ProdottoService prodottoService = ProdottoService.getInstance();
-    private final MagazzinoService magazzinoService = MagazzinoService.getInstance();
+    private final ExportService exportService = ExportService.getInstance();
+    private final ImportService importService = ImportService.getInstance();
 
-    private ObservableList<Prodotto> allProdotti = FXCollections.observableArrayList();
-    private FilteredList<Prodotto> filteredProdotti;
+    private final BackgroundLoader prodottiLoader = new BackgroundLoader();
+    private final BackgroundLoader sottocategorieLoader = new BackgroundLoader();
+    private final BackgroundLoader exportLoader = new BackgroundLoader();
+    private final BackgroundLoader importLoader = new BackgroundLoader();
+
+    private ObservableList<ProdottoDao.ProdottoElenco> allProdotti = FXCollections.observableArrayList();
+    private final FilteredList<ProdottoDao.ProdottoElenco> filteredProdotti = new FilteredList<>(allProdotti, p -> true);
 
     @FXML
     public void initialize() {
         setupTable();
         setupFilters();
+        tblProdotti.setItems(filteredProdotti);
         loadData();
     }
 
     private void setupTable() {
-        colCodice.setCellValueFactory(new PropertyValueFactory<>("codice"));
-        colBarcode.setCellValueFactory(new PropertyValueFactory<>("barcode"));
-        colNome.setCellValueFactory(new PropertyValueFactory<>("nome"));
-
-        colCategoria.setCellValueFactory(cellData -> {
-            Prodotto p = cellData.getValue();
-            Sottocategoria sc = p.getSottocategoria();
-            if (sc != null && sc.getCategoria() != null) {
-                return new SimpleStringProperty(sc.getCategoria().getNome() + " / " + sc.getNome());
-            } else if (sc != null) {
-                return new SimpleStringProperty(sc.getNome());
+        colCodice.setCellValueFactory(CellValues.of(ProdottoDao.ProdottoElenco::codice));
+        colBarcode.setCellValueFactory(CellValues.of(ProdottoDao.ProdottoElenco::barcode));
+        colNome.setCellValueFactory(CellValues.of(ProdottoDao.ProdottoElenco::nome));
+
+        colCategoria.setCellValueFactory(CellValues.of(p -> {
+            if (p.sottocategoriaNome() != null && p.categoriaNome() != null) {
+                return p.categoriaNome() + " / " + p.sottocategoriaNome();
             }
-            return new SimpleStringProperty("");
-        });
+            return p.sottocategoriaNome() != null ? p.sottocategoriaNome() : "";
+        }));
 
-        colUM.setCellValueFactory(cellData -> {
-            UnitaMisura um = cellData.getValue().getUnitaMisura();
-            return new SimpleStringProperty(um != null ? um.getSimbolo() : "");
-        });
+        colUM.setCellValueFactory(CellValues.of(p -> p.unitaMisura() != null ? p.unitaMisura() : ""));
 
-        colGiacenza.setCellValueFactory(cellData -> {
-            Prodotto p = cellData.getValue();
-            BigDecimal giacenza = magazzinoService.getGiacenzaTotale(p.getId());
-            return new javafx.beans.property.SimpleObjectProperty<>(giacenza);
-        });
+        colGiacenza.setCellValueFactory(CellValues.of(ProdottoDao.ProdottoElenco::giacenzaTotale));
 
-        colPrezzoAcquisto.setCellValueFactory(new PropertyValueFactory<>("prezzoAcquisto"));
+        colPrezzoAcquisto.setCellValueFactory(CellValues.of(ProdottoDao.ProdottoElenco::prezzoAcquisto));
         colPrezzoAcquisto.setCellFactory(col -> new TableCell<>() {
             @Override
             protected void updateItem(BigDecimal item, boolean empty) {
@@ -96,7 +95,7 @@ public class ProdottiController {
             }
         });
 
-        colPrezzoVendita.setCellValueFactory(new PropertyValueFactory<>("prezzoVendita"));
+        colPrezzoVendita.setCellValueFactory(CellValues.of(ProdottoDao.ProdottoElenco::prezzoVendita));
         colPrezzoVendita.setCellFactory(col -> new TableCell<>() {
             @Override
             protected void updateItem(BigDecimal item, boolean empty) {
@@ -116,12 +115,12 @@ public class ProdottiController {
                 btnDelete.getStyleClass().addAll("button-small", "button-danger");
 
                 btnEdit.setOnAction(e -> {
-                    Prodotto prodotto = getTableView().getItems().get(getIndex());
+                    ProdottoDao.ProdottoElenco prodotto = getTableView().getItems().get(getIndex());
                     modificaProdotto(prodotto);
                 });
 
                 btnDelete.setOnAction(e -> {
-                    Prodotto prodotto = getTableView().getItems().get(getIndex());
+                    ProdottoDao.ProdottoElenco prodotto = getTableView().getItems().get(getIndex());
                     eliminaProdotto(prodotto);
                 });
             }
@@ -135,7 +134,7 @@ public class ProdottiController {
 
         // Row double-click to edit
         tblProdotti.setRowFactory(tv -> {
-            TableRow<Prodotto> row = new TableRow<>();
+            TableRow<ProdottoDao.ProdottoElenco> row = new TableRow<>();
             row.setOnMouseClicked(event -> {
                 if (event.getClickCount() == 2 && !row.isEmpty()) {
                     modificaProdotto(row.getItem());
@@ -147,9 +146,8 @@ public class ProdottiController {
 
     private void setupFilters() {
         // Load categories
-        List<Categoria> categorie = prodottoService.getAllCategorie();
         cmbCategoria.getItems().add(null); // "All" option
-        cmbCategoria.getItems().addAll(categorie);
+        BackgroundLoader.run(prodottoService::getAllCategorie, cmbCategoria.getItems()::addAll);
 
         cmbCategoria.setConverter(new javafx.util.StringConverter<>() {
             @Override
@@ -180,22 +178,26 @@ public class ProdottiController {
             cmbSottocategoria.getItems().clear();
             cmbSottocategoria.getItems().add(null);
             if (newVal != null) {
-                List<Sottocategoria> sottocategorie = prodottoService.getSottocategorieByCategoria(newVal.getId());
-                cmbSottocategoria.getItems().addAll(sottocategorie);
+                sottocategorieLoader.load(() -> prodottoService.getSottocategorieByCategoria(newVal.getId()),
+                        cmbSottocategoria.getItems()::addAll);
+            } else {
+                sottocategorieLoader.cancel();
             }
         });
     }
 
     private void loadData() {
-        List<Prodotto> prodotti = chkSoloAttivi.isSelected() ?
-                prodottoService.getAllProdottiAttivi() :
-                prodottoService.getAllProdotti();
-
-        allProdotti.setAll(prodotti);
-        filteredProdotti = new FilteredList<>(allProdotti, p -> true);
-        tblProdotti.setItems(filteredProdotti);
+        lblStatus.setText("Caricamento...");
+        prodottiLoader.load(tblProdotti, prodottoService::getElencoProdotti,
+                prodotti -> {
+                    allProdotti.setAll(prodotti);
+                    applyFilters();
+                });
+    }
 
-        updateStatus();
+    @Override
+    public void refreshData() {
+        loadData();
     }
 
     @FXML
@@ -218,31 +220,27 @@ public class ProdottiController {
         filteredProdotti.setPredicate(prodotto -> {
             // Text search
             if (!searchText.isEmpty()) {
-                boolean matches = prodotto.getCodice().toLowerCase().contains(searchText) ||
-                        prodotto.getNome().toLowerCase().contains(searchText) ||
-                        (prodotto.getBarcode() != null && prodotto.getBarcode().toLowerCase().contains(searchText));
+                boolean matches = prodotto.codice().toLowerCase().contains(searchText) ||
+                        prodotto.nome().toLowerCase().contains(searchText) ||
+                        (prodotto.barcode() != null && prodotto.barcode().toLowerCase().contains(searchText));
                 if (!matches) return false;
             }
 
             // Category filter
             if (categoria != null) {
-                Sottocategoria sc = prodotto.getSottocategoria();
-                if (sc == null || sc.getCategoriaId() != categoria.getId()) return false;
+                if (prodotto.categoriaId() != categoria.getId()) return false;
             }
 
             // Subcategory filter
             if (sottocategoria != null) {
-                if (prodotto.getSottocategoriaId() != sottocategoria.getId()) return false;
+                if (prodotto.sottocategoriaId() != sottocategoria.getId()) return false;
             }
 
             // Active filter
-            if (soloAttivi && !prodotto.isAttivo()) return false;
+            if (soloAttivi && !prodotto.attivo()) return false;
 
             // Sotto scorta filter
-            if (sottoScorta) {
-                BigDecimal giacenza = magazzinoService.getGiacenzaTotale(prodotto.getId());
-                if (giacenza.compareTo(prodotto.getScortaMinima()) >= 0) return false;
-            }
+            if (sottoScorta && !prodotto.sottoScorta()) return false;
 
             return true;
         });
@@ -261,8 +259,16 @@ public class ProdottiController {
         showProdottoDialog(null);
     }
 
-    private void modificaProdotto(Prodotto prodotto) {
-        showProdottoDialog(prodotto);
+    // The list rows are read-only: the dialog edits the full product, loaded by id
+    private void modificaProdotto(ProdottoDao.ProdottoElenco riga) {
+        BackgroundLoader.run(() -> prodottoService.getProdottoById(riga.id()), prodotto -> {
+            if (prodotto.isPresent()) {
+                showProdottoDialog(prodotto.get());
+            } else {
+                AlertUtil.showError("Errore", "Prodotto non trovato");
+                loadData();
+            }
+        });
     }
 
     private void showProdottoDialog(Prodotto prodotto) {
@@ -291,51 +297,89 @@ public class ProdottiController {
         }
     }
 
-    private void eliminaProdotto(Prodotto prodotto) {
+    private void eliminaProdotto(ProdottoDao.ProdottoElenco prodotto) {
         Optional<ButtonType> result = AlertUtil.showConfirmation(
                 "Conferma eliminazione",
-                "Sei sicuro di voler eliminare il prodotto " + prodotto.getNome() + "?");
+                "Sei sicuro di voler eliminare il prodotto " + prodotto.nome() + "?");
 
         if (result.isPresent() && result.get() == ButtonType.OK) {
             // Soft delete - set attivo = false
-            prodotto.setAttivo(false);
-            prodottoService.saveProdotto(prodotto);
+            prodottoService.deleteProdotto(prodotto.id());
             loadData();
         }
     }
 
+    // The rows shown with the current filters; the file is written in the background
     @FXML
-    public void esportaCsv() {
+    public void esportaExcel() {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Esporta Prodotti");
         fileChooser.getExtensionFilters().add(
-                new FileChooser.ExtensionFilter("CSV Files", "*.csv"));
-        fileChooser.setInitialFileName("prodotti.csv");
+                new FileChooser.ExtensionFilter("Excel Files", "*.xlsx"));
+        fileChooser.setInitialFileName("prodotti.xlsx");
 
         File file = fileChooser.showSaveDialog(tblProdotti.getScene().getWindow());
-        if (file != null) {
-            try (FileWriter writer = new FileWriter(file)) {
-                // Header
-                writer.write("Codice;Barcode;Nome;Categoria;U.M.;Prezzo Acquisto;Prezzo Vendita;Scorta Minima\n");
-
-                // Data
-                for (Prodotto p : filteredProdotti) {
-                    writer.write(String.format("%s;%s;%s;%s;%s;%s;%s;%s\n",
-                            p.getCodice(),
-                            p.getBarcode() != null ? p.getBarcode() : "",
-                            p.getNome(),
-                            p.getSottocategoria() != null ? p.getSottocategoria().getNome() : "",
-                            p.getUnitaMisura() != null ? p.getUnitaMisura().getSimbolo() : "",
-                            p.getPrezzoAcquisto() != null ? p.getPrezzoAcquisto().toString() : "",
-                            p.getPrezzoVendita() != null ? p.getPrezzoVendita().toString() : "",
-                            p.getScortaMinima() != null ? p.getScortaMinima().toString() : ""));
-                }
+        if (file == null) return;
 
-                AlertUtil.showInfo("Export completato", "File salvato in " + file.getAbsolutePath());
-            } catch (IOException e) {
-                logger.error("Error exporting CSV: {}", e.getMessage());
+        List<ProdottoDao.ProdottoElenco> prodotti = List.copyOf(filteredProdotti);
+        exportLoader.load(null, () -> exportService.esportaProdotti(prodotti, file), righe -> {
+            if (righe < 0) {
                 AlertUtil.showError("Errore", "Impossibile esportare il file");
+            } else {
+                AlertUtil.showInfo("Export completato", "File salvato in " + file.getAbsolutePath());
             }
+        }, ex -> AlertUtil.showError("Errore", "Impossibile esportare il file"));
+    }
+
+    // Products and prices from a supplier file; progress is shown in the status bar and the rows
+    // discarded are listed at the end
+    @FXML
+    public void importa() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Importa Prodotti");
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Excel o CSV", "*.xlsx", "*.csv"),
+                new FileChooser.ExtensionFilter("Excel Files", "*.xlsx"),
+                new FileChooser.ExtensionFilter("CSV Files", "*.csv"));
+
+        File file = fileChooser.showOpenDialog(tblProdotti.getScene().getWindow());
+        if (file == null) return;
+
+        lblStatus.setText("Importazione in corso...");
+        importLoader.load(null, () -> importService.importaProdotti(file, a -> Platform.runLater(() ->
+                lblStatus.setText(String.format("Importazione: %d righe lette, %d salvate, %d scartate",
+                        a.righeLette(), a.righeSalvate(), a.righeScartate())))), risultato -> {
+            loadData();
+            mostraRisultatoImport(risultato);
+        }, ex -> {
+            loadData();
+            AlertUtil.showError("Errore", "Impossibile importare il file");
+        });
+    }
+
+    private void mostraRisultatoImport(ImportService.Risultato risultato) {
+        StringBuilder testo = new StringBuilder();
+        if (risultato.erroreFile != null) {
+            testo.append(risultato.erroreFile).append("\n\n");
+        }
+        testo.append(String.format("Righe lette: %d\nNuovi prodotti: %d\nProdotti aggiornati: %d\n"
+                        + "Invariati: %d\nPrezzi modificati: %d\nRighe scartate: %d",
+                risultato.righeLette, risultato.inseriti, risultato.aggiornati, risultato.invariati,
+                risultato.prezziVariati, risultato.scartati));
+
+        if (!risultato.errori.isEmpty()) {
+            testo.append("\n");
+            risultato.errori.stream().limit(ERRORI_MOSTRATI).forEach(e -> testo.append("\nRiga ").append(e.riga())
+                    .append(e.codice() != null ? " (" + e.codice() + ")" : "").append(": ").append(e.messaggio()));
+            if (risultato.errori.size() > ERRORI_MOSTRATI) {
+                testo.append("\n... e altri ").append(risultato.errori.size() - ERRORI_MOSTRATI).append(" errori");
+            }
+        }
+
+        if (risultato.erroreFile != null || risultato.scartati > 0) {
+            AlertUtil.showWarning("Importazione completata con errori", testo.toString());
+        } else {
+            AlertUtil.showInfo("Importazione completata", testo.toString());
         }
     }
 }
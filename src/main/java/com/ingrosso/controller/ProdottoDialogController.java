@@ -2,13 +2,13 @@ package com.ingrosso.controller;
 
 import com.ingrosso.model.*;
 import com.ingrosso.service.ProdottoService;
+import com.ingrosso.util.BackgroundLoader;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
-import java.util.List;
 
 public class ProdottoDialogController {
     private static final Logger logger = LoggerFactory.getLogger(ProdottoDialogController.class);
@@ -30,6 +30,7 @@ public class ProdottoDialogController {
     @FXML private TextArea txtNote;
 
     private final ProdottoService prodottoService = ProdottoService.getInstance();
+    private final BackgroundLoader sottocategorieLoader = new BackgroundLoader();
     private Prodotto prodotto;
 
     @FXML
@@ -40,8 +41,7 @@ public class ProdottoDialogController {
 
     private void setupComboBoxes() {
         // Categorie
-        List<Categoria> categorie = prodottoService.getAllCategorie();
-        cmbCategoria.getItems().addAll(categorie);
+        BackgroundLoader.run(prodottoService::getAllCategorie, cmbCategoria.getItems()::addAll);
         cmbCategoria.setConverter(new javafx.util.StringConverter<>() {
             @Override
             public String toString(Categoria c) {
@@ -70,14 +70,15 @@ public class ProdottoDialogController {
         cmbCategoria.valueProperty().addListener((obs, oldVal, newVal) -> {
             cmbSottocategoria.getItems().clear();
             if (newVal != null) {
-                List<Sottocategoria> sottocategorie = prodottoService.getSottocategorieByCategoria(newVal.getId());
-                cmbSottocategoria.getItems().addAll(sottocategorie);
+                sottocategorieLoader.load(() -> prodottoService.getSottocategorieByCategoria(newVal.getId()),
+                        cmbSottocategoria.getItems()::addAll);
+            } else {
+                sottocategorieLoader.cancel();
             }
         });
 
         // Unita di misura
-        List<UnitaMisura> unitaMisura = prodottoService.getAllUnitaMisura();
-        cmbUnitaMisura.getItems().addAll(unitaMisura);
+        BackgroundLoader.run(prodottoService::getAllUnitaMisura, cmbUnitaMisura.getItems()::addAll);
         cmbUnitaMisura.setConverter(new javafx.util.StringConverter<>() {
             @Override
             public String toString(UnitaMisura um) {
@@ -138,13 +139,9 @@ public class ProdottoDialogController {
             // Set category and subcategory
             if (prodotto.getSottocategoria() != null) {
                 Categoria cat = prodotto.getSottocategoria().getCategoria();
+                // The listener loads the subcategories; the value is shown as soon as it is set
                 cmbCategoria.setValue(cat);
-                // Trigger subcategory load
-                if (cat != null) {
-                    List<Sottocategoria> sottocategorie = prodottoService.getSottocategorieByCategoria(cat.getId());
-                    cmbSottocategoria.getItems().setAll(sottocategorie);
-                    cmbSottocategoria.setValue(prodotto.getSottocategoria());
-                }
+                cmbSottocategoria.setValue(prodotto.getSottocategoria());
             }
 
             cmbUnitaMisura.setValue(prodotto.getUnitaMisura());
@@ -170,7 +167,7 @@ public class ProdottoDialogController {
             txtNote.setText(prodotto.getNote());
         } else {
             // New product - generate code
-            txtCodice.setText(prodottoService.generateNextCodice());
+            generaCodice();
             txtAliquotaIva.setText("22.00");
             chkAttivo.setSelected(true);
         }
@@ -255,6 +252,6 @@ public class ProdottoDialogController {
 
     @FXML
     public void generaCodice() {
-        txtCodice.setText(prodottoService.generateNextCodice());
+        BackgroundLoader.run(prodottoService::generateNextCodice, txtCodice::setText);
     }
 }
@@ -0,0 +1,8 @@
+package com.ingrosso.controller;
+
+// Controller of a view kept alive by the ViewRegistry. initialize() runs once, when the view is
+// parsed; refreshData() runs every time the view is shown again and reloads in the background
+// whatever may have changed since.
+public interface RefreshableController {
+    void refreshData();
+}
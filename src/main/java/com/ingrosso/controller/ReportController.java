@@ -4,10 +4,12 @@ import com.ingrosso.dao.GiacenzaDao;
 import com.ingrosso.dao.LottoDao;
 import com.ingrosso.dao.MovimentoDao;
 import com.ingrosso.model.*;
+import com.ingrosso.service.ExportService;
 import com.ingrosso.service.MagazzinoService;
 import com.ingrosso.service.ProdottoService;
 import com.ingrosso.service.ReportService;
 import com.ingrosso.util.AlertUtil;
+import com.ingrosso.util.BackgroundLoader;
 import com.ingrosso.util.FormatUtil;
 import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
@@ -18,12 +20,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 public class ReportController {
     private static final Logger logger = LoggerFactory.getLogger(ReportController.class);
@@ -44,8 +45,12 @@ public class ReportController {
     private final MagazzinoService magazzinoService = MagazzinoService.getInstance();
     private final ProdottoService prodottoService = ProdottoService.getInstance();
 
+    private final ExportService exportService = ExportService.getInstance();
+
+    private final BackgroundLoader reportLoader = new BackgroundLoader();
+    private final BackgroundLoader exportLoader = new BackgroundLoader();
+
     private String selectedReport;
-    private String lastGeneratedContent;
 
     private static final List<String> REPORT_LIST = List.of(
             "Situazione Magazzino",
@@ -53,7 +58,8 @@ public class ReportController {
             "Prodotti Sotto Scorta",
             "Lotti in Scadenza",
             "Movimenti Periodo",
-            "Riepilogo DDT"
+            "Riepilogo DDT",
+            "Riepilogo DDT Mensile"
     );
 
     @FXML
@@ -77,9 +83,8 @@ public class ReportController {
 
     private void setupFilters() {
         // Magazzini
-        List<Magazzino> magazzini = magazzinoService.getAllMagazzini();
         cmbMagazzino.getItems().add(null);
-        cmbMagazzino.getItems().addAll(magazzini);
+        BackgroundLoader.run(magazzinoService::getAllMagazzini, cmbMagazzino.getItems()::addAll);
         cmbMagazzino.setConverter(new javafx.util.StringConverter<>() {
             @Override
             public String toString(Magazzino m) {
@@ -91,12 +96,13 @@ public class ReportController {
                 return null;
             }
         });
-        magazzinoService.getMagazzinoPrincipale().ifPresent(cmbMagazzino::setValue);
+        BackgroundLoader.run(magazzinoService::getMagazzinoPrincipale, principale -> {
+            if (cmbMagazzino.getValue() == null) principale.ifPresent(cmbMagazzino::setValue);
+        });
 
         // Categorie
-        List<Categoria> categorie = prodottoService.getAllCategorie();
         cmbCategoria.getItems().add(null);
-        cmbCategoria.getItems().addAll(categorie);
+        BackgroundLoader.run(prodottoService::getAllCategorie, cmbCategoria.getItems()::addAll);
         cmbCategoria.setConverter(new javafx.util.StringConverter<>() {
             @Override
             public String toString(Categoria c) {
@@ -118,12 +124,15 @@ public class ReportController {
 
     private void updateFiltersVisibility() {
         // Show/hide filters based on selected report
-        boolean needsDates = selectedReport != null && (
-                selectedReport.equals("Movimenti Periodo") ||
-                        selectedReport.equals("Riepilogo DDT"));
+        dpDataInizio.setVisible(needsDates());
+        dpDataFine.setVisible(needsDates());
+    }
 
-        dpDataInizio.setVisible(needsDates);
-        dpDataFine.setVisible(needsDates);
+    private boolean needsDates() {
+        return selectedReport != null && (
+                selectedReport.equals("Movimenti Periodo") ||
+                        selectedReport.equals("Riepilogo DDT") ||
+                        selectedReport.equals("Riepilogo DDT Mensile"));
     }
 
     @FXML
@@ -142,6 +151,7 @@ public class ReportController {
             case "Lotti in Scadenza" -> generaLottiScadenza();
             case "Movimenti Periodo" -> generaMovimentiPeriodo();
             case "Riepilogo DDT" -> generaRiepilogoDdt();
+            case "Riepilogo DDT Mensile" -> generaRiepilogoDdtMensile();
         }
     }
 
@@ -152,67 +162,77 @@ public class ReportController {
             return;
         }
 
-        List<GiacenzaDao.GiacenzaCompleta> giacenze = reportService.getSituazioneMagazzino(mag.getId());
+        caricaReport(() -> {
+            List<GiacenzaDao.GiacenzaCompleta> giacenze = reportService.getSituazioneMagazzino(mag.getId());
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("SITUAZIONE MAGAZZINO: ").append(mag.getNome()).append("\n");
-        sb.append("Data: ").append(FormatUtil.formatDate(LocalDate.now())).append("\n\n");
+            StringBuilder sb = new StringBuilder();
+            sb.append("SITUAZIONE MAGAZZINO: ").append(mag.getNome()).append("\n");
+            sb.append("Data: ").append(FormatUtil.formatDate(LocalDate.now())).append("\n\n");
 
-        sb.append(String.format("%-15s %-30s %-15s %-10s %-15s %-15s\n",
-                "Codice", "Prodotto", "Giacenza", "U.M.", "Val. Acq.", "Val. Vend."));
-        sb.append("-".repeat(100)).append("\n");
+            sb.append(String.format("%-15s %-30s %-15s %-10s %-15s %-15s\n",
+                    "Codice", "Prodotto", "Giacenza", "U.M.", "Val. Acq.", "Val. Vend."));
+            sb.append("-".repeat(100)).append("\n");
 
-        BigDecimal totaleAcquisto = BigDecimal.ZERO;
-        BigDecimal totaleVendita = BigDecimal.ZERO;
+            BigDecimal totaleAcquisto = BigDecimal.ZERO;
+            BigDecimal totaleVendita = BigDecimal.ZERO;
 
-        for (GiacenzaDao.GiacenzaCompleta g : giacenze) {
-            sb.append(String.format("%-15s %-30s %15s %-10s %15s %15s\n",
-                    truncate(g.getCodice(), 15),
-                    truncate(g.getProdotto(), 30),
-                    FormatUtil.formatQuantity(g.getGiacenza()),
-                    g.getUnitaMisura(),
-                    FormatUtil.formatCurrencyNoSymbol(g.getValoreAcquisto()),
-                    FormatUtil.formatCurrencyNoSymbol(g.getValoreVendita())));
+            for (GiacenzaDao.GiacenzaCompleta g : giacenze) {
+                sb.append(String.format("%-15s %-30s %15s %-10s %15s %15s\n",
+                        truncate(g.getCodice(), 15),
+                        truncate(g.getProdotto(), 30),
+                        FormatUtil.formatQuantity(g.getGiacenza()),
+                        g.getUnitaMisura(),
+                        FormatUtil.formatCurrencyNoSymbol(g.getValoreAcquisto()),
+                        FormatUtil.formatCurrencyNoSymbol(g.getValoreVendita())));
 
-            totaleAcquisto = totaleAcquisto.add(g.getValoreAcquisto());
-            totaleVendita = totaleVendita.add(g.getValoreVendita());
-        }
+                totaleAcquisto = totaleAcquisto.add(g.getValoreAcquisto());
+                totaleVendita = totaleVendita.add(g.getValoreVendita());
+            }
 
-        sb.append("-".repeat(100)).append("\n");
-        sb.append(String.format("%-62s %15s %15s\n",
-                "TOTALE:",
-                FormatUtil.formatCurrencyNoSymbol(totaleAcquisto),
-                FormatUtil.formatCurrencyNoSymbol(totaleVendita)));
+            sb.append("-".repeat(100)).append("\n");
+            sb.append(String.format("%-62s %15s %15s\n",
+                    "TOTALE:",
+                    FormatUtil.formatCurrencyNoSymbol(totaleAcquisto),
+                    FormatUtil.formatCurrencyNoSymbol(totaleVendita)));
 
-        lastGeneratedContent = sb.toString();
-        showPreview(sb.toString());
+            return sb.toString();
+        });
     }
 
     private void generaValoreMagazzino() {
         Magazzino mag = cmbMagazzino.getValue();
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("VALORE MAGAZZINO PER CATEGORIA\n");
-        sb.append("Data: ").append(FormatUtil.formatDate(LocalDate.now())).append("\n\n");
+        caricaReport(() -> {
+            MagazzinoService.Valorizzazione valorizzazione =
+                    reportService.getValorizzazione(mag != null ? mag.getId() : null);
 
-        if (mag != null) {
-            sb.append("Magazzino: ").append(mag.getNome()).append("\n\n");
-            Map<String, BigDecimal> valori = reportService.getValorePerCategoria(mag.getId());
+            StringBuilder sb = new StringBuilder();
+            sb.append("VALORE MAGAZZINO PER CATEGORIA\n");
+            sb.append("Data: ").append(FormatUtil.formatDate(LocalDate.now())).append("\n\n");
+            sb.append("Magazzino: ").append(mag != null ? mag.getNome() : "Tutti").append("\n\n");
 
-            BigDecimal totale = BigDecimal.ZERO;
-            for (Map.Entry<String, BigDecimal> entry : valori.entrySet()) {
-                sb.append(String.format("%-30s %15s\n",
-                        entry.getKey(),
-                        FormatUtil.formatCurrency(entry.getValue())));
-                totale = totale.add(entry.getValue());
+            sb.append(String.format("%-40s %15s %15s %8s\n", "Categoria", "Val. Acq.", "Val. Vend.", "Sotto sc."));
+            sb.append("-".repeat(81)).append("\n");
+
+            for (Map.Entry<String, GiacenzaDao.ValoreGruppo> categoria : valorizzazione.perCategoria.entrySet()) {
+                appendValore(sb, categoria.getKey(), categoria.getValue());
+                valorizzazione.perSottocategoria.getOrDefault(categoria.getKey(), Map.of())
+                        .forEach((sottocategoria, gruppo) -> appendValore(sb, "  " + sottocategoria, gruppo));
             }
 
-            sb.append("-".repeat(45)).append("\n");
-            sb.append(String.format("%-30s %15s\n", "TOTALE:", FormatUtil.formatCurrency(totale)));
-        }
+            sb.append("-".repeat(81)).append("\n");
+            appendValore(sb, "TOTALE:", valorizzazione.totale);
 
-        lastGeneratedContent = sb.toString();
-        showPreview(sb.toString());
+            return sb.toString();
+        });
+    }
+
+    private void appendValore(StringBuilder sb, String voce, GiacenzaDao.ValoreGruppo gruppo) {
+        sb.append(String.format("%-40s %15s %15s %8d\n",
+                truncate(voce, 40),
+                FormatUtil.formatCurrency(gruppo.getValoreAcquisto()),
+                FormatUtil.formatCurrency(gruppo.getValoreVendita()),
+                gruppo.getSottoScorta()));
     }
 
     private void generaProdottiSottoScorta() {
@@ -222,64 +242,66 @@ public class ReportController {
             return;
         }
 
-        List<GiacenzaDao.GiacenzaCompleta> sottoScorta = reportService.getProdottiSottoScorta(mag.getId());
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("PRODOTTI SOTTO SCORTA\n");
-        sb.append("Magazzino: ").append(mag.getNome()).append("\n");
-        sb.append("Data: ").append(FormatUtil.formatDate(LocalDate.now())).append("\n\n");
-
-        if (sottoScorta.isEmpty()) {
-            sb.append("Nessun prodotto sotto scorta minima.\n");
-        } else {
-            sb.append(String.format("%-15s %-35s %-12s %-12s %-12s\n",
-                    "Codice", "Prodotto", "Giacenza", "Scorta Min", "Mancante"));
-            sb.append("-".repeat(90)).append("\n");
-
-            for (GiacenzaDao.GiacenzaCompleta g : sottoScorta) {
-                BigDecimal mancante = g.getScortaMinima().subtract(g.getGiacenza());
-                sb.append(String.format("%-15s %-35s %12s %12s %12s\n",
-                        truncate(g.getCodice(), 15),
-                        truncate(g.getProdotto(), 35),
-                        FormatUtil.formatQuantity(g.getGiacenza()),
-                        FormatUtil.formatQuantity(g.getScortaMinima()),
-                        FormatUtil.formatQuantity(mancante)));
+        caricaReport(() -> {
+            List<GiacenzaDao.GiacenzaCompleta> sottoScorta = reportService.getProdottiSottoScorta(mag.getId());
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("PRODOTTI SOTTO SCORTA\n");
+            sb.append("Magazzino: ").append(mag.getNome()).append("\n");
+            sb.append("Data: ").append(FormatUtil.formatDate(LocalDate.now())).append("\n\n");
+
+            if (sottoScorta.isEmpty()) {
+                sb.append("Nessun prodotto sotto scorta minima.\n");
+            } else {
+                sb.append(String.format("%-15s %-35s %-12s %-12s %-12s\n",
+                        "Codice", "Prodotto", "Giacenza", "Scorta Min", "Mancante"));
+                sb.append("-".repeat(90)).append("\n");
+
+                for (GiacenzaDao.GiacenzaCompleta g : sottoScorta) {
+                    BigDecimal mancante = g.getScortaMinima().subtract(g.getGiacenza());
+                    sb.append(String.format("%-15s %-35s %12s %12s %12s\n",
+                            truncate(g.getCodice(), 15),
+                            truncate(g.getProdotto(), 35),
+                            FormatUtil.formatQuantity(g.getGiacenza()),
+                            FormatUtil.formatQuantity(g.getScortaMinima()),
+                            FormatUtil.formatQuantity(mancante)));
+                }
+
+                sb.append("-".repeat(90)).append("\n");
+                sb.append("Totale prodotti sotto scorta: ").append(sottoScorta.size());
             }
 
-            sb.append("-".repeat(90)).append("\n");
-            sb.append("Totale prodotti sotto scorta: ").append(sottoScorta.size());
-        }
-
-        lastGeneratedContent = sb.toString();
-        showPreview(sb.toString());
+            return sb.toString();
+        });
     }
 
     private void generaLottiScadenza() {
-        List<LottoDao.LottoCompleto> lotti = reportService.getLottiInScadenza(30);
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("LOTTI IN SCADENZA (prossimi 30 giorni)\n");
-        sb.append("Data: ").append(FormatUtil.formatDate(LocalDate.now())).append("\n\n");
-
-        if (lotti.isEmpty()) {
-            sb.append("Nessun lotto in scadenza.\n");
-        } else {
-            sb.append(String.format("%-30s %-15s %-12s %-12s %-10s\n",
-                    "Prodotto", "Lotto", "Scadenza", "Quantita'", "Giorni"));
-            sb.append("-".repeat(80)).append("\n");
-
-            for (LottoDao.LottoCompleto l : lotti) {
-                sb.append(String.format("%-30s %-15s %-12s %12s %10d\n",
-                        truncate(l.getProdotto(), 30),
-                        truncate(l.getNumeroLotto(), 15),
-                        FormatUtil.formatDate(l.getDataScadenza()),
-                        FormatUtil.formatQuantity(l.getQuantita()),
-                        l.getGiorniAScadenza()));
+        caricaReport(() -> {
+            List<LottoDao.LottoCompleto> lotti = reportService.getLottiInScadenza(30);
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("LOTTI IN SCADENZA (prossimi 30 giorni)\n");
+            sb.append("Data: ").append(FormatUtil.formatDate(LocalDate.now())).append("\n\n");
+
+            if (lotti.isEmpty()) {
+                sb.append("Nessun lotto in scadenza.\n");
+            } else {
+                sb.append(String.format("%-30s %-15s %-12s %-12s %-10s\n",
+                        "Prodotto", "Lotto", "Scadenza", "Quantita'", "Giorni"));
+                sb.append("-".repeat(80)).append("\n");
+
+                for (LottoDao.LottoCompleto l : lotti) {
+                    sb.append(String.format("%-30s %-15s %-12s %12s %10d\n",
+                            truncate(l.getProdotto(), 30),
+                            truncate(l.getNumeroLotto(), 15),
+                            FormatUtil.formatDate(l.getDataScadenza()),
+                            FormatUtil.formatQuantity(l.getQuantita()),
+                            l.getGiorniAScadenza()));
+                }
             }
-        }
 
-        lastGeneratedContent = sb.toString();
-        showPreview(sb.toString());
+            return sb.toString();
+        });
     }
 
     private void generaMovimentiPeriodo() {
@@ -292,35 +314,60 @@ public class ReportController {
         }
 
         Integer magazzinoId = cmbMagazzino.getValue() != null ? cmbMagazzino.getValue().getId() : null;
-        List<MovimentoDao.MovimentoCompleto> movimenti =
-                reportService.getMovimentiPeriodo(dataInizio, dataFine, magazzinoId, null);
+        caricaReport(() -> {
+            StringBuilder sb = new StringBuilder();
+            sb.append("MOVIMENTI PERIODO\n");
+            sb.append("Dal ").append(FormatUtil.formatDate(dataInizio));
+            sb.append(" al ").append(FormatUtil.formatDate(dataFine)).append("\n\n");
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("MOVIMENTI PERIODO\n");
-        sb.append("Dal ").append(FormatUtil.formatDate(dataInizio));
-        sb.append(" al ").append(FormatUtil.formatDate(dataFine)).append("\n\n");
+            sb.append(String.format("%-12s %-12s %-25s %12s %-20s\n",
+                    "Data", "Tipo", "Prodotto", "Quantita'", "Causale"));
+            sb.append("-".repeat(85)).append("\n");
 
-        sb.append(String.format("%-12s %-12s %-25s %12s %-20s\n",
-                "Data", "Tipo", "Prodotto", "Quantita'", "Causale"));
-        sb.append("-".repeat(85)).append("\n");
+            int totale = reportService.forEachMovimentoPeriodo(dataInizio, dataFine, magazzinoId, null, m ->
+                    sb.append(String.format("%-12s %-12s %-25s %12s %-20s\n",
+                            FormatUtil.formatDate(m.getDataMovimento().toLocalDate()),
+                            m.getTipo().getDescrizione(),
+                            truncate(m.getProdottoNome(), 25),
+                            FormatUtil.formatQuantity(m.getQuantita()),
+                            truncate(m.getCausale() != null ? m.getCausale() : "", 20))));
 
-        for (MovimentoDao.MovimentoCompleto m : movimenti) {
-            sb.append(String.format("%-12s %-12s %-25s %12s %-20s\n",
-                    FormatUtil.formatDate(m.getDataMovimento().toLocalDate()),
-                    m.getTipo().getDescrizione(),
-                    truncate(m.getProdottoNome(), 25),
-                    FormatUtil.formatQuantity(m.getQuantita()),
-                    truncate(m.getCausale() != null ? m.getCausale() : "", 20)));
+            sb.append("-".repeat(85)).append("\n");
+            sb.append("Totale movimenti: ").append(Math.max(totale, 0));
+
+            return sb.toString();
+        });
+    }
+
+    private void generaRiepilogoDdt() {
+        LocalDate dataInizio = dpDataInizio.getValue();
+        LocalDate dataFine = dpDataFine.getValue();
+
+        if (dataInizio == null || dataFine == null) {
+            AlertUtil.showWarning("Attenzione", "Selezionare il periodo");
+            return;
         }
 
-        sb.append("-".repeat(85)).append("\n");
-        sb.append("Totale movimenti: ").append(movimenti.size());
+        caricaReport(() -> {
+            ReportService.RiepilogoDdt riepilogo = reportService.getRiepilogoDdt(dataInizio, dataFine);
 
-        lastGeneratedContent = sb.toString();
-        showPreview(sb.toString());
+            StringBuilder sb = new StringBuilder();
+            sb.append("RIEPILOGO DDT\n");
+            sb.append("Dal ").append(FormatUtil.formatDate(dataInizio));
+            sb.append(" al ").append(FormatUtil.formatDate(dataFine)).append("\n\n");
+
+            sb.append("Totale DDT:      ").append(riepilogo.totaleDdt).append("\n");
+            sb.append("  - Emessi:      ").append(riepilogo.ddtEmessi).append("\n");
+            sb.append("  - Bozza:       ").append(riepilogo.ddtBozza).append("\n");
+            sb.append("  - Annullati:   ").append(riepilogo.ddtAnnullati).append("\n\n");
+            sb.append("Totale righe:    ").append(riepilogo.totaleRighe).append("\n");
+            sb.append("Totale importo:  ").append(FormatUtil.formatCurrency(riepilogo.totaleImporto)).append("\n");
+
+            return sb.toString();
+        });
     }
 
-    private void generaRiepilogoDdt() {
+    private void generaRiepilogoDdtMensile() {
         LocalDate dataInizio = dpDataInizio.getValue();
         LocalDate dataFine = dpDataFine.getValue();
 
@@ -329,22 +376,53 @@ public class ReportController {
             return;
         }
 
-        ReportService.RiepilogoDdt riepilogo = reportService.getRiepilogoDdt(dataInizio, dataFine);
+        caricaReport(() -> {
+            List<ReportService.RiepilogoDdt> mesi = reportService.getRiepilogoDdtMensile(dataInizio, dataFine);
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("RIEPILOGO DDT MENSILE\n");
+            sb.append("Dal ").append(FormatUtil.formatDate(dataInizio));
+            sb.append(" al ").append(FormatUtil.formatDate(dataFine)).append("\n\n");
+
+            sb.append(String.format("%-8s %8s %8s %8s %10s %8s %15s\n",
+                    "Mese", "Totale", "Emessi", "Bozza", "Annullati", "Righe", "Importo"));
+            sb.append("-".repeat(71)).append("\n");
+
+            ReportService.RiepilogoDdt totale = new ReportService.RiepilogoDdt();
+            for (ReportService.RiepilogoDdt r : mesi) {
+                sb.append(String.format("%-8s %8d %8d %8d %10d %8d %15s\n",
+                        String.format("%02d/%d", r.mese.getMonthValue(), r.mese.getYear()),
+                        r.totaleDdt, r.ddtEmessi, r.ddtBozza, r.ddtAnnullati, r.totaleRighe,
+                        FormatUtil.formatCurrency(r.totaleImporto)));
+                totale.totaleDdt += r.totaleDdt;
+                totale.ddtEmessi += r.ddtEmessi;
+                totale.ddtBozza += r.ddtBozza;
+                totale.ddtAnnullati += r.ddtAnnullati;
+                totale.totaleRighe += r.totaleRighe;
+                totale.totaleImporto = totale.totaleImporto.add(r.totaleImporto);
+            }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("RIEPILOGO DDT\n");
-        sb.append("Dal ").append(FormatUtil.formatDate(dataInizio));
-        sb.append(" al ").append(FormatUtil.formatDate(dataFine)).append("\n\n");
+            sb.append("-".repeat(71)).append("\n");
+            sb.append(String.format("%-8s %8d %8d %8d %10d %8d %15s\n",
+                    "Totale", totale.totaleDdt, totale.ddtEmessi, totale.ddtBozza, totale.ddtAnnullati,
+                    totale.totaleRighe, FormatUtil.formatCurrency(totale.totaleImporto)));
 
-        sb.append("Totale DDT:      ").append(riepilogo.totaleDdt).append("\n");
-        sb.append("  - Emessi:      ").append(riepilogo.ddtEmessi).append("\n");
-        sb.append("  - Bozza:       ").append(riepilogo.ddtBozza).append("\n");
-        sb.append("  - Annullati:   ").append(riepilogo.ddtAnnullati).append("\n\n");
-        sb.append("Totale righe:    ").append(riepilogo.totaleRighe).append("\n");
-        sb.append("Totale importo:  ").append(FormatUtil.formatCurrency(riepilogo.totaleImporto)).append("\n");
+            return sb.toString();
+        });
+    }
 
-        lastGeneratedContent = sb.toString();
-        showPreview(sb.toString());
+    // Queries and text formatting run off the FX thread; a newer report supersedes a pending one
+    private void caricaReport(Callable<String> generazione) {
+        ProgressIndicator indicator = new ProgressIndicator();
+        indicator.setMaxSize(48, 48);
+        vboxPreview.getChildren().setAll(indicator);
+        reportLoader.load(null, generazione, content -> {
+            vboxPreview.getChildren().clear();
+            showPreview(content);
+        }, ex -> {
+            vboxPreview.getChildren().clear();
+            AlertUtil.showError("Errore", "Impossibile generare il report");
+        });
     }
 
     private void showPreview(String content) {
@@ -366,28 +444,64 @@ public class ReportController {
         AlertUtil.showInfo("Export PDF", "Funzionalita' in sviluppo");
     }
 
+    // The file is chosen here, the rows are read and written in the background straight from the database
     @FXML
     public void esportaExcel() {
-        if (lastGeneratedContent == null) {
-            AlertUtil.showWarning("Attenzione", "Generare prima il report");
+        if (selectedReport == null) {
+            AlertUtil.showWarning("Attenzione", "Selezionare un report");
             return;
         }
 
+        Magazzino mag = cmbMagazzino.getValue();
+        Integer magazzinoId = mag != null ? mag.getId() : null;
+        LocalDate dataInizio = dpDataInizio.getValue();
+        LocalDate dataFine = dpDataFine.getValue();
+
+        boolean needsMagazzino = selectedReport.equals("Situazione Magazzino") ||
+                selectedReport.equals("Prodotti Sotto Scorta");
+        if (needsMagazzino && mag == null) {
+            AlertUtil.showWarning("Attenzione", "Selezionare un magazzino");
+            return;
+        }
+        if (needsDates() && (dataInizio == null || dataFine == null)) {
+            AlertUtil.showWarning("Attenzione", "Selezionare il periodo");
+            return;
+        }
+
+        File file = scegliFileExcel(selectedReport.toLowerCase().replace(' ', '_') + ".xlsx");
+        if (file == null) return;
+
+        Callable<Integer> esportazione = switch (selectedReport) {
+            case "Situazione Magazzino" -> () -> exportService.esportaSituazioneMagazzino(magazzinoId, file);
+            case "Valore Magazzino" -> () -> exportService.esportaValoreMagazzino(magazzinoId, file);
+            case "Prodotti Sotto Scorta" -> () -> exportService.esportaProdottiSottoScorta(magazzinoId, file);
+            case "Lotti in Scadenza" -> () -> exportService.esportaLottiInScadenza(30, file);
+            case "Movimenti Periodo" -> () -> {
+                MovimentoDao.FiltroMovimenti filtro = new MovimentoDao.FiltroMovimenti();
+                filtro.dataInizio = dataInizio;
+                filtro.dataFine = dataFine;
+                filtro.magazzinoId = magazzinoId;
+                return exportService.esportaMovimenti(filtro, file);
+            };
+            // Riepilogo DDT, with or without the monthly breakdown: the sheet has one row per month
+            default -> () -> exportService.esportaRiepilogoDdt(dataInizio, dataFine, file);
+        };
+
+        exportLoader.load(null, esportazione, righe -> {
+            if (righe < 0) {
+                AlertUtil.showError("Errore", "Impossibile esportare il report");
+            } else {
+                AlertUtil.showInfo("Export completato", righe + " righe salvate in " + file.getAbsolutePath());
+            }
+        }, ex -> AlertUtil.showError("Errore", "Impossibile esportare il report"));
+    }
+
+    private File scegliFileExcel(String nome) {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Esporta Report");
         fileChooser.getExtensionFilters().add(
-                new FileChooser.ExtensionFilter("Text Files", "*.txt"));
-        fileChooser.setInitialFileName("report.txt");
-
-        File file = fileChooser.showSaveDialog(lstReport.getScene().getWindow());
-        if (file != null) {
-            try (FileWriter writer = new FileWriter(file)) {
-                writer.write(lastGeneratedContent);
-                AlertUtil.showInfo("Export completato", "File salvato in " + file.getAbsolutePath());
-            } catch (IOException e) {
-                logger.error("Error exporting report: {}", e.getMessage());
-                AlertUtil.showError("Errore", "Impossibile esportare il report");
-            }
-        }
+                new FileChooser.ExtensionFilter("Excel Files", "*.xlsx"));
+        fileChooser.setInitialFileName(nome);
+        return fileChooser.showSaveDialog(lstReport.getScene().getWindow());
     }
 }
@@ -0,0 +1,83 @@
+package com.ingrosso.controller;
+
+import javafx.animation.PauseTransition;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Views of the main window, each parsed once and kept with its controller for the whole session.
+// Showing a view again only swaps the node and asks the controller to refresh its data in the
+// background. Must be used on the FX application thread, like the FXML loading it does.
+class ViewRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(ViewRegistry.class);
+    private static final Duration PAUSA_PRECARICAMENTO = Duration.millis(300);
+
+    private record Vista(Parent root, Object controller) {}
+
+    private final Map<String, Vista> viste = new HashMap<>();
+    // Views shown at least once: the first show of a view needs no refresh, its initialize() just loaded it
+    private final Set<String> mostrate = new HashSet<>();
+    private final Deque<String> daPrecaricare = new ArrayDeque<>();
+    private PauseTransition precaricamento;
+
+    Parent mostra(String fxmlPath) throws IOException {
+        long start = System.nanoTime();
+        Vista vista = vista(fxmlPath);
+        if (!mostrate.add(fxmlPath) && vista.controller() instanceof RefreshableController controller) {
+            controller.refreshData();
+        }
+        logger.debug("View {} ready in {} ms", fxmlPath, (System.nanoTime() - start) / 1_000_000);
+        return vista.root();
+    }
+
+    // Parses the given views one at a time with a pause in between, so the FX thread stays responsive.
+    // A preloaded view loads its data right away and refreshes again when it is first shown.
+    void precarica(List<String> fxmlPaths) {
+        daPrecaricare.addAll(fxmlPaths);
+        if (precaricamento == null) {
+            precaricamento = new PauseTransition(PAUSA_PRECARICAMENTO);
+            precaricamento.setOnFinished(e -> precaricaSuccessiva());
+            precaricamento.play();
+        }
+    }
+
+    private void precaricaSuccessiva() {
+        String fxmlPath = daPrecaricare.poll();
+        if (fxmlPath == null) {
+            precaricamento = null;
+            return;
+        }
+        if (!viste.containsKey(fxmlPath)) {
+            try {
+                vista(fxmlPath);
+                // Its initialize() ran in the background of the current view: refresh on first show
+                mostrate.add(fxmlPath);
+            } catch (IOException e) {
+                logger.warn("Error preloading view {}: {}", fxmlPath, e.getMessage());
+            }
+        }
+        precaricamento.playFromStart();
+    }
+
+    private Vista vista(String fxmlPath) throws IOException {
+        Vista vista = viste.get(fxmlPath);
+        if (vista == null) {
+            FXMLLoader loader = new FXMLLoader(getClass().getResource(fxmlPath));
+            Parent root = loader.load();
+            vista = new Vista(root, loader.getController());
+            viste.put(fxmlPath, vista);
+        }
+        return vista;
+    }
+}
@@ -1,36 +1,44 @@
 package com.ingrosso.dao;
 
 import com.ingrosso.util.DatabaseUtil;
+import com.ingrosso.util.TransactionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public abstract class BaseDao<T> {
+    protected static final int IN_BATCH_SIZE = 1000;
+    protected static final int STREAM_FETCH_SIZE = 500;
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
-    protected abstract T mapResultSet(ResultSet rs) throws SQLException;
+    protected abstract RowMapper<T> getRowMapper();
     protected abstract String getTableName();
 
+    // Joins the transaction bound to the current thread, if any
     protected Connection getConnection() throws SQLException {
-        return DatabaseUtil.getConnection();
+        return TransactionManager.getConnection();
+    }
+
+    // For heavy report and list queries that may run on the read replica; see DatabaseUtil.getReadConnection
+    protected Connection getReadConnection() throws SQLException {
+        return TransactionManager.getReadConnection();
     }
 
     public Optional<T> findById(int id) {
         String sql = "SELECT * FROM " + getTableName() + " WHERE id = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, id);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return Optional.of(mapResultSet(rs));
-                }
-            }
+        try (Connection conn = getConnection()) {
+            return queryOne(conn, sql, getRowMapper(), id);
         } catch (SQLException e) {
             logger.error("Error finding by id {}: {}", id, e.getMessage());
+            TransactionManager.setRollbackOnly(e);
         }
         return Optional.empty();
     }
@@ -46,9 +54,11 @@ public abstract class BaseDao<T> {
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, id);
             int affected = stmt.executeUpdate();
+            DatabaseUtil.registerWrite();
             return affected > 0;
         } catch (SQLException e) {
             logger.error("Error deleting id {}: {}", id, e.getMessage());
+            TransactionManager.setRollbackOnly(e);
             return false;
         }
     }
@@ -63,55 +73,131 @@ public abstract class BaseDao<T> {
             }
         } catch (SQLException e) {
             logger.error("Error counting: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
         }
         return 0;
     }
 
     protected List<T> executeQuery(String sql, Object... params) {
-        List<T> results = new ArrayList<>();
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        return query(sql, getRowMapper(), params);
+    }
+
+    protected Optional<T> executeSingleQuery(String sql, Object... params) {
+        return queryOne(sql, getRowMapper(), params);
+    }
+
+    // Queries mapped with any RowMapper, e.g. the *Completo report rows built from joins
+    protected <R> List<R> query(String sql, RowMapper<R> mapper, Object... params) {
+        try (Connection conn = getConnection()) {
+            return query(conn, sql, mapper, params);
+        } catch (SQLException e) {
+            logger.error("Error executing query: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return new ArrayList<>();
+    }
+
+    protected <R> Optional<R> queryOne(String sql, RowMapper<R> mapper, Object... params) {
+        try (Connection conn = getConnection()) {
+            return queryOne(conn, sql, mapper, params);
+        } catch (SQLException e) {
+            logger.error("Error executing single query: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return Optional.empty();
+    }
+
+    protected <R> List<R> query(Connection conn, String sql, RowMapper<R> mapper, Object... params) throws SQLException {
+        List<R> results = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             setParameters(stmt, params);
             try (ResultSet rs = stmt.executeQuery()) {
+                RowMapper.Bound<R> row = mapper.bind(rs);
                 while (rs.next()) {
-                    results.add(mapResultSet(rs));
+                    results.add(row.map(rs));
                 }
             }
-        } catch (SQLException e) {
-            logger.error("Error executing query: {}", e.getMessage());
         }
         return results;
     }
 
-    protected Optional<T> executeSingleQuery(String sql, Object... params) {
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+    protected <R> Optional<R> queryOne(Connection conn, String sql, RowMapper<R> mapper, Object... params) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             setParameters(stmt, params);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return Optional.of(mapResultSet(rs));
+                    return Optional.of(mapper.bind(rs).map(rs));
                 }
             }
-        } catch (SQLException e) {
-            logger.error("Error executing single query: {}", e.getMessage());
         }
         return Optional.empty();
     }
 
-    protected int executeUpdate(String sql, Object... params) {
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+    // Streams the rows to the action through a forward-only, read-only server-side cursor that fetches
+    // fetchSize rows at a time, so scans over large tables run in constant memory. The connection stays
+    // open while the action runs. Returns the number of rows read, or -1 on error
+    protected <R> int forEachRow(String sql, RowMapper<R> mapper, int fetchSize, Consumer<? super R> action,
+                                 Object... params) {
+        try (Connection conn = getConnection()) {
+            return forEachRow(conn, sql, mapper, fetchSize, action, params);
+        } catch (SQLException e) {
+            logger.error("Error streaming query: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+            return -1;
+        }
+    }
+
+    protected <R> int forEachRow(Connection conn, String sql, RowMapper<R> mapper, int fetchSize,
+                                 Consumer<? super R> action, Object... params) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(fetchSize);
             setParameters(stmt, params);
-            return stmt.executeUpdate();
+            int count = 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                RowMapper.Bound<R> row = mapper.bind(rs);
+                while (rs.next()) {
+                    action.accept(row.map(rs));
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    protected int executeUpdate(String sql, Object... params) {
+        try (Connection conn = getConnection()) {
+            int result = executeUpdate(conn, sql, params);
+            DatabaseUtil.registerWrite();
+            return result;
         } catch (SQLException e) {
             logger.error("Error executing update: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
             return -1;
         }
     }
 
     protected int executeInsert(String sql, Object... params) {
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection conn = getConnection()) {
+            int id = executeInsert(conn, sql, params);
+            DatabaseUtil.registerWrite();
+            return id;
+        } catch (SQLException e) {
+            logger.error("Error executing insert: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return -1;
+    }
+
+    // Variants bound to a caller-managed connection: errors propagate so the caller can roll back
+    protected int executeUpdate(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            setParameters(stmt, params);
+            return stmt.executeUpdate();
+        }
+    }
+
+    protected int executeInsert(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             setParameters(stmt, params);
             int affected = stmt.executeUpdate();
             if (affected > 0) {
@@ -121,12 +207,24 @@ public abstract class BaseDao<T> {
                     }
                 }
             }
-        } catch (SQLException e) {
-            logger.error("Error executing insert: {}", e.getMessage());
         }
         return -1;
     }
 
+    // Splits the keys of an IN (...) lookup into chunks of at most IN_BATCH_SIZE elements
+    protected static <K> List<List<K>> partition(Collection<K> keys) {
+        List<K> list = new ArrayList<>(keys);
+        List<List<K>> batches = new ArrayList<>();
+        for (int i = 0; i < list.size(); i += IN_BATCH_SIZE) {
+            batches.add(list.subList(i, Math.min(i + IN_BATCH_SIZE, list.size())));
+        }
+        return batches;
+    }
+
+    protected static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
     protected void setParameters(PreparedStatement stmt, Object... params) throws SQLException {
         for (int i = 0; i < params.length; i++) {
             Object param = params[i];
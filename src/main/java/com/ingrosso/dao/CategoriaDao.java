@@ -3,26 +3,38 @@ package com.ingrosso.dao;
 import com.ingrosso.model.Categoria;
 import com.ingrosso.model.Sottocategoria;
 
-import java.sql.ResultSet;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
 
 public class CategoriaDao extends BaseDao<Categoria> {
 
+    private static final RowMapper<Categoria> MAPPER = RowMapper.<Categoria>of(Categoria::new)
+            .intCol("id", Categoria::setId)
+            .stringCol("nome", Categoria::setNome)
+            .stringCol("descrizione", Categoria::setDescrizione)
+            .intCol("ordine", Categoria::setOrdine)
+            .booleanCol("attiva", Categoria::setAttiva);
+
+    private static final RowMapper<Sottocategoria> SOTTOCATEGORIA_MAPPER = sottocategoriaMapper();
+
+    // Sottocategoria with its parent categoria read from the aliased columns of a join
+    private static final RowMapper<Sottocategoria> SOTTOCATEGORIA_CATEGORIA_MAPPER = sottocategoriaMapper()
+            .nested("categoria_nome", RowMapper.<Categoria>of(Categoria::new)
+                    .intCol("categoria_id", Categoria::setId)
+                    .stringCol("categoria_nome", Categoria::setNome)
+                    .stringCol("categoria_descrizione", Categoria::setDescrizione)
+                    .intCol("categoria_ordine", Categoria::setOrdine)
+                    .booleanCol("categoria_attiva", Categoria::setAttiva), Sottocategoria::setCategoria);
+
     @Override
     protected String getTableName() {
         return "categorie";
     }
 
     @Override
-    protected Categoria mapResultSet(ResultSet rs) throws SQLException {
-        Categoria c = new Categoria();
-        c.setId(rs.getInt("id"));
-        c.setNome(getString(rs, "nome"));
-        c.setDescrizione(getString(rs, "descrizione"));
-        c.setOrdine(rs.getInt("ordine"));
-        c.setAttiva(getBoolean(rs, "attiva"));
-        return c;
+    protected RowMapper<Categoria> getRowMapper() {
+        return MAPPER;
     }
 
     public List<Categoria> findAllActive() {
@@ -33,6 +45,10 @@ public class CategoriaDao extends BaseDao<Categoria> {
         return executeQuery("SELECT * FROM categorie ORDER BY ordine, nome");
     }
 
+    public List<Categoria> findAllOrdered(Connection conn) throws SQLException {
+        return query(conn, "SELECT * FROM categorie ORDER BY ordine, nome", MAPPER);
+    }
+
     public int insert(Categoria categoria) {
         String sql = "INSERT INTO categorie (nome, descrizione, ordine, attiva) VALUES (?, ?, ?, ?)";
         return executeInsert(sql,
@@ -55,18 +71,29 @@ public class CategoriaDao extends BaseDao<Categoria> {
     // Sottocategorie methods
     public List<Sottocategoria> findSottocategorieByCategoria(int categoriaId) {
         String sql = "SELECT * FROM sottocategorie WHERE categoria_id = ? ORDER BY ordine, nome";
-        return executeSottocategorieQuery(sql, categoriaId);
+        return query(sql, SOTTOCATEGORIA_MAPPER, categoriaId);
     }
 
     public List<Sottocategoria> findAllSottocategorieActive() {
         String sql = "SELECT * FROM sottocategorie WHERE attiva = TRUE ORDER BY ordine, nome";
-        return executeSottocategorieQuery(sql);
+        return query(sql, SOTTOCATEGORIA_MAPPER);
     }
 
     public Sottocategoria findSottocategoriaById(int id) {
         String sql = "SELECT * FROM sottocategorie WHERE id = ?";
-        List<Sottocategoria> list = executeSottocategorieQuery(sql, id);
-        return list.isEmpty() ? null : list.get(0);
+        return queryOne(sql, SOTTOCATEGORIA_MAPPER, id).orElse(null);
+    }
+
+    // Every sottocategoria, inactive ones included, with its parent categoria
+    public List<Sottocategoria> findAllSottocategorieWithCategoria(Connection conn) throws SQLException {
+        String sql = """
+            SELECT sc.*, c.nome as categoria_nome, c.descrizione as categoria_descrizione,
+                   c.ordine as categoria_ordine, c.attiva as categoria_attiva
+            FROM sottocategorie sc
+            LEFT JOIN categorie c ON sc.categoria_id = c.id
+            ORDER BY sc.ordine, sc.nome
+            """;
+        return query(conn, sql, SOTTOCATEGORIA_CATEGORIA_MAPPER);
     }
 
     public int insertSottocategoria(Sottocategoria sottocategoria) {
@@ -94,26 +121,13 @@ public class CategoriaDao extends BaseDao<Categoria> {
         return executeUpdate("DELETE FROM sottocategorie WHERE id = ?", id) > 0;
     }
 
-    private List<Sottocategoria> executeSottocategorieQuery(String sql, Object... params) {
-        return new java.util.ArrayList<>() {{
-            try (var conn = getConnection();
-                 var stmt = conn.prepareStatement(sql)) {
-                setParameters(stmt, params);
-                try (var rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        Sottocategoria sc = new Sottocategoria();
-                        sc.setId(rs.getInt("id"));
-                        sc.setCategoriaId(rs.getInt("categoria_id"));
-                        sc.setNome(getString(rs, "nome"));
-                        sc.setDescrizione(getString(rs, "descrizione"));
-                        sc.setOrdine(rs.getInt("ordine"));
-                        sc.setAttiva(getBoolean(rs, "attiva"));
-                        add(sc);
-                    }
-                }
-            } catch (SQLException e) {
-                logger.error("Error executing sottocategorie query: {}", e.getMessage());
-            }
-        }};
+    private static RowMapper<Sottocategoria> sottocategoriaMapper() {
+        return RowMapper.<Sottocategoria>of(Sottocategoria::new)
+                .intCol("id", Sottocategoria::setId)
+                .intCol("categoria_id", Sottocategoria::setCategoriaId)
+                .stringCol("nome", Sottocategoria::setNome)
+                .stringCol("descrizione", Sottocategoria::setDescrizione)
+                .intCol("ordine", Sottocategoria::setOrdine)
+                .booleanCol("attiva", Sottocategoria::setAttiva);
     }
 }
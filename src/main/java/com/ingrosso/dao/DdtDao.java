@@ -1,45 +1,99 @@
 package com.ingrosso.dao;
 
 import com.ingrosso.model.*;
+import com.ingrosso.util.TransactionManager;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public class DdtDao extends BaseDao<Ddt> {
 
+    private static final RowMapper<Ddt> MAPPER = RowMapper.<Ddt>of(Ddt::new)
+            .intCol("id", Ddt::setId)
+            .intCol("numero", Ddt::setNumero)
+            .intCol("anno", Ddt::setAnno)
+            .dateCol("data_documento", Ddt::setDataDocumento)
+            .dateTimeCol("data_trasporto", Ddt::setDataTrasporto)
+            .optionalIntCol("destinatario_id", Ddt::setDestinatarioId)
+            .stringCol("destinazione_diversa", Ddt::setDestinazioneDiversa)
+            .intCol("magazzino_id", Ddt::setMagazzinoId)
+            .stringCol("causale_trasporto", Ddt::setCausaleTrasporto)
+            .stringCol("aspetto_beni", Ddt::setAspettoBeni)
+            .intCol("colli", Ddt::setColli)
+            .decimalCol("peso_kg", Ddt::setPesoKg)
+            .stringCol("porto", Ddt::setPorto)
+            .stringCol("vettore", Ddt::setVettore)
+            .stringCol("note", Ddt::setNote)
+            .optionalIntCol("utente_id", Ddt::setUtenteId)
+            .enumCol("stato", StatoDdt.class, Ddt::setStato)
+            .dateTimeCol("created_at", Ddt::setCreatedAt);
+
+    private static final RowMapper<DdtRiga> RIGA_MAPPER = RowMapper.<DdtRiga>of(DdtRiga::new)
+            .intCol("id", DdtRiga::setId)
+            .intCol("ddt_id", DdtRiga::setDdtId)
+            .intCol("prodotto_id", DdtRiga::setProdottoId)
+            .optionalIntCol("lotto_id", DdtRiga::setLottoId)
+            .stringCol("descrizione", DdtRiga::setDescrizione)
+            .decimalCol("quantita", DdtRiga::setQuantita)
+            .stringCol("unita_misura", DdtRiga::setUnitaMisura)
+            .decimalCol("prezzo_unitario", DdtRiga::setPrezzoUnitario)
+            .decimalCol("aliquota_iva", DdtRiga::setAliquotaIva)
+            .intCol("ordine", DdtRiga::setOrdine);
+
+    private static final RowMapper<Destinatario> DESTINATARIO_MAPPER = RowMapper.<Destinatario>of(Destinatario::new)
+            .intCol("id", Destinatario::setId)
+            .stringCol("codice", Destinatario::setCodice)
+            .stringCol("ragione_sociale", Destinatario::setRagioneSociale)
+            .stringCol("indirizzo", Destinatario::setIndirizzo)
+            .stringCol("citta", Destinatario::setCitta)
+            .stringCol("cap", Destinatario::setCap)
+            .stringCol("provincia", Destinatario::setProvincia)
+            .stringCol("piva", Destinatario::setPiva)
+            .stringCol("codice_fiscale", Destinatario::setCodiceFiscale)
+            .stringCol("telefono", Destinatario::setTelefono)
+            .stringCol("email", Destinatario::setEmail)
+            .stringCol("note", Destinatario::setNote)
+            .booleanCol("attivo", Destinatario::setAttivo)
+            .dateTimeCol("created_at", Destinatario::setCreatedAt);
+
+    private static final RowMapper<RiepilogoStato> RIEPILOGO_MAPPER = RowMapper.of(RiepilogoStato::new)
+            .intCol("anno", RiepilogoStato::setAnno)
+            .intCol("mese", RiepilogoStato::setMese)
+            .enumCol("stato", StatoDdt.class, RiepilogoStato::setStato)
+            .intCol("numero_ddt", RiepilogoStato::setNumeroDdt)
+            .intCol("numero_righe", RiepilogoStato::setNumeroRighe)
+            .decimalCol("importo", RiepilogoStato::setImporto);
+
+    private static final RowMapper<DdtElenco> ELENCO_MAPPER = RowMapper.of(ElencoBuilder::new)
+            .intCol("id", (b, v) -> b.id = v)
+            .intCol("numero", (b, v) -> b.numero = v)
+            .intCol("anno", (b, v) -> b.anno = v)
+            .dateCol("data_documento", (b, v) -> b.dataDocumento = v)
+            .intCol("destinatario_id", (b, v) -> b.destinatarioId = v)
+            .stringCol("ragione_sociale", (b, v) -> b.destinatario = v)
+            .enumCol("stato", StatoDdt.class, (b, v) -> b.stato = v)
+            .intCol("numero_righe", (b, v) -> b.numeroRighe = v)
+            .andThen(ElencoBuilder::build);
+
     @Override
     protected String getTableName() {
         return "ddt";
     }
 
     @Override
-    protected Ddt mapResultSet(ResultSet rs) throws SQLException {
-        Ddt d = new Ddt();
-        d.setId(rs.getInt("id"));
-        d.setNumero(rs.getInt("numero"));
-        d.setAnno(rs.getInt("anno"));
-        d.setDataDocumento(getLocalDate(rs, "data_documento"));
-        d.setDataTrasporto(getLocalDateTime(rs, "data_trasporto"));
-        Integer destId = getInteger(rs, "destinatario_id");
-        if (destId != null) d.setDestinatarioId(destId);
-        d.setDestinazioneDiversa(getString(rs, "destinazione_diversa"));
-        d.setMagazzinoId(rs.getInt("magazzino_id"));
-        d.setCausaleTrasporto(getString(rs, "causale_trasporto"));
-        d.setAspettoBeni(getString(rs, "aspetto_beni"));
-        d.setColli(rs.getInt("colli"));
-        d.setPesoKg(getBigDecimal(rs, "peso_kg"));
-        d.setPorto(getString(rs, "porto"));
-        d.setVettore(getString(rs, "vettore"));
-        d.setNote(getString(rs, "note"));
-        Integer utenteId = getInteger(rs, "utente_id");
-        if (utenteId != null) d.setUtenteId(utenteId);
-        d.setStato(StatoDdt.valueOf(getString(rs, "stato")));
-        d.setCreatedAt(getLocalDateTime(rs, "created_at"));
-        return d;
+    protected RowMapper<Ddt> getRowMapper() {
+        return MAPPER;
     }
 
     public List<Ddt> findByAnno(int anno) {
@@ -52,6 +106,19 @@ public class DdtDao extends BaseDao<Ddt> {
                 dataInizio, dataFine);
     }
 
+    // Rows of the DDT list: the righe are only counted, the detail screen loads them when a DDT is opened
+    public List<DdtElenco> findElencoByPeriodo(LocalDate dataInizio, LocalDate dataFine) {
+        String sql = """
+            SELECT d.id, d.numero, d.anno, d.data_documento, d.destinatario_id, dest.ragione_sociale, d.stato,
+                   (SELECT COUNT(*) FROM ddt_righe r WHERE r.ddt_id = d.id) AS numero_righe
+            FROM ddt d
+            LEFT JOIN destinatari dest ON d.destinatario_id = dest.id
+            WHERE d.data_documento BETWEEN ? AND ?
+            ORDER BY d.data_documento DESC, d.numero DESC
+            """;
+        return query(sql, ELENCO_MAPPER, dataInizio, dataFine);
+    }
+
     public List<Ddt> findByDestinatario(int destinatarioId) {
         return executeQuery(
                 "SELECT * FROM ddt WHERE destinatario_id = ? ORDER BY data_documento DESC, numero DESC",
@@ -84,18 +151,43 @@ public class DdtDao extends BaseDao<Ddt> {
             }
         } catch (SQLException e) {
             logger.error("Error getting next DDT number: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
         }
         return 1;
     }
 
+    private static final String INSERT_SQL = """
+        INSERT INTO ddt (numero, anno, data_documento, data_trasporto, destinatario_id,
+            destinazione_diversa, magazzino_id, causale_trasporto, aspetto_beni, colli,
+            peso_kg, porto, vettore, note, utente_id, stato)
+        VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+        """;
+
+    private static final String UPDATE_SQL = """
+        UPDATE ddt SET data_documento = ?, data_trasporto = ?, destinatario_id = ?,
+            destinazione_diversa = ?, magazzino_id = ?, causale_trasporto = ?, aspetto_beni = ?,
+            colli = ?, peso_kg = ?, porto = ?, vettore = ?, note = ?, stato = ?
+        WHERE id = ?
+        """;
+
     public int insert(Ddt ddt) {
-        String sql = """
-            INSERT INTO ddt (numero, anno, data_documento, data_trasporto, destinatario_id,
-                destinazione_diversa, magazzino_id, causale_trasporto, aspetto_beni, colli,
-                peso_kg, porto, vettore, note, utente_id, stato)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
-            """;
-        return executeInsert(sql,
+        return executeInsert(INSERT_SQL, insertParams(ddt));
+    }
+
+    public int insert(Connection conn, Ddt ddt) throws SQLException {
+        return executeInsert(conn, INSERT_SQL, insertParams(ddt));
+    }
+
+    public boolean update(Ddt ddt) {
+        return executeUpdate(UPDATE_SQL, updateParams(ddt)) > 0;
+    }
+
+    public boolean update(Connection conn, Ddt ddt) throws SQLException {
+        return executeUpdate(conn, UPDATE_SQL, updateParams(ddt)) > 0;
+    }
+
+    private Object[] insertParams(Ddt ddt) {
+        return new Object[] {
                 ddt.getNumero(),
                 ddt.getAnno(),
                 ddt.getDataDocumento(),
@@ -111,17 +203,12 @@ public class DdtDao extends BaseDao<Ddt> {
                 ddt.getVettore(),
                 ddt.getNote(),
                 ddt.getUtenteId() > 0 ? ddt.getUtenteId() : null,
-                ddt.getStato().name());
+                ddt.getStato().name()
+        };
     }
 
-    public boolean update(Ddt ddt) {
-        String sql = """
-            UPDATE ddt SET data_documento = ?, data_trasporto = ?, destinatario_id = ?,
-                destinazione_diversa = ?, magazzino_id = ?, causale_trasporto = ?, aspetto_beni = ?,
-                colli = ?, peso_kg = ?, porto = ?, vettore = ?, note = ?, stato = ?
-            WHERE id = ?
-            """;
-        return executeUpdate(sql,
+    private Object[] updateParams(Ddt ddt) {
+        return new Object[] {
                 ddt.getDataDocumento(),
                 ddt.getDataTrasporto(),
                 ddt.getDestinatarioId() > 0 ? ddt.getDestinatarioId() : null,
@@ -135,50 +222,161 @@ public class DdtDao extends BaseDao<Ddt> {
                 ddt.getVettore(),
                 ddt.getNote(),
                 ddt.getStato().name(),
-                ddt.getId()) > 0;
+                ddt.getId()
+        };
     }
 
     public boolean updateStato(int ddtId, StatoDdt stato) {
         return executeUpdate("UPDATE ddt SET stato = ? WHERE id = ?", stato.name(), ddtId) > 0;
     }
 
+    // Conditional transition: fails if another session already changed the stato
+    public boolean updateStato(Connection conn, int ddtId, StatoDdt statoAttuale, StatoDdt nuovoStato)
+            throws SQLException {
+        return executeUpdate(conn, "UPDATE ddt SET stato = ? WHERE id = ? AND stato = ?",
+                nuovoStato.name(), ddtId, statoAttuale.name()) > 0;
+    }
+
     // DDT Righe methods
     public List<DdtRiga> findRigheByDdt(int ddtId) {
         String sql = "SELECT * FROM ddt_righe WHERE ddt_id = ? ORDER BY ordine";
-        return new java.util.ArrayList<>() {{
-            try (var conn = getConnection();
-                 var stmt = conn.prepareStatement(sql)) {
-                stmt.setInt(1, ddtId);
-                try (var rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        DdtRiga r = new DdtRiga();
-                        r.setId(rs.getInt("id"));
-                        r.setDdtId(rs.getInt("ddt_id"));
-                        r.setProdottoId(rs.getInt("prodotto_id"));
-                        Integer lottoId = getInteger(rs, "lotto_id");
-                        if (lottoId != null) r.setLottoId(lottoId);
-                        r.setDescrizione(getString(rs, "descrizione"));
-                        r.setQuantita(getBigDecimal(rs, "quantita"));
-                        r.setUnitaMisura(getString(rs, "unita_misura"));
-                        r.setPrezzoUnitario(getBigDecimal(rs, "prezzo_unitario"));
-                        r.setAliquotaIva(getBigDecimal(rs, "aliquota_iva"));
-                        r.setOrdine(rs.getInt("ordine"));
-                        add(r);
-                    }
+        try (var conn = getConnection()) {
+            return query(conn, sql, RIGA_MAPPER, ddtId);
+        } catch (SQLException e) {
+            logger.error("Error finding DDT righe: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return new ArrayList<>();
+    }
+
+    // Headers of a print run, keyed by id
+    public Map<Integer, Ddt> findByIds(Collection<Integer> ids) {
+        Map<Integer, Ddt> result = new HashMap<>();
+        if (ids.isEmpty()) return result;
+        try (var conn = getReadConnection()) {
+            for (List<Integer> batch : partition(ids)) {
+                String sql = "SELECT * FROM ddt WHERE id IN (" + placeholders(batch.size()) + ")";
+                for (Ddt ddt : query(conn, sql, MAPPER, batch.toArray())) {
+                    result.put(ddt.getId(), ddt);
                 }
-            } catch (SQLException e) {
-                logger.error("Error finding DDT righe: {}", e.getMessage());
             }
-        }};
+        } catch (SQLException e) {
+            logger.error("Error finding DDT by ids: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return result;
     }
 
+    // Righe of a print run grouped by DDT; a riga without its own descrizione takes the product name,
+    // so printing needs no product lookup per riga
+    public Map<Integer, List<DdtRiga>> findRigheByDdtIds(Collection<Integer> ddtIds) {
+        Map<Integer, List<DdtRiga>> result = new HashMap<>();
+        if (ddtIds.isEmpty()) return result;
+        try (var conn = getReadConnection()) {
+            for (List<Integer> batch : partition(ddtIds)) {
+                String sql = """
+                    SELECT r.id, r.ddt_id, r.prodotto_id, r.lotto_id, COALESCE(r.descrizione, p.nome) AS descrizione,
+                           r.quantita, r.unita_misura, r.prezzo_unitario, r.aliquota_iva, r.ordine
+                    FROM ddt_righe r
+                    LEFT JOIN prodotti p ON r.prodotto_id = p.id
+                    WHERE r.ddt_id IN (%s)
+                    ORDER BY r.ddt_id, r.ordine
+                    """.formatted(placeholders(batch.size()));
+                for (DdtRiga riga : query(conn, sql, RIGA_MAPPER, batch.toArray())) {
+                    result.computeIfAbsent(riga.getDdtId(), k -> new ArrayList<>()).add(riga);
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error finding DDT righe by ids: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return result;
+    }
+
+    private static final String INSERT_RIGA_SQL = """
+        INSERT INTO ddt_righe (ddt_id, prodotto_id, lotto_id, descrizione, quantita,
+            unita_misura, prezzo_unitario, aliquota_iva, ordine)
+        VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+        """;
+
+    private static final String UPDATE_RIGA_SQL = """
+        UPDATE ddt_righe SET prodotto_id = ?, lotto_id = ?, descrizione = ?, quantita = ?,
+            unita_misura = ?, prezzo_unitario = ?, aliquota_iva = ?, ordine = ?
+        WHERE id = ?
+        """;
+
     public int insertRiga(DdtRiga riga) {
-        String sql = """
-            INSERT INTO ddt_righe (ddt_id, prodotto_id, lotto_id, descrizione, quantita,
-                unita_misura, prezzo_unitario, aliquota_iva, ordine)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
-            """;
-        return executeInsert(sql,
+        return executeInsert(INSERT_RIGA_SQL, insertRigaParams(riga));
+    }
+
+    public boolean updateRiga(DdtRiga riga) {
+        return executeUpdate(UPDATE_RIGA_SQL, updateRigaParams(riga)) > 0;
+    }
+
+    // Diffs the righe against the stored ones and applies inserts, updates and deletes as three batches
+    public void saveRighe(Connection conn, int ddtId, List<DdtRiga> righe) throws SQLException {
+        Set<Integer> esistenti = new HashSet<>();
+        try (var stmt = conn.prepareStatement("SELECT id FROM ddt_righe WHERE ddt_id = ?")) {
+            stmt.setInt(1, ddtId);
+            try (var rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    esistenti.add(rs.getInt(1));
+                }
+            }
+        }
+
+        List<DdtRiga> daInserire = new ArrayList<>();
+        List<DdtRiga> daAggiornare = new ArrayList<>();
+        Set<Integer> daEliminare = new HashSet<>(esistenti);
+        for (DdtRiga riga : righe) {
+            riga.setDdtId(ddtId);
+            if (riga.getId() > 0 && esistenti.contains(riga.getId())) {
+                daAggiornare.add(riga);
+                daEliminare.remove(riga.getId());
+            } else {
+                daInserire.add(riga);
+            }
+        }
+
+        if (!daEliminare.isEmpty()) {
+            try (var stmt = conn.prepareStatement("DELETE FROM ddt_righe WHERE id = ?")) {
+                for (int id : daEliminare) {
+                    stmt.setInt(1, id);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        }
+
+        if (!daAggiornare.isEmpty()) {
+            try (var stmt = conn.prepareStatement(UPDATE_RIGA_SQL)) {
+                for (DdtRiga riga : daAggiornare) {
+                    setParameters(stmt, updateRigaParams(riga));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        }
+
+        if (!daInserire.isEmpty()) {
+            try (var stmt = conn.prepareStatement(INSERT_RIGA_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                for (DdtRiga riga : daInserire) {
+                    setParameters(stmt, insertRigaParams(riga));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                try (var keys = stmt.getGeneratedKeys()) {
+                    for (DdtRiga riga : daInserire) {
+                        if (!keys.next()) break;
+                        riga.setId(keys.getInt(1));
+                    }
+                }
+            }
+        }
+    }
+
+    private Object[] insertRigaParams(DdtRiga riga) {
+        return new Object[] {
                 riga.getDdtId(),
                 riga.getProdottoId(),
                 riga.getLottoId() > 0 ? riga.getLottoId() : null,
@@ -187,16 +385,12 @@ public class DdtDao extends BaseDao<Ddt> {
                 riga.getUnitaMisura(),
                 riga.getPrezzoUnitario(),
                 riga.getAliquotaIva(),
-                riga.getOrdine());
+                riga.getOrdine()
+        };
     }
 
-    public boolean updateRiga(DdtRiga riga) {
-        String sql = """
-            UPDATE ddt_righe SET prodotto_id = ?, lotto_id = ?, descrizione = ?, quantita = ?,
-                unita_misura = ?, prezzo_unitario = ?, aliquota_iva = ?, ordine = ?
-            WHERE id = ?
-            """;
-        return executeUpdate(sql,
+    private Object[] updateRigaParams(DdtRiga riga) {
+        return new Object[] {
                 riga.getProdottoId(),
                 riga.getLottoId() > 0 ? riga.getLottoId() : null,
                 riga.getDescrizione(),
@@ -205,7 +399,8 @@ public class DdtDao extends BaseDao<Ddt> {
                 riga.getPrezzoUnitario(),
                 riga.getAliquotaIva(),
                 riga.getOrdine(),
-                riga.getId()) > 0;
+                riga.getId()
+        };
     }
 
     public boolean deleteRiga(int rigaId) {
@@ -219,19 +414,22 @@ public class DdtDao extends BaseDao<Ddt> {
     // Destinatari methods
     public List<Destinatario> findAllDestinatari() {
         String sql = "SELECT * FROM destinatari WHERE attivo = TRUE ORDER BY ragione_sociale";
-        return executeDestinatariQuery(sql);
+        return query(sql, DESTINATARIO_MAPPER);
+    }
+
+    public List<Destinatario> findAllDestinatariOrdered(Connection conn) throws SQLException {
+        return query(conn, "SELECT * FROM destinatari ORDER BY ragione_sociale", DESTINATARIO_MAPPER);
     }
 
     public Optional<Destinatario> findDestinatarioById(int id) {
         String sql = "SELECT * FROM destinatari WHERE id = ?";
-        List<Destinatario> list = executeDestinatariQuery(sql, id);
-        return list.isEmpty() ? Optional.empty() : Optional.of(list.get(0));
+        return queryOne(sql, DESTINATARIO_MAPPER, id);
     }
 
     public List<Destinatario> searchDestinatari(String text) {
         String pattern = "%" + text + "%";
         String sql = "SELECT * FROM destinatari WHERE (ragione_sociale LIKE ? OR codice LIKE ?) AND attivo = TRUE ORDER BY ragione_sociale";
-        return executeDestinatariQuery(sql, pattern, pattern);
+        return query(sql, DESTINATARIO_MAPPER, pattern, pattern);
     }
 
     public int insertDestinatario(Destinatario dest) {
@@ -278,37 +476,6 @@ public class DdtDao extends BaseDao<Ddt> {
                 dest.getId()) > 0;
     }
 
-    private List<Destinatario> executeDestinatariQuery(String sql, Object... params) {
-        return new java.util.ArrayList<>() {{
-            try (var conn = getConnection();
-                 var stmt = conn.prepareStatement(sql)) {
-                setParameters(stmt, params);
-                try (var rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        Destinatario d = new Destinatario();
-                        d.setId(rs.getInt("id"));
-                        d.setCodice(getString(rs, "codice"));
-                        d.setRagioneSociale(getString(rs, "ragione_sociale"));
-                        d.setIndirizzo(getString(rs, "indirizzo"));
-                        d.setCitta(getString(rs, "citta"));
-                        d.setCap(getString(rs, "cap"));
-                        d.setProvincia(getString(rs, "provincia"));
-                        d.setPiva(getString(rs, "piva"));
-                        d.setCodiceFiscale(getString(rs, "codice_fiscale"));
-                        d.setTelefono(getString(rs, "telefono"));
-                        d.setEmail(getString(rs, "email"));
-                        d.setNote(getString(rs, "note"));
-                        d.setAttivo(getBoolean(rs, "attivo"));
-                        d.setCreatedAt(getLocalDateTime(rs, "created_at"));
-                        add(d);
-                    }
-                }
-            } catch (SQLException e) {
-                logger.error("Error executing destinatari query: {}", e.getMessage());
-            }
-        }};
-    }
-
     public int countByMeseAnno(int mese, int anno) {
         String sql = "SELECT COUNT(*) FROM ddt WHERE MONTH(data_documento) = ? AND YEAR(data_documento) = ? AND stato = 'EMESSO'";
         try (var conn = getConnection();
@@ -322,7 +489,91 @@ public class DdtDao extends BaseDao<Ddt> {
             }
         } catch (SQLException e) {
             logger.error("Error counting DDT: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
         }
         return 0;
     }
+
+    // Counts, line count and amount per stato in a single pass over ddt and ddt_righe
+    public List<RiepilogoStato> getRiepilogoPerStato(LocalDate dataInizio, LocalDate dataFine) {
+        return executeRiepilogoQuery(dataInizio, dataFine, false);
+    }
+
+    public List<RiepilogoStato> getRiepilogoMensilePerStato(LocalDate dataInizio, LocalDate dataFine) {
+        return executeRiepilogoQuery(dataInizio, dataFine, true);
+    }
+
+    private List<RiepilogoStato> executeRiepilogoQuery(LocalDate dataInizio, LocalDate dataFine, boolean perMese) {
+        String periodo = perMese
+                ? "YEAR(d.data_documento) AS anno, MONTH(d.data_documento) AS mese"
+                : "0 AS anno, 0 AS mese";
+        String groupBy = perMese
+                ? "YEAR(d.data_documento), MONTH(d.data_documento), d.stato"
+                : "d.stato";
+        String sql = """
+            SELECT %s, d.stato,
+                   COUNT(DISTINCT d.id) AS numero_ddt,
+                   COUNT(r.id) AS numero_righe,
+                   COALESCE(SUM(r.quantita * r.prezzo_unitario), 0) AS importo
+            FROM ddt d
+            LEFT JOIN ddt_righe r ON r.ddt_id = d.id
+            WHERE d.data_documento BETWEEN ? AND ?
+            GROUP BY %s
+            ORDER BY %s
+            """.formatted(periodo, groupBy, groupBy);
+
+        try (var conn = getReadConnection()) {
+            return query(conn, sql, RIEPILOGO_MAPPER, dataInizio, dataFine);
+        } catch (SQLException e) {
+            logger.error("Error computing riepilogo DDT: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return new ArrayList<>();
+    }
+
+    public static class RiepilogoStato {
+        private int anno;
+        private int mese;
+        private StatoDdt stato;
+        private int numeroDdt;
+        private int numeroRighe;
+        private BigDecimal importo;
+
+        public int getAnno() { return anno; }
+        public void setAnno(int anno) { this.anno = anno; }
+        public int getMese() { return mese; }
+        public void setMese(int mese) { this.mese = mese; }
+        public StatoDdt getStato() { return stato; }
+        public void setStato(StatoDdt stato) { this.stato = stato; }
+        public int getNumeroDdt() { return numeroDdt; }
+        public void setNumeroDdt(int numeroDdt) { this.numeroDdt = numeroDdt; }
+        public int getNumeroRighe() { return numeroRighe; }
+        public void setNumeroRighe(int numeroRighe) { this.numeroRighe = numeroRighe; }
+        public BigDecimal getImporto() { return importo; }
+        public void setImporto(BigDecimal importo) { this.importo = importo; }
+    }
+
+    // Read-only row of the DDT list, without the FX properties and the righe of Ddt
+    public record DdtElenco(int id, int numero, int anno, LocalDate dataDocumento, int destinatarioId,
+                            String destinatario, StatoDdt stato, int numeroRighe) {
+
+        public String numeroCompleto() {
+            return String.format("%d/%d", numero, anno);
+        }
+    }
+
+    private static class ElencoBuilder {
+        int id;
+        int numero;
+        int anno;
+        LocalDate dataDocumento;
+        int destinatarioId;
+        String destinatario;
+        StatoDdt stato;
+        int numeroRighe;
+
+        DdtElenco build() {
+            return new DdtElenco(id, numero, anno, dataDocumento, destinatarioId, destinatario, stato, numeroRighe);
+        }
+    }
 }
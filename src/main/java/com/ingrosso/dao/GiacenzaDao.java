@@ -1,29 +1,70 @@
 package com.ingrosso.dao;
 
 import com.ingrosso.model.Giacenza;
+import com.ingrosso.util.TransactionManager;
 
 import java.math.BigDecimal;
-import java.sql.ResultSet;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public class GiacenzaDao extends BaseDao<Giacenza> {
 
+    private static final RowMapper<Giacenza> MAPPER = RowMapper.<Giacenza>of(Giacenza::new)
+            .intCol("id", Giacenza::setId)
+            .intCol("prodotto_id", Giacenza::setProdottoId)
+            .intCol("magazzino_id", Giacenza::setMagazzinoId)
+            .decimalCol("quantita", Giacenza::setQuantita)
+            .dateTimeCol("updated_at", Giacenza::setUpdatedAt);
+
+    private static final String SELECT_COMPLETE_SQL = """
+        SELECT g.*, p.codice, p.nome as prodotto_nome, p.scorta_minima, p.prezzo_acquisto, p.prezzo_vendita,
+               um.simbolo as unita_misura,
+               c.nome as categoria_nome, sc.nome as sottocategoria_nome
+        FROM giacenze g
+        JOIN prodotti p ON g.prodotto_id = p.id
+        JOIN unita_misura um ON p.unita_misura_id = um.id
+        LEFT JOIN sottocategorie sc ON p.sottocategoria_id = sc.id
+        LEFT JOIN categorie c ON sc.categoria_id = c.id
+        WHERE g.magazzino_id = ? AND p.attivo = TRUE
+        ORDER BY p.nome
+        """;
+
+    private static final RowMapper<GiacenzaCompleta> COMPLETA_MAPPER = RowMapper.of(GiacenzaCompleta::new)
+            .intCol("id", GiacenzaCompleta::setId)
+            .intCol("prodotto_id", GiacenzaCompleta::setProdottoId)
+            .intCol("magazzino_id", GiacenzaCompleta::setMagazzinoId)
+            .decimalCol("quantita", GiacenzaCompleta::setQuantita)
+            .stringCol("codice", GiacenzaCompleta::setCodice)
+            .stringCol("prodotto_nome", GiacenzaCompleta::setProdottoNome)
+            .decimalCol("scorta_minima", GiacenzaCompleta::setScortaMinima)
+            .decimalCol("prezzo_acquisto", GiacenzaCompleta::setPrezzoAcquisto)
+            .decimalCol("prezzo_vendita", GiacenzaCompleta::setPrezzoVendita)
+            .stringCol("unita_misura", GiacenzaCompleta::setUnitaMisura)
+            .stringCol("categoria_nome", GiacenzaCompleta::setCategoria)
+            .stringCol("sottocategoria_nome", GiacenzaCompleta::setSottocategoria);
+
+    private static final RowMapper<ValoreGruppo> VALORE_MAPPER = RowMapper.of(ValoreGruppo::new)
+            .stringCol("categoria", ValoreGruppo::setCategoria)
+            .stringCol("sottocategoria", ValoreGruppo::setSottocategoria)
+            .intCol("numero_prodotti", ValoreGruppo::setNumeroProdotti)
+            .decimalCol("valore_acquisto", ValoreGruppo::setValoreAcquisto)
+            .decimalCol("valore_vendita", ValoreGruppo::setValoreVendita)
+            .intCol("sotto_scorta", ValoreGruppo::setSottoScorta);
+
     @Override
     protected String getTableName() {
         return "giacenze";
     }
 
     @Override
-    protected Giacenza mapResultSet(ResultSet rs) throws SQLException {
-        Giacenza g = new Giacenza();
-        g.setId(rs.getInt("id"));
-        g.setProdottoId(rs.getInt("prodotto_id"));
-        g.setMagazzinoId(rs.getInt("magazzino_id"));
-        g.setQuantita(getBigDecimal(rs, "quantita"));
-        g.setUpdatedAt(getLocalDateTime(rs, "updated_at"));
-        return g;
+    protected RowMapper<Giacenza> getRowMapper() {
+        return MAPPER;
     }
 
     public List<Giacenza> findByMagazzino(int magazzinoId) {
@@ -52,10 +93,34 @@ public class GiacenzaDao extends BaseDao<Giacenza> {
             }
         } catch (SQLException e) {
             logger.error("Error getting giacenza totale: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
         }
         return BigDecimal.ZERO;
     }
 
+    public Map<Integer, BigDecimal> getGiacenzeTotali(Collection<Integer> prodottoIds) {
+        Map<Integer, BigDecimal> totali = new HashMap<>();
+        if (prodottoIds.isEmpty()) return totali;
+        try (var conn = getConnection()) {
+            for (List<Integer> batch : partition(prodottoIds)) {
+                String sql = "SELECT prodotto_id, COALESCE(SUM(quantita), 0) FROM giacenze WHERE prodotto_id IN ("
+                        + placeholders(batch.size()) + ") GROUP BY prodotto_id";
+                try (var stmt = conn.prepareStatement(sql)) {
+                    setParameters(stmt, batch.toArray());
+                    try (var rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            totali.put(rs.getInt(1), rs.getBigDecimal(2));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error getting giacenze totali: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return totali;
+    }
+
     public int insert(Giacenza giacenza) {
         String sql = "INSERT INTO giacenze (prodotto_id, magazzino_id, quantita) VALUES (?, ?, ?)";
         return executeInsert(sql,
@@ -91,49 +156,165 @@ public class GiacenzaDao extends BaseDao<Giacenza> {
         return executeUpdate(sql, prodottoId, magazzinoId, delta) >= 0;
     }
 
+    // Locks the giacenza row for the rest of the transaction, creating it at zero if missing
+    public BigDecimal lockQuantita(Connection conn, int prodottoId, int magazzinoId) throws SQLException {
+        executeUpdate(conn, """
+            INSERT INTO giacenze (prodotto_id, magazzino_id, quantita)
+            VALUES (?, ?, 0)
+            ON DUPLICATE KEY UPDATE id = id
+            """, prodottoId, magazzinoId);
+
+        String sql = "SELECT quantita FROM giacenze WHERE prodotto_id = ? AND magazzino_id = ? FOR UPDATE";
+        try (var stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, prodottoId);
+            stmt.setInt(2, magazzinoId);
+            try (var rs = stmt.executeQuery()) {
+                if (rs.next() && rs.getBigDecimal(1) != null) {
+                    return rs.getBigDecimal(1);
+                }
+            }
+        }
+        return BigDecimal.ZERO;
+    }
+
+    public void setQuantita(Connection conn, int prodottoId, int magazzinoId, BigDecimal quantita) throws SQLException {
+        executeUpdate(conn, "UPDATE giacenze SET quantita = ? WHERE prodotto_id = ? AND magazzino_id = ?",
+                quantita, prodottoId, magazzinoId);
+    }
+
+    // Locks the giacenze of several products of one magazzino, in prodotto_id order to avoid deadlocks
+    public Map<Integer, BigDecimal> lockQuantita(Connection conn, Collection<Integer> prodottoIds, int magazzinoId)
+            throws SQLException {
+        List<Integer> ids = new java.util.ArrayList<>(new java.util.TreeSet<>(prodottoIds));
+        Map<Integer, BigDecimal> quantita = new HashMap<>();
+        if (ids.isEmpty()) return quantita;
+
+        String insertSql = """
+            INSERT INTO giacenze (prodotto_id, magazzino_id, quantita)
+            VALUES (?, ?, 0)
+            ON DUPLICATE KEY UPDATE id = id
+            """;
+        try (var stmt = conn.prepareStatement(insertSql)) {
+            for (int prodottoId : ids) {
+                stmt.setInt(1, prodottoId);
+                stmt.setInt(2, magazzinoId);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+
+        for (List<Integer> batch : partition(ids)) {
+            String sql = "SELECT prodotto_id, quantita FROM giacenze WHERE magazzino_id = ? AND prodotto_id IN ("
+                    + placeholders(batch.size()) + ") ORDER BY prodotto_id FOR UPDATE";
+            try (var stmt = conn.prepareStatement(sql)) {
+                stmt.setInt(1, magazzinoId);
+                for (int i = 0; i < batch.size(); i++) {
+                    stmt.setInt(i + 2, batch.get(i));
+                }
+                try (var rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        BigDecimal q = rs.getBigDecimal(2);
+                        quantita.put(rs.getInt(1), q != null ? q : BigDecimal.ZERO);
+                    }
+                }
+            }
+        }
+        return quantita;
+    }
+
+    public void setQuantita(Connection conn, int magazzinoId, Map<Integer, BigDecimal> quantita) throws SQLException {
+        String sql = "UPDATE giacenze SET quantita = ? WHERE prodotto_id = ? AND magazzino_id = ?";
+        try (var stmt = conn.prepareStatement(sql)) {
+            for (Map.Entry<Integer, BigDecimal> entry : quantita.entrySet()) {
+                stmt.setBigDecimal(1, entry.getValue());
+                stmt.setInt(2, entry.getKey());
+                stmt.setInt(3, magazzinoId);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
     public boolean decrementQuantita(int prodottoId, int magazzinoId, BigDecimal delta) {
         return incrementQuantita(prodottoId, magazzinoId, delta.negate());
     }
 
     public List<GiacenzaCompleta> findGiacenzeComplete(int magazzinoId) {
+        try (var conn = getReadConnection()) {
+            return query(conn, SELECT_COMPLETE_SQL, COMPLETA_MAPPER, magazzinoId);
+        } catch (SQLException e) {
+            logger.error("Error finding giacenze complete: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return new java.util.ArrayList<>();
+    }
+
+    // Same rows as findGiacenzeComplete, streamed to the action instead of materialized; returns how many
+    public int forEachGiacenzaCompleta(int magazzinoId, Consumer<GiacenzaCompleta> action) {
+        try (var conn = getReadConnection()) {
+            return forEachRow(conn, SELECT_COMPLETE_SQL, COMPLETA_MAPPER, STREAM_FETCH_SIZE, action, magazzinoId);
+        } catch (SQLException e) {
+            logger.error("Error streaming giacenze complete: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return -1;
+    }
+
+    // Value at purchase and sale price and under-stock count of the active products, per subcategory with
+    // category subtotals and the grand total added by WITH ROLLUP, in one pass over the giacenze. Same
+    // rows and arithmetic as findGiacenzeComplete: a missing price counts as zero. With magazzinoId null
+    // every active magazzino is included, and a product stocked in several counts once, under stock if it
+    // is in any of them. Missing categories are grouped as '', so a NULL in the result is always a rollup row
+    public List<ValoreGruppo> findValorizzazione(Integer magazzinoId) {
         String sql = """
-            SELECT g.*, p.codice, p.nome as prodotto_nome, p.scorta_minima, p.prezzo_acquisto, p.prezzo_vendita,
-                   um.simbolo as unita_misura,
-                   c.nome as categoria_nome, sc.nome as sottocategoria_nome
+            SELECT COALESCE(c.nome, '') AS categoria, COALESCE(sc.nome, '') AS sottocategoria,
+                   COUNT(DISTINCT p.id) AS numero_prodotti,
+                   SUM(g.quantita * COALESCE(p.prezzo_acquisto, 0)) AS valore_acquisto,
+                   SUM(g.quantita * COALESCE(p.prezzo_vendita, 0)) AS valore_vendita,
+                   COUNT(DISTINCT CASE WHEN g.quantita < p.scorta_minima THEN p.id END) AS sotto_scorta
             FROM giacenze g
             JOIN prodotti p ON g.prodotto_id = p.id
-            JOIN unita_misura um ON p.unita_misura_id = um.id
+            JOIN magazzini m ON g.magazzino_id = m.id
             LEFT JOIN sottocategorie sc ON p.sottocategoria_id = sc.id
             LEFT JOIN categorie c ON sc.categoria_id = c.id
-            WHERE g.magazzino_id = ? AND p.attivo = TRUE
-            ORDER BY p.nome
-            """;
-        return new java.util.ArrayList<>() {{
-            try (var conn = getConnection();
-                 var stmt = conn.prepareStatement(sql)) {
-                stmt.setInt(1, magazzinoId);
-                try (var rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        GiacenzaCompleta gc = new GiacenzaCompleta();
-                        gc.setId(rs.getInt("id"));
-                        gc.setProdottoId(rs.getInt("prodotto_id"));
-                        gc.setMagazzinoId(rs.getInt("magazzino_id"));
-                        gc.setQuantita(getBigDecimal(rs, "quantita"));
-                        gc.setCodice(getString(rs, "codice"));
-                        gc.setProdottoNome(getString(rs, "prodotto_nome"));
-                        gc.setScortaMinima(getBigDecimal(rs, "scorta_minima"));
-                        gc.setPrezzoAcquisto(getBigDecimal(rs, "prezzo_acquisto"));
-                        gc.setPrezzoVendita(getBigDecimal(rs, "prezzo_vendita"));
-                        gc.setUnitaMisura(getString(rs, "unita_misura"));
-                        gc.setCategoria(getString(rs, "categoria_nome"));
-                        gc.setSottocategoria(getString(rs, "sottocategoria_nome"));
-                        add(gc);
-                    }
-                }
-            } catch (SQLException e) {
-                logger.error("Error finding giacenze complete: {}", e.getMessage());
-            }
-        }};
+            WHERE p.attivo = TRUE AND %s
+            GROUP BY categoria, sottocategoria WITH ROLLUP
+            """.formatted(magazzinoId != null ? "g.magazzino_id = ?" : "m.attivo = TRUE");
+        Object[] params = magazzinoId != null ? new Object[] { magazzinoId } : new Object[0];
+        try (var conn = getReadConnection()) {
+            return query(conn, sql, VALORE_MAPPER, params);
+        } catch (SQLException e) {
+            logger.error("Error computing valorizzazione magazzino: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return new java.util.ArrayList<>();
+    }
+
+    // A row of findValorizzazione: sottocategoria is null on category subtotals, both are null on the total
+    public static class ValoreGruppo {
+        private String categoria;
+        private String sottocategoria;
+        private int numeroProdotti;
+        private BigDecimal valoreAcquisto = BigDecimal.ZERO;
+        private BigDecimal valoreVendita = BigDecimal.ZERO;
+        private int sottoScorta;
+
+        public String getCategoria() { return categoria; }
+        public void setCategoria(String categoria) { this.categoria = categoria; }
+        public String getSottocategoria() { return sottocategoria; }
+        public void setSottocategoria(String sottocategoria) { this.sottocategoria = sottocategoria; }
+        public int getNumeroProdotti() { return numeroProdotti; }
+        public void setNumeroProdotti(int numeroProdotti) { this.numeroProdotti = numeroProdotti; }
+        public BigDecimal getValoreAcquisto() { return valoreAcquisto; }
+        public void setValoreAcquisto(BigDecimal valoreAcquisto) { this.valoreAcquisto = valoreAcquisto; }
+        public BigDecimal getValoreVendita() { return valoreVendita; }
+        public void setValoreVendita(BigDecimal valoreVendita) { this.valoreVendita = valoreVendita; }
+        public int getSottoScorta() { return sottoScorta; }
+        public void setSottoScorta(int sottoScorta) { this.sottoScorta = sottoScorta; }
+
+        public BigDecimal getValore(boolean prezzoVendita) {
+            return prezzoVendita ? valoreVendita : valoreAcquisto;
+        }
     }
 
     public static class GiacenzaCompleta {
@@ -1,35 +1,86 @@
 package com.ingrosso.dao;
 
 import com.ingrosso.model.*;
+import com.ingrosso.util.TransactionManager;
 
 import java.math.BigDecimal;
-import java.sql.ResultSet;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public class ListinoDao extends BaseDao<Listino> {
 
+    private static final RowMapper<Listino> MAPPER = RowMapper.<Listino>of(Listino::new)
+            .intCol("id", Listino::setId)
+            .stringCol("codice", Listino::setCodice)
+            .stringCol("nome", Listino::setNome)
+            .stringCol("descrizione", Listino::setDescrizione)
+            .enumCol("tipo", TipoListino.class, Listino::setTipo)
+            .dateCol("data_validita_inizio", Listino::setDataValiditaInizio)
+            .dateCol("data_validita_fine", Listino::setDataValiditaFine)
+            .booleanCol("principale", Listino::setPrincipale)
+            .booleanCol("attivo", Listino::setAttivo)
+            .dateTimeCol("created_at", Listino::setCreatedAt);
+
+    private static final RowMapper<ListinoPrezzo> PREZZO_MAPPER = RowMapper.<ListinoPrezzo>of(ListinoPrezzo::new)
+            .intCol("id", ListinoPrezzo::setId)
+            .intCol("listino_id", ListinoPrezzo::setListinoId)
+            .intCol("prodotto_id", ListinoPrezzo::setProdottoId)
+            .decimalCol("prezzo", ListinoPrezzo::setPrezzo)
+            .dateCol("data_inizio", ListinoPrezzo::setDataInizio)
+            .dateCol("data_fine", ListinoPrezzo::setDataFine);
+
+    private static final RowMapper<StoricoPrezzo> STORICO_MAPPER = RowMapper.<StoricoPrezzo>of(StoricoPrezzo::new)
+            .intCol("id", StoricoPrezzo::setId)
+            .intCol("prodotto_id", StoricoPrezzo::setProdottoId)
+            .enumCol("tipo", TipoListino.class, StoricoPrezzo::setTipo)
+            .decimalCol("prezzo_precedente", StoricoPrezzo::setPrezzoPrecedente)
+            .decimalCol("prezzo_nuovo", StoricoPrezzo::setPrezzoNuovo)
+            .decimalCol("variazione_percentuale", StoricoPrezzo::setVariazionePercentuale)
+            .optionalIntCol("utente_id", StoricoPrezzo::setUtenteId)
+            .dateTimeCol("data_modifica", StoricoPrezzo::setDataModifica);
+
+    private static final RowMapper<PrezzoElenco> ELENCO_MAPPER = RowMapper.of(ElencoBuilder::new)
+            .intCol("id", (b, v) -> b.id = v)
+            .intCol("listino_id", (b, v) -> b.listinoId = v)
+            .intCol("prodotto_id", (b, v) -> b.prodottoId = v)
+            .stringCol("codice", (b, v) -> b.codice = v)
+            .stringCol("nome", (b, v) -> b.nome = v)
+            .stringCol("unita_misura", (b, v) -> b.unitaMisura = v)
+            .decimalCol("prezzo", (b, v) -> b.prezzo = v)
+            .dateCol("data_inizio", (b, v) -> b.dataInizio = v)
+            .dateCol("data_fine", (b, v) -> b.dataFine = v)
+            .andThen(ElencoBuilder::build);
+
+    private static final RowMapper<RigaRevisione> RIGA_REVISIONE_MAPPER = RowMapper.of(RigaRevisioneBuilder::new)
+            .intCol("prodotto_id", (b, v) -> b.prodottoId = v)
+            .stringCol("codice", (b, v) -> b.codice = v)
+            .stringCol("nome", (b, v) -> b.nome = v)
+            .decimalCol("prezzo_precedente", (b, v) -> b.prezzoPrecedente = v)
+            .decimalCol("prezzo_nuovo", (b, v) -> b.prezzoNuovo = v)
+            .andThen(RigaRevisioneBuilder::build);
+
+    private static final RowMapper<RiepilogoRevisione> RIEPILOGO_REVISIONE_MAPPER = RowMapper.of(RiepilogoBuilder::new)
+            .intCol("prodotti", (b, v) -> b.prodotti = v)
+            .intCol("aumenti", (b, v) -> b.aumenti = v)
+            .intCol("diminuzioni", (b, v) -> b.diminuzioni = v)
+            .decimalCol("variazione_minima", (b, v) -> b.variazioneMinima = v)
+            .decimalCol("variazione_media", (b, v) -> b.variazioneMedia = v)
+            .decimalCol("variazione_massima", (b, v) -> b.variazioneMassima = v)
+            .andThen(RiepilogoBuilder::build);
+
     @Override
     protected String getTableName() {
         return "listini";
     }
 
     @Override
-    protected Listino mapResultSet(ResultSet rs) throws SQLException {
-        Listino l = new Listino();
-        l.setId(rs.getInt("id"));
-        l.setCodice(getString(rs, "codice"));
-        l.setNome(getString(rs, "nome"));
-        l.setDescrizione(getString(rs, "descrizione"));
-        l.setTipo(TipoListino.valueOf(getString(rs, "tipo")));
-        l.setDataValiditaInizio(getLocalDate(rs, "data_validita_inizio"));
-        l.setDataValiditaFine(getLocalDate(rs, "data_validita_fine"));
-        l.setPrincipale(getBoolean(rs, "principale"));
-        l.setAttivo(getBoolean(rs, "attivo"));
-        l.setCreatedAt(getLocalDateTime(rs, "created_at"));
-        return l;
+    protected RowMapper<Listino> getRowMapper() {
+        return MAPPER;
     }
 
     public List<Listino> findAllActive() {
@@ -95,10 +146,114 @@ public class ListinoDao extends BaseDao<Listino> {
                 listino.getId()) > 0;
     }
 
+    // The row lp is the one in force on the date bound twice after it: the latest interval started
+    // by then that has not ended. Same semantics as findPrezzoCorrente, answered by the unique key
+    private static final String IN_VIGORE_SQL = """
+        lp.data_inizio = (SELECT MAX(x.data_inizio) FROM listini_prezzi x
+                          WHERE x.listino_id = lp.listino_id AND x.prodotto_id = lp.prodotto_id
+                            AND x.data_inizio <= ? AND (x.data_fine IS NULL OR x.data_fine >= ?))""";
+
+    private static final String SELECT_ELENCO_SQL = """
+        SELECT lp.id, lp.listino_id, lp.prodotto_id, p.codice, p.nome, um.simbolo AS unita_misura,
+               lp.prezzo, lp.data_inizio, lp.data_fine
+        FROM listini_prezzi lp
+        JOIN prodotti p ON lp.prodotto_id = p.id
+        JOIN unita_misura um ON p.unita_misura_id = um.id
+        WHERE lp.listino_id = ?
+        """;
+
     // Listino Prezzi methods
     public List<ListinoPrezzo> findPrezziByListino(int listinoId) {
         String sql = "SELECT * FROM listini_prezzi WHERE listino_id = ? ORDER BY data_inizio DESC";
-        return executePrezziQuery(sql, listinoId);
+        return query(sql, PREZZO_MAPPER, listinoId);
+    }
+
+    // Keyset pagination on (codice, data_inizio): the page after the given row, by product with the
+    // latest interval first. With dopo == null the first page is returned
+    public List<PrezzoElenco> findPaginaPrezzi(int listinoId, FiltroPrezzi filtro, PrezzoElenco dopo, int limite) {
+        StringBuilder sql = new StringBuilder(SELECT_ELENCO_SQL);
+        List<Object> params = new ArrayList<>(List.of(listinoId));
+        appendFiltroPrezzi(sql, params, filtro);
+
+        if (dopo != null) {
+            sql.append(" AND (p.codice > ? OR (p.codice = ? AND lp.data_inizio < ?))");
+            params.add(dopo.codice());
+            params.add(dopo.codice());
+            params.add(dopo.dataInizio());
+        }
+
+        sql.append(" ORDER BY p.codice, lp.data_inizio DESC LIMIT ?");
+        params.add(limite);
+
+        try (var conn = getReadConnection()) {
+            return query(conn, sql.toString(), ELENCO_MAPPER, params.toArray());
+        } catch (SQLException e) {
+            logger.error("Error loading prezzi page of listino {}: {}", listinoId, e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return new ArrayList<>();
+    }
+
+    public int countPrezzi(int listinoId, FiltroPrezzi filtro) {
+        StringBuilder sql = new StringBuilder("""
+            SELECT COUNT(*)
+            FROM listini_prezzi lp
+            JOIN prodotti p ON lp.prodotto_id = p.id
+            WHERE lp.listino_id = ?
+            """);
+        List<Object> params = new ArrayList<>(List.of(listinoId));
+        appendFiltroPrezzi(sql, params, filtro);
+
+        try (var conn = getReadConnection();
+             var stmt = conn.prepareStatement(sql.toString())) {
+            setParameters(stmt, params.toArray());
+            try (var rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error counting prezzi of listino {}: {}", listinoId, e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return 0;
+    }
+
+    private void appendFiltroPrezzi(StringBuilder sql, List<Object> params, FiltroPrezzi filtro) {
+        if (filtro.testo != null && !filtro.testo.isBlank()) {
+            String like = "%" + filtro.testo.trim() + "%";
+            sql.append(" AND (p.codice LIKE ? OR p.nome LIKE ? OR p.barcode LIKE ?)");
+            params.add(like);
+            params.add(like);
+            params.add(like);
+        }
+        if (filtro.validita != null) {
+            LocalDate oggi = LocalDate.now();
+            switch (filtro.validita) {
+                case IN_VIGORE -> {
+                    sql.append(" AND ").append(IN_VIGORE_SQL);
+                    params.add(oggi);
+                    params.add(oggi);
+                }
+                case FUTURI -> {
+                    sql.append(" AND lp.data_inizio > ?");
+                    params.add(oggi);
+                }
+                case SCADUTI -> {
+                    // Ended, or replaced by a later interval
+                    sql.append(" AND lp.data_inizio <= ? AND NOT (").append(IN_VIGORE_SQL).append(")");
+                    params.add(oggi);
+                    params.add(oggi);
+                    params.add(oggi);
+                }
+            }
+        }
+    }
+
+    // Same rows as findPrezziByListino, streamed for scans over large listini
+    public int forEachPrezzoByListino(int listinoId, Consumer<ListinoPrezzo> action) {
+        String sql = "SELECT * FROM listini_prezzi WHERE listino_id = ?";
+        return forEachRow(sql, PREZZO_MAPPER, STREAM_FETCH_SIZE, action, listinoId);
     }
 
     public Optional<ListinoPrezzo> findPrezzoCorrente(int listinoId, int prodottoId) {
@@ -110,8 +265,7 @@ public class ListinoDao extends BaseDao<Listino> {
             ORDER BY data_inizio DESC
             LIMIT 1
             """;
-        List<ListinoPrezzo> list = executePrezziQuery(sql, listinoId, prodottoId);
-        return list.isEmpty() ? Optional.empty() : Optional.of(list.get(0));
+        return queryOne(sql, PREZZO_MAPPER, listinoId, prodottoId);
     }
 
     public BigDecimal getPrezzoVendita(int prodottoId) {
@@ -138,6 +292,27 @@ public class ListinoDao extends BaseDao<Listino> {
                 prezzo.getDataFine());
     }
 
+    // Batched; a price of the same listino and prodotto starting the same day is replaced
+    public void upsertPrezziBatch(Connection conn, List<ListinoPrezzo> prezzi) throws SQLException {
+        String sql = """
+            INSERT INTO listini_prezzi (listino_id, prodotto_id, prezzo, data_inizio, data_fine)
+            VALUES (?, ?, ?, ?, ?)
+            ON DUPLICATE KEY UPDATE prezzo = VALUES(prezzo), data_fine = VALUES(data_fine)
+            """;
+        try (var stmt = conn.prepareStatement(sql)) {
+            for (ListinoPrezzo prezzo : prezzi) {
+                setParameters(stmt,
+                        prezzo.getListinoId(),
+                        prezzo.getProdottoId(),
+                        prezzo.getPrezzo(),
+                        prezzo.getDataInizio(),
+                        prezzo.getDataFine());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
     public boolean updatePrezzo(ListinoPrezzo prezzo) {
         String sql = "UPDATE listini_prezzi SET prezzo = ?, data_inizio = ?, data_fine = ? WHERE id = ?";
         return executeUpdate(sql,
@@ -151,73 +326,215 @@ public class ListinoDao extends BaseDao<Listino> {
         return executeUpdate("DELETE FROM listini_prezzi WHERE id = ?", prezzoId) > 0;
     }
 
-    private List<ListinoPrezzo> executePrezziQuery(String sql, Object... params) {
-        return new java.util.ArrayList<>() {{
-            try (var conn = getConnection();
-                 var stmt = conn.prepareStatement(sql)) {
-                setParameters(stmt, params);
-                try (var rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        ListinoPrezzo lp = new ListinoPrezzo();
-                        lp.setId(rs.getInt("id"));
-                        lp.setListinoId(rs.getInt("listino_id"));
-                        lp.setProdottoId(rs.getInt("prodotto_id"));
-                        lp.setPrezzo(getBigDecimal(rs, "prezzo"));
-                        lp.setDataInizio(getLocalDate(rs, "data_inizio"));
-                        lp.setDataFine(getLocalDate(rs, "data_fine"));
-                        add(lp);
-                    }
-                }
-            } catch (SQLException e) {
-                logger.error("Error executing prezzi query: {}", e.getMessage());
-            }
-        }};
-    }
-
     // Storico Prezzi methods
     public List<StoricoPrezzo> findStoricoPrezzi(int prodottoId) {
         String sql = "SELECT * FROM storico_prezzi WHERE prodotto_id = ? ORDER BY data_modifica DESC";
-        return executeStoricoQuery(sql, prodottoId);
+        return query(sql, STORICO_MAPPER, prodottoId);
     }
 
+    private static final String INSERT_STORICO_SQL = """
+        INSERT INTO storico_prezzi (prodotto_id, tipo, prezzo_precedente, prezzo_nuovo,
+            variazione_percentuale, utente_id)
+        VALUES (?, ?, ?, ?, ?, ?)
+        """;
+
     public int insertStoricoPrezzo(StoricoPrezzo storico) {
-        String sql = """
-            INSERT INTO storico_prezzi (prodotto_id, tipo, prezzo_precedente, prezzo_nuovo,
-                variazione_percentuale, utente_id)
-            VALUES (?, ?, ?, ?, ?, ?)
-            """;
-        return executeInsert(sql,
+        return executeInsert(INSERT_STORICO_SQL, storicoParams(storico));
+    }
+
+    public void insertStoricoBatch(Connection conn, List<StoricoPrezzo> storico) throws SQLException {
+        try (var stmt = conn.prepareStatement(INSERT_STORICO_SQL)) {
+            for (StoricoPrezzo s : storico) {
+                setParameters(stmt, storicoParams(s));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private Object[] storicoParams(StoricoPrezzo storico) {
+        return new Object[] {
                 storico.getProdottoId(),
                 storico.getTipo().name(),
                 storico.getPrezzoPrecedente(),
                 storico.getPrezzoNuovo(),
                 storico.getVariazionePercentuale(),
-                storico.getUtenteId() > 0 ? storico.getUtenteId() : null);
-    }
-
-    private List<StoricoPrezzo> executeStoricoQuery(String sql, Object... params) {
-        return new java.util.ArrayList<>() {{
-            try (var conn = getConnection();
-                 var stmt = conn.prepareStatement(sql)) {
-                setParameters(stmt, params);
-                try (var rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        StoricoPrezzo sp = new StoricoPrezzo();
-                        sp.setId(rs.getInt("id"));
-                        sp.setProdottoId(rs.getInt("prodotto_id"));
-                        sp.setTipo(TipoListino.valueOf(getString(rs, "tipo")));
-                        sp.setPrezzoPrecedente(getBigDecimal(rs, "prezzo_precedente"));
-                        sp.setPrezzoNuovo(getBigDecimal(rs, "prezzo_nuovo"));
-                        sp.setVariazionePercentuale(getBigDecimal(rs, "variazione_percentuale"));
-                        Integer utenteId = getInteger(rs, "utente_id");
-                        if (utenteId != null) sp.setUtenteId(utenteId);
-                        sp.setDataModifica(getLocalDateTime(rs, "data_modifica"));
-                        add(sp);
-                    }
-                }
-            } catch (SQLException e) {
-                logger.error("Error executing storico query: {}", e.getMessage());
-            }
-        }};
+                storico.getUtenteId() > 0 ? storico.getUtenteId() : null
+        };
+    }
+
+    // Revisione prezzi: the whole revision is computed by the database. The derived table has one row
+    // per active product of the filter whose price in force on dataInizio would change, with the same
+    // semantics as findPrezzoCorrente at that date; the preview and the revision share it.
+    private static String revisioneSql(RevisionePrezzi revisione, List<Object> params) {
+        String prezzoNuovo = switch (revisione.tipo()) {
+            case PERCENTUALE -> "lp.prezzo * (100 + ?) / 100";
+            case IMPORTO -> "lp.prezzo + ?";
+            case ARROTONDAMENTO -> "lp.prezzo";
+        };
+        if (revisione.tipo() != TipoVariazione.ARROTONDAMENTO) {
+            params.add(revisione.valore());
+        }
+        if (revisione.arrotondamento() != null) {
+            // To the nearest multiple, e.g. 0.05 or 1
+            prezzoNuovo = "ROUND((" + prezzoNuovo + ") / ?) * ?";
+            params.add(revisione.arrotondamento());
+            params.add(revisione.arrotondamento());
+        }
+
+        StringBuilder sql = new StringBuilder("""
+            SELECT lp.prodotto_id, p.codice, p.nome, lp.prezzo AS prezzo_precedente, lp.data_fine,
+                   GREATEST(ROUND(%s, 4), 0) AS prezzo_nuovo
+            FROM listini_prezzi lp
+            JOIN prodotti p ON lp.prodotto_id = p.id
+            LEFT JOIN sottocategorie sc ON p.sottocategoria_id = sc.id
+            WHERE lp.listino_id = ? AND p.attivo = TRUE AND %s
+            """.formatted(prezzoNuovo, IN_VIGORE_SQL));
+        params.add(revisione.listinoId());
+        params.add(revisione.dataInizio());
+        params.add(revisione.dataInizio());
+
+        if (revisione.categoriaId() != null) {
+            sql.append(" AND sc.categoria_id = ?");
+            params.add(revisione.categoriaId());
+        }
+        if (revisione.sottocategoriaId() != null) {
+            sql.append(" AND p.sottocategoria_id = ?");
+            params.add(revisione.sottocategoriaId());
+        }
+        if (revisione.prefissoCodice() != null && !revisione.prefissoCodice().isBlank()) {
+            sql.append(" AND p.codice LIKE ?");
+            params.add(revisione.prefissoCodice().trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+        }
+        return "(" + sql + ") r WHERE r.prezzo_nuovo <> r.prezzo_precedente";
+    }
+
+    // Counts and percentage variations of the revision, without writing anything
+    public RiepilogoRevisione riepilogoRevisione(Connection conn, RevisionePrezzi revisione) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        String sql = """
+            SELECT COUNT(*) AS prodotti,
+                   COALESCE(SUM(r.prezzo_nuovo > r.prezzo_precedente), 0) AS aumenti,
+                   COALESCE(SUM(r.prezzo_nuovo < r.prezzo_precedente), 0) AS diminuzioni,
+                   MIN(%1$s) AS variazione_minima,
+                   AVG(%1$s) AS variazione_media,
+                   MAX(%1$s) AS variazione_massima
+            FROM """.formatted(VARIAZIONE_SQL) + " " + revisioneSql(revisione, params);
+        return queryOne(conn, sql, RIEPILOGO_REVISIONE_MAPPER, params.toArray()).orElseThrow();
+    }
+
+    // The first rows of the revision by codice, for the preview
+    public List<RigaRevisione> findRigheRevisione(Connection conn, RevisionePrezzi revisione, int limite)
+            throws SQLException {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT r.* FROM " + revisioneSql(revisione, params) + " ORDER BY r.codice LIMIT ?";
+        params.add(limite);
+        return query(conn, sql, RIGA_REVISIONE_MAPPER, params.toArray());
+    }
+
+    // Two set-based statements: the history rows first, while the derived table still sees the old
+    // prices, then the new prices from dataInizio. A price of the same day is replaced.
+    // Returns the number of products revised
+    public int applicaRevisione(Connection conn, RevisionePrezzi revisione, TipoListino tipo, Integer utenteId)
+            throws SQLException {
+        List<Object> params = new ArrayList<>(List.of(tipo.name()));
+        params.add(utenteId);
+        String storicoSql = """
+            INSERT INTO storico_prezzi (prodotto_id, tipo, prezzo_precedente, prezzo_nuovo,
+                variazione_percentuale, utente_id)
+            SELECT r.prodotto_id, ?, r.prezzo_precedente, r.prezzo_nuovo, %s, ?
+            FROM """.formatted(VARIAZIONE_SQL) + " " + revisioneSql(revisione, params);
+        int revisionati = executeUpdate(conn, storicoSql, params.toArray());
+
+        params = new ArrayList<>(List.of(revisione.listinoId(), revisione.dataInizio()));
+        // The revised price ends when the one it replaces did, on a new row or on the same-day one
+        String prezziSql = "INSERT INTO listini_prezzi (listino_id, prodotto_id, prezzo, data_inizio, data_fine)"
+                + " SELECT ?, r.prodotto_id, r.prezzo_nuovo, ?, r.data_fine FROM " + revisioneSql(revisione, params)
+                + " ON DUPLICATE KEY UPDATE prezzo = VALUES(prezzo), data_fine = VALUES(data_fine)";
+        executeUpdate(conn, prezziSql, params.toArray());
+        return revisionati;
+    }
+
+    // Same rounding as StoricoPrezzo.calcolaVariazione; no variation from a zero price
+    private static final String VARIAZIONE_SQL = """
+        CASE WHEN r.prezzo_precedente <> 0
+             THEN ROUND((r.prezzo_nuovo - r.prezzo_precedente) / r.prezzo_precedente, 4) * 100 END""";
+
+    public enum ValiditaPrezzo { IN_VIGORE, FUTURI, SCADUTI }
+
+    public static class FiltroPrezzi {
+        public String testo;
+        // null for every interval
+        public ValiditaPrezzo validita;
+    }
+
+    // Read-only row of the listino detail, with the product fields it shows
+    public record PrezzoElenco(int id, int listinoId, int prodottoId, String codice, String nome, String unitaMisura,
+                               BigDecimal prezzo, LocalDate dataInizio, LocalDate dataFine) {
+
+        public ListinoPrezzo toListinoPrezzo() {
+            ListinoPrezzo prezzo = new ListinoPrezzo(listinoId, prodottoId, this.prezzo, dataInizio);
+            prezzo.setId(id);
+            prezzo.setDataFine(dataFine);
+            return prezzo;
+        }
+    }
+
+    private static class ElencoBuilder {
+        int id;
+        int listinoId;
+        int prodottoId;
+        String codice;
+        String nome;
+        String unitaMisura;
+        BigDecimal prezzo;
+        LocalDate dataInizio;
+        LocalDate dataFine;
+
+        PrezzoElenco build() {
+            return new PrezzoElenco(id, listinoId, prodottoId, codice, nome, unitaMisura, prezzo, dataInizio, dataFine);
+        }
+    }
+
+    public enum TipoVariazione { PERCENTUALE, IMPORTO, ARROTONDAMENTO }
+
+    // valore is a percentage or an amount to add, negative for a reduction, and is ignored for
+    // ARROTONDAMENTO; arrotondamento is the rounding step, or null to keep the cents as computed.
+    // The filters left null select every product of the listino
+    public record RevisionePrezzi(int listinoId, Integer categoriaId, Integer sottocategoriaId, String prefissoCodice,
+                                  TipoVariazione tipo, BigDecimal valore, BigDecimal arrotondamento,
+                                  LocalDate dataInizio) {}
+
+    public record RigaRevisione(int prodottoId, String codice, String nome, BigDecimal prezzoPrecedente,
+                                BigDecimal prezzoNuovo) {}
+
+    // Variations in percent; null when no product changes
+    public record RiepilogoRevisione(int prodotti, int aumenti, int diminuzioni, BigDecimal variazioneMinima,
+                                     BigDecimal variazioneMedia, BigDecimal variazioneMassima) {}
+
+    private static class RigaRevisioneBuilder {
+        int prodottoId;
+        String codice;
+        String nome;
+        BigDecimal prezzoPrecedente;
+        BigDecimal prezzoNuovo;
+
+        RigaRevisione build() {
+            return new RigaRevisione(prodottoId, codice, nome, prezzoPrecedente, prezzoNuovo);
+        }
+    }
+
+    private static class RiepilogoBuilder {
+        int prodotti;
+        int aumenti;
+        int diminuzioni;
+        BigDecimal variazioneMinima;
+        BigDecimal variazioneMedia;
+        BigDecimal variazioneMassima;
+
+        RiepilogoRevisione build() {
+            return new RiepilogoRevisione(prodotti, aumenti, diminuzioni, variazioneMinima, variazioneMedia,
+                    variazioneMassima);
+        }
     }
 }
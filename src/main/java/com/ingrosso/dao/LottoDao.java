@@ -1,33 +1,48 @@
 package com.ingrosso.dao;
 
 import com.ingrosso.model.Lotto;
+import com.ingrosso.util.TransactionManager;
 
 import java.math.BigDecimal;
-import java.sql.ResultSet;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 
 public class LottoDao extends BaseDao<Lotto> {
 
+    private static final RowMapper<Lotto> MAPPER = RowMapper.<Lotto>of(Lotto::new)
+            .intCol("id", Lotto::setId)
+            .intCol("prodotto_id", Lotto::setProdottoId)
+            .intCol("magazzino_id", Lotto::setMagazzinoId)
+            .stringCol("numero_lotto", Lotto::setNumeroLotto)
+            .dateCol("data_produzione", Lotto::setDataProduzione)
+            .dateCol("data_scadenza", Lotto::setDataScadenza)
+            .decimalCol("quantita", Lotto::setQuantita)
+            .stringCol("note", Lotto::setNote)
+            .dateTimeCol("created_at", Lotto::setCreatedAt);
+
+    private static final RowMapper<LottoCompleto> COMPLETO_MAPPER = RowMapper.of(LottoCompleto::new)
+            .intCol("id", LottoCompleto::setId)
+            .intCol("prodotto_id", LottoCompleto::setProdottoId)
+            .intCol("magazzino_id", LottoCompleto::setMagazzinoId)
+            .stringCol("numero_lotto", LottoCompleto::setNumeroLotto)
+            .dateCol("data_scadenza", LottoCompleto::setDataScadenza)
+            .decimalCol("quantita", LottoCompleto::setQuantita)
+            .stringCol("codice", LottoCompleto::setCodice)
+            .stringCol("prodotto_nome", LottoCompleto::setProdottoNome)
+            .stringCol("magazzino_nome", LottoCompleto::setMagazzinoNome)
+            .intCol("giorni_a_scadenza", LottoCompleto::setGiorniAScadenza);
+
     @Override
     protected String getTableName() {
         return "lotti";
     }
 
     @Override
-    protected Lotto mapResultSet(ResultSet rs) throws SQLException {
-        Lotto l = new Lotto();
-        l.setId(rs.getInt("id"));
-        l.setProdottoId(rs.getInt("prodotto_id"));
-        l.setMagazzinoId(rs.getInt("magazzino_id"));
-        l.setNumeroLotto(getString(rs, "numero_lotto"));
-        l.setDataProduzione(getLocalDate(rs, "data_produzione"));
-        l.setDataScadenza(getLocalDate(rs, "data_scadenza"));
-        l.setQuantita(getBigDecimal(rs, "quantita"));
-        l.setNote(getString(rs, "note"));
-        l.setCreatedAt(getLocalDateTime(rs, "created_at"));
-        return l;
+    protected RowMapper<Lotto> getRowMapper() {
+        return MAPPER;
     }
 
     public List<Lotto> findByProdotto(int prodottoId) {
@@ -68,30 +83,13 @@ public class LottoDao extends BaseDao<Lotto> {
               AND l.data_scadenza <= DATE_ADD(CURDATE(), INTERVAL ? DAY)
             ORDER BY l.data_scadenza
             """;
-        return new java.util.ArrayList<>() {{
-            try (var conn = getConnection();
-                 var stmt = conn.prepareStatement(sql)) {
-                stmt.setInt(1, giorni);
-                try (var rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        LottoCompleto lc = new LottoCompleto();
-                        lc.setId(rs.getInt("id"));
-                        lc.setProdottoId(rs.getInt("prodotto_id"));
-                        lc.setMagazzinoId(rs.getInt("magazzino_id"));
-                        lc.setNumeroLotto(getString(rs, "numero_lotto"));
-                        lc.setDataScadenza(getLocalDate(rs, "data_scadenza"));
-                        lc.setQuantita(getBigDecimal(rs, "quantita"));
-                        lc.setCodice(getString(rs, "codice"));
-                        lc.setProdottoNome(getString(rs, "prodotto_nome"));
-                        lc.setMagazzinoNome(getString(rs, "magazzino_nome"));
-                        lc.setGiorniAScadenza(rs.getInt("giorni_a_scadenza"));
-                        add(lc);
-                    }
-                }
-            } catch (SQLException e) {
-                logger.error("Error finding lotti in scadenza: {}", e.getMessage());
-            }
-        }};
+        try (var conn = getReadConnection()) {
+            return query(conn, sql, COMPLETO_MAPPER, giorni);
+        } catch (SQLException e) {
+            logger.error("Error finding lotti in scadenza: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return new java.util.ArrayList<>();
     }
 
     public int insert(Lotto lotto) {
@@ -129,10 +127,48 @@ public class LottoDao extends BaseDao<Lotto> {
         return executeUpdate("UPDATE lotti SET quantita = ? WHERE id = ?", quantita, lottoId) > 0;
     }
 
+    public int countInScadenza(int giorni) {
+        String sql = """
+            SELECT COUNT(*) FROM lotti
+            WHERE quantita > 0
+              AND data_scadenza IS NOT NULL
+              AND data_scadenza <= DATE_ADD(CURDATE(), INTERVAL ? DAY)
+            """;
+        try (var conn = getConnection();
+             var stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, giorni);
+            try (var rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error counting lotti in scadenza: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return 0;
+    }
+
     public boolean incrementQuantita(int lottoId, BigDecimal delta) {
         return executeUpdate("UPDATE lotti SET quantita = quantita + ? WHERE id = ?", delta, lottoId) > 0;
     }
 
+    public void incrementQuantita(Connection conn, int lottoId, BigDecimal delta) throws SQLException {
+        executeUpdate(conn, "UPDATE lotti SET quantita = quantita + ? WHERE id = ?", delta, lottoId);
+    }
+
+    public void incrementQuantita(Connection conn, Map<Integer, BigDecimal> deltaPerLotto) throws SQLException {
+        if (deltaPerLotto.isEmpty()) return;
+        try (var stmt = conn.prepareStatement("UPDATE lotti SET quantita = quantita + ? WHERE id = ?")) {
+            for (Map.Entry<Integer, BigDecimal> entry : deltaPerLotto.entrySet()) {
+                stmt.setBigDecimal(1, entry.getValue());
+                stmt.setInt(2, entry.getKey());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
     public static class LottoCompleto {
         private int id;
         private int prodottoId;
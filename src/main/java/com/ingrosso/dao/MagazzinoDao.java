@@ -1,36 +1,42 @@
 package com.ingrosso.dao;
 
 import com.ingrosso.model.Magazzino;
+import com.ingrosso.util.TransactionManager;
 
-import java.sql.ResultSet;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Optional;
 
 public class MagazzinoDao extends BaseDao<Magazzino> {
 
+    private static final RowMapper<Magazzino> MAPPER = RowMapper.<Magazzino>of(Magazzino::new)
+            .intCol("id", Magazzino::setId)
+            .stringCol("codice", Magazzino::setCodice)
+            .stringCol("nome", Magazzino::setNome)
+            .stringCol("indirizzo", Magazzino::setIndirizzo)
+            .stringCol("citta", Magazzino::setCitta)
+            .booleanCol("principale", Magazzino::setPrincipale)
+            .booleanCol("attivo", Magazzino::setAttivo);
+
     @Override
     protected String getTableName() {
         return "magazzini";
     }
 
     @Override
-    protected Magazzino mapResultSet(ResultSet rs) throws SQLException {
-        Magazzino m = new Magazzino();
-        m.setId(rs.getInt("id"));
-        m.setCodice(getString(rs, "codice"));
-        m.setNome(getString(rs, "nome"));
-        m.setIndirizzo(getString(rs, "indirizzo"));
-        m.setCitta(getString(rs, "citta"));
-        m.setPrincipale(getBoolean(rs, "principale"));
-        m.setAttivo(getBoolean(rs, "attivo"));
-        return m;
+    protected RowMapper<Magazzino> getRowMapper() {
+        return MAPPER;
     }
 
     public List<Magazzino> findAllActive() {
         return executeQuery("SELECT * FROM magazzini WHERE attivo = TRUE ORDER BY principale DESC, nome");
     }
 
+    public List<Magazzino> findAllOrdered(Connection conn) throws SQLException {
+        return query(conn, "SELECT * FROM magazzini ORDER BY principale DESC, nome", MAPPER);
+    }
+
     public Optional<Magazzino> findPrincipale() {
         return executeSingleQuery("SELECT * FROM magazzini WHERE principale = TRUE AND attivo = TRUE LIMIT 1");
     }
@@ -83,6 +89,7 @@ public class MagazzinoDao extends BaseDao<Magazzino> {
             }
         } catch (SQLException e) {
             logger.error("Error generating magazzino code: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
         }
         return "MAG01";
     }
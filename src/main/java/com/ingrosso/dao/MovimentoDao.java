@@ -2,42 +2,63 @@ package com.ingrosso.dao;
 
 import com.ingrosso.model.Movimento;
 import com.ingrosso.model.TipoMovimento;
+import com.ingrosso.util.TransactionManager;
 
 import java.math.BigDecimal;
-import java.sql.ResultSet;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class MovimentoDao extends BaseDao<Movimento> {
 
+    private static final RowMapper<Movimento> MAPPER = RowMapper.<Movimento>of(Movimento::new)
+            .intCol("id", Movimento::setId)
+            .intCol("prodotto_id", Movimento::setProdottoId)
+            .intCol("magazzino_id", Movimento::setMagazzinoId)
+            .optionalIntCol("lotto_id", Movimento::setLottoId)
+            .enumCol("tipo", TipoMovimento.class, Movimento::setTipo)
+            .decimalCol("quantita", Movimento::setQuantita)
+            .decimalCol("quantita_precedente", Movimento::setQuantitaPrecedente)
+            .decimalCol("quantita_successiva", Movimento::setQuantitaSuccessiva)
+            .stringCol("causale", Movimento::setCausale)
+            .stringCol("documento_rif", Movimento::setDocumentoRif)
+            .optionalIntCol("magazzino_destinazione_id", Movimento::setMagazzinoDestinazioneId)
+            .optionalIntCol("utente_id", Movimento::setUtenteId)
+            .stringCol("note", Movimento::setNote)
+            .dateTimeCol("data_movimento", Movimento::setDataMovimento);
+
+    private static final RowMapper<MovimentoCompleto> COMPLETO_MAPPER = RowMapper.of(MovimentoCompleto::new)
+            .intCol("id", MovimentoCompleto::setId)
+            .intCol("prodotto_id", MovimentoCompleto::setProdottoId)
+            .intCol("magazzino_id", MovimentoCompleto::setMagazzinoId)
+            .enumCol("tipo", TipoMovimento.class, MovimentoCompleto::setTipo)
+            .decimalCol("quantita", MovimentoCompleto::setQuantita)
+            .decimalCol("quantita_precedente", MovimentoCompleto::setQuantitaPrecedente)
+            .decimalCol("quantita_successiva", MovimentoCompleto::setQuantitaSuccessiva)
+            .stringCol("causale", MovimentoCompleto::setCausale)
+            .stringCol("documento_rif", MovimentoCompleto::setDocumentoRif)
+            .stringCol("note", MovimentoCompleto::setNote)
+            .dateTimeCol("data_movimento", MovimentoCompleto::setDataMovimento)
+            .stringCol("codice", MovimentoCompleto::setCodice)
+            .stringCol("prodotto_nome", MovimentoCompleto::setProdottoNome)
+            .stringCol("magazzino_nome", MovimentoCompleto::setMagazzinoNome)
+            .stringCol("username", MovimentoCompleto::setUsername)
+            .stringCol("magazzino_dest_nome", MovimentoCompleto::setMagazzinoDestNome);
+
     @Override
     protected String getTableName() {
         return "movimenti";
     }
 
     @Override
-    protected Movimento mapResultSet(ResultSet rs) throws SQLException {
-        Movimento m = new Movimento();
-        m.setId(rs.getInt("id"));
-        m.setProdottoId(rs.getInt("prodotto_id"));
-        m.setMagazzinoId(rs.getInt("magazzino_id"));
-        Integer lottoId = getInteger(rs, "lotto_id");
-        if (lottoId != null) m.setLottoId(lottoId);
-        m.setTipo(TipoMovimento.valueOf(getString(rs, "tipo")));
-        m.setQuantita(getBigDecimal(rs, "quantita"));
-        m.setQuantitaPrecedente(getBigDecimal(rs, "quantita_precedente"));
-        m.setQuantitaSuccessiva(getBigDecimal(rs, "quantita_successiva"));
-        m.setCausale(getString(rs, "causale"));
-        m.setDocumentoRif(getString(rs, "documento_rif"));
-        Integer magDestId = getInteger(rs, "magazzino_destinazione_id");
-        if (magDestId != null) m.setMagazzinoDestinazioneId(magDestId);
-        Integer utenteId = getInteger(rs, "utente_id");
-        if (utenteId != null) m.setUtenteId(utenteId);
-        m.setNote(getString(rs, "note"));
-        m.setDataMovimento(getLocalDateTime(rs, "data_movimento"));
-        return m;
+    protected RowMapper<Movimento> getRowMapper() {
+        return MAPPER;
     }
 
     public List<Movimento> findByProdotto(int prodottoId) {
@@ -52,10 +73,25 @@ public class MovimentoDao extends BaseDao<Movimento> {
                 magazzinoId);
     }
 
+    // Date filters are half-open timestamp ranges [inizio 00:00, giorno dopo fine 00:00) so they can use the
+    // indexes on data_movimento; DATE(data_movimento) would force a full scan
+    static final String PERIODO_SQL =
+            "SELECT * FROM movimenti WHERE data_movimento >= ? AND data_movimento < ? ORDER BY data_movimento DESC";
+
+    static final String COUNT_PERIODO_SQL =
+            "SELECT COUNT(*) FROM movimenti WHERE data_movimento >= ? AND data_movimento < ?";
+
+    static final String COUNT_PER_GIORNO_SQL = """
+        SELECT DATE(data_movimento) AS giorno, COUNT(*) FROM movimenti
+        WHERE data_movimento >= ?
+        GROUP BY DATE(data_movimento)
+        """;
+
+    // SQL and parameters of a filtered query, built apart from its execution so the plan tests can EXPLAIN it
+    record Query(String sql, Object[] params) {}
+
     public List<Movimento> findByPeriodo(LocalDate dataInizio, LocalDate dataFine) {
-        return executeQuery(
-                "SELECT * FROM movimenti WHERE DATE(data_movimento) BETWEEN ? AND ? ORDER BY data_movimento DESC",
-                dataInizio, dataFine);
+        return executeQuery(PERIODO_SQL, inizioGiorno(dataInizio), inizioGiorno(dataFine.plusDays(1)));
     }
 
     public List<Movimento> findByTipo(TipoMovimento tipo) {
@@ -70,80 +106,152 @@ public class MovimentoDao extends BaseDao<Movimento> {
                 limit);
     }
 
-    public List<MovimentoCompleto> findMovimentiCompleti(LocalDate dataInizio, LocalDate dataFine,
-                                                          Integer magazzinoId, TipoMovimento tipo) {
+    private static final String SELECT_COMPLETI_SQL = """
+        SELECT m.*, p.codice, p.nome as prodotto_nome, mag.nome as magazzino_nome,
+               u.username, magd.nome as magazzino_dest_nome
+        FROM movimenti m
+        JOIN prodotti p ON m.prodotto_id = p.id
+        JOIN magazzini mag ON m.magazzino_id = mag.id
+        LEFT JOIN utenti u ON m.utente_id = u.id
+        LEFT JOIN magazzini magd ON m.magazzino_destinazione_id = magd.id
+        WHERE 1=1
+        """;
+
+    // Streams every movimento matching the filter, newest first, without materializing the result
+    public int forEachMovimentoCompleto(FiltroMovimenti filtro, Consumer<MovimentoCompleto> action) {
+        Query query = elencoQuery(filtro);
+        try (var conn = getReadConnection()) {
+            return forEachRow(conn, query.sql(), COMPLETO_MAPPER, STREAM_FETCH_SIZE, action, query.params());
+        } catch (SQLException e) {
+            logger.error("Error streaming movimenti completi: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return -1;
+    }
+
+    // Keyset pagination on (data_movimento, id): the page after the given row, newest first.
+    // With dopo == null the first page is returned
+    public List<MovimentoCompleto> findPaginaMovimentiCompleti(FiltroMovimenti filtro, MovimentoCompleto dopo,
+                                                                int limite) {
+        Query query = paginaQuery(filtro, dopo, limite);
+        try (var conn = getReadConnection()) {
+            return query(conn, query.sql(), COMPLETO_MAPPER, query.params());
+        } catch (SQLException e) {
+            logger.error("Error finding movimenti completi: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return new ArrayList<>();
+    }
+
+    public int countMovimentiCompleti(FiltroMovimenti filtro) {
+        Query query = countQuery(filtro);
+        try (var conn = getReadConnection();
+             var stmt = conn.prepareStatement(query.sql())) {
+            setParameters(stmt, query.params());
+            try (var rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error counting movimenti completi: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return 0;
+    }
+
+    Query elencoQuery(FiltroMovimenti filtro) {
+        StringBuilder sql = new StringBuilder(SELECT_COMPLETI_SQL);
+        List<Object> params = new ArrayList<>();
+        appendFiltro(sql, params, filtro);
+        sql.append(" ORDER BY m.data_movimento DESC, m.id DESC");
+        return new Query(sql.toString(), params.toArray());
+    }
+
+    Query paginaQuery(FiltroMovimenti filtro, MovimentoCompleto dopo, int limite) {
+        StringBuilder sql = new StringBuilder(SELECT_COMPLETI_SQL);
+        List<Object> params = new ArrayList<>();
+        appendFiltro(sql, params, filtro);
+
+        if (dopo != null) {
+            sql.append(" AND (m.data_movimento < ? OR (m.data_movimento = ? AND m.id < ?))");
+            params.add(dopo.getDataMovimento());
+            params.add(dopo.getDataMovimento());
+            params.add(dopo.getId());
+        }
+
+        sql.append(" ORDER BY m.data_movimento DESC, m.id DESC LIMIT ?");
+        params.add(limite);
+        return new Query(sql.toString(), params.toArray());
+    }
+
+    Query countQuery(FiltroMovimenti filtro) {
         StringBuilder sql = new StringBuilder("""
-            SELECT m.*, p.codice, p.nome as prodotto_nome, mag.nome as magazzino_nome,
-                   u.username, magd.nome as magazzino_dest_nome
+            SELECT COUNT(*)
             FROM movimenti m
             JOIN prodotti p ON m.prodotto_id = p.id
-            JOIN magazzini mag ON m.magazzino_id = mag.id
-            LEFT JOIN utenti u ON m.utente_id = u.id
-            LEFT JOIN magazzini magd ON m.magazzino_destinazione_id = magd.id
             WHERE 1=1
             """);
+        List<Object> params = new ArrayList<>();
+        appendFiltro(sql, params, filtro);
+        return new Query(sql.toString(), params.toArray());
+    }
 
-        java.util.List<Object> params = new java.util.ArrayList<>();
-
-        if (dataInizio != null) {
-            sql.append(" AND DATE(m.data_movimento) >= ?");
-            params.add(dataInizio);
+    // Only references m.* and p.*, so it can be shared by the paged query and the count query
+    private void appendFiltro(StringBuilder sql, List<Object> params, FiltroMovimenti filtro) {
+        if (filtro.dataInizio != null) {
+            sql.append(" AND m.data_movimento >= ?");
+            params.add(inizioGiorno(filtro.dataInizio));
         }
-        if (dataFine != null) {
-            sql.append(" AND DATE(m.data_movimento) <= ?");
-            params.add(dataFine);
+        if (filtro.dataFine != null) {
+            sql.append(" AND m.data_movimento < ?");
+            params.add(inizioGiorno(filtro.dataFine.plusDays(1)));
         }
-        if (magazzinoId != null) {
+        if (filtro.magazzinoId != null) {
             sql.append(" AND m.magazzino_id = ?");
-            params.add(magazzinoId);
+            params.add(filtro.magazzinoId);
         }
-        if (tipo != null) {
+        if (filtro.tipo != null) {
             sql.append(" AND m.tipo = ?");
-            params.add(tipo.name());
+            params.add(filtro.tipo.name());
         }
+        if (filtro.testo != null && !filtro.testo.isBlank()) {
+            String like = "%" + filtro.testo.trim() + "%";
+            sql.append(" AND (p.codice LIKE ? OR p.nome LIKE ? OR m.causale LIKE ? OR m.documento_rif LIKE ?)");
+            params.add(like);
+            params.add(like);
+            params.add(like);
+            params.add(like);
+        }
+    }
 
-        sql.append(" ORDER BY m.data_movimento DESC");
-
-        return new java.util.ArrayList<>() {{
-            try (var conn = getConnection();
-                 var stmt = conn.prepareStatement(sql.toString())) {
-                setParameters(stmt, params.toArray());
-                try (var rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        MovimentoCompleto mc = new MovimentoCompleto();
-                        mc.setId(rs.getInt("id"));
-                        mc.setProdottoId(rs.getInt("prodotto_id"));
-                        mc.setMagazzinoId(rs.getInt("magazzino_id"));
-                        mc.setTipo(TipoMovimento.valueOf(getString(rs, "tipo")));
-                        mc.setQuantita(getBigDecimal(rs, "quantita"));
-                        mc.setQuantitaPrecedente(getBigDecimal(rs, "quantita_precedente"));
-                        mc.setQuantitaSuccessiva(getBigDecimal(rs, "quantita_successiva"));
-                        mc.setCausale(getString(rs, "causale"));
-                        mc.setDocumentoRif(getString(rs, "documento_rif"));
-                        mc.setNote(getString(rs, "note"));
-                        mc.setDataMovimento(getLocalDateTime(rs, "data_movimento"));
-                        mc.setCodice(getString(rs, "codice"));
-                        mc.setProdottoNome(getString(rs, "prodotto_nome"));
-                        mc.setMagazzinoNome(getString(rs, "magazzino_nome"));
-                        mc.setUsername(getString(rs, "username"));
-                        mc.setMagazzinoDestNome(getString(rs, "magazzino_dest_nome"));
-                        add(mc);
-                    }
-                }
-            } catch (SQLException e) {
-                logger.error("Error finding movimenti completi: {}", e.getMessage());
+    private static final String INSERT_SQL = """
+        INSERT INTO movimenti (prodotto_id, magazzino_id, lotto_id, tipo, quantita,
+            quantita_precedente, quantita_successiva, causale, documento_rif,
+            magazzino_destinazione_id, utente_id, note, data_movimento)
+        VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+        """;
+
+    public int insert(Movimento movimento) {
+        return executeInsert(INSERT_SQL, insertParams(movimento));
+    }
+
+    public int insert(Connection conn, Movimento movimento) throws SQLException {
+        return executeInsert(conn, INSERT_SQL, insertParams(movimento));
+    }
+
+    public void insertBatch(Connection conn, List<Movimento> movimenti) throws SQLException {
+        try (var stmt = conn.prepareStatement(INSERT_SQL)) {
+            for (Movimento movimento : movimenti) {
+                setParameters(stmt, insertParams(movimento));
+                stmt.addBatch();
             }
-        }};
+            stmt.executeBatch();
+        }
     }
 
-    public int insert(Movimento movimento) {
-        String sql = """
-            INSERT INTO movimenti (prodotto_id, magazzino_id, lotto_id, tipo, quantita,
-                quantita_precedente, quantita_successiva, causale, documento_rif,
-                magazzino_destinazione_id, utente_id, note, data_movimento)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
-            """;
-        return executeInsert(sql,
+    private Object[] insertParams(Movimento movimento) {
+        return new Object[] {
                 movimento.getProdottoId(),
                 movimento.getMagazzinoId(),
                 movimento.getLottoId() > 0 ? movimento.getLottoId() : null,
@@ -156,15 +264,14 @@ public class MovimentoDao extends BaseDao<Movimento> {
                 movimento.getMagazzinoDestinazioneId() > 0 ? movimento.getMagazzinoDestinazioneId() : null,
                 movimento.getUtenteId() > 0 ? movimento.getUtenteId() : null,
                 movimento.getNote(),
-                movimento.getDataMovimento() != null ? movimento.getDataMovimento() : LocalDateTime.now());
+                movimento.getDataMovimento() != null ? movimento.getDataMovimento() : LocalDateTime.now()
+        };
     }
 
     public int countByPeriodo(LocalDate dataInizio, LocalDate dataFine) {
-        String sql = "SELECT COUNT(*) FROM movimenti WHERE DATE(data_movimento) BETWEEN ? AND ?";
         try (var conn = getConnection();
-             var stmt = conn.prepareStatement(sql)) {
-            stmt.setDate(1, java.sql.Date.valueOf(dataInizio));
-            stmt.setDate(2, java.sql.Date.valueOf(dataFine));
+             var stmt = conn.prepareStatement(COUNT_PERIODO_SQL)) {
+            setParameters(stmt, inizioGiorno(dataInizio), inizioGiorno(dataFine.plusDays(1)));
             try (var rs = stmt.executeQuery()) {
                 if (rs.next()) {
                     return rs.getInt(1);
@@ -172,10 +279,41 @@ public class MovimentoDao extends BaseDao<Movimento> {
             }
         } catch (SQLException e) {
             logger.error("Error counting movimenti: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
         }
         return 0;
     }
 
+    public Map<LocalDate, Integer> countPerGiorno(LocalDate dataInizio) {
+        Map<LocalDate, Integer> result = new HashMap<>();
+        try (var conn = getConnection();
+             var stmt = conn.prepareStatement(COUNT_PER_GIORNO_SQL)) {
+            setParameters(stmt, inizioGiorno(dataInizio));
+            try (var rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    result.put(rs.getDate(1).toLocalDate(), rs.getInt(2));
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error counting movimenti per giorno: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return result;
+    }
+
+    private static LocalDateTime inizioGiorno(LocalDate data) {
+        return data.atStartOfDay();
+    }
+
+    // Filters of the movimenti screen; null fields are ignored
+    public static class FiltroMovimenti {
+        public LocalDate dataInizio;
+        public LocalDate dataFine;
+        public Integer magazzinoId;
+        public TipoMovimento tipo;
+        public String testo;
+    }
+
     public static class MovimentoCompleto {
         private int id;
         private int prodottoId;
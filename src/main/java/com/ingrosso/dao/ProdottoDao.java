@@ -2,47 +2,110 @@ package com.ingrosso.dao;
 
 import com.ingrosso.model.Prodotto;
 import com.ingrosso.model.UnitaMisura;
+import com.ingrosso.util.TransactionManager;
 
-import java.sql.ResultSet;
+import java.math.BigDecimal;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public class ProdottoDao extends BaseDao<Prodotto> {
 
+    private static final RowMapper<Prodotto> MAPPER = RowMapper.<Prodotto>of(Prodotto::new)
+            .intCol("id", Prodotto::setId)
+            .stringCol("codice", Prodotto::setCodice)
+            .stringCol("barcode", Prodotto::setBarcode)
+            .stringCol("nome", Prodotto::setNome)
+            .stringCol("descrizione", Prodotto::setDescrizione)
+            .optionalIntCol("sottocategoria_id", Prodotto::setSottocategoriaId)
+            .intCol("unita_misura_id", Prodotto::setUnitaMisuraId)
+            .decimalCol("scorta_minima", Prodotto::setScortaMinima)
+            .decimalCol("scorta_massima", Prodotto::setScortaMassima)
+            .decimalCol("prezzo_acquisto", Prodotto::setPrezzoAcquisto)
+            .decimalCol("prezzo_vendita", Prodotto::setPrezzoVendita)
+            .decimalCol("aliquota_iva", Prodotto::setAliquotaIva)
+            .booleanCol("gestisce_lotti", Prodotto::setGestisceLotti)
+            .stringCol("note", Prodotto::setNote)
+            .booleanCol("attivo", Prodotto::setAttivo)
+            .dateTimeCol("created_at", Prodotto::setCreatedAt)
+            .dateTimeCol("updated_at", Prodotto::setUpdatedAt);
+
+    private static final RowMapper<UnitaMisura> UNITA_MISURA_MAPPER = RowMapper.<UnitaMisura>of(UnitaMisura::new)
+            .intCol("id", UnitaMisura::setId)
+            .stringCol("nome", UnitaMisura::setNome)
+            .stringCol("simbolo", UnitaMisura::setSimbolo)
+            .intCol("decimali", UnitaMisura::setDecimali)
+            .booleanCol("attiva", UnitaMisura::setAttiva);
+
+    private static final RowMapper<ProdottoElenco> ELENCO_MAPPER = RowMapper.of(ElencoBuilder::new)
+            .intCol("id", (b, v) -> b.id = v)
+            .stringCol("codice", (b, v) -> b.codice = v)
+            .stringCol("barcode", (b, v) -> b.barcode = v)
+            .stringCol("nome", (b, v) -> b.nome = v)
+            .intCol("categoria_id", (b, v) -> b.categoriaId = v)
+            .stringCol("categoria_nome", (b, v) -> b.categoriaNome = v)
+            .intCol("sottocategoria_id", (b, v) -> b.sottocategoriaId = v)
+            .stringCol("sottocategoria_nome", (b, v) -> b.sottocategoriaNome = v)
+            .stringCol("unita_misura", (b, v) -> b.unitaMisura = v)
+            .decimalCol("scorta_minima", (b, v) -> b.scortaMinima = v)
+            .decimalCol("prezzo_acquisto", (b, v) -> b.prezzoAcquisto = v)
+            .decimalCol("prezzo_vendita", (b, v) -> b.prezzoVendita = v)
+            .decimalCol("giacenza_totale", (b, v) -> b.giacenzaTotale = v)
+            .booleanCol("attivo", (b, v) -> b.attivo = v)
+            .andThen(ElencoBuilder::build);
+
+    private static final RowMapper<ProdottoImport> IMPORT_MAPPER = RowMapper.of(ImportBuilder::new)
+            .intCol("id", (b, v) -> b.id = v)
+            .stringCol("codice", (b, v) -> b.codice = v)
+            .stringCol("barcode", (b, v) -> b.barcode = v)
+            .stringCol("nome", (b, v) -> b.nome = v)
+            .optionalIntCol("sottocategoria_id", (b, v) -> b.sottocategoriaId = v)
+            .intCol("unita_misura_id", (b, v) -> b.unitaMisuraId = v)
+            .decimalCol("scorta_minima", (b, v) -> b.scortaMinima = v)
+            .decimalCol("prezzo_acquisto", (b, v) -> b.prezzoAcquisto = v)
+            .decimalCol("prezzo_vendita", (b, v) -> b.prezzoVendita = v)
+            .decimalCol("aliquota_iva", (b, v) -> b.aliquotaIva = v)
+            .andThen(ImportBuilder::build);
+
     @Override
     protected String getTableName() {
         return "prodotti";
     }
 
     @Override
-    protected Prodotto mapResultSet(ResultSet rs) throws SQLException {
-        Prodotto p = new Prodotto();
-        p.setId(rs.getInt("id"));
-        p.setCodice(getString(rs, "codice"));
-        p.setBarcode(getString(rs, "barcode"));
-        p.setNome(getString(rs, "nome"));
-        p.setDescrizione(getString(rs, "descrizione"));
-        Integer sottocatId = getInteger(rs, "sottocategoria_id");
-        if (sottocatId != null) p.setSottocategoriaId(sottocatId);
-        p.setUnitaMisuraId(rs.getInt("unita_misura_id"));
-        p.setScortaMinima(getBigDecimal(rs, "scorta_minima"));
-        p.setScortaMassima(getBigDecimal(rs, "scorta_massima"));
-        p.setPrezzoAcquisto(getBigDecimal(rs, "prezzo_acquisto"));
-        p.setPrezzoVendita(getBigDecimal(rs, "prezzo_vendita"));
-        p.setAliquotaIva(getBigDecimal(rs, "aliquota_iva"));
-        p.setGestisceLotti(getBoolean(rs, "gestisce_lotti"));
-        p.setNote(getString(rs, "note"));
-        p.setAttivo(getBoolean(rs, "attivo"));
-        p.setCreatedAt(getLocalDateTime(rs, "created_at"));
-        p.setUpdatedAt(getLocalDateTime(rs, "updated_at"));
-        return p;
+    protected RowMapper<Prodotto> getRowMapper() {
+        return MAPPER;
     }
 
     public List<Prodotto> findAllActive() {
         return executeQuery("SELECT * FROM prodotti WHERE attivo = TRUE ORDER BY nome");
     }
 
+    // Rows of the product list with category, unit and total stock joined in, one query for the whole list
+    public List<ProdottoElenco> findElencoAttivi() {
+        String sql = """
+            SELECT p.id, p.codice, p.barcode, p.nome, sc.categoria_id, c.nome AS categoria_nome,
+                   p.sottocategoria_id, sc.nome AS sottocategoria_nome, um.simbolo AS unita_misura,
+                   p.scorta_minima, p.prezzo_acquisto, p.prezzo_vendita,
+                   COALESCE(g.totale, 0) AS giacenza_totale, p.attivo
+            FROM prodotti p
+            LEFT JOIN sottocategorie sc ON p.sottocategoria_id = sc.id
+            LEFT JOIN categorie c ON sc.categoria_id = c.id
+            LEFT JOIN unita_misura um ON p.unita_misura_id = um.id
+            LEFT JOIN (SELECT prodotto_id, SUM(quantita) AS totale FROM giacenze GROUP BY prodotto_id) g
+                   ON g.prodotto_id = p.id
+            WHERE p.attivo = TRUE
+            ORDER BY p.nome
+            """;
+        return query(sql, ELENCO_MAPPER);
+    }
+
     public List<Prodotto> findByCategoria(int categoriaId) {
         String sql = """
             SELECT p.* FROM prodotti p
@@ -58,6 +121,15 @@ public class ProdottoDao extends BaseDao<Prodotto> {
                 sottocategoriaId);
     }
 
+    // Every product priced in the listino, active or not, in one query
+    public List<Prodotto> findByListino(int listinoId) {
+        String sql = """
+            SELECT * FROM prodotti
+            WHERE id IN (SELECT prodotto_id FROM listini_prezzi WHERE listino_id = ?)
+            """;
+        return executeQuery(sql, listinoId);
+    }
+
     public Optional<Prodotto> findByCodice(String codice) {
         return executeSingleQuery("SELECT * FROM prodotti WHERE codice = ?", codice);
     }
@@ -149,20 +221,39 @@ public class ProdottoDao extends BaseDao<Prodotto> {
             }
         } catch (SQLException e) {
             logger.error("Error generating code: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
         }
         return prefix + "00001";
     }
 
+    public Set<Integer> findIdsAttivi() {
+        Set<Integer> ids = new HashSet<>();
+        try (var conn = getConnection();
+             var stmt = conn.prepareStatement("SELECT id FROM prodotti WHERE attivo = TRUE");
+             var rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+            }
+        } catch (SQLException e) {
+            logger.error("Error finding active product ids: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
+        }
+        return ids;
+    }
+
     // Unita Misura methods
     public List<UnitaMisura> findAllUnitaMisura() {
         String sql = "SELECT * FROM unita_misura WHERE attiva = TRUE ORDER BY nome";
-        return executeUnitaMisuraQuery(sql);
+        return query(sql, UNITA_MISURA_MAPPER);
+    }
+
+    public List<UnitaMisura> findAllUnitaMisuraOrdered(Connection conn) throws SQLException {
+        return query(conn, "SELECT * FROM unita_misura ORDER BY nome", UNITA_MISURA_MAPPER);
     }
 
     public UnitaMisura findUnitaMisuraById(int id) {
         String sql = "SELECT * FROM unita_misura WHERE id = ?";
-        List<UnitaMisura> list = executeUnitaMisuraQuery(sql, id);
-        return list.isEmpty() ? null : list.get(0);
+        return queryOne(sql, UNITA_MISURA_MAPPER, id).orElse(null);
     }
 
     public int insertUnitaMisura(UnitaMisura um) {
@@ -175,25 +266,107 @@ public class ProdottoDao extends BaseDao<Prodotto> {
         return executeUpdate(sql, um.getNome(), um.getSimbolo(), um.getDecimali(), um.isAttiva(), um.getId()) > 0;
     }
 
-    private List<UnitaMisura> executeUnitaMisuraQuery(String sql, Object... params) {
-        return new java.util.ArrayList<>() {{
-            try (var conn = getConnection();
-                 var stmt = conn.prepareStatement(sql)) {
-                setParameters(stmt, params);
-                try (var rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        UnitaMisura um = new UnitaMisura();
-                        um.setId(rs.getInt("id"));
-                        um.setNome(getString(rs, "nome"));
-                        um.setSimbolo(getString(rs, "simbolo"));
-                        um.setDecimali(rs.getInt("decimali"));
-                        um.setAttiva(getBoolean(rs, "attiva"));
-                        add(um);
-                    }
-                }
-            } catch (SQLException e) {
-                logger.error("Error executing unita misura query: {}", e.getMessage());
+    // Fields written by the bulk import of the products with the given codici, keyed by codice
+    public Map<String, ProdottoImport> findImportByCodici(Connection conn, Collection<String> codici) throws SQLException {
+        Map<String, ProdottoImport> result = new HashMap<>();
+        for (List<String> batch : partition(codici)) {
+            String sql = "SELECT id, codice, barcode, nome, sottocategoria_id, unita_misura_id, scorta_minima, "
+                    + "prezzo_acquisto, prezzo_vendita, aliquota_iva FROM prodotti WHERE codice IN ("
+                    + placeholders(batch.size()) + ")";
+            for (ProdottoImport p : query(conn, sql, IMPORT_MAPPER, batch.toArray())) {
+                result.put(p.codice(), p);
             }
-        }};
+        }
+        return result;
+    }
+
+    // One batch of inserts that update the product when the codice exists; the driver rewrites it
+    // into multi-row statements. New products are active, the attivo flag of existing ones is kept
+    public void upsertBatch(Connection conn, List<ProdottoImport> prodotti) throws SQLException {
+        String sql = """
+            INSERT INTO prodotti (codice, barcode, nome, sottocategoria_id, unita_misura_id, scorta_minima,
+                prezzo_acquisto, prezzo_vendita, aliquota_iva)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON DUPLICATE KEY UPDATE barcode = VALUES(barcode), nome = VALUES(nome),
+                sottocategoria_id = VALUES(sottocategoria_id), unita_misura_id = VALUES(unita_misura_id),
+                scorta_minima = VALUES(scorta_minima), prezzo_acquisto = VALUES(prezzo_acquisto),
+                prezzo_vendita = VALUES(prezzo_vendita), aliquota_iva = VALUES(aliquota_iva)
+            """;
+        try (var stmt = conn.prepareStatement(sql)) {
+            for (ProdottoImport p : prodotti) {
+                setParameters(stmt,
+                        p.codice(),
+                        p.barcode(),
+                        p.nome(),
+                        p.sottocategoriaId() > 0 ? p.sottocategoriaId() : null,
+                        p.unitaMisuraId(),
+                        p.scortaMinima(),
+                        p.prezzoAcquisto(),
+                        p.prezzoVendita(),
+                        p.aliquotaIva());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    // Product as written by the bulk import; id is 0 for a product not in the database yet
+    public record ProdottoImport(int id, String codice, String barcode, String nome, int sottocategoriaId,
+                                 int unitaMisuraId, BigDecimal scortaMinima, BigDecimal prezzoAcquisto,
+                                 BigDecimal prezzoVendita, BigDecimal aliquotaIva) {}
+
+    private static class ImportBuilder {
+        int id;
+        String codice;
+        String barcode;
+        String nome;
+        int sottocategoriaId;
+        int unitaMisuraId;
+        BigDecimal scortaMinima;
+        BigDecimal prezzoAcquisto;
+        BigDecimal prezzoVendita;
+        BigDecimal aliquotaIva;
+
+        ProdottoImport build() {
+            return new ProdottoImport(id, codice, barcode, nome, sottocategoriaId, unitaMisuraId,
+                    scortaMinima, prezzoAcquisto, prezzoVendita, aliquotaIva);
+        }
+    }
+
+    // Read-only row of the product list: plain fields instead of the FX properties of Prodotto,
+    // which are only worth having on the object being edited
+    public record ProdottoElenco(int id, String codice, String barcode, String nome,
+                                 int categoriaId, String categoriaNome,
+                                 int sottocategoriaId, String sottocategoriaNome, String unitaMisura,
+                                 BigDecimal scortaMinima, BigDecimal prezzoAcquisto, BigDecimal prezzoVendita,
+                                 BigDecimal giacenzaTotale, boolean attivo) {
+
+        public boolean sottoScorta() {
+            if (scortaMinima == null || giacenzaTotale == null) return false;
+            return giacenzaTotale.compareTo(scortaMinima) < 0;
+        }
+    }
+
+    private static class ElencoBuilder {
+        int id;
+        String codice;
+        String barcode;
+        String nome;
+        int categoriaId;
+        String categoriaNome;
+        int sottocategoriaId;
+        String sottocategoriaNome;
+        String unitaMisura;
+        BigDecimal scortaMinima;
+        BigDecimal prezzoAcquisto;
+        BigDecimal prezzoVendita;
+        BigDecimal giacenzaTotale;
+        boolean attivo;
+
+        ProdottoElenco build() {
+            return new ProdottoElenco(id, codice, barcode, nome, categoriaId, categoriaNome,
+                    sottocategoriaId, sottocategoriaNome, unitaMisura, scortaMinima, prezzoAcquisto,
+                    prezzoVendita, giacenzaTotale, attivo);
+        }
     }
 }
@@ -0,0 +1,215 @@
+package com.ingrosso.dao;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Declarative mapping from a row to an object. The mapper is built once per DAO; bind() resolves
+// every column label to its index from the ResultSetMetaData and returns a row reader made of
+// indexed getters and setters, so no column is looked up by name while iterating rows.
+public final class RowMapper<T> {
+
+    @FunctionalInterface
+    public interface Reader<V> {
+        V read(ResultSet rs, int index) throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface IntSetter<T> {
+        void set(T target, int value);
+    }
+
+    @FunctionalInterface
+    public interface BooleanSetter<T> {
+        void set(T target, boolean value);
+    }
+
+    @FunctionalInterface
+    public interface Bound<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface Binding<T> {
+        void apply(ResultSet rs, T target) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface Binder<T> {
+        Binding<T> bind(Map<String, Integer> indici) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface RowBinder<T> {
+        Bound<T> bind(Map<String, Integer> indici) throws SQLException;
+    }
+
+    private final Supplier<T> factory;
+    private final List<Binder<T>> binders = new ArrayList<>();
+    // Set on mappers made by andThen(), which delegate the whole row to another mapper
+    private final RowBinder<T> delegate;
+
+    private RowMapper(Supplier<T> factory) {
+        this.factory = factory;
+        this.delegate = null;
+    }
+
+    private RowMapper(RowBinder<T> delegate) {
+        this.factory = null;
+        this.delegate = delegate;
+    }
+
+    public static <T> RowMapper<T> of(Supplier<T> factory) {
+        return new RowMapper<>(factory);
+    }
+
+    public RowMapper<T> intCol(String label, IntSetter<T> setter) {
+        add(indici -> {
+            int index = indice(indici, label);
+            return (rs, target) -> setter.set(target, rs.getInt(index));
+        });
+        return this;
+    }
+
+    // Calls the setter only when the column is not NULL, leaving the model default otherwise
+    public RowMapper<T> optionalIntCol(String label, IntSetter<T> setter) {
+        add(indici -> {
+            int index = indice(indici, label);
+            return (rs, target) -> {
+                int value = rs.getInt(index);
+                if (!rs.wasNull()) setter.set(target, value);
+            };
+        });
+        return this;
+    }
+
+    public RowMapper<T> booleanCol(String label, BooleanSetter<T> setter) {
+        add(indici -> {
+            int index = indice(indici, label);
+            return (rs, target) -> setter.set(target, rs.getBoolean(index));
+        });
+        return this;
+    }
+
+    public RowMapper<T> stringCol(String label, BiConsumer<T, String> setter) {
+        return col(label, ResultSet::getString, setter);
+    }
+
+    public RowMapper<T> decimalCol(String label, BiConsumer<T, BigDecimal> setter) {
+        return col(label, ResultSet::getBigDecimal, setter);
+    }
+
+    public RowMapper<T> dateCol(String label, BiConsumer<T, LocalDate> setter) {
+        return col(label, (rs, index) -> {
+            Date date = rs.getDate(index);
+            return date != null ? date.toLocalDate() : null;
+        }, setter);
+    }
+
+    public RowMapper<T> dateTimeCol(String label, BiConsumer<T, LocalDateTime> setter) {
+        return col(label, (rs, index) -> {
+            Timestamp ts = rs.getTimestamp(index);
+            return ts != null ? ts.toLocalDateTime() : null;
+        }, setter);
+    }
+
+    public RowMapper<T> bytesCol(String label, BiConsumer<T, byte[]> setter) {
+        return col(label, ResultSet::getBytes, setter);
+    }
+
+    public <E extends Enum<E>> RowMapper<T> enumCol(String label, Class<E> type, BiConsumer<T, E> setter) {
+        return col(label, (rs, index) -> {
+            String value = rs.getString(index);
+            return value != null ? Enum.valueOf(type, value) : null;
+        }, setter);
+    }
+
+    public <V> RowMapper<T> col(String label, Reader<V> reader, BiConsumer<T, V> setter) {
+        add(indici -> {
+            int index = indice(indici, label);
+            return (rs, target) -> setter.accept(target, reader.read(rs, index));
+        });
+        return this;
+    }
+
+    // Maps an object from joined columns of the same row; it is skipped when the presence column is NULL
+    public <N> RowMapper<T> nested(String presenceLabel, RowMapper<N> mapper, BiConsumer<T, N> setter) {
+        add(indici -> {
+            int presenceIndex = indice(indici, presenceLabel);
+            Bound<N> child = mapper.bind(indici);
+            return (rs, target) -> {
+                rs.getObject(presenceIndex);
+                if (!rs.wasNull()) setter.accept(target, child.map(rs));
+            };
+        });
+        return this;
+    }
+
+    // Converts each mapped object, e.g. a mutable builder into an immutable record. The columns are
+    // declared on this mapper; the returned one is complete and takes no further columns
+    public <R> RowMapper<R> andThen(Function<? super T, ? extends R> finish) {
+        return new RowMapper<R>(indici -> {
+            Bound<T> source = bind(indici);
+            return rs -> finish.apply(source.map(rs));
+        });
+    }
+
+    public Bound<T> bind(ResultSet rs) throws SQLException {
+        return bind(indici(rs.getMetaData()));
+    }
+
+    private void add(Binder<T> binder) {
+        if (delegate != null) {
+            throw new IllegalStateException("Columns must be declared before andThen()");
+        }
+        binders.add(binder);
+    }
+
+    private Bound<T> bind(Map<String, Integer> indici) throws SQLException {
+        if (delegate != null) {
+            return delegate.bind(indici);
+        }
+        List<Binding<T>> bindings = new ArrayList<>(binders.size());
+        for (Binder<T> binder : binders) {
+            bindings.add(binder.bind(indici));
+        }
+        return rs -> {
+            T target = factory.get();
+            for (Binding<T> binding : bindings) {
+                binding.apply(rs, target);
+            }
+            return target;
+        };
+    }
+
+    // Like ResultSet.findColumn, the first column with a given label wins
+    private static Map<String, Integer> indici(ResultSetMetaData meta) throws SQLException {
+        int count = meta.getColumnCount();
+        Map<String, Integer> indici = new HashMap<>(count * 2);
+        for (int i = 1; i <= count; i++) {
+            indici.putIfAbsent(meta.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+        }
+        return indici;
+    }
+
+    private static int indice(Map<String, Integer> indici, String label) throws SQLException {
+        Integer index = indici.get(label.toLowerCase(Locale.ROOT));
+        if (index == null) {
+            throw new SQLException("Column '" + label + "' not found");
+        }
+        return index;
+    }
+}
@@ -3,8 +3,8 @@ package com.ingrosso.dao;
 import com.ingrosso.model.ConfigAzienda;
 import com.ingrosso.model.Ruolo;
 import com.ingrosso.model.Utente;
+import com.ingrosso.util.TransactionManager;
 
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.List;
@@ -12,24 +12,39 @@ import java.util.Optional;
 
 public class UtenteDao extends BaseDao<Utente> {
 
+    private static final RowMapper<Utente> MAPPER = RowMapper.<Utente>of(Utente::new)
+            .intCol("id", Utente::setId)
+            .stringCol("username", Utente::setUsername)
+            .stringCol("password_hash", Utente::setPasswordHash)
+            .stringCol("nome", Utente::setNome)
+            .stringCol("cognome", Utente::setCognome)
+            .enumCol("ruolo", Ruolo.class, Utente::setRuolo)
+            .booleanCol("attivo", Utente::setAttivo)
+            .dateTimeCol("ultimo_accesso", Utente::setUltimoAccesso)
+            .dateTimeCol("created_at", Utente::setCreatedAt);
+
+    private static final RowMapper<ConfigAzienda> CONFIG_AZIENDA_MAPPER = RowMapper.<ConfigAzienda>of(ConfigAzienda::new)
+            .intCol("id", ConfigAzienda::setId)
+            .stringCol("nome", ConfigAzienda::setNome)
+            .stringCol("indirizzo", ConfigAzienda::setIndirizzo)
+            .stringCol("citta", ConfigAzienda::setCitta)
+            .stringCol("cap", ConfigAzienda::setCap)
+            .stringCol("provincia", ConfigAzienda::setProvincia)
+            .stringCol("piva", ConfigAzienda::setPiva)
+            .stringCol("codice_fiscale", ConfigAzienda::setCodiceFiscale)
+            .stringCol("telefono", ConfigAzienda::setTelefono)
+            .stringCol("email", ConfigAzienda::setEmail)
+            .bytesCol("logo", ConfigAzienda::setLogo)
+            .dateTimeCol("updated_at", ConfigAzienda::setUpdatedAt);
+
     @Override
     protected String getTableName() {
         return "utenti";
     }
 
     @Override
-    protected Utente mapResultSet(ResultSet rs) throws SQLException {
-        Utente u = new Utente();
-        u.setId(rs.getInt("id"));
-        u.setUsername(getString(rs, "username"));
-        u.setPasswordHash(getString(rs, "password_hash"));
-        u.setNome(getString(rs, "nome"));
-        u.setCognome(getString(rs, "cognome"));
-        u.setRuolo(Ruolo.valueOf(getString(rs, "ruolo")));
-        u.setAttivo(getBoolean(rs, "attivo"));
-        u.setUltimoAccesso(getLocalDateTime(rs, "ultimo_accesso"));
-        u.setCreatedAt(getLocalDateTime(rs, "created_at"));
-        return u;
+    protected RowMapper<Utente> getRowMapper() {
+        return MAPPER;
     }
 
     public List<Utente> findAllActive() {
@@ -84,28 +99,20 @@ public class UtenteDao extends BaseDao<Utente> {
 
     // Config Azienda methods
     public Optional<ConfigAzienda> getConfigAzienda() {
-        String sql = "SELECT * FROM config_azienda WHERE id = 1";
+        return queryOne("SELECT * FROM config_azienda WHERE id = 1", CONFIG_AZIENDA_MAPPER);
+    }
+
+    // Last change of the company data, to tell whether a cached copy is still current without reading the logo
+    public Optional<LocalDateTime> getConfigAziendaAggiornata() {
         try (var conn = getConnection();
-             var stmt = conn.prepareStatement(sql);
+             var stmt = conn.prepareStatement("SELECT updated_at FROM config_azienda WHERE id = 1");
              var rs = stmt.executeQuery()) {
             if (rs.next()) {
-                ConfigAzienda config = new ConfigAzienda();
-                config.setId(rs.getInt("id"));
-                config.setNome(getString(rs, "nome"));
-                config.setIndirizzo(getString(rs, "indirizzo"));
-                config.setCitta(getString(rs, "citta"));
-                config.setCap(getString(rs, "cap"));
-                config.setProvincia(getString(rs, "provincia"));
-                config.setPiva(getString(rs, "piva"));
-                config.setCodiceFiscale(getString(rs, "codice_fiscale"));
-                config.setTelefono(getString(rs, "telefono"));
-                config.setEmail(getString(rs, "email"));
-                config.setLogo(getBytes(rs, "logo"));
-                config.setUpdatedAt(getLocalDateTime(rs, "updated_at"));
-                return Optional.of(config);
+                return Optional.ofNullable(getLocalDateTime(rs, "updated_at"));
             }
         } catch (SQLException e) {
-            logger.error("Error getting config azienda: {}", e.getMessage());
+            logger.error("Error reading company data timestamp: {}", e.getMessage());
+            TransactionManager.setRollbackOnly(e);
         }
         return Optional.empty();
     }
@@ -0,0 +1,52 @@
+package com.ingrosso.dao;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Change counters of the reference tables, shared by every client through the database
+public class VersioneTabellaDao extends BaseDao<VersioneTabellaDao.Versione> {
+
+    private static final RowMapper<Versione> MAPPER = RowMapper.of(Versione::new)
+            .stringCol("tabella", Versione::setTabella)
+            .col("versione", ResultSet::getLong, Versione::setVersione);
+
+    @Override
+    protected String getTableName() {
+        return "versioni_tabelle";
+    }
+
+    @Override
+    protected RowMapper<Versione> getRowMapper() {
+        return MAPPER;
+    }
+
+    // Tables that were never modified have no row: their version is 0
+    public Map<String, Long> findVersioni(Connection conn) throws SQLException {
+        Map<String, Long> versioni = new HashMap<>();
+        for (Versione v : query(conn, "SELECT tabella, versione FROM versioni_tabelle", MAPPER)) {
+            versioni.put(v.getTabella(), v.getVersione());
+        }
+        return versioni;
+    }
+
+    public boolean incrementa(String tabella) {
+        String sql = """
+            INSERT INTO versioni_tabelle (tabella, versione) VALUES (?, 1)
+            ON DUPLICATE KEY UPDATE versione = versione + 1
+            """;
+        return executeUpdate(sql, tabella) > 0;
+    }
+
+    public static class Versione {
+        private String tabella;
+        private long versione;
+
+        public String getTabella() { return tabella; }
+        public void setTabella(String tabella) { this.tabella = tabella; }
+        public long getVersione() { return versione; }
+        public void setVersione(long versione) { this.versione = versione; }
+    }
+}
@@ -0,0 +1,238 @@
+package com.ingrosso.service;
+
+import com.ingrosso.dao.CategoriaDao;
+import com.ingrosso.dao.DdtDao;
+import com.ingrosso.dao.MagazzinoDao;
+import com.ingrosso.dao.ProdottoDao;
+import com.ingrosso.dao.VersioneTabellaDao;
+import com.ingrosso.model.*;
+import com.ingrosso.util.TransactionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntSupplier;
+import java.util.function.ToIntFunction;
+
+// Reference tables that change a few times a month but are read on every screen, kept in memory by id.
+// Every write goes through modifica(), which bumps the table's row in versioni_tabelle in the same
+// transaction; the versions are re-read at most every few seconds, so tables changed by other
+// clients are reloaded too. Each table is loaded together with its version in one read snapshot.
+// The returned objects are shared and must not be modified.
+class AnagraficheCache {
+    private static final Logger logger = LoggerFactory.getLogger(AnagraficheCache.class);
+    private static final long CONTROLLO_VERSIONI_MS = 30 * 1000;
+    private static AnagraficheCache instance;
+
+    enum Tabella {
+        CATEGORIE("categorie"),
+        SOTTOCATEGORIE("sottocategorie"),
+        UNITA_MISURA("unita_misura"),
+        MAGAZZINI("magazzini"),
+        DESTINATARI("destinatari");
+
+        private final String nome;
+
+        Tabella(String nome) {
+            this.nome = nome;
+        }
+    }
+
+    private record Caricamento(Map<String, Long> versioni, Map<Tabella, Map<Integer, Object>> righe) {}
+
+    private final CategoriaDao categoriaDao;
+    private final ProdottoDao prodottoDao;
+    private final MagazzinoDao magazzinoDao;
+    private final DdtDao ddtDao;
+    private final VersioneTabellaDao versioneDao;
+
+    // Guarded by this; a table is loaded when it has an entry in both maps
+    private final Map<Tabella, Map<Integer, Object>> righe = new EnumMap<>(Tabella.class);
+    private final Map<Tabella, Long> versioniCaricate = new EnumMap<>(Tabella.class);
+    private long ultimoControllo;
+
+    private AnagraficheCache() {
+        this.categoriaDao = new CategoriaDao();
+        this.prodottoDao = new ProdottoDao();
+        this.magazzinoDao = new MagazzinoDao();
+        this.ddtDao = new DdtDao();
+        this.versioneDao = new VersioneTabellaDao();
+    }
+
+    static synchronized AnagraficheCache getInstance() {
+        if (instance == null) {
+            instance = new AnagraficheCache();
+        }
+        return instance;
+    }
+
+    // Bulk load of every table, done once at login so the first screens only hit memory
+    synchronized void precarica() {
+        long start = System.currentTimeMillis();
+        carica(EnumSet.allOf(Tabella.class));
+        ultimoControllo = System.currentTimeMillis();
+        logger.info("Reference data loaded in {} ms", System.currentTimeMillis() - start);
+    }
+
+    List<Categoria> getCategorie(boolean soloAttive) {
+        List<Categoria> categorie = new ArrayList<>();
+        for (Categoria c : this.<Categoria>righe(Tabella.CATEGORIE).values()) {
+            if (!soloAttive || c.isAttiva()) categorie.add(c);
+        }
+        return categorie;
+    }
+
+    Sottocategoria getSottocategoria(int id) {
+        return this.<Sottocategoria>righe(Tabella.SOTTOCATEGORIE).get(id);
+    }
+
+    List<Sottocategoria> getSottocategorie() {
+        return new ArrayList<>(this.<Sottocategoria>righe(Tabella.SOTTOCATEGORIE).values());
+    }
+
+    List<Sottocategoria> getSottocategorieByCategoria(int categoriaId) {
+        List<Sottocategoria> sottocategorie = new ArrayList<>();
+        for (Sottocategoria sc : this.<Sottocategoria>righe(Tabella.SOTTOCATEGORIE).values()) {
+            if (sc.getCategoriaId() == categoriaId) sottocategorie.add(sc);
+        }
+        return sottocategorie;
+    }
+
+    UnitaMisura getUnitaMisura(int id) {
+        return this.<UnitaMisura>righe(Tabella.UNITA_MISURA).get(id);
+    }
+
+    List<UnitaMisura> getUnitaMisuraAttive() {
+        List<UnitaMisura> attive = new ArrayList<>();
+        for (UnitaMisura um : this.<UnitaMisura>righe(Tabella.UNITA_MISURA).values()) {
+            if (um.isAttiva()) attive.add(um);
+        }
+        return attive;
+    }
+
+    Optional<Magazzino> getMagazzino(int id) {
+        return Optional.ofNullable(this.<Magazzino>righe(Tabella.MAGAZZINI).get(id));
+    }
+
+    // Loaded ordered by principale, nome like MagazzinoDao.findAllActive
+    List<Magazzino> getMagazziniAttivi() {
+        List<Magazzino> attivi = new ArrayList<>();
+        for (Magazzino m : this.<Magazzino>righe(Tabella.MAGAZZINI).values()) {
+            if (m.isAttivo()) attivi.add(m);
+        }
+        return attivi;
+    }
+
+    Optional<Magazzino> getMagazzinoPrincipale() {
+        return this.<Magazzino>righe(Tabella.MAGAZZINI).values().stream()
+                .filter(m -> m.isPrincipale() && m.isAttivo())
+                .findFirst();
+    }
+
+    Optional<Destinatario> getDestinatario(int id) {
+        return Optional.ofNullable(this.<Destinatario>righe(Tabella.DESTINATARI).get(id));
+    }
+
+    List<Destinatario> getDestinatariAttivi() {
+        List<Destinatario> attivi = new ArrayList<>();
+        for (Destinatario d : this.<Destinatario>righe(Tabella.DESTINATARI).values()) {
+            if (d.isAttivo()) attivi.add(d);
+        }
+        return attivi;
+    }
+
+    // Runs a write to the table in a transaction together with the bump of its version, and drops
+    // the local copy once committed. Returns the result of the write, negative on failure.
+    int modifica(Tabella tabella, String operazione, IntSupplier scrittura) {
+        return TransactionManager.inTransaction(operazione, conn -> {
+            int result = scrittura.getAsInt();
+            if (result < 0) {
+                return result;
+            }
+            if (!versioneDao.incrementa(tabella.nome)) {
+                return -1;
+            }
+            TransactionManager.afterCommit(() -> invalida(tabella));
+            return result;
+        });
+    }
+
+    synchronized void invalida(Tabella tabella) {
+        righe.remove(tabella);
+        versioniCaricate.remove(tabella);
+        // Sottocategorie carry a copy of their categoria
+        if (tabella == Tabella.CATEGORIE) {
+            invalida(Tabella.SOTTOCATEGORIE);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> Map<Integer, T> righe(Tabella tabella) {
+        controllaVersioni();
+        if (!righe.containsKey(tabella)) {
+            carica(EnumSet.of(tabella));
+        }
+        return (Map<Integer, T>) righe.getOrDefault(tabella, Map.of());
+    }
+
+    private void controllaVersioni() {
+        long now = System.currentTimeMillis();
+        if (now - ultimoControllo < CONTROLLO_VERSIONI_MS || versioniCaricate.isEmpty()) return;
+        ultimoControllo = now;
+
+        TransactionManager.readOnly("controllo versioni anagrafiche", versioneDao::findVersioni)
+                .ifPresent(versioni -> {
+                    for (Tabella tabella : EnumSet.copyOf(versioniCaricate.keySet())) {
+                        long versione = versioni.getOrDefault(tabella.nome, 0L);
+                        if (versioniCaricate.containsKey(tabella) && versione != versioniCaricate.get(tabella)) {
+                            logger.debug("Table {} changed by another client, reloading", tabella.nome);
+                            invalida(tabella);
+                        }
+                    }
+                });
+    }
+
+    // On error nothing is stored, so the next lookup tries again
+    private void carica(Set<Tabella> tabelle) {
+        Optional<Caricamento> caricamento = TransactionManager.readOnly("caricamento anagrafiche", conn -> {
+            Map<String, Long> versioni = versioneDao.findVersioni(conn);
+            Map<Tabella, Map<Integer, Object>> lette = new EnumMap<>(Tabella.class);
+            for (Tabella tabella : tabelle) {
+                lette.put(tabella, leggi(conn, tabella));
+            }
+            return new Caricamento(versioni, lette);
+        });
+        caricamento.ifPresent(c -> c.righe().forEach((tabella, perId) -> {
+            righe.put(tabella, perId);
+            versioniCaricate.put(tabella, c.versioni().getOrDefault(tabella.nome, 0L));
+        }));
+    }
+
+    private Map<Integer, Object> leggi(Connection conn, Tabella tabella) throws SQLException {
+        return switch (tabella) {
+            case CATEGORIE -> perId(categoriaDao.findAllOrdered(conn), Categoria::getId);
+            case SOTTOCATEGORIE -> perId(categoriaDao.findAllSottocategorieWithCategoria(conn), Sottocategoria::getId);
+            case UNITA_MISURA -> perId(prodottoDao.findAllUnitaMisuraOrdered(conn), UnitaMisura::getId);
+            case MAGAZZINI -> perId(magazzinoDao.findAllOrdered(conn), Magazzino::getId);
+            case DESTINATARI -> perId(ddtDao.findAllDestinatariOrdered(conn), Destinatario::getId);
+        };
+    }
+
+    // Keeps the query order for the list getters
+    private static <T> Map<Integer, Object> perId(List<T> lista, ToIntFunction<T> id) {
+        Map<Integer, Object> perId = new LinkedHashMap<>(lista.size() * 2);
+        for (T item : lista) {
+            perId.put(id.applyAsInt(item), item);
+        }
+        return perId;
+    }
+}
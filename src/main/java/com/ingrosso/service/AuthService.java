@@ -52,6 +52,8 @@ public class AuthService {
         currentUser = utente;
         utenteDao.updateUltimoAccesso(utente.getId());
         logger.info("User logged in: {}", username);
+        // Login already runs off the FX thread: warm the reference data before the main window opens
+        AnagraficheCache.getInstance().precarica();
         return true;
     }
 
@@ -4,12 +4,8 @@ import com.ingrosso.util.DatabaseUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.sql.Connection;
-import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 public class DatabaseService {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseService.class);
@@ -26,6 +22,17 @@ public class DatabaseService {
         return instance;
     }
 
+    // Starts the saved configuration on a background thread, so the connection and the schema check
+    // overlap with the JavaFX startup. Completes with false when there is no configuration or the
+    // database cannot be reached
+    public CompletableFuture<Boolean> initializeAsync() {
+        return CompletableFuture.supplyAsync(() -> hasConfiguration() && initialize(), task -> {
+            Thread t = new Thread(task, "avvio-database");
+            t.setDaemon(true);
+            t.start();
+        });
+    }
+
     public boolean initialize() {
         Properties config = DatabaseUtil.loadConfig();
 
@@ -40,28 +47,42 @@ public class DatabaseService {
         String username = config.getProperty("db.username", "root");
         String password = config.getProperty("db.password", "");
 
-        return initialize(host, port, database, username, password);
+        // The pool opens its first connection eagerly, so a separate connection test and rewriting
+        // the unchanged configuration would only add round trips to the startup
+        return initialize(host, port, database, username, password, false);
     }
 
     public boolean initialize(String host, int port, String database, String username, String password) {
+        return initialize(host, port, database, username, password, true);
+    }
+
+    private boolean initialize(String host, int port, String database, String username, String password,
+                               boolean nuovaConfigurazione) {
         try {
-            // Test connection first
-            if (!DatabaseUtil.testConnection(host, port, database, username, password)) {
+            // Test new parameters before replacing the current pool
+            if (nuovaConfigurazione && !DatabaseUtil.testConnection(host, port, database, username, password)) {
                 logger.error("Failed to connect to database");
                 return false;
             }
 
             // Initialize connection pool
+            long start = System.currentTimeMillis();
             DatabaseUtil.initialize(host, port, database, username, password);
 
             // Save configuration
-            DatabaseUtil.saveConfig(host, port, database, username, password);
+            if (nuovaConfigurazione) {
+                DatabaseUtil.saveConfig(host, port, database, username, password);
+            }
 
-            // Initialize schema if needed
-            initializeSchema();
+            // Apply pending schema migrations; a current database costs one query
+            if (!new SchemaMigrator().migra()) {
+                logger.error("Database schema migration failed");
+                DatabaseUtil.close();
+                return false;
+            }
 
             initialized = true;
-            logger.info("Database service initialized successfully");
+            logger.info("Database service initialized in {} ms", System.currentTimeMillis() - start);
             return true;
 
         } catch (Exception e) {
@@ -74,47 +95,6 @@ public class DatabaseService {
         return DatabaseUtil.testConnection(host, port, database, username, password);
     }
 
-    private void initializeSchema() {
-        try (InputStream is = getClass().getResourceAsStream("/sql/schema.sql")) {
-            if (is == null) {
-                logger.warn("Schema file not found, skipping initialization");
-                return;
-            }
-
-            String schema = new String(is.readAllBytes());
-            executeSchema(schema);
-            logger.info("Database schema initialized");
-
-        } catch (IOException e) {
-            logger.error("Error reading schema file: {}", e.getMessage());
-        }
-    }
-
-    private void executeSchema(String schema) {
-        try (Connection conn = DatabaseUtil.getConnection();
-             Statement stmt = conn.createStatement()) {
-
-            // Split by semicolon, handling multi-line statements
-            String[] statements = schema.split(";");
-            for (String sql : statements) {
-                sql = sql.trim();
-                if (!sql.isEmpty() && !sql.startsWith("--") && !sql.startsWith("/*")) {
-                    try {
-                        stmt.execute(sql);
-                    } catch (SQLException e) {
-                        // Ignore errors for CREATE TABLE IF NOT EXISTS, etc.
-                        if (!e.getMessage().contains("already exists") &&
-                            !e.getMessage().contains("Duplicate")) {
-                            logger.debug("Schema statement skipped: {}", e.getMessage());
-                        }
-                    }
-                }
-            }
-        } catch (SQLException e) {
-            logger.error("Error executing schema: {}", e.getMessage());
-        }
-    }
-
     public boolean isInitialized() {
         return initialized && DatabaseUtil.isInitialized();
     }
@@ -0,0 +1,135 @@
+package com.ingrosso.service;
+
+import com.ingrosso.dao.DdtDao;
+import com.ingrosso.dao.UtenteDao;
+import com.ingrosso.model.ConfigAzienda;
+import com.ingrosso.model.Ddt;
+import com.ingrosso.model.DdtRiga;
+import com.ingrosso.util.PdfUtil;
+import com.ingrosso.util.StampaDdt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+// DDT printing. The company header is built and its logo decoded once, and again only after
+// config_azienda.updated_at changes. A print run loads its DDTs in blocks of BLOCCO_DDT, with one query
+// for the headers and one for the righe, and renders them in parallel through StampaDdt.
+// Blocking: call off the FX thread.
+public class DdtPdfService {
+    private static final Logger logger = LoggerFactory.getLogger(DdtPdfService.class);
+    private static DdtPdfService instance;
+
+    private static final int BLOCCO_DDT = 50;
+    private static final int RENDERER = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    public record Avanzamento(int stampati, int totale) {}
+
+    public record Risultato(int documenti, int pagine, long durataMs) {
+        public long pagineAlSecondo() {
+            return pagine * 1000L / Math.max(1, durataMs);
+        }
+    }
+
+    private record IntestazioneAzienda(LocalDateTime aggiornata, PdfUtil.Intestazione intestazione) {}
+
+    private final DdtDao ddtDao;
+    private final UtenteDao utenteDao;
+    private final AnagraficheCache anagrafiche;
+
+    private IntestazioneAzienda intestazione;
+
+    private DdtPdfService() {
+        this.ddtDao = new DdtDao();
+        this.utenteDao = new UtenteDao();
+        this.anagrafiche = AnagraficheCache.getInstance();
+    }
+
+    public static synchronized DdtPdfService getInstance() {
+        if (instance == null) {
+            instance = new DdtPdfService();
+        }
+        return instance;
+    }
+
+    public byte[] generaPdf(int ddtId) {
+        List<Ddt> ddt = carica(List.of(ddtId));
+        if (ddt.isEmpty()) return null;
+        return PdfUtil.generateDdtPdf(ddt.get(0), getIntestazione());
+    }
+
+    // Writes the DDTs, in the given order, to one PDF or a ZIP of PDFs; DDTs deleted meanwhile are skipped.
+    // Empty when the file could not be written, which is then deleted
+    public Optional<Risultato> stampa(List<Integer> ddtIds, StampaDdt.Formato formato, File file,
+                                      Consumer<Avanzamento> avanzamento) {
+        long start = System.nanoTime();
+        PdfUtil.Intestazione intestazioneStampa = getIntestazione();
+        int letti = 0;
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+             StampaDdt stampa = new StampaDdt(intestazioneStampa, formato, out, RENDERER)) {
+            for (int da = 0; da < ddtIds.size(); da += BLOCCO_DDT) {
+                List<Integer> blocco = ddtIds.subList(da, Math.min(da + BLOCCO_DDT, ddtIds.size()));
+                for (Ddt ddt : carica(blocco)) {
+                    stampa.aggiungi(ddt);
+                }
+                letti += blocco.size();
+                if (avanzamento != null) {
+                    avanzamento.accept(new Avanzamento(letti, ddtIds.size()));
+                }
+            }
+            stampa.completa();
+
+            Risultato risultato = new Risultato(stampa.getDocumenti(), stampa.getPagine(),
+                    (System.nanoTime() - start) / 1_000_000);
+            logger.info("Printed {} DDT, {} pages in {} ms ({} pages/s) to {}", risultato.documenti(),
+                    risultato.pagine(), risultato.durataMs(), risultato.pagineAlSecondo(), file.getName());
+            return Optional.of(risultato);
+        } catch (IOException e) {
+            logger.error("Error printing DDT: {}", e.getMessage());
+            file.delete();
+            return Optional.empty();
+        }
+    }
+
+    // The cached header while the company data is unchanged; only updated_at is read to check it.
+    // A missing row or a NULL updated_at is a key like any other, so it does not rebuild on every call
+    synchronized PdfUtil.Intestazione getIntestazione() {
+        LocalDateTime aggiornata = utenteDao.getConfigAziendaAggiornata().orElse(null);
+        if (intestazione == null || !Objects.equals(intestazione.aggiornata(), aggiornata)) {
+            ConfigAzienda config = utenteDao.getConfigAzienda().orElse(null);
+            intestazione = new IntestazioneAzienda(config != null ? config.getUpdatedAt() : null,
+                    PdfUtil.intestazione(config));
+        }
+        return intestazione.intestazione();
+    }
+
+    // DDTs with destinatario and righe, in the order of the ids
+    private List<Ddt> carica(List<Integer> ddtIds) {
+        Map<Integer, Ddt> testate = ddtDao.findByIds(ddtIds);
+        Map<Integer, List<DdtRiga>> righe = ddtDao.findRigheByDdtIds(testate.keySet());
+
+        List<Ddt> result = new ArrayList<>(testate.size());
+        for (Integer id : ddtIds) {
+            Ddt ddt = testate.get(id);
+            if (ddt == null) continue;
+            if (ddt.getDestinatarioId() > 0) {
+                anagrafiche.getDestinatario(ddt.getDestinatarioId()).ifPresent(ddt::setDestinatario);
+            }
+            ddt.getRighe().setAll(righe.getOrDefault(id, List.of()));
+            result.add(ddt);
+        }
+        return result;
+    }
+}
@@ -2,13 +2,13 @@ package com.ingrosso.service;
 
 import com.ingrosso.dao.DdtDao;
 import com.ingrosso.dao.ProdottoDao;
-import com.ingrosso.dao.UtenteDao;
 import com.ingrosso.model.*;
-import com.ingrosso.util.PdfUtil;
+import com.ingrosso.util.TransactionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,14 +18,14 @@ public class DdtService {
 
     private final DdtDao ddtDao;
     private final ProdottoDao prodottoDao;
-    private final UtenteDao utenteDao;
     private final MovimentoService movimentoService;
+    private final AnagraficheCache anagrafiche;
 
     private DdtService() {
         this.ddtDao = new DdtDao();
         this.prodottoDao = new ProdottoDao();
-        this.utenteDao = new UtenteDao();
         this.movimentoService = MovimentoService.getInstance();
+        this.anagrafiche = AnagraficheCache.getInstance();
     }
 
     public static synchronized DdtService getInstance() {
@@ -48,6 +48,10 @@ public class DdtService {
         return ddtList;
     }
 
+    public List<DdtDao.DdtElenco> getElencoDdt(LocalDate dataInizio, LocalDate dataFine) {
+        return ddtDao.findElencoByPeriodo(dataInizio, dataFine);
+    }
+
     public List<Ddt> getDdtByStato(StatoDdt stato) {
         List<Ddt> ddtList = ddtDao.findByStato(stato);
         ddtList.forEach(this::enrichDdt);
@@ -66,6 +70,31 @@ public class DdtService {
         return ddtOpt;
     }
 
+    // Header only, for the detail screen which loads the righe itself
+    public Optional<Ddt> getTestataDdt(int id) {
+        Optional<Ddt> ddtOpt = ddtDao.findById(id);
+        ddtOpt.ifPresent(this::enrichDdt);
+        return ddtOpt;
+    }
+
+    // Header and righe as stored, for emission and cancellation: the movimenti only need the product ids,
+    // so the righe skip the per-riga product lookup of the screens
+    private Optional<Ddt> getDdtPerMovimenti(int id) {
+        Optional<Ddt> ddtOpt = ddtDao.findById(id);
+        ddtOpt.ifPresent(ddt -> ddt.getRighe().setAll(ddtDao.findRigheByDdt(id)));
+        return ddtOpt;
+    }
+
+    public void loadRighe(Ddt ddt) {
+        List<DdtRiga> righe = ddtDao.findRigheByDdt(ddt.getId());
+        righe.forEach(this::enrichRiga);
+        ddt.getRighe().setAll(righe);
+    }
+
+    public int getNextNumero(int anno) {
+        return ddtDao.getNextNumero(anno);
+    }
+
     public Ddt createNewDdt(int magazzinoId, Integer utenteId) {
         Ddt ddt = new Ddt();
         int anno = LocalDate.now().getYear();
@@ -76,31 +105,59 @@ public class DdtService {
         return ddt;
     }
 
+    // Header and righe are written in one transaction; righe are diffed and persisted in batches
     public int saveDdt(Ddt ddt) {
-        int ddtId;
-        if (ddt.getId() > 0) {
-            ddtDao.update(ddt);
-            ddtId = ddt.getId();
-        } else {
-            ddtId = ddtDao.insert(ddt);
+        List<DdtRiga> righe = new ArrayList<>(ddt.getRighe());
+        int ordine = 1;
+        for (DdtRiga riga : righe) {
+            riga.setOrdine(ordine++);
         }
 
-        if (ddtId > 0) {
-            // Save righe
-            ddtDao.deleteRigheByDdt(ddtId);
-            int ordine = 1;
-            for (DdtRiga riga : ddt.getRighe()) {
-                riga.setDdtId(ddtId);
-                riga.setOrdine(ordine++);
-                ddtDao.insertRiga(riga);
+        int ddtId = TransactionManager.inTransaction("salvataggio DDT", conn -> {
+            int id;
+            if (ddt.getId() > 0) {
+                ddtDao.update(conn, ddt);
+                id = ddt.getId();
+            } else {
+                id = ddtDao.insert(conn, ddt);
             }
-        }
+            if (id <= 0) {
+                return -1;
+            }
+            ddtDao.saveRighe(conn, id, righe);
+            return id;
+        });
 
+        if (ddtId > 0) {
+            TransactionManager.afterCommit(() -> ddt.setId(ddtId));
+        }
         return ddtId;
     }
 
+    // Save and emission share one transaction; a failed emission only rolls back its own savepoint,
+    // so the DDT is still committed as BOZZA
+    public boolean emettiDdt(Ddt ddt) {
+        if (ddt.getStato() != StatoDdt.BOZZA) {
+            logger.error("DDT not in BOZZA state: {}", ddt.getId());
+            return false;
+        }
+        int result = TransactionManager.inTransaction("emissione DDT", conn -> {
+            int ddtId = saveDdt(ddt);
+            if (ddtId <= 0) {
+                return -1;
+            }
+            return emitDdt(ddtId) ? ddtId : 0;
+        });
+        if (result > 0) {
+            ddt.setStato(StatoDdt.EMESSO);
+            return true;
+        }
+        return false;
+    }
+
+    // Unloads every riga and flips the stato to EMESSO in one transaction, so a failing line leaves nothing behind
     public boolean emitDdt(int ddtId) {
-        Optional<Ddt> ddtOpt = getDdtById(ddtId);
+        Optional<Ddt> ddtOpt = getDdtPerMovimenti(ddtId);
         if (ddtOpt.isEmpty()) {
             logger.error("DDT not found: {}", ddtId);
             return false;
@@ -111,31 +168,29 @@ public class DdtService {
             logger.error("DDT not in BOZZA state: {}", ddtId);
             return false;
         }
+        // An empty list here is a failed read as often as an empty document; neither may be emitted
+        if (ddt.getRighe().isEmpty()) {
+            logger.error("DDT has no righe: {}", ddtId);
+            return false;
+        }
 
-        // Scarica quantita dal magazzino
-        String documentoRif = "DDT " + ddt.getNumeroCompleto();
-        for (DdtRiga riga : ddt.getRighe()) {
-            int result = movimentoService.registraScarico(
-                    riga.getProdottoId(),
-                    ddt.getMagazzinoId(),
-                    riga.getQuantita(),
-                    "Emissione DDT",
-                    documentoRif,
-                    riga.getLottoId() > 0 ? riga.getLottoId() : null,
-                    ddt.getUtenteId() > 0 ? ddt.getUtenteId() : null
-            );
-            if (result < 0) {
-                logger.error("Failed to register scarico for DDT riga: {}", riga.getId());
-                return false;
-            }
+        long start = System.nanoTime();
+        List<Movimento> scarichi = toMovimenti(ddt, "Emissione DDT", "DDT " + ddt.getNumeroCompleto());
+        int result = movimentoService.registraMovimentiDocumento(ddt.getMagazzinoId(), TipoMovimento.SCARICO, scarichi,
+                conn -> ddtDao.updateStato(conn, ddtId, StatoDdt.BOZZA, StatoDdt.EMESSO) ? 1 : -1);
+        if (result < 0) {
+            logger.error("Failed to emit DDT: {}", ddtId);
+            return false;
         }
 
-        // Update stato
-        return ddtDao.updateStato(ddtId, StatoDdt.EMESSO);
+        TransactionManager.afterCommit(() -> KpiSnapshotService.getInstance()
+                .onDdtStatoCambiato(ddt.getDataDocumento(), StatoDdt.BOZZA, StatoDdt.EMESSO));
+        logThroughput("emesso", ddt, result, start);
+        return true;
     }
 
     public boolean annullaDdt(int ddtId) {
-        Optional<Ddt> ddtOpt = getDdtById(ddtId);
+        Optional<Ddt> ddtOpt = getDdtPerMovimenti(ddtId);
         if (ddtOpt.isEmpty()) {
             return false;
         }
@@ -144,23 +199,48 @@ public class DdtService {
 
         // If was EMESSO, restore quantities
         if (ddt.getStato() == StatoDdt.EMESSO) {
-            String documentoRif = "Annullamento DDT " + ddt.getNumeroCompleto();
-            for (DdtRiga riga : ddt.getRighe()) {
-                movimentoService.registraCarico(
-                        riga.getProdottoId(),
-                        ddt.getMagazzinoId(),
-                        riga.getQuantita(),
-                        "Annullamento DDT",
-                        documentoRif,
-                        riga.getLottoId() > 0 ? riga.getLottoId() : null,
-                        ddt.getUtenteId() > 0 ? ddt.getUtenteId() : null
-                );
+            if (ddt.getRighe().isEmpty()) {
+                logger.error("DDT has no righe to restore: {}", ddtId);
+                return false;
+            }
+            long start = System.nanoTime();
+            List<Movimento> carichi = toMovimenti(ddt, "Annullamento DDT", "Annullamento DDT " + ddt.getNumeroCompleto());
+            int result = movimentoService.registraMovimentiDocumento(ddt.getMagazzinoId(), TipoMovimento.CARICO, carichi,
+                    conn -> ddtDao.updateStato(conn, ddtId, StatoDdt.EMESSO, StatoDdt.ANNULLATO) ? 1 : -1);
+            if (result < 0) {
+                logger.error("Failed to cancel DDT: {}", ddtId);
+                return false;
             }
+            TransactionManager.afterCommit(() -> KpiSnapshotService.getInstance()
+                    .onDdtStatoCambiato(ddt.getDataDocumento(), StatoDdt.EMESSO, StatoDdt.ANNULLATO));
+            logThroughput("annullato", ddt, result, start);
+            return true;
         }
 
         return ddtDao.updateStato(ddtId, StatoDdt.ANNULLATO);
     }
 
+    private List<Movimento> toMovimenti(Ddt ddt, String causale, String documentoRif) {
+        List<Movimento> movimenti = new ArrayList<>(ddt.getRighe().size());
+        for (DdtRiga riga : ddt.getRighe()) {
+            Movimento m = new Movimento();
+            m.setProdottoId(riga.getProdottoId());
+            m.setQuantita(riga.getQuantita());
+            m.setCausale(causale);
+            m.setDocumentoRif(documentoRif);
+            if (riga.getLottoId() > 0) m.setLottoId(riga.getLottoId());
+            if (ddt.getUtenteId() > 0) m.setUtenteId(ddt.getUtenteId());
+            movimenti.add(m);
+        }
+        return movimenti;
+    }
+
+    private void logThroughput(String esito, Ddt ddt, int righe, long startNanos) {
+        long elapsedMs = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+        logger.info("DDT {} {}: {} righe in {} ms ({} righe/s)",
+                ddt.getNumeroCompleto(), esito, righe, elapsedMs, righe * 1000L / elapsedMs);
+    }
+
     public boolean deleteDdt(int ddtId) {
         Optional<Ddt> ddtOpt = ddtDao.findById(ddtId);
         if (ddtOpt.isEmpty()) return false;
@@ -173,17 +253,17 @@ public class DdtService {
         return ddtDao.deleteById(ddtId);
     }
 
-    public byte[] generatePdf(int ddtId) {
-        Optional<Ddt> ddtOpt = getDdtById(ddtId);
-        if (ddtOpt.isEmpty()) return null;
+    public byte[] generatePdf(Ddt ddt) {
+        return generatePdf(ddt.getId());
+    }
 
-        ConfigAzienda config = utenteDao.getConfigAzienda().orElse(null);
-        return PdfUtil.generateDdtPdf(ddtOpt.get(), config);
+    public byte[] generatePdf(int ddtId) {
+        return DdtPdfService.getInstance().generaPdf(ddtId);
     }
 
     private void enrichDdt(Ddt ddt) {
         if (ddt.getDestinatarioId() > 0) {
-            ddtDao.findDestinatarioById(ddt.getDestinatarioId())
+            anagrafiche.getDestinatario(ddt.getDestinatarioId())
                     .ifPresent(ddt::setDestinatario);
         }
     }
@@ -197,11 +277,11 @@ public class DdtService {
 
     // Destinatari
     public List<Destinatario> getAllDestinatari() {
-        return ddtDao.findAllDestinatari();
+        return anagrafiche.getDestinatariAttivi();
     }
 
     public Optional<Destinatario> getDestinatarioById(int id) {
-        return ddtDao.findDestinatarioById(id);
+        return anagrafiche.getDestinatario(id);
     }
 
     public List<Destinatario> searchDestinatari(String text) {
@@ -209,11 +289,12 @@ public class DdtService {
     }
 
     public int saveDestinatario(Destinatario dest) {
-        if (dest.getId() > 0) {
-            return ddtDao.updateDestinatario(dest) ? dest.getId() : -1;
-        } else {
+        return anagrafiche.modifica(AnagraficheCache.Tabella.DESTINATARI, "salvataggio destinatario", () -> {
+            if (dest.getId() > 0) {
+                return ddtDao.updateDestinatario(dest) ? dest.getId() : -1;
+            }
             return ddtDao.insertDestinatario(dest);
-        }
+        });
     }
 
     // Stats
@@ -0,0 +1,266 @@
+package com.ingrosso.service;
+
+import com.ingrosso.dao.GiacenzaDao;
+import com.ingrosso.dao.LottoDao;
+import com.ingrosso.dao.MovimentoDao;
+import com.ingrosso.dao.ProdottoDao;
+import com.ingrosso.util.ExcelWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+// Excel exports of the reports and lists. Rows go from the query straight into the streaming writer:
+// giacenze and movimenti are read through a forward-only cursor and never collected in a list, so a
+// million movimenti export in the same memory as a hundred. Blocking: call off the FX thread.
+// Each export returns the rows written, or -1 when reading or writing failed.
+public class ExportService {
+    private static final Logger logger = LoggerFactory.getLogger(ExportService.class);
+    private static ExportService instance;
+
+    private static final ExcelWriter.Colonna[] COLONNE_GIACENZE = {
+            colonna("Codice", ExcelWriter.Tipo.TESTO, 15),
+            colonna("Prodotto", ExcelWriter.Tipo.TESTO, 40),
+            colonna("Categoria", ExcelWriter.Tipo.TESTO, 20),
+            colonna("Sottocategoria", ExcelWriter.Tipo.TESTO, 20),
+            colonna("Giacenza", ExcelWriter.Tipo.QUANTITA, 12),
+            colonna("U.M.", ExcelWriter.Tipo.TESTO, 6),
+            colonna("Scorta min.", ExcelWriter.Tipo.QUANTITA, 12),
+            colonna("Prezzo acq.", ExcelWriter.Tipo.VALUTA, 12),
+            colonna("Prezzo vend.", ExcelWriter.Tipo.VALUTA, 12),
+            colonna("Val. acq.", ExcelWriter.Tipo.VALUTA, 14),
+            colonna("Val. vend.", ExcelWriter.Tipo.VALUTA, 14)
+    };
+
+    private static final ExcelWriter.Colonna[] COLONNE_SOTTO_SCORTA = {
+            colonna("Codice", ExcelWriter.Tipo.TESTO, 15),
+            colonna("Prodotto", ExcelWriter.Tipo.TESTO, 40),
+            colonna("Giacenza", ExcelWriter.Tipo.QUANTITA, 12),
+            colonna("U.M.", ExcelWriter.Tipo.TESTO, 6),
+            colonna("Scorta min.", ExcelWriter.Tipo.QUANTITA, 12),
+            colonna("Mancante", ExcelWriter.Tipo.QUANTITA, 12)
+    };
+
+    private static final ExcelWriter.Colonna[] COLONNE_VALORE = {
+            colonna("Categoria", ExcelWriter.Tipo.TESTO, 25),
+            colonna("Sottocategoria", ExcelWriter.Tipo.TESTO, 25),
+            colonna("Prodotti", ExcelWriter.Tipo.INTERO, 10),
+            colonna("Val. acq.", ExcelWriter.Tipo.VALUTA, 15),
+            colonna("Val. vend.", ExcelWriter.Tipo.VALUTA, 15),
+            colonna("Sotto scorta", ExcelWriter.Tipo.INTERO, 12)
+    };
+
+    private static final ExcelWriter.Colonna[] COLONNE_LOTTI = {
+            colonna("Codice", ExcelWriter.Tipo.TESTO, 15),
+            colonna("Prodotto", ExcelWriter.Tipo.TESTO, 40),
+            colonna("Magazzino", ExcelWriter.Tipo.TESTO, 20),
+            colonna("Lotto", ExcelWriter.Tipo.TESTO, 15),
+            colonna("Scadenza", ExcelWriter.Tipo.DATA, 12),
+            colonna("Quantita'", ExcelWriter.Tipo.QUANTITA, 12),
+            colonna("Giorni", ExcelWriter.Tipo.INTERO, 8)
+    };
+
+    private static final ExcelWriter.Colonna[] COLONNE_MOVIMENTI = {
+            colonna("Data", ExcelWriter.Tipo.DATA_ORA, 17),
+            colonna("Tipo", ExcelWriter.Tipo.TESTO, 14),
+            colonna("Codice", ExcelWriter.Tipo.TESTO, 15),
+            colonna("Prodotto", ExcelWriter.Tipo.TESTO, 40),
+            colonna("Magazzino", ExcelWriter.Tipo.TESTO, 20),
+            colonna("Destinazione", ExcelWriter.Tipo.TESTO, 20),
+            colonna("Quantita'", ExcelWriter.Tipo.QUANTITA, 12),
+            colonna("Prima", ExcelWriter.Tipo.QUANTITA, 12),
+            colonna("Dopo", ExcelWriter.Tipo.QUANTITA, 12),
+            colonna("Causale", ExcelWriter.Tipo.TESTO, 25),
+            colonna("Documento", ExcelWriter.Tipo.TESTO, 15),
+            colonna("Utente", ExcelWriter.Tipo.TESTO, 15)
+    };
+
+    private static final ExcelWriter.Colonna[] COLONNE_RIEPILOGO_DDT = {
+            colonna("Mese", ExcelWriter.Tipo.TESTO, 10),
+            colonna("Totale", ExcelWriter.Tipo.INTERO, 10),
+            colonna("Emessi", ExcelWriter.Tipo.INTERO, 10),
+            colonna("Bozza", ExcelWriter.Tipo.INTERO, 10),
+            colonna("Annullati", ExcelWriter.Tipo.INTERO, 10),
+            colonna("Righe", ExcelWriter.Tipo.INTERO, 10),
+            colonna("Importo", ExcelWriter.Tipo.VALUTA, 15)
+    };
+
+    private static final ExcelWriter.Colonna[] COLONNE_PRODOTTI = {
+            colonna("Codice", ExcelWriter.Tipo.TESTO, 15),
+            colonna("Barcode", ExcelWriter.Tipo.TESTO, 16),
+            colonna("Nome", ExcelWriter.Tipo.TESTO, 40),
+            colonna("Categoria", ExcelWriter.Tipo.TESTO, 20),
+            colonna("Sottocategoria", ExcelWriter.Tipo.TESTO, 20),
+            colonna("U.M.", ExcelWriter.Tipo.TESTO, 6),
+            colonna("Prezzo acq.", ExcelWriter.Tipo.VALUTA, 12),
+            colonna("Prezzo vend.", ExcelWriter.Tipo.VALUTA, 12),
+            colonna("Scorta min.", ExcelWriter.Tipo.QUANTITA, 12),
+            colonna("Giacenza", ExcelWriter.Tipo.QUANTITA, 12)
+    };
+
+    private final GiacenzaDao giacenzaDao;
+    private final MovimentoDao movimentoDao;
+    private final LottoDao lottoDao;
+
+    private ExportService() {
+        this.giacenzaDao = new GiacenzaDao();
+        this.movimentoDao = new MovimentoDao();
+        this.lottoDao = new LottoDao();
+    }
+
+    public static synchronized ExportService getInstance() {
+        if (instance == null) {
+            instance = new ExportService();
+        }
+        return instance;
+    }
+
+    public int esportaSituazioneMagazzino(int magazzinoId, File file) {
+        return esporta(file, excel -> {
+            excel.foglio("Situazione magazzino", COLONNE_GIACENZE);
+            BigDecimal[] totali = {BigDecimal.ZERO, BigDecimal.ZERO};
+            int righe = giacenzaDao.forEachGiacenzaCompleta(magazzinoId, g -> {
+                excel.riga(g.getCodice(), g.getProdottoNome(), g.getCategoria(), g.getSottocategoria(),
+                        g.getQuantita(), g.getUnitaMisura(), g.getScortaMinima(),
+                        g.getPrezzoAcquisto(), g.getPrezzoVendita(), g.getValoreAcquisto(), g.getValoreVendita());
+                totali[0] = totali[0].add(g.getValoreAcquisto());
+                totali[1] = totali[1].add(g.getValoreVendita());
+            });
+            excel.rigaTotale("Totale", null, null, null, null, null, null, null, null, totali[0], totali[1]);
+            return righe;
+        });
+    }
+
+    public int esportaProdottiSottoScorta(int magazzinoId, File file) {
+        return esporta(file, excel -> {
+            excel.foglio("Sotto scorta", COLONNE_SOTTO_SCORTA);
+            int[] scritte = {0};
+            int lette = giacenzaDao.forEachGiacenzaCompleta(magazzinoId, g -> {
+                if (!g.isSottoScorta()) return;
+                excel.riga(g.getCodice(), g.getProdottoNome(), g.getQuantita(), g.getUnitaMisura(),
+                        g.getScortaMinima(), g.getScortaMinima().subtract(g.getQuantita()));
+                scritte[0]++;
+            });
+            return lette < 0 ? -1 : scritte[0];
+        });
+    }
+
+    // Categories with their subcategories below, for a magazzino or all of them with magazzinoId null
+    public int esportaValoreMagazzino(Integer magazzinoId, File file) {
+        return esporta(file, excel -> {
+            MagazzinoService.Valorizzazione valorizzazione = MagazzinoService.getInstance().getValorizzazione(magazzinoId);
+            excel.foglio("Valore magazzino", COLONNE_VALORE);
+            int righe = 0;
+            for (Map.Entry<String, GiacenzaDao.ValoreGruppo> categoria : valorizzazione.perCategoria.entrySet()) {
+                rigaValore(excel, true, categoria.getKey(), null, categoria.getValue());
+                righe++;
+                for (Map.Entry<String, GiacenzaDao.ValoreGruppo> sottocategoria : valorizzazione.perSottocategoria
+                        .getOrDefault(categoria.getKey(), Map.of()).entrySet()) {
+                    rigaValore(excel, false, categoria.getKey(), sottocategoria.getKey(), sottocategoria.getValue());
+                    righe++;
+                }
+            }
+            rigaValore(excel, true, "Totale", null, valorizzazione.totale);
+            return righe;
+        });
+    }
+
+    private void rigaValore(ExcelWriter excel, boolean totale, String categoria, String sottocategoria,
+                            GiacenzaDao.ValoreGruppo gruppo) {
+        Object[] valori = {categoria, sottocategoria, gruppo.getNumeroProdotti(),
+                gruppo.getValoreAcquisto(), gruppo.getValoreVendita(), gruppo.getSottoScorta()};
+        if (totale) {
+            excel.rigaTotale(valori);
+        } else {
+            excel.riga(valori);
+        }
+    }
+
+    public int esportaLottiInScadenza(int giorni, File file) {
+        return esporta(file, excel -> {
+            List<LottoDao.LottoCompleto> lotti = lottoDao.findLottiInScadenzaCompleti(giorni);
+            excel.foglio("Lotti in scadenza", COLONNE_LOTTI);
+            for (LottoDao.LottoCompleto l : lotti) {
+                excel.riga(l.getCodice(), l.getProdottoNome(), l.getMagazzinoNome(), l.getNumeroLotto(),
+                        l.getDataScadenza(), l.getQuantita(), l.getGiorniAScadenza());
+            }
+            return lotti.size();
+        });
+    }
+
+    // Every movimento matching the filter, newest first, as the movimenti screen lists them
+    public int esportaMovimenti(MovimentoDao.FiltroMovimenti filtro, File file) {
+        return esporta(file, excel -> {
+            excel.foglio("Movimenti", COLONNE_MOVIMENTI);
+            return movimentoDao.forEachMovimentoCompleto(filtro, m ->
+                    excel.riga(m.getDataMovimento(), m.getTipo().getDescrizione(), m.getCodice(),
+                            m.getProdottoNome(), m.getMagazzinoNome(), m.getMagazzinoDestNome(),
+                            m.getQuantita(), m.getQuantitaPrecedente(), m.getQuantitaSuccessiva(),
+                            m.getCausale(), m.getDocumentoRif(), m.getUsername()));
+        });
+    }
+
+    // One row per month, with the totals of the period
+    public int esportaRiepilogoDdt(LocalDate dataInizio, LocalDate dataFine, File file) {
+        return esporta(file, excel -> {
+            List<ReportService.RiepilogoDdt> mesi = ReportService.getInstance().getRiepilogoDdtMensile(dataInizio, dataFine);
+            excel.foglio("Riepilogo DDT", COLONNE_RIEPILOGO_DDT);
+            ReportService.RiepilogoDdt totale = new ReportService.RiepilogoDdt();
+            for (ReportService.RiepilogoDdt r : mesi) {
+                excel.riga(String.format("%02d/%d", r.mese.getMonthValue(), r.mese.getYear()),
+                        r.totaleDdt, r.ddtEmessi, r.ddtBozza, r.ddtAnnullati, r.totaleRighe, r.totaleImporto);
+                totale.totaleDdt += r.totaleDdt;
+                totale.ddtEmessi += r.ddtEmessi;
+                totale.ddtBozza += r.ddtBozza;
+                totale.ddtAnnullati += r.ddtAnnullati;
+                totale.totaleRighe += r.totaleRighe;
+                totale.totaleImporto = totale.totaleImporto.add(r.totaleImporto);
+            }
+            excel.rigaTotale("Totale", totale.totaleDdt, totale.ddtEmessi, totale.ddtBozza, totale.ddtAnnullati,
+                    totale.totaleRighe, totale.totaleImporto);
+            return mesi.size();
+        });
+    }
+
+    // The rows of the product list as currently filtered on screen
+    public int esportaProdotti(List<ProdottoDao.ProdottoElenco> prodotti, File file) {
+        return esporta(file, excel -> {
+            excel.foglio("Prodotti", COLONNE_PRODOTTI);
+            for (ProdottoDao.ProdottoElenco p : prodotti) {
+                excel.riga(p.codice(), p.barcode(), p.nome(), p.categoriaNome(), p.sottocategoriaNome(),
+                        p.unitaMisura(), p.prezzoAcquisto(), p.prezzoVendita(), p.scortaMinima(), p.giacenzaTotale());
+            }
+            return prodotti.size();
+        });
+    }
+
+    @FunctionalInterface
+    private interface Contenuto {
+        // Returns the rows written, or -1 when the rows could not be read
+        int scrivi(ExcelWriter excel);
+    }
+
+    private int esporta(File file, Contenuto contenuto) {
+        long start = System.currentTimeMillis();
+        try (ExcelWriter excel = new ExcelWriter()) {
+            int righe = contenuto.scrivi(excel);
+            if (righe < 0) return -1;
+            excel.salva(file);
+            logger.info("Exported {} rows to {} in {} ms", righe, file.getName(), System.currentTimeMillis() - start);
+            return righe;
+        } catch (IOException | RuntimeException e) {
+            // POI reports a failed flush of the row window to its temporary file as a RuntimeException
+            logger.error("Error exporting {}: {}", file.getName(), e.getMessage());
+            return -1;
+        }
+    }
+
+    private static ExcelWriter.Colonna colonna(String titolo, ExcelWriter.Tipo tipo, int larghezza) {
+        return new ExcelWriter.Colonna(titolo, tipo, larghezza);
+    }
+}
@@ -0,0 +1,575 @@
+package com.ingrosso.service;
+
+import com.ingrosso.dao.ListinoDao;
+import com.ingrosso.dao.ProdottoDao;
+import com.ingrosso.model.*;
+import com.ingrosso.util.SpreadsheetReader;
+import com.ingrosso.util.TransactionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Bulk import of products and their prices from a supplier spreadsheet, XLSX or CSV with a header row.
+// The file is read as a stream and cut into blocks of BLOCCO_RIGHE rows, validated in parallel and
+// written in file order, one transaction per block: the existing products of the block are read with
+// one query, then products, principal listino prices and price history go in as batches. A block that
+// fails is rolled back and reported; the blocks before and after it are still imported.
+// Empty cells keep the current value of an existing product. Blocking: call off the FX thread.
+public class ImportService {
+    private static final Logger logger = LoggerFactory.getLogger(ImportService.class);
+    private static ImportService instance;
+
+    private static final int BLOCCO_RIGHE = 1000;
+    private static final int VALIDATORI = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // Blocks validated ahead of the writer: bounds the rows held in memory
+    private static final int MAX_BLOCCHI_IN_CORSO = VALIDATORI * 2;
+    private static final int MAX_ERRORI = 1000;
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    // Same defaults as a new Prodotto
+    private static final BigDecimal SCORTA_MINIMA_DEFAULT = BigDecimal.ZERO;
+    private static final BigDecimal ALIQUOTA_IVA_DEFAULT = new BigDecimal("22.00");
+    private static final BigDecimal CENTO = new BigDecimal("100");
+
+    enum Campo {
+        CODICE("Codice", 50),
+        BARCODE("Barcode", 50),
+        NOME("Nome", 255),
+        CATEGORIA("Categoria", 0),
+        SOTTOCATEGORIA("Sottocategoria", 0),
+        UNITA_MISURA("U.M.", 0),
+        SCORTA_MINIMA("Scorta minima", 0),
+        PREZZO_ACQUISTO("Prezzo acquisto", 0),
+        PREZZO_VENDITA("Prezzo vendita", 0),
+        ALIQUOTA_IVA("Aliquota IVA", 0);
+
+        private final String etichetta;
+        private final int lunghezzaMax;
+
+        Campo(String etichetta, int lunghezzaMax) {
+            this.etichetta = etichetta;
+            this.lunghezzaMax = lunghezzaMax;
+        }
+    }
+
+    // Header names in lower case without spaces and punctuation; the headers of the product export are included
+    private static final Map<String, Campo> INTESTAZIONI = Map.ofEntries(
+            Map.entry("codice", Campo.CODICE),
+            Map.entry("codiceprodotto", Campo.CODICE),
+            Map.entry("barcode", Campo.BARCODE),
+            Map.entry("ean", Campo.BARCODE),
+            Map.entry("nome", Campo.NOME),
+            Map.entry("prodotto", Campo.NOME),
+            Map.entry("categoria", Campo.CATEGORIA),
+            Map.entry("sottocategoria", Campo.SOTTOCATEGORIA),
+            Map.entry("um", Campo.UNITA_MISURA),
+            Map.entry("unitamisura", Campo.UNITA_MISURA),
+            Map.entry("unitadimisura", Campo.UNITA_MISURA),
+            Map.entry("scortamin", Campo.SCORTA_MINIMA),
+            Map.entry("scortaminima", Campo.SCORTA_MINIMA),
+            Map.entry("prezzoacq", Campo.PREZZO_ACQUISTO),
+            Map.entry("prezzoacquisto", Campo.PREZZO_ACQUISTO),
+            Map.entry("prezzovend", Campo.PREZZO_VENDITA),
+            Map.entry("prezzovendita", Campo.PREZZO_VENDITA),
+            Map.entry("iva", Campo.ALIQUOTA_IVA),
+            Map.entry("aliquotaiva", Campo.ALIQUOTA_IVA)
+    );
+
+    private final ProdottoDao prodottoDao;
+    private final ListinoDao listinoDao;
+    private final AnagraficheCache anagrafiche;
+
+    private ImportService() {
+        this.prodottoDao = new ProdottoDao();
+        this.listinoDao = new ListinoDao();
+        this.anagrafiche = AnagraficheCache.getInstance();
+    }
+
+    public static synchronized ImportService getInstance() {
+        if (instance == null) {
+            instance = new ImportService();
+        }
+        return instance;
+    }
+
+    // avanzamento is called from the importing thread after each block is written
+    public Risultato importaProdotti(File file, Consumer<Avanzamento> avanzamento) {
+        long start = System.currentTimeMillis();
+        Utente utente = AuthService.getInstance().getCurrentUser();
+        Importazione importazione = new Importazione(riferimenti(), utente != null ? utente.getId() : null, avanzamento);
+        Risultato risultato = importazione.risultato;
+        try {
+            SpreadsheetReader.leggi(file, importazione);
+            importazione.completa();
+            if (importazione.colonne == null) {
+                risultato.erroreFile = "Il file e' vuoto";
+            }
+        } catch (IOException e) {
+            logger.error("Error reading import file {}: {}", file.getName(), e.getMessage());
+            risultato.erroreFile = "Impossibile leggere il file: " + e.getMessage();
+        } catch (IllegalArgumentException e) {
+            risultato.erroreFile = e.getMessage();
+        } catch (CancellationException e) {
+            logger.warn("Import of {} interrupted after {} rows", file.getName(), risultato.righeLette);
+            risultato.erroreFile = "Importazione interrotta: i blocchi gia' salvati restano importati";
+        } finally {
+            importazione.chiudi();
+            // Also when an unexpected error stops the import: the blocks written before it stay committed
+            if (risultato.inseriti + risultato.aggiornati > 0) {
+                ListinoService.getInstance().invalidaPrezzi();
+                KpiSnapshotService.getInstance().invalida();
+            }
+        }
+
+        risultato.durataMs = System.currentTimeMillis() - start;
+        logger.info("Imported {} of {} rows from {} in {} ms ({} rows/s), {} discarded",
+                risultato.inseriti + risultato.aggiornati + risultato.invariati, risultato.righeLette,
+                file.getName(), risultato.durataMs, (long) risultato.getRigheAlSecondo(), risultato.scartati);
+        return risultato;
+    }
+
+    // Reference data resolved once per import and only read by the validating threads
+    private record Riferimenti(Map<String, Integer> unitaMisura, Map<String, Integer> sottocategorie,
+                               Map<String, Integer> sottocategorieConCategoria, Map<TipoListino, Listino> principali) {}
+
+    private static final int SOTTOCATEGORIA_AMBIGUA = -1;
+
+    private Riferimenti riferimenti() {
+        Map<String, Integer> unitaMisura = new HashMap<>();
+        for (UnitaMisura um : anagrafiche.getUnitaMisuraAttive()) {
+            unitaMisura.putIfAbsent(chiave(um.getNome()), um.getId());
+            unitaMisura.put(chiave(um.getSimbolo()), um.getId());
+        }
+
+        Map<Integer, String> categorie = new HashMap<>();
+        for (Categoria c : anagrafiche.getCategorie(false)) {
+            categorie.put(c.getId(), c.getNome());
+        }
+        Map<String, Integer> sottocategorie = new HashMap<>();
+        Map<String, Integer> sottocategorieConCategoria = new HashMap<>();
+        for (Sottocategoria sc : anagrafiche.getSottocategorie()) {
+            // The same name under two categorie needs the categoria column to be told apart
+            sottocategorie.merge(chiave(sc.getNome()), sc.getId(), (a, b) -> SOTTOCATEGORIA_AMBIGUA);
+            sottocategorieConCategoria.put(chiave(categorie.get(sc.getCategoriaId())) + "|" + chiave(sc.getNome()), sc.getId());
+        }
+
+        Map<TipoListino, Listino> principali = new EnumMap<>(TipoListino.class);
+        ListinoService listinoService = ListinoService.getInstance();
+        for (TipoListino tipo : TipoListino.values()) {
+            listinoService.getListinoPrincipale(tipo).ifPresent(l -> principali.put(tipo, l));
+        }
+        return new Riferimenti(unitaMisura, sottocategorie, sottocategorieConCategoria, principali);
+    }
+
+    private record RigaGrezza(int numero, List<String> celle) {}
+
+    // A validated row; null fields were empty or missing in the file
+    private record RigaImport(int numero, String codice, String barcode, String nome, Integer sottocategoriaId,
+                              Integer unitaMisuraId, BigDecimal scortaMinima, BigDecimal prezzoAcquisto,
+                              BigDecimal prezzoVendita, BigDecimal aliquotaIva) {}
+
+    private record Blocco(List<RigaImport> righe, List<ErroreRiga> errori, int primaRiga, int ultimaRiga) {}
+
+    // Written rows of a block, applied to the Risultato only once its transaction has committed
+    private static class EsitoBlocco {
+        int inseriti;
+        int aggiornati;
+        int invariati;
+        int prezziVariati;
+        final List<ErroreRiga> errori = new ArrayList<>();
+        // Codici of the rows written or found unchanged, by chiaveCodice
+        final Set<String> codici = new HashSet<>();
+    }
+
+    private final class Importazione implements SpreadsheetReader.RigaHandler {
+        final Risultato risultato = new Risultato();
+        final Riferimenti riferimenti;
+        final Integer utenteId;
+        final Consumer<Avanzamento> avanzamento;
+        final ExecutorService validatori = Executors.newFixedThreadPool(VALIDATORI, r -> {
+            Thread t = new Thread(r, "import-validator-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        final Deque<Future<Blocco>> inCorso = new ArrayDeque<>();
+        // Codici of committed blocks, by chiaveCodice: a later row with the same codice is reported
+        // instead of overwriting
+        final Set<String> codiciVisti = new HashSet<>();
+        final LocalDate oggi = LocalDate.now();
+
+        Map<Campo, Integer> colonne;
+        List<RigaGrezza> corrente = new ArrayList<>(BLOCCO_RIGHE);
+
+        Importazione(Riferimenti riferimenti, Integer utenteId, Consumer<Avanzamento> avanzamento) {
+            this.riferimenti = riferimenti;
+            this.utenteId = utenteId;
+            this.avanzamento = avanzamento;
+        }
+
+        @Override
+        public void riga(int numero, List<String> celle) {
+            if (colonne == null) {
+                colonne = leggiIntestazione(celle);
+                return;
+            }
+            risultato.righeLette++;
+            corrente.add(new RigaGrezza(numero, celle));
+            if (corrente.size() == BLOCCO_RIGHE) {
+                invia();
+            }
+        }
+
+        void completa() {
+            if (!corrente.isEmpty()) invia();
+            while (!inCorso.isEmpty()) {
+                scrivi(inCorso.poll());
+            }
+        }
+
+        void chiudi() {
+            validatori.shutdownNow();
+        }
+
+        private void invia() {
+            List<RigaGrezza> righe = corrente;
+            corrente = new ArrayList<>(BLOCCO_RIGHE);
+            inCorso.add(validatori.submit(() -> valida(righe)));
+            while (inCorso.size() > MAX_BLOCCHI_IN_CORSO) {
+                scrivi(inCorso.poll());
+            }
+        }
+
+        private void scrivi(Future<Blocco> futuro) {
+            Blocco blocco;
+            try {
+                blocco = futuro.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Validation failed", e.getCause());
+            }
+
+            blocco.errori().forEach(this::errore);
+            List<RigaImport> righe = new ArrayList<>(blocco.righe().size());
+            Set<String> codiciBlocco = new HashSet<>();
+            for (RigaImport r : blocco.righe()) {
+                String chiave = chiaveCodice(r.codice());
+                if (!codiciVisti.contains(chiave) && codiciBlocco.add(chiave)) {
+                    righe.add(r);
+                } else {
+                    errore(new ErroreRiga(r.numero(), r.codice(), "Codice ripetuto nel file: vale la prima riga"));
+                }
+            }
+
+            if (!righe.isEmpty()) {
+                EsitoBlocco[] esito = new EsitoBlocco[1];
+                int result = TransactionManager.inTransaction("importazione prodotti", conn -> {
+                    esito[0] = scriviRighe(conn, righe);
+                    return 0;
+                });
+                if (result < 0) {
+                    risultato.scartati += righe.size();
+                    segnala(new ErroreRiga(blocco.primaRiga(), null, String.format(
+                            "Righe da %d a %d non salvate: errore del database", blocco.primaRiga(), blocco.ultimaRiga())));
+                } else {
+                    risultato.inseriti += esito[0].inseriti;
+                    risultato.aggiornati += esito[0].aggiornati;
+                    risultato.invariati += esito[0].invariati;
+                    risultato.prezziVariati += esito[0].prezziVariati;
+                    esito[0].errori.forEach(this::errore);
+                    codiciVisti.addAll(esito[0].codici);
+                }
+            }
+
+            if (avanzamento != null) {
+                avanzamento.accept(new Avanzamento(risultato.righeLette, risultato.inseriti + risultato.aggiornati
+                        + risultato.invariati, risultato.scartati));
+            }
+        }
+
+        private EsitoBlocco scriviRighe(Connection conn, List<RigaImport> righe) throws SQLException {
+            EsitoBlocco esito = new EsitoBlocco();
+            Map<String, ProdottoDao.ProdottoImport> esistenti =
+                    perChiave(prodottoDao.findImportByCodici(conn, righe.stream().map(RigaImport::codice).toList()));
+
+            List<ProdottoDao.ProdottoImport> prodotti = new ArrayList<>(righe.size());
+            for (RigaImport r : righe) {
+                ProdottoDao.ProdottoImport attuale = esistenti.get(chiaveCodice(r.codice()));
+                if (attuale == null && (r.nome() == null || r.unitaMisuraId() == null)) {
+                    esito.errori.add(new ErroreRiga(r.numero(), r.codice(), r.nome() == null
+                            ? "Nome obbligatorio per un nuovo prodotto"
+                            : "Unita' di misura obbligatoria per un nuovo prodotto"));
+                    continue;
+                }
+                ProdottoDao.ProdottoImport prodotto = unisci(r, attuale);
+                esito.codici.add(chiaveCodice(r.codice()));
+                if (attuale == null) {
+                    esito.inseriti++;
+                } else if (invariato(attuale, prodotto)) {
+                    esito.invariati++;
+                    continue;
+                } else {
+                    esito.aggiornati++;
+                }
+                prodotti.add(prodotto);
+            }
+            if (prodotti.isEmpty()) return esito;
+
+            prodottoDao.upsertBatch(conn, prodotti);
+            List<String> nuovi = prodotti.stream().filter(p -> p.id() == 0).map(ProdottoDao.ProdottoImport::codice).toList();
+            Map<String, ProdottoDao.ProdottoImport> inseriti =
+                    nuovi.isEmpty() ? Map.of() : perChiave(prodottoDao.findImportByCodici(conn, nuovi));
+
+            List<ListinoPrezzo> prezzi = new ArrayList<>();
+            List<StoricoPrezzo> storico = new ArrayList<>();
+            for (ProdottoDao.ProdottoImport p : prodotti) {
+                ProdottoDao.ProdottoImport attuale = esistenti.get(chiaveCodice(p.codice()));
+                ProdottoDao.ProdottoImport salvato = attuale != null ? attuale : inseriti.get(chiaveCodice(p.codice()));
+                if (salvato == null) {
+                    // Rolls the block back rather than committing products without their prices
+                    throw new SQLException("Imported product not found: " + p.codice());
+                }
+                int id = salvato.id();
+                variazionePrezzo(esito, TipoListino.ACQUISTO, id, attuale != null ? attuale.prezzoAcquisto() : null,
+                        p.prezzoAcquisto(), prezzi, storico);
+                variazionePrezzo(esito, TipoListino.VENDITA, id, attuale != null ? attuale.prezzoVendita() : null,
+                        p.prezzoVendita(), prezzi, storico);
+            }
+            if (!prezzi.isEmpty()) listinoDao.upsertPrezziBatch(conn, prezzi);
+            if (!storico.isEmpty()) listinoDao.insertStoricoBatch(conn, storico);
+            return esito;
+        }
+
+        // Like ListinoService.updatePrezziFromProduct: a new price starts today on the principale
+        // listino of its tipo, and a change of an existing price is recorded in the history
+        private void variazionePrezzo(EsitoBlocco esito, TipoListino tipo, int prodottoId, BigDecimal precedente,
+                                      BigDecimal nuovo, List<ListinoPrezzo> prezzi, List<StoricoPrezzo> storico) {
+            if (nuovo == null || (precedente != null && precedente.compareTo(nuovo) == 0)) return;
+            esito.prezziVariati++;
+
+            Listino listino = riferimenti.principali().get(tipo);
+            if (listino != null) {
+                prezzi.add(new ListinoPrezzo(listino.getId(), prodottoId, nuovo, oggi));
+            }
+            if (precedente != null) {
+                StoricoPrezzo s = new StoricoPrezzo(prodottoId, tipo, precedente, nuovo);
+                if (utenteId != null) s.setUtenteId(utenteId);
+                storico.add(s);
+            }
+        }
+
+        private Blocco valida(List<RigaGrezza> righe) {
+            List<RigaImport> valide = new ArrayList<>(righe.size());
+            List<ErroreRiga> errori = new ArrayList<>();
+            for (RigaGrezza riga : righe) {
+                try {
+                    valide.add(validaRiga(riga));
+                } catch (IllegalArgumentException e) {
+                    errori.add(new ErroreRiga(riga.numero(), cella(riga, Campo.CODICE), e.getMessage()));
+                }
+            }
+            return new Blocco(valide, errori, righe.get(0).numero(), righe.get(righe.size() - 1).numero());
+        }
+
+        private RigaImport validaRiga(RigaGrezza riga) {
+            String codice = testo(riga, Campo.CODICE);
+            if (codice == null) {
+                throw new IllegalArgumentException("Codice mancante");
+            }
+
+            Integer unitaMisuraId = null;
+            String um = cella(riga, Campo.UNITA_MISURA);
+            if (um != null) {
+                unitaMisuraId = riferimenti.unitaMisura().get(chiave(um));
+                if (unitaMisuraId == null) {
+                    throw new IllegalArgumentException("Unita' di misura sconosciuta: " + um);
+                }
+            }
+
+            Integer sottocategoriaId = null;
+            String sottocategoria = cella(riga, Campo.SOTTOCATEGORIA);
+            if (sottocategoria != null) {
+                String categoria = cella(riga, Campo.CATEGORIA);
+                sottocategoriaId = categoria != null
+                        ? riferimenti.sottocategorieConCategoria().get(chiave(categoria) + "|" + chiave(sottocategoria))
+                        : riferimenti.sottocategorie().get(chiave(sottocategoria));
+                if (sottocategoriaId == null) {
+                    throw new IllegalArgumentException("Sottocategoria sconosciuta: " + sottocategoria);
+                }
+                if (sottocategoriaId == SOTTOCATEGORIA_AMBIGUA) {
+                    throw new IllegalArgumentException("Sottocategoria presente in piu' categorie, indicare la categoria: "
+                            + sottocategoria);
+                }
+            }
+
+            BigDecimal aliquotaIva = decimale(riga, Campo.ALIQUOTA_IVA);
+            if (aliquotaIva != null && aliquotaIva.compareTo(CENTO) > 0) {
+                throw new IllegalArgumentException("Aliquota IVA non valida: " + aliquotaIva);
+            }
+
+            return new RigaImport(riga.numero(), codice, testo(riga, Campo.BARCODE), testo(riga, Campo.NOME),
+                    sottocategoriaId, unitaMisuraId, decimale(riga, Campo.SCORTA_MINIMA),
+                    decimale(riga, Campo.PREZZO_ACQUISTO), decimale(riga, Campo.PREZZO_VENDITA), aliquotaIva);
+        }
+
+        private String cella(RigaGrezza riga, Campo campo) {
+            Integer colonna = colonne.get(campo);
+            return colonna != null && colonna < riga.celle().size() ? riga.celle().get(colonna) : null;
+        }
+
+        private String testo(RigaGrezza riga, Campo campo) {
+            String valore = cella(riga, campo);
+            if (valore != null && valore.length() > campo.lunghezzaMax) {
+                throw new IllegalArgumentException(String.format("%s troppo lungo (massimo %d caratteri)",
+                        campo.etichetta, campo.lunghezzaMax));
+            }
+            return valore;
+        }
+
+        // Cells of an XLSX file come with a decimal dot; a comma means Italian notation, where dots group thousands
+        private BigDecimal decimale(RigaGrezza riga, Campo campo) {
+            String valore = cella(riga, campo);
+            if (valore == null) return null;
+            String numero = valore.replace("\u20AC", "").replace(" ", "");
+            if (numero.indexOf(',') >= 0) {
+                numero = numero.replace(".", "").replace(',', '.');
+            }
+            try {
+                BigDecimal decimale = new BigDecimal(numero);
+                if (decimale.signum() < 0) {
+                    throw new IllegalArgumentException(campo.etichetta + " negativo: " + valore);
+                }
+                return decimale;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(campo.etichetta + " non numerico: " + valore);
+            }
+        }
+
+        private void errore(ErroreRiga errore) {
+            risultato.scartati++;
+            segnala(errore);
+        }
+
+        // Records the error without counting a discarded row, for messages about a whole block
+        private void segnala(ErroreRiga errore) {
+            if (risultato.errori.size() < MAX_ERRORI) {
+                risultato.errori.add(errore);
+            }
+        }
+    }
+
+    private static Map<Campo, Integer> leggiIntestazione(List<String> celle) {
+        Map<Campo, Integer> colonne = new EnumMap<>(Campo.class);
+        for (int i = 0; i < celle.size(); i++) {
+            Campo campo = celle.get(i) != null ? INTESTAZIONI.get(chiave(celle.get(i))) : null;
+            if (campo != null) colonne.putIfAbsent(campo, i);
+        }
+        if (!colonne.containsKey(Campo.CODICE)) {
+            throw new IllegalArgumentException("La prima riga deve contenere le intestazioni, con almeno la colonna Codice");
+        }
+        return colonne;
+    }
+
+    // Values from the file override those of the existing product; a new product gets the defaults
+    private static ProdottoDao.ProdottoImport unisci(RigaImport r, ProdottoDao.ProdottoImport attuale) {
+        if (attuale == null) {
+            return new ProdottoDao.ProdottoImport(0, r.codice(), r.barcode(), r.nome(),
+                    r.sottocategoriaId() != null ? r.sottocategoriaId() : 0, r.unitaMisuraId(),
+                    r.scortaMinima() != null ? r.scortaMinima() : SCORTA_MINIMA_DEFAULT,
+                    r.prezzoAcquisto(), r.prezzoVendita(),
+                    r.aliquotaIva() != null ? r.aliquotaIva() : ALIQUOTA_IVA_DEFAULT);
+        }
+        return new ProdottoDao.ProdottoImport(attuale.id(), attuale.codice(),
+                r.barcode() != null ? r.barcode() : attuale.barcode(),
+                r.nome() != null ? r.nome() : attuale.nome(),
+                r.sottocategoriaId() != null ? r.sottocategoriaId() : attuale.sottocategoriaId(),
+                r.unitaMisuraId() != null ? r.unitaMisuraId() : attuale.unitaMisuraId(),
+                r.scortaMinima() != null ? r.scortaMinima() : attuale.scortaMinima(),
+                r.prezzoAcquisto() != null ? r.prezzoAcquisto() : attuale.prezzoAcquisto(),
+                r.prezzoVendita() != null ? r.prezzoVendita() : attuale.prezzoVendita(),
+                r.aliquotaIva() != null ? r.aliquotaIva() : attuale.aliquotaIva());
+    }
+
+    // Decimals are compared by value: the database returns them with the scale of the column
+    private static boolean invariato(ProdottoDao.ProdottoImport a, ProdottoDao.ProdottoImport b) {
+        return Objects.equals(a.barcode(), b.barcode())
+                && Objects.equals(a.nome(), b.nome())
+                && a.sottocategoriaId() == b.sottocategoriaId()
+                && a.unitaMisuraId() == b.unitaMisuraId()
+                && stessoValore(a.scortaMinima(), b.scortaMinima())
+                && stessoValore(a.prezzoAcquisto(), b.prezzoAcquisto())
+                && stessoValore(a.prezzoVendita(), b.prezzoVendita())
+                && stessoValore(a.aliquotaIva(), b.aliquotaIva());
+    }
+
+    private static boolean stessoValore(BigDecimal a, BigDecimal b) {
+        return a == null ? b == null : b != null && a.compareTo(b) == 0;
+    }
+
+    // Codici compare like in the utf8mb4_unicode_ci column: case and accents do not count, so "abc"
+    // in the file is the product "ABC" and "abc" and "ABC" in the same file are the same codice
+    private static String chiaveCodice(String codice) {
+        return Normalizer.normalize(codice, Normalizer.Form.NFD).replaceAll("\\p{M}", "").toUpperCase(Locale.ROOT);
+    }
+
+    private static Map<String, ProdottoDao.ProdottoImport> perChiave(Map<String, ProdottoDao.ProdottoImport> prodotti) {
+        Map<String, ProdottoDao.ProdottoImport> result = new HashMap<>();
+        for (ProdottoDao.ProdottoImport p : prodotti.values()) {
+            result.put(chiaveCodice(p.codice()), p);
+        }
+        return result;
+    }
+
+    // Lower case letters and digits only, so "U.M." matches "um" and "Prezzo Acq." matches "prezzoacq"
+    private static String chiave(String testo) {
+        return testo == null ? "" : testo.toLowerCase().replaceAll("[^\\p{L}\\p{N}]", "");
+    }
+
+    public record Avanzamento(int righeLette, int righeSalvate, int righeScartate) {}
+
+    public record ErroreRiga(int riga, String codice, String messaggio) {}
+
+    public static class Risultato {
+        public int righeLette;
+        public int inseriti;
+        public int aggiornati;
+        public int invariati;
+        public int scartati;
+        public int prezziVariati;
+        public long durataMs;
+        // Set when the file could not be imported as a whole; the blocks saved before still count
+        public String erroreFile;
+        // The first MAX_ERRORI rows discarded, in file order
+        public final List<ErroreRiga> errori = new ArrayList<>();
+
+        public double getRigheAlSecondo() {
+            return durataMs > 0 ? righeLette * 1000.0 / durataMs : righeLette;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.ingrosso.service;
+
+import com.ingrosso.dao.*;
+import com.ingrosso.model.Magazzino;
+import com.ingrosso.model.Prodotto;
+import com.ingrosso.model.StatoDdt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+// Keeps the dashboard counters in memory: services notify every change that affects them
+// and a periodic full reload corrects any drift
+public class KpiSnapshotService {
+    private static final Logger logger = LoggerFactory.getLogger(KpiSnapshotService.class);
+    private static final long RICONCILIAZIONE_MINUTI = 5;
+    private static final int GIORNI_SCADENZA_LOTTI = 30;
+    private static final int GIORNI_MOVIMENTI = 30;
+    private static KpiSnapshotService instance;
+
+    private final ProdottoDao prodottoDao;
+    private final GiacenzaDao giacenzaDao;
+    private final MovimentoDao movimentoDao;
+    private final LottoDao lottoDao;
+    private final DdtDao ddtDao;
+    private final MagazzinoDao magazzinoDao;
+    private ScheduledExecutorService scheduler;
+
+    // Snapshot state, guarded by this
+    private boolean caricato;
+    private int magazzinoPrincipaleId;
+    private final Set<Integer> prodottiAttivi = new HashSet<>();
+    private final Map<Integer, GiacenzaDao.GiacenzaCompleta> giacenze = new HashMap<>();
+    private BigDecimal valoreAcquisto = BigDecimal.ZERO;
+    private BigDecimal valoreVendita = BigDecimal.ZERO;
+    private int sottoScorta;
+    private int lottiInScadenza;
+    private LocalDate lottiCalcolatiIl;
+    private boolean lottiDaRicalcolare;
+    private YearMonth meseDdt;
+    private int ddtMeseCorrente;
+    private final NavigableMap<LocalDate, Integer> movimentiPerGiorno = new TreeMap<>();
+    // While a reload runs its queries, every notification is also journaled; when the results are swapped
+    // in, the ones that arrived after the query of their area started are applied again. A change committed
+    // just before a query but notified after it is then counted twice until the next reconciliation
+    private int ricaricheInCorso;
+    private final List<Evento> giornale = new ArrayList<>();
+
+    private KpiSnapshotService() {
+        this.prodottoDao = new ProdottoDao();
+        this.giacenzaDao = new GiacenzaDao();
+        this.movimentoDao = new MovimentoDao();
+        this.lottoDao = new LottoDao();
+        this.ddtDao = new DdtDao();
+        this.magazzinoDao = new MagazzinoDao();
+    }
+
+    public static synchronized KpiSnapshotService getInstance() {
+        if (instance == null) {
+            instance = new KpiSnapshotService();
+        }
+        return instance;
+    }
+
+    public ReportService.DashboardKpi getDashboardKpi() {
+        if (!isCaricato()) {
+            riconcilia();
+            avviaRiconciliazionePeriodica();
+        }
+
+        // A new month or day only refreshes its own counters, queried outside the lock like riconcilia does
+        LocalDate oggi = LocalDate.now();
+        YearMonth mese = YearMonth.from(oggi);
+        Map<Area, Integer> inizi = new EnumMap<>(Area.class);
+        synchronized (this) {
+            boolean ricalcolaDdt = !mese.equals(meseDdt);
+            boolean ricalcolaLotti = lottiDaRicalcolare || !oggi.equals(lottiCalcolatiIl);
+            if (ricalcolaDdt || ricalcolaLotti) {
+                int inizio = iniziaRicarica();
+                if (ricalcolaDdt) inizi.put(Area.DDT, inizio);
+                if (ricalcolaLotti) inizi.put(Area.LOTTI, inizio);
+            }
+        }
+        if (!inizi.isEmpty()) {
+            try {
+                boolean ricalcolaDdt = inizi.containsKey(Area.DDT);
+                boolean ricalcolaLotti = inizi.containsKey(Area.LOTTI);
+                int ddt = ricalcolaDdt ? ddtDao.countByMeseAnno(oggi.getMonthValue(), oggi.getYear()) : 0;
+                int lotti = ricalcolaLotti ? lottoDao.countInScadenza(GIORNI_SCADENZA_LOTTI) : 0;
+                synchronized (this) {
+                    if (ricalcolaDdt) {
+                        meseDdt = mese;
+                        ddtMeseCorrente = ddt;
+                    }
+                    if (ricalcolaLotti) {
+                        lottiInScadenza = lotti;
+                        lottiCalcolatiIl = oggi;
+                        lottiDaRicalcolare = false;
+                    }
+                    riapplica(inizi);
+                }
+            } finally {
+                terminaRicarica();
+            }
+        }
+
+        synchronized (this) {
+            movimentiPerGiorno.headMap(oggi.minusDays(GIORNI_MOVIMENTI), false).clear();
+
+            ReportService.DashboardKpi kpi = new ReportService.DashboardKpi();
+            kpi.totaleProdotti = prodottiAttivi.size();
+            kpi.valoreMagazzinoAcquisto = valoreAcquisto;
+            kpi.valoreMagazzinoVendita = valoreVendita;
+            kpi.prodottiSottoScorta = sottoScorta;
+            kpi.lottiInScadenza = lottiInScadenza;
+            kpi.ddtMeseCorrente = ddtMeseCorrente;
+            kpi.movimentiUltimi30gg = movimentiPerGiorno.values().stream().mapToInt(Integer::intValue).sum();
+            return kpi;
+        }
+    }
+
+    // Full reload from the database; queries run outside the lock and the state is swapped at the end
+    public void riconcilia() {
+        long start = System.currentTimeMillis();
+        LocalDate oggi = LocalDate.now();
+        Map<Area, Integer> inizi = new EnumMap<>(Area.class);
+
+        synchronized (this) {
+            inizi.put(Area.PRODOTTI, iniziaRicarica());
+        }
+        try {
+            Set<Integer> attivi = prodottoDao.findIdsAttivi();
+            int principaleId = magazzinoDao.findPrincipale().map(Magazzino::getId).orElse(0);
+            inizi.put(Area.GIACENZE, posizioneGiornale());
+            List<GiacenzaDao.GiacenzaCompleta> lista = principaleId > 0
+                    ? giacenzaDao.findGiacenzeComplete(principaleId)
+                    : List.of();
+            inizi.put(Area.LOTTI, posizioneGiornale());
+            int lotti = lottoDao.countInScadenza(GIORNI_SCADENZA_LOTTI);
+            inizi.put(Area.DDT, posizioneGiornale());
+            int ddt = ddtDao.countByMeseAnno(oggi.getMonthValue(), oggi.getYear());
+            inizi.put(Area.MOVIMENTI, posizioneGiornale());
+            Map<LocalDate, Integer> movimenti = movimentoDao.countPerGiorno(oggi.minusDays(GIORNI_MOVIMENTI));
+
+            synchronized (this) {
+                magazzinoPrincipaleId = principaleId;
+                prodottiAttivi.clear();
+                prodottiAttivi.addAll(attivi);
+                giacenze.clear();
+                valoreAcquisto = BigDecimal.ZERO;
+                valoreVendita = BigDecimal.ZERO;
+                sottoScorta = 0;
+                for (GiacenzaDao.GiacenzaCompleta g : lista) {
+                    giacenze.put(g.getProdottoId(), g);
+                    aggiungiContributo(g);
+                }
+                lottiInScadenza = lotti;
+                lottiCalcolatiIl = oggi;
+                lottiDaRicalcolare = false;
+                meseDdt = YearMonth.from(oggi);
+                ddtMeseCorrente = ddt;
+                movimentiPerGiorno.clear();
+                movimentiPerGiorno.putAll(movimenti);
+                caricato = true;
+                riapplica(inizi);
+            }
+        } finally {
+            terminaRicarica();
+        }
+        logger.info("KPI snapshot reconciled in {} ms", System.currentTimeMillis() - start);
+    }
+
+    // An invalidation during a reload also discards the reloaded state
+    public synchronized void invalida() {
+        caricato = false;
+        if (ricaricheInCorso > 0) {
+            giornale.add(new Evento(Area.PRODOTTI, () -> caricato = false));
+        }
+    }
+
+    public void onGiacenzaAggiornata(int prodottoId, int magazzinoId, BigDecimal quantita) {
+        if (quantita == null) return;
+        aggiornaGiacenza(prodottoId, magazzinoId, attuale -> quantita);
+    }
+
+    public void onGiacenzaVariata(int prodottoId, int magazzinoId, BigDecimal delta) {
+        if (delta == null) return;
+        aggiornaGiacenza(prodottoId, magazzinoId, attuale -> attuale.add(delta));
+    }
+
+    public synchronized void onMovimentiRegistrati(int numero) {
+        if (numero <= 0) return;
+        LocalDate oggi = LocalDate.now();
+        registra(Area.MOVIMENTI, () -> movimentiPerGiorno.merge(oggi, numero, Integer::sum));
+    }
+
+    public synchronized void onLottiModificati() {
+        lottiDaRicalcolare = true;
+        if (ricaricheInCorso > 0) {
+            giornale.add(new Evento(Area.LOTTI, () -> lottiDaRicalcolare = true));
+        }
+    }
+
+    public synchronized void onDdtStatoCambiato(LocalDate dataDocumento, StatoDdt da, StatoDdt a) {
+        if (dataDocumento == null) return;
+        registra(Area.DDT, () -> {
+            if (!YearMonth.from(dataDocumento).equals(meseDdt)) return;
+            if (da != StatoDdt.EMESSO && a == StatoDdt.EMESSO) {
+                ddtMeseCorrente++;
+            } else if (da == StatoDdt.EMESSO && a != StatoDdt.EMESSO) {
+                ddtMeseCorrente--;
+            }
+        });
+    }
+
+    public synchronized void onProdottoSalvato(int prodottoId, Prodotto prodotto) {
+        registra(Area.PRODOTTI, () -> applicaProdotto(prodottoId, prodotto));
+    }
+
+    // A product that has no giacenza in the snapshot yet is read before taking the lock
+    private void aggiornaGiacenza(int prodottoId, int magazzinoId, UnaryOperator<BigDecimal> quantita) {
+        Prodotto prodotto = serveProdotto(prodottoId, magazzinoId)
+                ? prodottoDao.findById(prodottoId).orElse(null)
+                : null;
+        synchronized (this) {
+            registra(Area.GIACENZE, () -> applicaGiacenza(prodottoId, magazzinoId, quantita, prodotto));
+        }
+    }
+
+    // During a reload the giacenza may be missing from the state about to be swapped in
+    private synchronized boolean serveProdotto(int prodottoId, int magazzinoId) {
+        return ricaricheInCorso > 0 || (caricato && magazzinoId == magazzinoPrincipaleId
+                && !giacenze.containsKey(prodottoId) && prodottiAttivi.contains(prodottoId));
+    }
+
+    private void applicaGiacenza(int prodottoId, int magazzinoId, UnaryOperator<BigDecimal> quantita,
+                                 Prodotto prodotto) {
+        if (magazzinoId != magazzinoPrincipaleId) return;
+
+        GiacenzaDao.GiacenzaCompleta g = giacenze.get(prodottoId);
+        if (g == null) {
+            if (prodotto == null || !prodottiAttivi.contains(prodottoId)) return;
+            g = nuovaGiacenza(prodottoId, magazzinoId, prodotto);
+            giacenze.put(prodottoId, g);
+        } else {
+            rimuoviContributo(g);
+        }
+        g.setQuantita(quantita.apply(g.getQuantita() != null ? g.getQuantita() : BigDecimal.ZERO));
+        aggiungiContributo(g);
+    }
+
+    private void applicaProdotto(int prodottoId, Prodotto prodotto) {
+        if (prodotto.isAttivo()) {
+            prodottiAttivi.add(prodottoId);
+        } else {
+            prodottiAttivi.remove(prodottoId);
+        }
+
+        GiacenzaDao.GiacenzaCompleta g = giacenze.get(prodottoId);
+        if (g == null) return;
+        rimuoviContributo(g);
+        if (!prodotto.isAttivo()) {
+            giacenze.remove(prodottoId);
+            return;
+        }
+        g.setPrezzoAcquisto(prodotto.getPrezzoAcquisto());
+        g.setPrezzoVendita(prodotto.getPrezzoVendita());
+        g.setScortaMinima(prodotto.getScortaMinima());
+        aggiungiContributo(g);
+    }
+
+    private synchronized boolean isCaricato() {
+        return caricato;
+    }
+
+    // Applies a notification to the loaded state and journals it for the reloads in progress
+    private void registra(Area area, Runnable modifica) {
+        if (ricaricheInCorso > 0) {
+            giornale.add(new Evento(area, modifica));
+        }
+        if (caricato) {
+            modifica.run();
+        }
+    }
+
+    // Returns the journal position the queries of the reload start from
+    private int iniziaRicarica() {
+        ricaricheInCorso++;
+        return giornale.size();
+    }
+
+    private synchronized int posizioneGiornale() {
+        return giornale.size();
+    }
+
+    private synchronized void terminaRicarica() {
+        if (--ricaricheInCorso == 0) {
+            giornale.clear();
+        }
+    }
+
+    // Applies again, in arrival order, the notifications that came after the query of their area started
+    private void riapplica(Map<Area, Integer> inizi) {
+        for (int i = 0; i < giornale.size(); i++) {
+            Evento evento = giornale.get(i);
+            Integer inizio = inizi.get(evento.area());
+            if (inizio != null && i >= inizio) {
+                evento.modifica().run();
+            }
+        }
+    }
+
+    private void aggiungiContributo(GiacenzaDao.GiacenzaCompleta g) {
+        valoreAcquisto = valoreAcquisto.add(g.getValoreAcquisto());
+        valoreVendita = valoreVendita.add(g.getValoreVendita());
+        if (g.isSottoScorta()) sottoScorta++;
+    }
+
+    private void rimuoviContributo(GiacenzaDao.GiacenzaCompleta g) {
+        valoreAcquisto = valoreAcquisto.subtract(g.getValoreAcquisto());
+        valoreVendita = valoreVendita.subtract(g.getValoreVendita());
+        if (g.isSottoScorta()) sottoScorta--;
+    }
+
+    private synchronized void avviaRiconciliazionePeriodica() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "kpi-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                riconcilia();
+            } catch (RuntimeException e) {
+                logger.error("Error reconciling KPI snapshot: {}", e.getMessage());
+            }
+        }, RICONCILIAZIONE_MINUTI, RICONCILIAZIONE_MINUTI, TimeUnit.MINUTES);
+    }
+
+    private static GiacenzaDao.GiacenzaCompleta nuovaGiacenza(int prodottoId, int magazzinoId, Prodotto prodotto) {
+        GiacenzaDao.GiacenzaCompleta g = new GiacenzaDao.GiacenzaCompleta();
+        g.setProdottoId(prodottoId);
+        g.setMagazzinoId(magazzinoId);
+        g.setCodice(prodotto.getCodice());
+        g.setProdottoNome(prodotto.getNome());
+        g.setQuantita(BigDecimal.ZERO);
+        g.setPrezzoAcquisto(prodotto.getPrezzoAcquisto());
+        g.setPrezzoVendita(prodotto.getPrezzoVendita());
+        g.setScortaMinima(prodotto.getScortaMinima());
+        return g;
+    }
+
+    // Parts of the snapshot, in the order riconcilia reads them
+    private enum Area { PRODOTTI, GIACENZE, LOTTI, DDT, MOVIMENTI }
+
+    private record Evento(Area area, Runnable modifica) {}
+}
@@ -3,24 +3,30 @@ package com.ingrosso.service;
 import com.ingrosso.dao.ListinoDao;
 import com.ingrosso.dao.ProdottoDao;
 import com.ingrosso.model.*;
+import com.ingrosso.util.TransactionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class ListinoService {
     private static final Logger logger = LoggerFactory.getLogger(ListinoService.class);
     private static ListinoService instance;
+    private static final int RIGHE_ANTEPRIMA = 200;
 
     private final ListinoDao listinoDao;
     private final ProdottoDao prodottoDao;
+    private final PrezziCache prezziCache;
 
     private ListinoService() {
         this.listinoDao = new ListinoDao();
         this.prodottoDao = new ProdottoDao();
+        this.prezziCache = new PrezziCache(listinoDao);
     }
 
     public static synchronized ListinoService getInstance() {
@@ -41,26 +47,51 @@ public class ListinoService {
 
     public Optional<Listino> getListinoById(int id) {
         Optional<Listino> listinoOpt = listinoDao.findById(id);
-        listinoOpt.ifPresent(listino -> {
-            List<ListinoPrezzo> prezzi = listinoDao.findPrezziByListino(id);
-            prezzi.forEach(p -> {
-                prodottoDao.findById(p.getProdottoId()).ifPresent(p::setProdotto);
-            });
-            listino.getPrezzi().setAll(prezzi);
-        });
+        listinoOpt.ifPresent(listino -> listino.getPrezzi().setAll(getPrezziByListino(id)));
         return listinoOpt;
     }
 
+    // Products are loaded with one query for the whole listino, not one per price
+    public List<ListinoPrezzo> getPrezziByListino(int listinoId) {
+        List<ListinoPrezzo> prezzi = listinoDao.findPrezziByListino(listinoId);
+        if (prezzi.isEmpty()) return prezzi;
+
+        Map<Integer, Prodotto> prodotti = new HashMap<>();
+        for (Prodotto p : prodottoDao.findByListino(listinoId)) {
+            prodotti.put(p.getId(), p);
+        }
+        prezzi.forEach(p -> p.setProdotto(prodotti.get(p.getProdottoId())));
+        return prezzi;
+    }
+
+    // The listino detail a page at a time, joined with the product fields it shows
+    public List<ListinoDao.PrezzoElenco> getPaginaPrezzi(int listinoId, ListinoDao.FiltroPrezzi filtro,
+                                                         ListinoDao.PrezzoElenco dopo, int limite) {
+        return listinoDao.findPaginaPrezzi(listinoId, filtro, dopo, limite);
+    }
+
+    public int countPrezzi(int listinoId, ListinoDao.FiltroPrezzi filtro) {
+        return listinoDao.countPrezzi(listinoId, filtro);
+    }
+
     public Optional<Listino> getListinoPrincipale(TipoListino tipo) {
-        return listinoDao.findPrincipale(tipo);
+        return prezziCache.getPrincipale(tipo);
     }
 
+    // Clearing the old principale and saving the listino commit together
     public int saveListino(Listino listino) {
-        if (listino.getId() > 0) {
-            return listinoDao.update(listino) ? listino.getId() : -1;
-        } else {
+        int result = TransactionManager.inTransaction("salvataggio listino", conn -> {
+            if (listino.getId() > 0) {
+                return listinoDao.update(listino) ? listino.getId() : -1;
+            }
             return listinoDao.insert(listino);
-        }
+        });
+        // Saving may move the principale flag between listini
+        TransactionManager.afterCommit(() -> {
+            prezziCache.invalidaPrincipali();
+            if (result > 0) prezziCache.invalidaListino(result);
+        });
+        return result;
     }
 
     public boolean deleteListino(int id) {
@@ -68,19 +99,29 @@ public class ListinoService {
         if (listinoOpt.isPresent()) {
             Listino l = listinoOpt.get();
             l.setAttivo(false);
-            return listinoDao.update(l);
+            boolean updated = listinoDao.update(l);
+            TransactionManager.afterCommit(() -> {
+                prezziCache.invalidaPrincipali();
+                prezziCache.invalidaListino(id);
+            });
+            return updated;
         }
         return false;
     }
 
     // Prezzi
     public Optional<BigDecimal> getPrezzoCorrente(int listinoId, int prodottoId) {
-        return listinoDao.findPrezzoCorrente(listinoId, prodottoId)
-                .map(ListinoPrezzo::getPrezzo);
+        return getPrezzo(listinoId, prodottoId, LocalDate.now());
+    }
+
+    public Optional<BigDecimal> getPrezzo(int listinoId, int prodottoId, LocalDate data) {
+        return prezziCache.getPrezzo(listinoId, prodottoId, data);
     }
 
     public BigDecimal getPrezzoVenditaProdotto(int prodottoId) {
-        BigDecimal prezzo = listinoDao.getPrezzoVendita(prodottoId);
+        BigDecimal prezzo = getListinoPrincipale(TipoListino.VENDITA)
+                .flatMap(listino -> getPrezzoCorrente(listino.getId(), prodottoId))
+                .orElse(null);
         if (prezzo == null) {
             // Fallback to product price
             Optional<Prodotto> prodotto = prodottoDao.findById(prodottoId);
@@ -89,44 +130,74 @@ public class ListinoService {
         return prezzo;
     }
 
+    public int savePrezzo(ListinoPrezzo prezzo) {
+        Utente utente = AuthService.getInstance().getCurrentUser();
+        return savePrezzo(prezzo, utente != null ? utente.getId() : null);
+    }
+
+    // The price and its history row are written in one transaction
     public int savePrezzo(ListinoPrezzo prezzo, Integer utenteId) {
-        // Get old price for history
-        Optional<ListinoPrezzo> oldPrezzoOpt = listinoDao.findPrezzoCorrente(
-                prezzo.getListinoId(), prezzo.getProdottoId());
-
-        int result;
-        if (prezzo.getId() > 0) {
-            result = listinoDao.updatePrezzo(prezzo) ? prezzo.getId() : -1;
-        } else {
-            result = listinoDao.insertPrezzo(prezzo);
-        }
+        int result = TransactionManager.inTransaction("salvataggio prezzo", conn -> {
+            // Get old price for history
+            Optional<ListinoPrezzo> oldPrezzoOpt = listinoDao.findPrezzoCorrente(
+                    prezzo.getListinoId(), prezzo.getProdottoId());
 
-        // Record price history
-        if (result > 0 && oldPrezzoOpt.isPresent()) {
-            BigDecimal oldPrezzo = oldPrezzoOpt.get().getPrezzo();
-            if (oldPrezzo.compareTo(prezzo.getPrezzo()) != 0) {
-                Optional<Listino> listino = listinoDao.findById(prezzo.getListinoId());
-                if (listino.isPresent()) {
-                    StoricoPrezzo storico = new StoricoPrezzo(
-                            prezzo.getProdottoId(),
-                            listino.get().getTipo(),
-                            oldPrezzo,
-                            prezzo.getPrezzo()
-                    );
-                    if (utenteId != null) storico.setUtenteId(utenteId);
-                    listinoDao.insertStoricoPrezzo(storico);
-                }
+            int id;
+            if (prezzo.getId() > 0) {
+                id = listinoDao.updatePrezzo(prezzo) ? prezzo.getId() : -1;
+            } else {
+                id = listinoDao.insertPrezzo(prezzo);
+            }
+            if (id <= 0) {
+                return -1;
             }
-        }
 
+            // Record price history
+            if (oldPrezzoOpt.isPresent()) {
+                BigDecimal oldPrezzo = oldPrezzoOpt.get().getPrezzo();
+                if (oldPrezzo.compareTo(prezzo.getPrezzo()) != 0) {
+                    Optional<Listino> listino = listinoDao.findById(prezzo.getListinoId());
+                    if (listino.isPresent()) {
+                        StoricoPrezzo storico = new StoricoPrezzo(
+                                prezzo.getProdottoId(),
+                                listino.get().getTipo(),
+                                oldPrezzo,
+                                prezzo.getPrezzo()
+                        );
+                        if (utenteId != null) storico.setUtenteId(utenteId);
+                        if (listinoDao.insertStoricoPrezzo(storico) < 0) {
+                            return -1;
+                        }
+                    }
+                }
+            }
+            return id;
+        });
+        TransactionManager.afterCommit(() -> prezziCache.invalidaListino(prezzo.getListinoId()));
         return result;
     }
 
     public boolean deletePrezzo(int prezzoId) {
-        return listinoDao.deletePrezzo(prezzoId);
+        boolean deleted = listinoDao.deletePrezzo(prezzoId);
+        // Only the id is known here, so every listino is reloaded on next use
+        if (deleted) TransactionManager.afterCommit(prezziCache::invalida);
+        return deleted;
     }
 
+    // After writes that bypass this service, such as the bulk import
+    void invalidaPrezzi() {
+        prezziCache.invalida();
+    }
+
+    // Both principali are updated in one transaction
     public void updatePrezziFromProduct(Prodotto prodotto, Integer utenteId) {
+        TransactionManager.inTransaction("aggiornamento prezzi prodotto", conn -> {
+            aggiornaPrezziPrincipali(prodotto, utenteId);
+            return 0;
+        });
+    }
+
+    private void aggiornaPrezziPrincipali(Prodotto prodotto, Integer utenteId) {
         // Update listino vendita principale
         Optional<Listino> listinoVendita = getListinoPrincipale(TipoListino.VENDITA);
         if (listinoVendita.isPresent() && prodotto.getPrezzoVendita() != null) {
@@ -150,6 +221,38 @@ public class ListinoService {
         }
     }
 
+    // Revisione prezzi: set-based, a few statements whatever the size of the listino
+
+    // Dry run: what revisionePrezzi would change, summarised by the database with the first rows
+    public Optional<AnteprimaRevisione> anteprimaRevisione(ListinoDao.RevisionePrezzi revisione) {
+        return TransactionManager.readOnly("anteprima revisione prezzi", conn -> new AnteprimaRevisione(
+                listinoDao.riepilogoRevisione(conn, revisione),
+                listinoDao.findRigheRevisione(conn, revisione, RIGHE_ANTEPRIMA)));
+    }
+
+    // New prices from revisione.dataInizio with their history rows, in one transaction.
+    // Returns the number of products revised, -1 on error
+    public int revisionePrezzi(ListinoDao.RevisionePrezzi revisione) {
+        Optional<Listino> listino = listinoDao.findById(revisione.listinoId());
+        if (listino.isEmpty()) {
+            return -1;
+        }
+        Utente utente = AuthService.getInstance().getCurrentUser();
+        Integer utenteId = utente != null ? utente.getId() : null;
+
+        long start = System.currentTimeMillis();
+        int result = TransactionManager.inTransaction("revisione prezzi", conn ->
+                listinoDao.applicaRevisione(conn, revisione, listino.get().getTipo(), utenteId));
+        if (result > 0) {
+            TransactionManager.afterCommit(() -> prezziCache.invalidaListino(revisione.listinoId()));
+            logger.info("Revised {} prices of listino {} in {} ms", result, listino.get().getCodice(),
+                    System.currentTimeMillis() - start);
+        }
+        return result;
+    }
+
+    public record AnteprimaRevisione(ListinoDao.RiepilogoRevisione riepilogo, List<ListinoDao.RigaRevisione> righe) {}
+
     // Storico
     public List<StoricoPrezzo> getStoricoPrezzi(int prodottoId) {
         return listinoDao.findStoricoPrezzi(prodottoId);
@@ -6,11 +6,14 @@ import com.ingrosso.dao.MagazzinoDao;
 import com.ingrosso.model.Giacenza;
 import com.ingrosso.model.Lotto;
 import com.ingrosso.model.Magazzino;
+import com.ingrosso.util.TransactionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class MagazzinoService {
@@ -20,11 +23,13 @@ public class MagazzinoService {
     private final MagazzinoDao magazzinoDao;
     private final GiacenzaDao giacenzaDao;
     private final LottoDao lottoDao;
+    private final AnagraficheCache anagrafiche;
 
     private MagazzinoService() {
         this.magazzinoDao = new MagazzinoDao();
         this.giacenzaDao = new GiacenzaDao();
         this.lottoDao = new LottoDao();
+        this.anagrafiche = AnagraficheCache.getInstance();
     }
 
     public static synchronized MagazzinoService getInstance() {
@@ -36,31 +41,43 @@ public class MagazzinoService {
 
     // Magazzini
     public List<Magazzino> getAllMagazzini() {
-        return magazzinoDao.findAllActive();
+        return anagrafiche.getMagazziniAttivi();
     }
 
     public Optional<Magazzino> getMagazzinoById(int id) {
-        return magazzinoDao.findById(id);
+        return anagrafiche.getMagazzino(id);
     }
 
     public Optional<Magazzino> getMagazzinoPrincipale() {
-        return magazzinoDao.findPrincipale();
+        return anagrafiche.getMagazzinoPrincipale();
     }
 
+    // Moving the principale flag and saving the magazzino commit together
     public int saveMagazzino(Magazzino magazzino) {
-        if (magazzino.getId() > 0) {
-            return magazzinoDao.update(magazzino) ? magazzino.getId() : -1;
-        } else {
-            return magazzinoDao.insert(magazzino);
-        }
+        return anagrafiche.modifica(AnagraficheCache.Tabella.MAGAZZINI, "salvataggio magazzino", () -> {
+            int id = magazzino.getId() > 0
+                    ? (magazzinoDao.update(magazzino) ? magazzino.getId() : -1)
+                    : magazzinoDao.insert(magazzino);
+            if (id > 0) {
+                TransactionManager.afterCommit(() -> KpiSnapshotService.getInstance().invalida());
+            }
+            return id;
+        });
     }
 
     public boolean deleteMagazzino(int id) {
+        // Read from the database: the cached instance is shared and must not be modified
         Optional<Magazzino> magOpt = magazzinoDao.findById(id);
         if (magOpt.isPresent()) {
             Magazzino m = magOpt.get();
             m.setAttivo(false);
-            return magazzinoDao.update(m);
+            return anagrafiche.modifica(AnagraficheCache.Tabella.MAGAZZINI, "eliminazione magazzino", () -> {
+                if (!magazzinoDao.update(m)) {
+                    return -1;
+                }
+                TransactionManager.afterCommit(() -> KpiSnapshotService.getInstance().invalida());
+                return id;
+            }) > 0;
         }
         return false;
     }
@@ -84,7 +101,11 @@ public class MagazzinoService {
     }
 
     public boolean updateGiacenza(int prodottoId, int magazzinoId, BigDecimal quantita) {
-        return giacenzaDao.updateQuantita(prodottoId, magazzinoId, quantita);
+        if (giacenzaDao.updateQuantita(prodottoId, magazzinoId, quantita)) {
+            KpiSnapshotService.getInstance().onGiacenzaAggiornata(prodottoId, magazzinoId, quantita);
+            return true;
+        }
+        return false;
     }
 
     // Lotti
@@ -100,42 +121,74 @@ public class MagazzinoService {
         return lottoDao.findById(id);
     }
 
+    // The KPIs are told only once the lotto is committed
     public int saveLotto(Lotto lotto) {
-        if (lotto.getId() > 0) {
-            return lottoDao.update(lotto) ? lotto.getId() : -1;
-        } else {
-            return lottoDao.insert(lotto);
-        }
+        return TransactionManager.inTransaction("salvataggio lotto", conn -> {
+            int id = lotto.getId() > 0
+                    ? (lottoDao.update(lotto) ? lotto.getId() : -1)
+                    : lottoDao.insert(lotto);
+            if (id > 0) {
+                TransactionManager.afterCommit(() -> KpiSnapshotService.getInstance().onLottiModificati());
+            }
+            return id;
+        });
     }
 
     public boolean deleteLotto(int id) {
-        return lottoDao.deleteById(id);
+        return TransactionManager.inTransaction("eliminazione lotto", conn -> {
+            if (!lottoDao.deleteById(id)) {
+                return -1;
+            }
+            TransactionManager.afterCommit(() -> KpiSnapshotService.getInstance().onLottiModificati());
+            return id;
+        }) > 0;
     }
 
     // Statistiche
+    // One grouped query for a magazzino, or for all the active ones with magazzinoId null
+    public Valorizzazione getValorizzazione(Integer magazzinoId) {
+        Valorizzazione valorizzazione = new Valorizzazione();
+        for (GiacenzaDao.ValoreGruppo gruppo : giacenzaDao.findValorizzazione(magazzinoId)) {
+            if (gruppo.getCategoria() == null) {
+                valorizzazione.totale = gruppo;
+                continue;
+            }
+            String categoria = gruppo.getCategoria().isEmpty() ? Valorizzazione.SENZA_CATEGORIA : gruppo.getCategoria();
+            if (gruppo.getSottocategoria() == null) {
+                valorizzazione.perCategoria.put(categoria, gruppo);
+            } else {
+                String sottocategoria = gruppo.getSottocategoria().isEmpty()
+                        ? Valorizzazione.SENZA_SOTTOCATEGORIA : gruppo.getSottocategoria();
+                valorizzazione.perSottocategoria.computeIfAbsent(categoria, c -> new LinkedHashMap<>())
+                        .put(sottocategoria, gruppo);
+            }
+        }
+        return valorizzazione;
+    }
+
     public BigDecimal getValoreMagazzino(int magazzinoId, boolean prezzoVendita) {
-        List<GiacenzaDao.GiacenzaCompleta> giacenze = giacenzaDao.findGiacenzeComplete(magazzinoId);
-        return giacenze.stream()
-                .map(g -> prezzoVendita ? g.getValoreVendita() : g.getValoreAcquisto())
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        return getValorizzazione(magazzinoId).totale.getValore(prezzoVendita);
     }
 
     public BigDecimal getValoreMagazzinoTotale(boolean prezzoVendita) {
-        List<Magazzino> magazzini = magazzinoDao.findAllActive();
-        BigDecimal totale = BigDecimal.ZERO;
-        for (Magazzino m : magazzini) {
-            totale = totale.add(getValoreMagazzino(m.getId(), prezzoVendita));
-        }
-        return totale;
+        return getValorizzazione(null).totale.getValore(prezzoVendita);
     }
 
     public int countProdottiSottoScorta(int magazzinoId) {
-        return (int) giacenzaDao.findGiacenzeComplete(magazzinoId).stream()
-                .filter(GiacenzaDao.GiacenzaCompleta::isSottoScorta)
-                .count();
+        return getValorizzazione(magazzinoId).totale.getSottoScorta();
     }
 
     public int countLottiInScadenza(int giorni) {
         return lottoDao.findLottiInScadenzaCompleti(giorni).size();
     }
+
+    // Stock value from getValorizzazione; rows without category or subcategory are listed under the SENZA_* names
+    public static class Valorizzazione {
+        public static final String SENZA_CATEGORIA = "Senza categoria";
+        public static final String SENZA_SOTTOCATEGORIA = "Senza sottocategoria";
+
+        public GiacenzaDao.ValoreGruppo totale = new GiacenzaDao.ValoreGruppo();
+        public final Map<String, GiacenzaDao.ValoreGruppo> perCategoria = new LinkedHashMap<>();
+        public final Map<String, Map<String, GiacenzaDao.ValoreGruppo>> perSottocategoria = new LinkedHashMap<>();
+    }
 }
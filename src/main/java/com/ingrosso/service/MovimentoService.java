@@ -5,13 +5,19 @@ import com.ingrosso.dao.LottoDao;
 import com.ingrosso.dao.MovimentoDao;
 import com.ingrosso.model.Movimento;
 import com.ingrosso.model.TipoMovimento;
+import com.ingrosso.util.TransactionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public class MovimentoService {
     private static final Logger logger = LoggerFactory.getLogger(MovimentoService.class);
@@ -20,11 +26,13 @@ public class MovimentoService {
     private final MovimentoDao movimentoDao;
     private final GiacenzaDao giacenzaDao;
     private final LottoDao lottoDao;
+    private final KpiSnapshotService kpiSnapshot;
 
     private MovimentoService() {
         this.movimentoDao = new MovimentoDao();
         this.giacenzaDao = new GiacenzaDao();
         this.lottoDao = new LottoDao();
+        this.kpiSnapshot = KpiSnapshotService.getInstance();
     }
 
     public static synchronized MovimentoService getInstance() {
@@ -34,9 +42,17 @@ public class MovimentoService {
         return instance;
     }
 
-    public List<MovimentoDao.MovimentoCompleto> getMovimenti(LocalDate dataInizio, LocalDate dataFine,
-                                                             Integer magazzinoId, TipoMovimento tipo) {
-        return movimentoDao.findMovimentiCompleti(dataInizio, dataFine, magazzinoId, tipo);
+    public List<MovimentoDao.MovimentoCompleto> getPaginaMovimenti(MovimentoDao.FiltroMovimenti filtro,
+                                                                   MovimentoDao.MovimentoCompleto dopo, int limite) {
+        return movimentoDao.findPaginaMovimentiCompleti(filtro, dopo, limite);
+    }
+
+    public int forEachMovimento(MovimentoDao.FiltroMovimenti filtro, Consumer<MovimentoDao.MovimentoCompleto> action) {
+        return movimentoDao.forEachMovimentoCompleto(filtro, action);
+    }
+
+    public int countMovimenti(MovimentoDao.FiltroMovimenti filtro) {
+        return movimentoDao.countMovimentiCompleti(filtro);
     }
 
     public List<Movimento> getMovimentiByProdotto(int prodottoId) {
@@ -51,32 +67,50 @@ public class MovimentoService {
         return movimentoDao.findById(id);
     }
 
+    public int registraMovimento(Movimento movimento) {
+        Integer lottoId = movimento.getLottoId() > 0 ? movimento.getLottoId() : null;
+        Integer utenteId = movimento.getUtenteId() > 0 ? movimento.getUtenteId() : null;
+        return switch (movimento.getTipo()) {
+            case CARICO -> registraCarico(movimento.getProdottoId(), movimento.getMagazzinoId(), movimento.getQuantita(),
+                    movimento.getCausale(), movimento.getDocumentoRif(), lottoId, utenteId);
+            case SCARICO -> registraScarico(movimento.getProdottoId(), movimento.getMagazzinoId(), movimento.getQuantita(),
+                    movimento.getCausale(), movimento.getDocumentoRif(), lottoId, utenteId);
+            case RETTIFICA -> registraRettifica(movimento.getProdottoId(), movimento.getMagazzinoId(),
+                    movimento.getQuantita(), movimento.getCausale(), utenteId);
+            case TRASFERIMENTO -> registraTrasferimento(movimento.getProdottoId(), movimento.getMagazzinoId(),
+                    movimento.getMagazzinoDestinazioneId(), movimento.getQuantita(), movimento.getCausale(), lottoId, utenteId);
+        };
+    }
+
     public int registraCarico(int prodottoId, int magazzinoId, BigDecimal quantita,
                               String causale, String documentoRif, Integer lottoId, Integer utenteId) {
-        BigDecimal giacenzaAttuale = giacenzaDao.findByProdottoAndMagazzino(prodottoId, magazzinoId)
-                .map(g -> g.getQuantita())
-                .orElse(BigDecimal.ZERO);
-
-        BigDecimal nuovaGiacenza = giacenzaAttuale.add(quantita);
-
-        Movimento m = new Movimento();
-        m.setProdottoId(prodottoId);
-        m.setMagazzinoId(magazzinoId);
-        m.setTipo(TipoMovimento.CARICO);
-        m.setQuantita(quantita);
-        m.setQuantitaPrecedente(giacenzaAttuale);
-        m.setQuantitaSuccessiva(nuovaGiacenza);
-        m.setCausale(causale);
-        m.setDocumentoRif(documentoRif);
-        if (lottoId != null && lottoId > 0) m.setLottoId(lottoId);
-        if (utenteId != null && utenteId > 0) m.setUtenteId(utenteId);
-
-        int movId = movimentoDao.insert(m);
-        if (movId > 0) {
-            giacenzaDao.updateQuantita(prodottoId, magazzinoId, nuovaGiacenza);
-            if (lottoId != null && lottoId > 0) {
-                lottoDao.incrementQuantita(lottoId, quantita);
+        int movId = TransactionManager.inTransaction("carico", conn -> {
+            BigDecimal giacenzaAttuale = giacenzaDao.lockQuantita(conn, prodottoId, magazzinoId);
+            BigDecimal nuovaGiacenza = giacenzaAttuale.add(quantita);
+
+            Movimento m = new Movimento();
+            m.setProdottoId(prodottoId);
+            m.setMagazzinoId(magazzinoId);
+            m.setTipo(TipoMovimento.CARICO);
+            m.setQuantita(quantita);
+            m.setQuantitaPrecedente(giacenzaAttuale);
+            m.setQuantitaSuccessiva(nuovaGiacenza);
+            m.setCausale(causale);
+            m.setDocumentoRif(documentoRif);
+            if (lottoId != null && lottoId > 0) m.setLottoId(lottoId);
+            if (utenteId != null && utenteId > 0) m.setUtenteId(utenteId);
+
+            int id = movimentoDao.insert(conn, m);
+            if (id > 0) {
+                giacenzaDao.setQuantita(conn, prodottoId, magazzinoId, nuovaGiacenza);
+                if (lottoId != null && lottoId > 0) {
+                    lottoDao.incrementQuantita(conn, lottoId, quantita);
+                }
             }
+            return id;
+        });
+        if (movId > 0) {
+            aggiornaKpi(prodottoId, magazzinoId, quantita, lottoId);
             logger.info("Carico registrato: prodotto={}, magazzino={}, quantita={}", prodottoId, magazzinoId, quantita);
         }
         return movId;
@@ -84,35 +118,39 @@ public class MovimentoService {
 
     public int registraScarico(int prodottoId, int magazzinoId, BigDecimal quantita,
                                String causale, String documentoRif, Integer lottoId, Integer utenteId) {
-        BigDecimal giacenzaAttuale = giacenzaDao.findByProdottoAndMagazzino(prodottoId, magazzinoId)
-                .map(g -> g.getQuantita())
-                .orElse(BigDecimal.ZERO);
+        int movId = TransactionManager.inTransaction("scarico", conn -> {
+            BigDecimal giacenzaAttuale = giacenzaDao.lockQuantita(conn, prodottoId, magazzinoId);
 
-        if (giacenzaAttuale.compareTo(quantita) < 0) {
-            logger.warn("Giacenza insufficiente per scarico: disponibile={}, richiesta={}", giacenzaAttuale, quantita);
-            return -1;
-        }
+            if (giacenzaAttuale.compareTo(quantita) < 0) {
+                logger.warn("Giacenza insufficiente per scarico: disponibile={}, richiesta={}", giacenzaAttuale, quantita);
+                return -1;
+            }
 
-        BigDecimal nuovaGiacenza = giacenzaAttuale.subtract(quantita);
-
-        Movimento m = new Movimento();
-        m.setProdottoId(prodottoId);
-        m.setMagazzinoId(magazzinoId);
-        m.setTipo(TipoMovimento.SCARICO);
-        m.setQuantita(quantita);
-        m.setQuantitaPrecedente(giacenzaAttuale);
-        m.setQuantitaSuccessiva(nuovaGiacenza);
-        m.setCausale(causale);
-        m.setDocumentoRif(documentoRif);
-        if (lottoId != null && lottoId > 0) m.setLottoId(lottoId);
-        if (utenteId != null && utenteId > 0) m.setUtenteId(utenteId);
-
-        int movId = movimentoDao.insert(m);
-        if (movId > 0) {
-            giacenzaDao.updateQuantita(prodottoId, magazzinoId, nuovaGiacenza);
-            if (lottoId != null && lottoId > 0) {
-                lottoDao.incrementQuantita(lottoId, quantita.negate());
+            BigDecimal nuovaGiacenza = giacenzaAttuale.subtract(quantita);
+
+            Movimento m = new Movimento();
+            m.setProdottoId(prodottoId);
+            m.setMagazzinoId(magazzinoId);
+            m.setTipo(TipoMovimento.SCARICO);
+            m.setQuantita(quantita);
+            m.setQuantitaPrecedente(giacenzaAttuale);
+            m.setQuantitaSuccessiva(nuovaGiacenza);
+            m.setCausale(causale);
+            m.setDocumentoRif(documentoRif);
+            if (lottoId != null && lottoId > 0) m.setLottoId(lottoId);
+            if (utenteId != null && utenteId > 0) m.setUtenteId(utenteId);
+
+            int id = movimentoDao.insert(conn, m);
+            if (id > 0) {
+                giacenzaDao.setQuantita(conn, prodottoId, magazzinoId, nuovaGiacenza);
+                if (lottoId != null && lottoId > 0) {
+                    lottoDao.incrementQuantita(conn, lottoId, quantita.negate());
+                }
             }
+            return id;
+        });
+        if (movId > 0) {
+            aggiornaKpi(prodottoId, magazzinoId, quantita.negate(), lottoId);
             logger.info("Scarico registrato: prodotto={}, magazzino={}, quantita={}", prodottoId, magazzinoId, quantita);
         }
         return movId;
@@ -120,68 +158,164 @@ public class MovimentoService {
 
     public int registraRettifica(int prodottoId, int magazzinoId, BigDecimal nuovaQuantita,
                                  String causale, Integer utenteId) {
-        BigDecimal giacenzaAttuale = giacenzaDao.findByProdottoAndMagazzino(prodottoId, magazzinoId)
-                .map(g -> g.getQuantita())
-                .orElse(BigDecimal.ZERO);
-
-        BigDecimal differenza = nuovaQuantita.subtract(giacenzaAttuale);
-
-        Movimento m = new Movimento();
-        m.setProdottoId(prodottoId);
-        m.setMagazzinoId(magazzinoId);
-        m.setTipo(TipoMovimento.RETTIFICA);
-        m.setQuantita(differenza);
-        m.setQuantitaPrecedente(giacenzaAttuale);
-        m.setQuantitaSuccessiva(nuovaQuantita);
-        m.setCausale(causale != null ? causale : "Rettifica inventario");
-        if (utenteId != null && utenteId > 0) m.setUtenteId(utenteId);
-
-        int movId = movimentoDao.insert(m);
+        int movId = TransactionManager.inTransaction("rettifica", conn -> {
+            BigDecimal giacenzaAttuale = giacenzaDao.lockQuantita(conn, prodottoId, magazzinoId);
+            BigDecimal differenza = nuovaQuantita.subtract(giacenzaAttuale);
+
+            Movimento m = new Movimento();
+            m.setProdottoId(prodottoId);
+            m.setMagazzinoId(magazzinoId);
+            m.setTipo(TipoMovimento.RETTIFICA);
+            m.setQuantita(differenza);
+            m.setQuantitaPrecedente(giacenzaAttuale);
+            m.setQuantitaSuccessiva(nuovaQuantita);
+            m.setCausale(causale != null ? causale : "Rettifica inventario");
+            if (utenteId != null && utenteId > 0) m.setUtenteId(utenteId);
+
+            int id = movimentoDao.insert(conn, m);
+            if (id > 0) {
+                giacenzaDao.setQuantita(conn, prodottoId, magazzinoId, nuovaQuantita);
+                logger.info("Rettifica registrata: prodotto={}, magazzino={}, da {} a {}",
+                        prodottoId, magazzinoId, giacenzaAttuale, nuovaQuantita);
+            }
+            return id;
+        });
         if (movId > 0) {
-            giacenzaDao.updateQuantita(prodottoId, magazzinoId, nuovaQuantita);
-            logger.info("Rettifica registrata: prodotto={}, magazzino={}, da {} a {}",
-                    prodottoId, magazzinoId, giacenzaAttuale, nuovaQuantita);
+            TransactionManager.afterCommit(() -> {
+                kpiSnapshot.onGiacenzaAggiornata(prodottoId, magazzinoId, nuovaQuantita);
+                kpiSnapshot.onMovimentiRegistrati(1);
+            });
         }
         return movId;
     }
 
     public int registraTrasferimento(int prodottoId, int magazzinoOrigineId, int magazzinoDestinazioneId,
                                      BigDecimal quantita, String causale, Integer lottoId, Integer utenteId) {
-        BigDecimal giacenzaOrigine = giacenzaDao.findByProdottoAndMagazzino(prodottoId, magazzinoOrigineId)
-                .map(g -> g.getQuantita())
-                .orElse(BigDecimal.ZERO);
-
-        if (giacenzaOrigine.compareTo(quantita) < 0) {
-            logger.warn("Giacenza insufficiente per trasferimento: disponibile={}, richiesta={}", giacenzaOrigine, quantita);
+        if (magazzinoOrigineId == magazzinoDestinazioneId) {
+            logger.warn("Trasferimento con magazzino di origine e destinazione coincidenti: {}", magazzinoOrigineId);
             return -1;
         }
+        int movId = TransactionManager.inTransaction("trasferimento", conn -> {
+            // Lock both rows in a fixed order so that opposite transfers cannot deadlock
+            BigDecimal giacenzaOrigine;
+            BigDecimal giacenzaDestinazione;
+            if (magazzinoOrigineId < magazzinoDestinazioneId) {
+                giacenzaOrigine = giacenzaDao.lockQuantita(conn, prodottoId, magazzinoOrigineId);
+                giacenzaDestinazione = giacenzaDao.lockQuantita(conn, prodottoId, magazzinoDestinazioneId);
+            } else {
+                giacenzaDestinazione = giacenzaDao.lockQuantita(conn, prodottoId, magazzinoDestinazioneId);
+                giacenzaOrigine = giacenzaDao.lockQuantita(conn, prodottoId, magazzinoOrigineId);
+            }
+
+            if (giacenzaOrigine.compareTo(quantita) < 0) {
+                logger.warn("Giacenza insufficiente per trasferimento: disponibile={}, richiesta={}", giacenzaOrigine, quantita);
+                return -1;
+            }
+
+            Movimento m = new Movimento();
+            m.setProdottoId(prodottoId);
+            m.setMagazzinoId(magazzinoOrigineId);
+            m.setMagazzinoDestinazioneId(magazzinoDestinazioneId);
+            m.setTipo(TipoMovimento.TRASFERIMENTO);
+            m.setQuantita(quantita);
+            m.setQuantitaPrecedente(giacenzaOrigine);
+            m.setQuantitaSuccessiva(giacenzaOrigine.subtract(quantita));
+            m.setCausale(causale != null ? causale : "Trasferimento tra magazzini");
+            if (lottoId != null && lottoId > 0) m.setLottoId(lottoId);
+            if (utenteId != null && utenteId > 0) m.setUtenteId(utenteId);
 
-        BigDecimal giacenzaDestinazione = giacenzaDao.findByProdottoAndMagazzino(prodottoId, magazzinoDestinazioneId)
-                .map(g -> g.getQuantita())
-                .orElse(BigDecimal.ZERO);
-
-        Movimento m = new Movimento();
-        m.setProdottoId(prodottoId);
-        m.setMagazzinoId(magazzinoOrigineId);
-        m.setMagazzinoDestinazioneId(magazzinoDestinazioneId);
-        m.setTipo(TipoMovimento.TRASFERIMENTO);
-        m.setQuantita(quantita);
-        m.setQuantitaPrecedente(giacenzaOrigine);
-        m.setQuantitaSuccessiva(giacenzaOrigine.subtract(quantita));
-        m.setCausale(causale != null ? causale : "Trasferimento tra magazzini");
-        if (lottoId != null && lottoId > 0) m.setLottoId(lottoId);
-        if (utenteId != null && utenteId > 0) m.setUtenteId(utenteId);
-
-        int movId = movimentoDao.insert(m);
+            int id = movimentoDao.insert(conn, m);
+            if (id > 0) {
+                giacenzaDao.setQuantita(conn, prodottoId, magazzinoOrigineId, giacenzaOrigine.subtract(quantita));
+                giacenzaDao.setQuantita(conn, prodottoId, magazzinoDestinazioneId, giacenzaDestinazione.add(quantita));
+            }
+            return id;
+        });
         if (movId > 0) {
-            giacenzaDao.updateQuantita(prodottoId, magazzinoOrigineId, giacenzaOrigine.subtract(quantita));
-            giacenzaDao.updateQuantita(prodottoId, magazzinoDestinazioneId, giacenzaDestinazione.add(quantita));
+            TransactionManager.afterCommit(() -> {
+                kpiSnapshot.onGiacenzaVariata(prodottoId, magazzinoOrigineId, quantita.negate());
+                kpiSnapshot.onGiacenzaVariata(prodottoId, magazzinoDestinazioneId, quantita);
+                kpiSnapshot.onMovimentiRegistrati(1);
+            });
             logger.info("Trasferimento registrato: prodotto={}, da {} a {}, quantita={}",
                     prodottoId, magazzinoOrigineId, magazzinoDestinazioneId, quantita);
         }
         return movId;
     }
 
+    // Registers all the carichi or scarichi of one document against one magazzino in a single transaction:
+    // the giacenze are locked once, movimenti, giacenze and lotti are written with JDBC batches and
+    // completamento runs in the same transaction. Returns the number of movimenti written or -1.
+    int registraMovimentiDocumento(int magazzinoId, TipoMovimento tipo, List<Movimento> movimenti,
+                                   TransactionManager.TransactionCallback completamento) {
+        if (tipo != TipoMovimento.CARICO && tipo != TipoMovimento.SCARICO) {
+            throw new IllegalArgumentException("Tipo movimento non supportato: " + tipo);
+        }
+        int result = TransactionManager.inTransaction("movimenti documento", conn -> {
+            Set<Integer> prodottoIds = new HashSet<>();
+            for (Movimento m : movimenti) {
+                prodottoIds.add(m.getProdottoId());
+            }
+            Map<Integer, BigDecimal> giacenze = giacenzaDao.lockQuantita(conn, prodottoIds, magazzinoId);
+            Map<Integer, BigDecimal> deltaLotti = new HashMap<>();
+
+            for (Movimento m : movimenti) {
+                BigDecimal precedente = giacenze.getOrDefault(m.getProdottoId(), BigDecimal.ZERO);
+                BigDecimal successiva = tipo == TipoMovimento.SCARICO
+                        ? precedente.subtract(m.getQuantita())
+                        : precedente.add(m.getQuantita());
+                if (successiva.signum() < 0) {
+                    logger.warn("Giacenza insufficiente per scarico: prodotto={}, disponibile={}, richiesta={}",
+                            m.getProdottoId(), precedente, m.getQuantita());
+                    return -1;
+                }
+                m.setMagazzinoId(magazzinoId);
+                m.setTipo(tipo);
+                m.setQuantitaPrecedente(precedente);
+                m.setQuantitaSuccessiva(successiva);
+                giacenze.put(m.getProdottoId(), successiva);
+                if (m.getLottoId() > 0) {
+                    BigDecimal delta = tipo == TipoMovimento.SCARICO ? m.getQuantita().negate() : m.getQuantita();
+                    deltaLotti.merge(m.getLottoId(), delta, BigDecimal::add);
+                }
+            }
+
+            movimentoDao.insertBatch(conn, movimenti);
+            giacenzaDao.setQuantita(conn, magazzinoId, giacenze);
+            lottoDao.incrementQuantita(conn, deltaLotti);
+
+            if (completamento != null && completamento.execute(conn) < 0) {
+                return -1;
+            }
+            return movimenti.size();
+        });
+
+        if (result >= 0) {
+            TransactionManager.afterCommit(() -> {
+                boolean lotti = false;
+                for (Movimento m : movimenti) {
+                    BigDecimal delta = tipo == TipoMovimento.SCARICO ? m.getQuantita().negate() : m.getQuantita();
+                    kpiSnapshot.onGiacenzaVariata(m.getProdottoId(), magazzinoId, delta);
+                    lotti |= m.getLottoId() > 0;
+                }
+                kpiSnapshot.onMovimentiRegistrati(movimenti.size());
+                if (lotti) kpiSnapshot.onLottiModificati();
+            });
+        }
+        return result;
+    }
+
+    // The snapshot is only updated once the work is committed, also when this runs inside a larger transaction
+    private void aggiornaKpi(int prodottoId, int magazzinoId, BigDecimal delta, Integer lottoId) {
+        TransactionManager.afterCommit(() -> {
+            kpiSnapshot.onGiacenzaVariata(prodottoId, magazzinoId, delta);
+            kpiSnapshot.onMovimentiRegistrati(1);
+            if (lottoId != null && lottoId > 0) {
+                kpiSnapshot.onLottiModificati();
+            }
+        });
+    }
+
     public int countMovimentiPeriodo(LocalDate dataInizio, LocalDate dataFine) {
         return movimentoDao.countByPeriodo(dataInizio, dataFine);
     }
@@ -0,0 +1,135 @@
+package com.ingrosso.service;
+
+import com.ingrosso.dao.ListinoDao;
+import com.ingrosso.model.Listino;
+import com.ingrosso.model.TipoListino;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+// Price resolution for ListinoService: the validity intervals of each listino are loaded with one
+// query and indexed per prodotto by data_inizio, so "price at date D" is a floor lookup.
+// Writes invalidate explicitly; entries also expire so changes made by other clients show up.
+// A listino is loaded outside the monitor by the first caller, the others wait on its future.
+class PrezziCache {
+    private static final Logger logger = LoggerFactory.getLogger(PrezziCache.class);
+    private static final long SCADENZA_MS = 5 * 60 * 1000;
+
+    private record Validita(LocalDate dataFine, BigDecimal prezzo) {
+        boolean isValida(LocalDate data) {
+            return dataFine == null || !dataFine.isBefore(data);
+        }
+    }
+
+    private record PrezziListino(Map<Integer, NavigableMap<LocalDate, Validita>> perProdotto, long caricatoIl,
+                                 boolean completo) {}
+
+    private record Principale(Optional<Listino> listino, long caricatoIl) {}
+
+    private final ListinoDao listinoDao;
+    private final Map<Integer, CompletableFuture<PrezziListino>> listini = new HashMap<>();
+    private final Map<TipoListino, Principale> principali = new EnumMap<>(TipoListino.class);
+
+    PrezziCache(ListinoDao listinoDao) {
+        this.listinoDao = listinoDao;
+    }
+
+    synchronized Optional<Listino> getPrincipale(TipoListino tipo) {
+        Principale principale = principali.get(tipo);
+        if (principale == null || isScaduto(principale.caricatoIl())) {
+            principale = new Principale(listinoDao.findPrincipale(tipo), System.currentTimeMillis());
+            principali.put(tipo, principale);
+        }
+        return principale.listino();
+    }
+
+    // Same semantics as ListinoDao.findPrezzoCorrente: the latest interval starting on or before
+    // the date that has not ended yet
+    Optional<BigDecimal> getPrezzo(int listinoId, int prodottoId, LocalDate data) {
+        NavigableMap<LocalDate, Validita> intervalli = getPrezziListino(listinoId).perProdotto().get(prodottoId);
+        if (intervalli == null) return Optional.empty();
+
+        for (Map.Entry<LocalDate, Validita> entry = intervalli.floorEntry(data);
+             entry != null;
+             entry = intervalli.lowerEntry(entry.getKey())) {
+            if (entry.getValue().isValida(data)) {
+                return Optional.of(entry.getValue().prezzo());
+            }
+        }
+        return Optional.empty();
+    }
+
+    synchronized void invalidaListino(int listinoId) {
+        listini.remove(listinoId);
+    }
+
+    synchronized void invalidaPrincipali() {
+        principali.clear();
+    }
+
+    synchronized void invalida() {
+        listini.clear();
+        principali.clear();
+    }
+
+    private PrezziListino getPrezziListino(int listinoId) {
+        CompletableFuture<PrezziListino> futuro;
+        CompletableFuture<PrezziListino> caricamento = null;
+        synchronized (this) {
+            futuro = listini.get(listinoId);
+            if (futuro == null || (futuro.isDone() && isScaduto(futuro.join().caricatoIl()))) {
+                caricamento = new CompletableFuture<>();
+                futuro = caricamento;
+                listini.put(listinoId, caricamento);
+            }
+        }
+        if (caricamento == null) {
+            return futuro.join();
+        }
+
+        PrezziListino prezzi = null;
+        try {
+            prezzi = carica(listinoId);
+        } finally {
+            // A failed or partial load is handed to the callers already waiting but never kept
+            if (prezzi == null || !prezzi.completo()) {
+                synchronized (this) {
+                    listini.remove(listinoId, caricamento);
+                }
+            }
+            if (prezzi != null) {
+                caricamento.complete(prezzi);
+            } else {
+                caricamento.complete(new PrezziListino(Map.of(), System.currentTimeMillis(), false));
+            }
+        }
+        return prezzi;
+    }
+
+    private PrezziListino carica(int listinoId) {
+        long start = System.currentTimeMillis();
+        Map<Integer, NavigableMap<LocalDate, Validita>> perProdotto = new HashMap<>();
+        int righe = listinoDao.forEachPrezzoByListino(listinoId, lp ->
+                perProdotto.computeIfAbsent(lp.getProdottoId(), id -> new TreeMap<>())
+                        .put(lp.getDataInizio(), new Validita(lp.getDataFine(), lp.getPrezzo())));
+        if (righe < 0) {
+            logger.warn("Prices of listino {} not loaded, not caching them", listinoId);
+        } else {
+            logger.debug("Loaded {} prices of listino {} in {} ms", righe, listinoId, System.currentTimeMillis() - start);
+        }
+        return new PrezziListino(perProdotto, System.currentTimeMillis(), righe >= 0);
+    }
+
+    private static boolean isScaduto(long caricatoIl) {
+        return System.currentTimeMillis() - caricatoIl > SCADENZA_MS;
+    }
+}
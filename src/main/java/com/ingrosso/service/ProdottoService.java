@@ -8,21 +8,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public class ProdottoService {
     private static final Logger logger = LoggerFactory.getLogger(ProdottoService.class);
+    private static final String CODICE_PREFIX = "P";
     private static ProdottoService instance;
 
     private final ProdottoDao prodottoDao;
     private final CategoriaDao categoriaDao;
     private final GiacenzaDao giacenzaDao;
+    private final AnagraficheCache anagrafiche;
 
     private ProdottoService() {
         this.prodottoDao = new ProdottoDao();
         this.categoriaDao = new CategoriaDao();
         this.giacenzaDao = new GiacenzaDao();
+        this.anagrafiche = AnagraficheCache.getInstance();
     }
 
     public static synchronized ProdottoService getInstance() {
@@ -39,6 +45,11 @@ public class ProdottoService {
         return prodotti;
     }
 
+    // Light rows for the product list; the full Prodotto is loaded by id when one is edited
+    public List<ProdottoDao.ProdottoElenco> getElencoProdotti() {
+        return prodottoDao.findElencoAttivi();
+    }
+
     public Optional<Prodotto> getProdottoById(int id) {
         Optional<Prodotto> prodottoOpt = prodottoDao.findById(id);
         prodottoOpt.ifPresent(p -> {
@@ -82,11 +93,16 @@ public class ProdottoService {
     }
 
     public int saveProdotto(Prodotto prodotto) {
+        int id;
         if (prodotto.getId() > 0) {
-            return prodottoDao.update(prodotto) ? prodotto.getId() : -1;
+            id = prodottoDao.update(prodotto) ? prodotto.getId() : -1;
         } else {
-            return prodottoDao.insert(prodotto);
+            id = prodottoDao.insert(prodotto);
         }
+        if (id > 0) {
+            KpiSnapshotService.getInstance().onProdottoSalvato(id, prodotto);
+        }
+        return id;
     }
 
     public boolean deleteProdotto(int id) {
@@ -95,7 +111,11 @@ public class ProdottoService {
         if (prodottoOpt.isPresent()) {
             Prodotto p = prodottoOpt.get();
             p.setAttivo(false);
-            return prodottoDao.update(p);
+            if (prodottoDao.update(p)) {
+                KpiSnapshotService.getInstance().onProdottoSalvato(id, p);
+                return true;
+            }
+            return false;
         }
         return false;
     }
@@ -104,83 +124,92 @@ public class ProdottoService {
         return prodottoDao.generateNextCode(prefix);
     }
 
+    public String generateNextCodice() {
+        return generateProdottoCodice(CODICE_PREFIX);
+    }
+
+    // Enriches the whole list with one giacenze query; unita misura and sottocategorie come from memory
     private void enrichProdotti(List<Prodotto> prodotti) {
+        if (prodotti.isEmpty()) return;
+
+        Set<Integer> prodottoIds = new HashSet<>();
         for (Prodotto p : prodotti) {
-            enrichProdotto(p);
+            prodottoIds.add(p.getId());
         }
-    }
 
-    private void enrichProdotto(Prodotto p) {
-        // Set giacenza totale
-        BigDecimal giacenza = giacenzaDao.getGiacenzaTotale(p.getId());
-        p.setGiacenzaTotale(giacenza);
-
-        // Set unita misura
-        if (p.getUnitaMisuraId() > 0) {
-            UnitaMisura um = prodottoDao.findUnitaMisuraById(p.getUnitaMisuraId());
-            p.setUnitaMisura(um);
-        }
+        Map<Integer, BigDecimal> giacenze = giacenzaDao.getGiacenzeTotali(prodottoIds);
 
-        // Set sottocategoria
-        if (p.getSottocategoriaId() > 0) {
-            Sottocategoria sc = categoriaDao.findSottocategoriaById(p.getSottocategoriaId());
+        for (Prodotto p : prodotti) {
+            p.setGiacenzaTotale(giacenze.getOrDefault(p.getId(), BigDecimal.ZERO));
+            if (p.getUnitaMisuraId() > 0) {
+                p.setUnitaMisura(anagrafiche.getUnitaMisura(p.getUnitaMisuraId()));
+            }
+            Sottocategoria sc = anagrafiche.getSottocategoria(p.getSottocategoriaId());
             if (sc != null) {
                 p.setSottocategoria(sc);
-                // Set categoria
-                categoriaDao.findById(sc.getCategoriaId()).ifPresent(sc::setCategoria);
             }
         }
+        logger.debug("Enriched {} prodotti", prodotti.size());
+    }
+
+    private void enrichProdotto(Prodotto p) {
+        enrichProdotti(List.of(p));
     }
 
     // Categorie
     public List<Categoria> getAllCategorie() {
-        return categoriaDao.findAllOrdered();
+        return anagrafiche.getCategorie(false);
     }
 
     public List<Categoria> getCategorieActive() {
-        return categoriaDao.findAllActive();
+        return anagrafiche.getCategorie(true);
     }
 
     public int saveCategoria(Categoria categoria) {
-        if (categoria.getId() > 0) {
-            return categoriaDao.update(categoria) ? categoria.getId() : -1;
-        } else {
+        return anagrafiche.modifica(AnagraficheCache.Tabella.CATEGORIE, "salvataggio categoria", () -> {
+            if (categoria.getId() > 0) {
+                return categoriaDao.update(categoria) ? categoria.getId() : -1;
+            }
             return categoriaDao.insert(categoria);
-        }
+        });
     }
 
     public boolean deleteCategoria(int id) {
-        return categoriaDao.deleteById(id);
+        return anagrafiche.modifica(AnagraficheCache.Tabella.CATEGORIE, "eliminazione categoria",
+                () -> categoriaDao.deleteById(id) ? id : -1) > 0;
     }
 
     // Sottocategorie
     public List<Sottocategoria> getSottocategorieByCategoria(int categoriaId) {
-        return categoriaDao.findSottocategorieByCategoria(categoriaId);
+        return anagrafiche.getSottocategorieByCategoria(categoriaId);
     }
 
     public int saveSottocategoria(Sottocategoria sottocategoria) {
-        if (sottocategoria.getId() > 0) {
-            return categoriaDao.updateSottocategoria(sottocategoria) ? sottocategoria.getId() : -1;
-        } else {
+        return anagrafiche.modifica(AnagraficheCache.Tabella.SOTTOCATEGORIE, "salvataggio sottocategoria", () -> {
+            if (sottocategoria.getId() > 0) {
+                return categoriaDao.updateSottocategoria(sottocategoria) ? sottocategoria.getId() : -1;
+            }
             return categoriaDao.insertSottocategoria(sottocategoria);
-        }
+        });
     }
 
     public boolean deleteSottocategoria(int id) {
-        return categoriaDao.deleteSottocategoria(id);
+        return anagrafiche.modifica(AnagraficheCache.Tabella.SOTTOCATEGORIE, "eliminazione sottocategoria",
+                () -> categoriaDao.deleteSottocategoria(id) ? id : -1) > 0;
     }
 
     // Unita Misura
     public List<UnitaMisura> getAllUnitaMisura() {
-        return prodottoDao.findAllUnitaMisura();
+        return anagrafiche.getUnitaMisuraAttive();
     }
 
     public int saveUnitaMisura(UnitaMisura um) {
-        if (um.getId() > 0) {
-            return prodottoDao.updateUnitaMisura(um) ? um.getId() : -1;
-        } else {
+        return anagrafiche.modifica(AnagraficheCache.Tabella.UNITA_MISURA, "salvataggio unita misura", () -> {
+            if (um.getId() > 0) {
+                return prodottoDao.updateUnitaMisura(um) ? um.getId() : -1;
+            }
             return prodottoDao.insertUnitaMisura(um);
-        }
+        });
     }
 
     // Stats
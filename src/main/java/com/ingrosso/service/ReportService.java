@@ -2,35 +2,30 @@ package com.ingrosso.service;
 
 import com.ingrosso.dao.*;
 import com.ingrosso.model.*;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.util.HashMap;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
 public class ReportService {
-    private static final Logger logger = LoggerFactory.getLogger(ReportService.class);
     private static ReportService instance;
 
-    private final ProdottoDao prodottoDao;
     private final GiacenzaDao giacenzaDao;
     private final MovimentoDao movimentoDao;
     private final LottoDao lottoDao;
     private final DdtDao ddtDao;
-    private final CategoriaDao categoriaDao;
-    private final MagazzinoDao magazzinoDao;
 
     private ReportService() {
-        this.prodottoDao = new ProdottoDao();
         this.giacenzaDao = new GiacenzaDao();
         this.movimentoDao = new MovimentoDao();
         this.lottoDao = new LottoDao();
         this.ddtDao = new DdtDao();
-        this.categoriaDao = new CategoriaDao();
-        this.magazzinoDao = new MagazzinoDao();
     }
 
     public static synchronized ReportService getInstance() {
@@ -40,56 +35,21 @@ public class ReportService {
         return instance;
     }
 
-    // Dashboard KPIs
+    // Dashboard KPIs, served from the in-memory snapshot
     public DashboardKpi getDashboardKpi() {
-        DashboardKpi kpi = new DashboardKpi();
-
-        // Prodotti attivi
-        kpi.totaleProdotti = prodottoDao.findAllActive().size();
-
-        // Magazzino principale
-        magazzinoDao.findPrincipale().ifPresent(mag -> {
-            List<GiacenzaDao.GiacenzaCompleta> giacenze = giacenzaDao.findGiacenzeComplete(mag.getId());
-
-            // Valore magazzino
-            kpi.valoreMagazzinoAcquisto = giacenze.stream()
-                    .map(GiacenzaDao.GiacenzaCompleta::getValoreAcquisto)
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-            kpi.valoreMagazzinoVendita = giacenze.stream()
-                    .map(GiacenzaDao.GiacenzaCompleta::getValoreVendita)
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-
-            // Sotto scorta
-            kpi.prodottiSottoScorta = (int) giacenze.stream()
-                    .filter(GiacenzaDao.GiacenzaCompleta::isSottoScorta)
-                    .count();
-        });
-
-        // Lotti in scadenza
-        kpi.lottiInScadenza = lottoDao.findLottiInScadenzaCompleti(30).size();
-
-        // DDT mese corrente
-        LocalDate now = LocalDate.now();
-        kpi.ddtMeseCorrente = ddtDao.countByMeseAnno(now.getMonthValue(), now.getYear());
-
-        // Movimenti ultimi 30 giorni
-        kpi.movimentiUltimi30gg = movimentoDao.countByPeriodo(
-                now.minusDays(30), now);
+        return KpiSnapshotService.getInstance().getDashboardKpi();
+    }
 
-        return kpi;
+    // Valore magazzino per categoria e sottocategoria, for a magazzino or all of them with magazzinoId null
+    public MagazzinoService.Valorizzazione getValorizzazione(Integer magazzinoId) {
+        return MagazzinoService.getInstance().getValorizzazione(magazzinoId);
     }
 
-    // Valore magazzino per categoria
+    // Valore magazzino per categoria, at sale price
     public Map<String, BigDecimal> getValorePerCategoria(int magazzinoId) {
-        Map<String, BigDecimal> result = new HashMap<>();
-
-        List<GiacenzaDao.GiacenzaCompleta> giacenze = giacenzaDao.findGiacenzeComplete(magazzinoId);
-        for (GiacenzaDao.GiacenzaCompleta g : giacenze) {
-            String categoria = g.getCategoria() != null ? g.getCategoria() : "Senza categoria";
-            result.merge(categoria, g.getValoreVendita(), BigDecimal::add);
-        }
-
+        Map<String, BigDecimal> result = new LinkedHashMap<>();
+        getValorizzazione(magazzinoId).perCategoria.forEach((categoria, gruppo) ->
+                result.put(categoria, gruppo.getValoreVendita()));
         return result;
     }
 
@@ -105,10 +65,15 @@ public class ReportService {
         return lottoDao.findLottiInScadenzaCompleti(giorni);
     }
 
-    // Movimenti periodo
-    public List<MovimentoDao.MovimentoCompleto> getMovimentiPeriodo(LocalDate dataInizio, LocalDate dataFine,
-                                                                     Integer magazzinoId, TipoMovimento tipo) {
-        return movimentoDao.findMovimentiCompleti(dataInizio, dataFine, magazzinoId, tipo);
+    // Streams the movimenti of the period to the action instead of loading them all; returns how many were read
+    public int forEachMovimentoPeriodo(LocalDate dataInizio, LocalDate dataFine, Integer magazzinoId,
+                                       TipoMovimento tipo, Consumer<MovimentoDao.MovimentoCompleto> action) {
+        MovimentoDao.FiltroMovimenti filtro = new MovimentoDao.FiltroMovimenti();
+        filtro.dataInizio = dataInizio;
+        filtro.dataFine = dataFine;
+        filtro.magazzinoId = magazzinoId;
+        filtro.tipo = tipo;
+        return movimentoDao.forEachMovimentoCompleto(filtro, action);
     }
 
     // Situazione magazzino completa
@@ -119,35 +84,22 @@ public class ReportService {
     // Riepilogo DDT per periodo
     public RiepilogoDdt getRiepilogoDdt(LocalDate dataInizio, LocalDate dataFine) {
         RiepilogoDdt riepilogo = new RiepilogoDdt();
+        ddtDao.getRiepilogoPerStato(dataInizio, dataFine).forEach(riepilogo::add);
+        return riepilogo;
+    }
 
-        List<Ddt> ddtList = ddtDao.findByPeriodo(dataInizio, dataFine);
-
-        riepilogo.totaleDdt = ddtList.size();
-        riepilogo.ddtEmessi = (int) ddtList.stream()
-                .filter(d -> d.getStato() == StatoDdt.EMESSO)
-                .count();
-        riepilogo.ddtBozza = (int) ddtList.stream()
-                .filter(d -> d.getStato() == StatoDdt.BOZZA)
-                .count();
-        riepilogo.ddtAnnullati = (int) ddtList.stream()
-                .filter(d -> d.getStato() == StatoDdt.ANNULLATO)
-                .count();
-
-        // Totale righe e importo (only for emessi)
-        for (Ddt ddt : ddtList) {
-            if (ddt.getStato() == StatoDdt.EMESSO) {
-                List<DdtRiga> righe = ddtDao.findRigheByDdt(ddt.getId());
-                riepilogo.totaleRighe += righe.size();
-                for (DdtRiga riga : righe) {
-                    if (riga.getQuantita() != null && riga.getPrezzoUnitario() != null) {
-                        riepilogo.totaleImporto = riepilogo.totaleImporto.add(
-                                riga.getQuantita().multiply(riga.getPrezzoUnitario()));
-                    }
-                }
-            }
+    // Riepilogo DDT mese per mese, in ordine cronologico
+    public List<RiepilogoDdt> getRiepilogoDdtMensile(LocalDate dataInizio, LocalDate dataFine) {
+        Map<YearMonth, RiepilogoDdt> perMese = new TreeMap<>();
+        for (DdtDao.RiepilogoStato r : ddtDao.getRiepilogoMensilePerStato(dataInizio, dataFine)) {
+            YearMonth mese = YearMonth.of(r.getAnno(), r.getMese());
+            perMese.computeIfAbsent(mese, m -> {
+                RiepilogoDdt riepilogo = new RiepilogoDdt();
+                riepilogo.mese = m;
+                return riepilogo;
+            }).add(r);
         }
-
-        return riepilogo;
+        return new ArrayList<>(perMese.values());
     }
 
     // Top prodotti per valore
@@ -169,11 +121,26 @@ public class ReportService {
     }
 
     public static class RiepilogoDdt {
+        public YearMonth mese;
         public int totaleDdt;
         public int ddtEmessi;
         public int ddtBozza;
         public int ddtAnnullati;
         public int totaleRighe;
         public BigDecimal totaleImporto = BigDecimal.ZERO;
+
+        // Righe and importo only count emitted documents
+        void add(DdtDao.RiepilogoStato r) {
+            totaleDdt += r.getNumeroDdt();
+            switch (r.getStato()) {
+                case EMESSO -> {
+                    ddtEmessi += r.getNumeroDdt();
+                    totaleRighe += r.getNumeroRighe();
+                    totaleImporto = totaleImporto.add(r.getImporto());
+                }
+                case BOZZA -> ddtBozza += r.getNumeroDdt();
+                case ANNULLATO -> ddtAnnullati += r.getNumeroDdt();
+            }
+        }
     }
 }
@@ -0,0 +1,230 @@
+package com.ingrosso.service;
+
+import com.ingrosso.util.DatabaseUtil;
+import com.ingrosso.util.SqlSplitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+// Brings the database up to date with the versioned scripts in /sql/migrations. Each applied script
+// is recorded in schema_version with its checksum, so only pending steps run and a database that is
+// already current costs a single query. Scripts must never change once released: add a new one.
+class SchemaMigrator {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigrator.class);
+    private static final String PERCORSO = "/sql/migrations/";
+    private static final String LOCK = "gestione_ingrosso_migrazioni";
+    private static final int LOCK_TIMEOUT_SECONDI = 60;
+    private static final int ER_NO_SUCH_TABLE = 1146;
+
+    // In order; resources inside the jar cannot be listed
+    private static final String[] SCRIPT = {
+            "V1__schema_iniziale.sql",
+            "V2__indici_movimenti.sql",
+            "V3__versioni_tabelle.sql"
+    };
+
+    private record Migrazione(int versione, String descrizione, String sql, String checksum) {}
+
+    // Returns false when a script fails or an applied one was modified: the schema is then not usable
+    boolean migra() {
+        List<Migrazione> migrazioni;
+        try {
+            migrazioni = leggiScript();
+        } catch (IOException e) {
+            logger.error("Error reading migration scripts: {}", e.getMessage());
+            return false;
+        }
+
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            Map<Integer, String> applicate = leggiApplicate(conn);
+            if (applicate != null && !verificaChecksum(migrazioni, applicate)) {
+                return false;
+            }
+            if (applicate != null && migrazioni.stream().allMatch(m -> applicate.containsKey(m.versione()))) {
+                logger.debug("Database schema is up to date");
+                return true;
+            }
+            return migraConLock(conn, migrazioni);
+        } catch (SQLException e) {
+            logger.error("Error migrating database schema: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    // Another client starting at the same time waits here, then finds the steps already applied
+    private boolean migraConLock(Connection conn, List<Migrazione> migrazioni) throws SQLException {
+        if (!acquisisciLock(conn)) {
+            logger.error("Timed out waiting for another client to migrate the database");
+            return false;
+        }
+        try {
+            Map<Integer, String> applicate = leggiApplicate(conn);
+            if (applicate == null) {
+                applicate = creaTabellaVersioni(conn, migrazioni.get(0));
+            }
+            if (!verificaChecksum(migrazioni, applicate)) {
+                return false;
+            }
+            for (Migrazione m : migrazioni) {
+                if (!applicate.containsKey(m.versione()) && !applica(conn, m)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DO RELEASE_LOCK('" + LOCK + "')");
+            }
+        }
+    }
+
+    private boolean applica(Connection conn, Migrazione m) {
+        logger.info("Applying migration V{}: {}", m.versione(), m.descrizione());
+        long start = System.currentTimeMillis();
+        List<String> statements = SqlSplitter.split(m.sql());
+        try (Statement stmt = conn.createStatement()) {
+            for (int i = 0; i < statements.size(); i++) {
+                try {
+                    stmt.execute(statements.get(i));
+                } catch (SQLException e) {
+                    // MySQL commits DDL implicitly: the statements before this one stay applied
+                    logger.error("Migration V{} failed at statement {}: {}", m.versione(), i + 1, e.getMessage());
+                    return false;
+                }
+            }
+            registra(conn, m, (int) (System.currentTimeMillis() - start));
+            return true;
+        } catch (SQLException e) {
+            logger.error("Error recording migration V{}: {}", m.versione(), e.getMessage());
+            return false;
+        }
+    }
+
+    // Null when schema_version does not exist yet
+    private Map<Integer, String> leggiApplicate(Connection conn) throws SQLException {
+        Map<Integer, String> applicate = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT versione, checksum FROM schema_version")) {
+            while (rs.next()) {
+                applicate.put(rs.getInt(1), rs.getString(2));
+            }
+        } catch (SQLException e) {
+            if (e.getErrorCode() == ER_NO_SUCH_TABLE) return null;
+            throw e;
+        }
+        return applicate;
+    }
+
+    // Databases created before versioning already have the initial schema: it is recorded as applied
+    // instead of being run again, so its seed rows are not inserted twice
+    private Map<Integer, String> creaTabellaVersioni(Connection conn, Migrazione iniziale) throws SQLException {
+        String sql = """
+            CREATE TABLE IF NOT EXISTS schema_version (
+                versione INT PRIMARY KEY,
+                descrizione VARCHAR(200) NOT NULL,
+                checksum CHAR(64) NOT NULL,
+                installata_il TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                durata_ms INT
+            ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci
+            """;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+
+        Map<Integer, String> applicate = new HashMap<>();
+        if (esisteTabella(conn, "prodotti")) {
+            logger.info("Existing database without schema_version: recording V{} as baseline", iniziale.versione());
+            registra(conn, iniziale, 0);
+            applicate.put(iniziale.versione(), iniziale.checksum());
+        }
+        return applicate;
+    }
+
+    private boolean verificaChecksum(List<Migrazione> migrazioni, Map<Integer, String> applicate) {
+        for (Migrazione m : migrazioni) {
+            String checksum = applicate.get(m.versione());
+            if (checksum != null && !checksum.equals(m.checksum())) {
+                logger.error("Migration V{} was modified after being applied to the database", m.versione());
+                return false;
+            }
+        }
+        int ultima = migrazioni.get(migrazioni.size() - 1).versione();
+        applicate.keySet().stream().filter(v -> v > ultima).max(Integer::compare).ifPresent(v ->
+                logger.warn("Database schema version V{} is newer than this application (V{})", v, ultima));
+        return true;
+    }
+
+    private void registra(Connection conn, Migrazione m, int durataMs) throws SQLException {
+        String sql = "INSERT INTO schema_version (versione, descrizione, checksum, durata_ms) VALUES (?, ?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, m.versione());
+            stmt.setString(2, m.descrizione());
+            stmt.setString(3, m.checksum());
+            stmt.setInt(4, durataMs);
+            stmt.executeUpdate();
+        }
+    }
+
+    private boolean acquisisciLock(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            stmt.setString(1, LOCK);
+            stmt.setInt(2, LOCK_TIMEOUT_SECONDI);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
+    }
+
+    private boolean esisteTabella(Connection conn, String tabella) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM information_schema.tables WHERE table_schema = DATABASE() AND table_name = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, tabella);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
+        }
+    }
+
+    private List<Migrazione> leggiScript() throws IOException {
+        List<Migrazione> migrazioni = new ArrayList<>(SCRIPT.length);
+        for (String nome : SCRIPT) {
+            try (InputStream is = getClass().getResourceAsStream(PERCORSO + nome)) {
+                if (is == null) {
+                    throw new IOException("Migration script not found: " + nome);
+                }
+                // Line endings are normalized so a checkout with CRLF has the same checksum
+                String sql = new String(is.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+                int separatore = nome.indexOf("__");
+                int versione = Integer.parseInt(nome.substring(1, separatore));
+                String descrizione = nome.substring(separatore + 2, nome.length() - ".sql".length()).replace('_', ' ');
+                migrazioni.add(new Migrazione(versione, descrizione, sql, sha256(sql)));
+            }
+        }
+        return migrazioni;
+    }
+
+    private static String sha256(String testo) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(testo.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
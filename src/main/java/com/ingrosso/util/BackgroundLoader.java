@@ -0,0 +1,102 @@
+package com.ingrosso.util;
+
+import javafx.concurrent.Task;
+import javafx.scene.Node;
+import javafx.scene.control.ProgressIndicator;
+import javafx.scene.control.TableView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Runs controller data loading off the FX thread. Each instance is a loading slot: starting a new
+// load cancels the previous one, and results of superseded loads are never delivered.
+// All methods must be called on the FX application thread; callbacks are delivered there too.
+public class BackgroundLoader {
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundLoader.class);
+    private static final int POOL_SIZE = 4;
+    private static final String PLACEHOLDER_KEY = "backgroundLoader.placeholder";
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(POOL_SIZE, r -> {
+        Thread t = new Thread(r, "background-loader-" + threadCounter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Task<?> current;
+
+    public <T> void load(Callable<T> work, Consumer<T> onSuccess) {
+        load(null, work, onSuccess, null);
+    }
+
+    public <T> void load(TableView<?> table, Callable<T> work, Consumer<T> onSuccess) {
+        load(table, work, onSuccess, null);
+    }
+
+    public <T> void load(TableView<?> table, Callable<T> work, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+        cancel();
+
+        Task<T> task = new Task<>() {
+            @Override
+            protected T call() throws Exception {
+                return work.call();
+            }
+        };
+        current = task;
+        showLoading(table);
+
+        task.setOnSucceeded(e -> {
+            if (current != task) return;
+            current = null;
+            hideLoading(table);
+            onSuccess.accept(task.getValue());
+        });
+        task.setOnFailed(e -> {
+            if (current != task) return;
+            current = null;
+            hideLoading(table);
+            Throwable ex = task.getException();
+            logger.error("Background load failed: {}", ex != null ? ex.getMessage() : "unknown error");
+            if (onError != null) onError.accept(ex);
+        });
+        task.setOnCancelled(e -> hideLoading(table));
+
+        executor.execute(task);
+    }
+
+    public void cancel() {
+        if (current != null) {
+            current.cancel(true);
+            current = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return current != null;
+    }
+
+    // One-shot background work without a slot, e.g. to populate combo boxes
+    public static <T> void run(Callable<T> work, Consumer<T> onSuccess) {
+        new BackgroundLoader().load(work, onSuccess);
+    }
+
+    private static void showLoading(TableView<?> table) {
+        if (table == null) return;
+        if (!table.getProperties().containsKey(PLACEHOLDER_KEY)) {
+            table.getProperties().put(PLACEHOLDER_KEY, table.getPlaceholder());
+        }
+        ProgressIndicator indicator = new ProgressIndicator();
+        indicator.setMaxSize(48, 48);
+        table.setPlaceholder(indicator);
+    }
+
+    private static void hideLoading(TableView<?> table) {
+        if (table == null || !table.getProperties().containsKey(PLACEHOLDER_KEY)) return;
+        table.setPlaceholder((Node) table.getProperties().remove(PLACEHOLDER_KEY));
+    }
+}
@@ -0,0 +1,20 @@
+package com.ingrosso.util;
+
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.control.TableColumn;
+import javafx.util.Callback;
+
+import java.util.function.Function;
+
+// Cell value factories for tables of read-only rows such as the DAO records. The observable value is
+// created when a cell asks for it, so only the rows on screen get one and the rows themselves hold
+// no FX properties. The cells do not follow later changes: the table is refreshed by reloading.
+public final class CellValues {
+
+    private CellValues() {}
+
+    public static <S, T> Callback<TableColumn.CellDataFeatures<S, T>, ObservableValue<T>> of(Function<S, T> getter) {
+        return cellData -> new ReadOnlyObjectWrapper<>(getter.apply(cellData.getValue()));
+    }
+}
@@ -17,34 +17,87 @@ import java.util.Properties;
 public class DatabaseUtil {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseUtil.class);
     private static HikariDataSource dataSource;
+    private static HikariDataSource replicaDataSource;
     private static final String CONFIG_FILE = "gestione_ingrosso.properties";
+    private static final long INTERVALLO_VERIFICA_REPLICA_MS = 10_000;
+    // Reads stay on the primary for this long after a local write, so the user sees their own changes
+    static final long FINESTRA_DOPO_SCRITTURA_MS = 5_000;
+
+    private static int maxLagReplicaSecondi;
+    private static volatile boolean replicaDisponibile;
+    private static volatile long replicaVerificataIl;
+    private static volatile long ultimaScrittura;
 
     private DatabaseUtil() {}
 
     public static void initialize(String host, int port, String database, String username, String password) {
-        if (dataSource != null) {
-            dataSource.close();
+        close();
+
+        Properties props = loadConfig();
+        HikariConfig config = createPoolConfig(host, port, database, username, password);
+        config.setPoolName("primary");
+        config.setMaximumPoolSize(10);
+        config.setMinimumIdle(2);
+        config.setConnectionTimeout(20000);
+
+        // Optional default isolation level for every connection, e.g. TRANSACTION_READ_COMMITTED
+        String isolamento = props.getProperty("db.isolation");
+        if (isolamento != null && !isolamento.isBlank()) {
+            config.setTransactionIsolation(isolamento.trim());
         }
 
+        dataSource = new HikariDataSource(config);
+        logger.info("Database connection pool initialized for {}:{}/{}", host, port, database);
+
+        initializeReplica(props, port, database, username, password);
+    }
+
+    // Optional read-only pool on a replica (db.replica.* in the configuration file); credentials and
+    // database default to the primary ones
+    private static void initializeReplica(Properties props, int port, String database, String username, String password) {
+        String host = props.getProperty("db.replica.host");
+        if (host == null || host.isBlank()) {
+            return;
+        }
+        int replicaPort = Integer.parseInt(props.getProperty("db.replica.port", String.valueOf(port)));
+        String replicaDatabase = props.getProperty("db.replica.database", database);
+
+        HikariConfig config = createPoolConfig(host.trim(), replicaPort, replicaDatabase,
+                props.getProperty("db.replica.username", username),
+                props.getProperty("db.replica.password", password));
+        config.setPoolName("replica");
+        config.setReadOnly(true);
+        config.setMaximumPoolSize(Integer.parseInt(props.getProperty("db.replica.poolSize", "5")));
+        config.setMinimumIdle(1);
+        // A replica that is down must not stall the screens: fail fast and fall back to the primary
+        config.setConnectionTimeout(3000);
+        config.setInitializationFailTimeout(-1);
+
+        maxLagReplicaSecondi = Integer.parseInt(props.getProperty("db.replica.maxLagSeconds", "0"));
+        replicaDataSource = new HikariDataSource(config);
+        replicaDisponibile = true;
+        replicaVerificataIl = 0;
+        logger.info("Replica connection pool initialized for {}:{}/{}", host, replicaPort, replicaDatabase);
+    }
+
+    private static HikariConfig createPoolConfig(String host, int port, String database, String username, String password) {
         HikariConfig config = new HikariConfig();
         config.setJdbcUrl(String.format("jdbc:mysql://%s:%d/%s?useSSL=false&serverTimezone=Europe/Rome&allowPublicKeyRetrieval=true",
                 host, port, database));
         config.setUsername(username);
         config.setPassword(password);
 
-        config.setMaximumPoolSize(10);
-        config.setMinimumIdle(2);
         config.setIdleTimeout(300000);
-        config.setConnectionTimeout(20000);
         config.setMaxLifetime(1200000);
 
         config.addDataSourceProperty("cachePrepStmts", "true");
         config.addDataSourceProperty("prepStmtCacheSize", "250");
         config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
         config.addDataSourceProperty("useServerPrepStmts", "true");
-
-        dataSource = new HikariDataSource(config);
-        logger.info("Database connection pool initialized for {}:{}/{}", host, port, database);
+        config.addDataSourceProperty("rewriteBatchedStatements", "true");
+        // Statements with a fetch size read through a server-side cursor instead of buffering the whole result
+        config.addDataSourceProperty("useCursorFetch", "true");
+        return config;
     }
 
     public static Connection getConnection() throws SQLException {
@@ -54,6 +107,64 @@ public class DatabaseUtil {
         return dataSource.getConnection();
     }
 
+    // Connection for heavy read-only queries: the replica when one is configured, reachable and not
+    // lagging, otherwise the primary
+    public static Connection getReadConnection() throws SQLException {
+        HikariDataSource replica = replicaDataSource;
+        if (replica == null || System.currentTimeMillis() - ultimaScrittura < FINESTRA_DOPO_SCRITTURA_MS) {
+            return getConnection();
+        }
+
+        long now = System.currentTimeMillis();
+        if (!replicaDisponibile && now - replicaVerificataIl < INTERVALLO_VERIFICA_REPLICA_MS) {
+            return getConnection();
+        }
+
+        Connection conn = null;
+        try {
+            conn = replica.getConnection();
+            if (now - replicaVerificataIl >= INTERVALLO_VERIFICA_REPLICA_MS) {
+                replicaDisponibile = isLagAccettabile(conn);
+                replicaVerificataIl = now;
+            }
+            if (replicaDisponibile) {
+                return conn;
+            }
+            conn.close();
+        } catch (SQLException e) {
+            logger.warn("Replica not available, reading from primary: {}", e.getMessage());
+            replicaDisponibile = false;
+            replicaVerificataIl = now;
+            if (conn != null) conn.close();
+        }
+        return getConnection();
+    }
+
+    // Lag guard, enabled with db.replica.maxLagSeconds > 0. Stopped replication (NULL lag) counts as too far behind
+    private static boolean isLagAccettabile(Connection conn) throws SQLException {
+        if (maxLagReplicaSecondi <= 0) {
+            return true;
+        }
+        try (Statement stmt = conn.createStatement();
+             var rs = stmt.executeQuery("SHOW REPLICA STATUS")) {
+            if (!rs.next()) {
+                return true;
+            }
+            long lag = rs.getLong("Seconds_Behind_Source");
+            boolean ferma = rs.wasNull();
+            if (ferma || lag > maxLagReplicaSecondi) {
+                logger.warn("Replica lag {} over limit, reading from primary", ferma ? "unknown" : lag + " s");
+                return false;
+            }
+            return true;
+        }
+    }
+
+    // Called after every committed write made by this client
+    public static void registerWrite() {
+        ultimaScrittura = System.currentTimeMillis();
+    }
+
     public static boolean testConnection(String host, int port, String database, String username, String password) {
         String url = String.format("jdbc:mysql://%s:%d/%s?useSSL=false&serverTimezone=Europe/Rome&allowPublicKeyRetrieval=true",
                 host, port, database);
@@ -66,6 +177,10 @@ public class DatabaseUtil {
     }
 
     public static void close() {
+        if (replicaDataSource != null) {
+            replicaDataSource.close();
+            replicaDataSource = null;
+        }
         if (dataSource != null) {
             dataSource.close();
             dataSource = null;
@@ -77,33 +192,6 @@ public class DatabaseUtil {
         return dataSource != null && !dataSource.isClosed();
     }
 
-    public static void executeScript(String scriptPath) throws SQLException, IOException {
-        String script;
-        try (InputStream is = DatabaseUtil.class.getResourceAsStream(scriptPath)) {
-            if (is == null) {
-                throw new IOException("Script not found: " + scriptPath);
-            }
-            script = new String(is.readAllBytes());
-        }
-
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement()) {
-
-            String[] statements = script.split(";");
-            for (String sql : statements) {
-                sql = sql.trim();
-                if (!sql.isEmpty() && !sql.startsWith("--")) {
-                    try {
-                        stmt.execute(sql);
-                    } catch (SQLException e) {
-                        logger.warn("Error executing statement: {} - {}", sql.substring(0, Math.min(50, sql.length())), e.getMessage());
-                    }
-                }
-            }
-        }
-        logger.info("Script executed: {}", scriptPath);
-    }
-
     public static Properties loadConfig() {
         Properties props = new Properties();
         Path configPath = getConfigPath();
@@ -119,8 +207,9 @@ public class DatabaseUtil {
         return props;
     }
 
+    // Updates the primary connection keys, keeping the other settings (replica, isolation) in the file
     public static void saveConfig(String host, int port, String database, String username, String password) {
-        Properties props = new Properties();
+        Properties props = loadConfig();
         props.setProperty("db.host", host);
         props.setProperty("db.port", String.valueOf(port));
         props.setProperty("db.database", database);
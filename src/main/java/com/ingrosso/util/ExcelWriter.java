@@ -0,0 +1,159 @@
+package com.ingrosso.util;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+
+// Streaming XLSX writer on SXSSF: only the last FINESTRA_RIGHE rows of a sheet stay in memory, older
+// ones are flushed to a compressed temporary file, so memory does not grow with the rows exported.
+// Styles are created once per workbook and shared by every cell of a column type, and values are
+// written as numeric and date cells that Excel can sum and sort. Not thread-safe: one export per writer.
+public class ExcelWriter implements Closeable {
+    private static final int FINESTRA_RIGHE = 100;
+    private static final int MAX_RIGHE_FOGLIO = SpreadsheetVersion.EXCEL2007.getMaxRows();
+
+    public enum Tipo { TESTO, INTERO, QUANTITA, VALUTA, DATA, DATA_ORA }
+
+    public record Colonna(String titolo, Tipo tipo, int larghezza) {}
+
+    private final SXSSFWorkbook workbook;
+    private final CellStyle stileIntestazione;
+    private final Map<Tipo, CellStyle> stili = new EnumMap<>(Tipo.class);
+    private final Map<Tipo, CellStyle> stiliTotale = new EnumMap<>(Tipo.class);
+
+    private String nomeFoglio;
+    private Colonna[] colonne;
+    private SXSSFSheet foglio;
+    private int numeroFoglio;
+    private int prossimaRiga;
+
+    public ExcelWriter() {
+        // Inline strings: the shared strings table would keep every distinct text in memory
+        workbook = new SXSSFWorkbook(null, FINESTRA_RIGHE, true, false);
+
+        Font grassetto = workbook.createFont();
+        grassetto.setBold(true);
+        stileIntestazione = workbook.createCellStyle();
+        stileIntestazione.setFont(grassetto);
+        stileIntestazione.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
+        stileIntestazione.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+        stileIntestazione.setBorderBottom(BorderStyle.THIN);
+
+        DataFormat formati = workbook.createDataFormat();
+        for (Tipo tipo : Tipo.values()) {
+            short formato = formati.getFormat(formato(tipo));
+            stili.put(tipo, stile(formato, null));
+            stiliTotale.put(tipo, stile(formato, grassetto));
+        }
+    }
+
+    // Starts a new sheet with a bold header row, frozen while scrolling and with filters on every column
+    public void foglio(String nome, Colonna... colonne) {
+        this.nomeFoglio = nome;
+        this.colonne = colonne;
+        this.numeroFoglio = 1;
+        creaFoglio(nome);
+    }
+
+    public void riga(Object... valori) {
+        scrivi(stili, valori);
+    }
+
+    // Totals row, in bold
+    public void rigaTotale(Object... valori) {
+        scrivi(stiliTotale, valori);
+    }
+
+    // A failed write leaves no truncated file behind
+    public void salva(File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            workbook.write(out);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+    }
+
+    // Deletes the temporary files of the row window
+    @Override
+    public void close() throws IOException {
+        workbook.dispose();
+        workbook.close();
+    }
+
+    private void scrivi(Map<Tipo, CellStyle> stiliRiga, Object[] valori) {
+        if (foglio == null || valori.length > colonne.length) {
+            throw new IllegalStateException("Row does not match the columns of the current sheet");
+        }
+        // A sheet holds at most about 1M rows: longer exports continue on a new sheet
+        if (prossimaRiga >= MAX_RIGHE_FOGLIO) {
+            creaFoglio(nomeFoglio + " (" + ++numeroFoglio + ")");
+        }
+
+        Row row = foglio.createRow(prossimaRiga++);
+        for (int i = 0; i < valori.length; i++) {
+            Object valore = valori[i];
+            if (valore == null) continue;
+
+            Cell cell = row.createCell(i);
+            cell.setCellStyle(stiliRiga.get(colonne[i].tipo()));
+            if (valore instanceof Number numero) {
+                cell.setCellValue(numero.doubleValue());
+            } else if (valore instanceof LocalDateTime dataOra) {
+                cell.setCellValue(dataOra);
+            } else if (valore instanceof LocalDate data) {
+                cell.setCellValue(data);
+            } else if (valore instanceof Boolean vero) {
+                cell.setCellValue(vero);
+            } else {
+                cell.setCellValue(valore.toString());
+            }
+        }
+    }
+
+    private void creaFoglio(String nome) {
+        foglio = workbook.createSheet(WorkbookUtil.createSafeSheetName(nome));
+        Row intestazione = foglio.createRow(0);
+        for (int i = 0; i < colonne.length; i++) {
+            Cell cell = intestazione.createCell(i);
+            cell.setCellValue(colonne[i].titolo());
+            cell.setCellStyle(stileIntestazione);
+            foglio.setColumnWidth(i, colonne[i].larghezza() * 256);
+        }
+        foglio.createFreezePane(0, 1);
+        foglio.setAutoFilter(new CellRangeAddress(0, 0, 0, colonne.length - 1));
+        prossimaRiga = 1;
+    }
+
+    private CellStyle stile(short formato, Font font) {
+        CellStyle stile = workbook.createCellStyle();
+        stile.setDataFormat(formato);
+        if (font != null) stile.setFont(font);
+        return stile;
+    }
+
+    // Same patterns as FormatUtil; General shows quantities like 12 or 2.5 without padding the decimals
+    private static String formato(Tipo tipo) {
+        return switch (tipo) {
+            case TESTO, QUANTITA -> "General";
+            case INTERO -> "#,##0";
+            case VALUTA -> "#,##0.00";
+            case DATA -> "dd/mm/yyyy";
+            case DATA_ORA -> "dd/mm/yyyy hh:mm";
+        };
+    }
+}
@@ -0,0 +1,95 @@
+package com.ingrosso.util;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.control.TableView;
+
+import java.util.List;
+
+// Fills a TableView lazily: the first page is loaded on reset and the next one whenever the user
+// scrolls close to the end of the rows loaded so far. Must be used on the FX application thread.
+public class PagedTableLoader<T> {
+    private static final double SOGLIA_SCROLL = 0.9;
+
+    @FunctionalInterface
+    public interface PageFetcher<T> {
+        // Returns at most limite rows following ultimo, or the first page when ultimo is null
+        List<T> fetch(T ultimo, int limite) throws Exception;
+    }
+
+    private final TableView<T> table;
+    private final int pageSize;
+    private final BackgroundLoader loader = new BackgroundLoader();
+    private final ObservableList<T> items = FXCollections.observableArrayList();
+    private PageFetcher<T> fetcher;
+    private boolean esaurito = true;
+    private boolean scrollCollegato;
+    private Runnable onPaginaCaricata;
+
+    public PagedTableLoader(TableView<T> table, int pageSize) {
+        this.table = table;
+        this.pageSize = pageSize;
+        table.setItems(items);
+        table.skinProperty().addListener((obs, oldVal, newVal) -> collegaScroll());
+        collegaScroll();
+    }
+
+    // Drops the loaded rows and starts again from the first page with a new query
+    public void reset(PageFetcher<T> fetcher) {
+        this.fetcher = fetcher;
+        esaurito = false;
+        loader.cancel();
+        items.clear();
+        caricaPaginaSuccessiva();
+    }
+
+    // Empties the table until the next reset
+    public void clear() {
+        fetcher = null;
+        esaurito = true;
+        loader.cancel();
+        items.clear();
+    }
+
+    public void caricaPaginaSuccessiva() {
+        if (fetcher == null || esaurito || loader.isRunning()) return;
+
+        PageFetcher<T> query = fetcher;
+        T ultimo = items.isEmpty() ? null : items.get(items.size() - 1);
+        loader.load(items.isEmpty() ? table : null, () -> query.fetch(ultimo, pageSize), pagina -> {
+            items.addAll(pagina);
+            esaurito = pagina.size() < pageSize;
+            if (onPaginaCaricata != null) onPaginaCaricata.run();
+        });
+    }
+
+    public ObservableList<T> getItems() {
+        return items;
+    }
+
+    public boolean isCompleto() {
+        return esaurito;
+    }
+
+    public void setOnPaginaCaricata(Runnable onPaginaCaricata) {
+        this.onPaginaCaricata = onPaginaCaricata;
+    }
+
+    // The vertical scroll bar only exists once the skin has been created
+    private void collegaScroll() {
+        if (scrollCollegato || table.getSkin() == null) return;
+        for (Node node : table.lookupAll(".scroll-bar")) {
+            if (node instanceof ScrollBar scrollBar && scrollBar.getOrientation() == Orientation.VERTICAL) {
+                scrollBar.valueProperty().addListener((obs, oldVal, newVal) -> {
+                    if (newVal.doubleValue() >= scrollBar.getMax() * SOGLIA_SCROLL) {
+                        caricaPaginaSuccessiva();
+                    }
+                });
+                scrollCollegato = true;
+            }
+        }
+    }
+}
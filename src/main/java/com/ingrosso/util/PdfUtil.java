@@ -9,31 +9,90 @@ import org.slf4j.LoggerFactory;
 import java.awt.Color;
 import java.io.*;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 
 public class PdfUtil {
     private static final Logger logger = LoggerFactory.getLogger(PdfUtil.class);
 
-    private static final Font TITLE_FONT = new Font(Font.HELVETICA, 16, Font.BOLD);
-    private static final Font HEADER_FONT = new Font(Font.HELVETICA, 10, Font.BOLD);
-    private static final Font NORMAL_FONT = new Font(Font.HELVETICA, 9, Font.NORMAL);
-    private static final Font SMALL_FONT = new Font(Font.HELVETICA, 8, Font.NORMAL);
-    private static final Font BOLD_FONT = new Font(Font.HELVETICA, 9, Font.BOLD);
+    // Built once: fonts without a BaseFont look theirs up in a synchronized cache for every chunk,
+    // which serializes DDTs rendered in parallel
+    private static final BaseFont HELVETICA = baseFont(BaseFont.HELVETICA);
+    private static final BaseFont HELVETICA_BOLD = baseFont(BaseFont.HELVETICA_BOLD);
+
+    private static final Font TITLE_FONT = new Font(HELVETICA_BOLD, 16);
+    private static final Font HEADER_FONT = new Font(HELVETICA_BOLD, 10);
+    private static final Font NORMAL_FONT = new Font(HELVETICA, 9);
+    private static final Font SMALL_FONT = new Font(HELVETICA, 8);
+    private static final Font BOLD_FONT = new Font(HELVETICA_BOLD, 9);
 
     private static final Color HEADER_BG_COLOR = new Color(240, 240, 240);
     private static final Color BORDER_COLOR = new Color(200, 200, 200);
 
     private PdfUtil() {}
 
+    // The company header of every DDT, prepared once: the logo is decoded here and each document
+    // only takes a copy of the decoded image. Immutable, so it can be shared by rendering threads
+    public record Intestazione(String nome, List<String> righe, Image logo) {}
+
+    public static Intestazione intestazione(ConfigAzienda azienda) {
+        if (azienda == null) {
+            return new Intestazione(null, List.of(), null);
+        }
+
+        Image logo = null;
+        if (azienda.getLogo() != null) {
+            try {
+                logo = Image.getInstance(azienda.getLogo());
+                logo.scaleToFit(100, 60);
+            } catch (Exception e) {
+                logger.warn("Company logo could not be decoded: {}", e.getMessage());
+            }
+        }
+
+        List<String> righe = new ArrayList<>();
+        if (azienda.getIndirizzo() != null) {
+            righe.add(azienda.getIndirizzoCompleto());
+        }
+        if (azienda.getPiva() != null) {
+            righe.add("P.IVA: " + azienda.getPiva());
+        }
+        if (azienda.getTelefono() != null || azienda.getEmail() != null) {
+            String contact = "";
+            if (azienda.getTelefono() != null) contact += "Tel: " + azienda.getTelefono();
+            if (azienda.getEmail() != null) {
+                if (!contact.isEmpty()) contact += " - ";
+                contact += "Email: " + azienda.getEmail();
+            }
+            righe.add(contact);
+        }
+        return new Intestazione(azienda.getNome() != null ? azienda.getNome() : "", List.copyOf(righe), logo);
+    }
+
     public static byte[] generateDdtPdf(Ddt ddt, ConfigAzienda azienda) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        return generateDdtPdf(ddt, intestazione(azienda));
+    }
 
+    public static byte[] generateDdtPdf(Ddt ddt, Intestazione intestazione) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
-            Document document = new Document(PageSize.A4, 36, 36, 36, 36);
-            PdfWriter.getInstance(document, baos);
-            document.open();
+            writeDdtPdf(ddt, intestazione, baos);
+            logger.info("DDT PDF generated successfully for DDT {}/{}", ddt.getNumero(), ddt.getAnno());
+        } catch (DocumentException e) {
+            logger.error("Error generating DDT PDF: {}", e.getMessage());
+        }
+        return baos.toByteArray();
+    }
 
+    // Writes the DDT as a complete PDF document to out, which is not closed, and returns its pages
+    public static int writeDdtPdf(Ddt ddt, Intestazione intestazione, OutputStream out) throws DocumentException {
+        Document document = new Document(PageSize.A4, 36, 36, 36, 36);
+        PdfWriter writer = PdfWriter.getInstance(document, out);
+        writer.setCloseStream(false);
+        document.open();
+        try {
             // Header with company info
-            addCompanyHeader(document, azienda);
+            addCompanyHeader(document, intestazione);
 
             // DDT title and number
             Paragraph title = new Paragraph("DOCUMENTO DI TRASPORTO", TITLE_FONT);
@@ -59,33 +118,22 @@ public class PdfUtil {
 
             // Footer with signatures
             addSignaturesSection(document);
-
+            return writer.getPageNumber();
+        } finally {
             document.close();
-            logger.info("DDT PDF generated successfully for DDT {}/{}", ddt.getNumero(), ddt.getAnno());
-
-        } catch (DocumentException e) {
-            logger.error("Error generating DDT PDF: {}", e.getMessage());
         }
-
-        return baos.toByteArray();
     }
 
-    private static void addCompanyHeader(Document document, ConfigAzienda azienda) throws DocumentException {
+    private static void addCompanyHeader(Document document, Intestazione intestazione) throws DocumentException {
         PdfPTable headerTable = new PdfPTable(2);
         headerTable.setWidthPercentage(100);
         headerTable.setWidths(new float[]{1, 2});
 
-        // Logo cell (placeholder)
+        // Logo cell: a copy shares the decoded image data, and layout never touches the shared instance
         PdfPCell logoCell = new PdfPCell();
         logoCell.setBorder(Rectangle.NO_BORDER);
-        if (azienda != null && azienda.getLogo() != null) {
-            try {
-                Image logo = Image.getInstance(azienda.getLogo());
-                logo.scaleToFit(100, 60);
-                logoCell.addElement(logo);
-            } catch (Exception e) {
-                logoCell.addElement(new Paragraph(""));
-            }
+        if (intestazione.logo() != null) {
+            logoCell.addElement(Image.getInstance(intestazione.logo()));
         }
         headerTable.addCell(logoCell);
 
@@ -94,33 +142,15 @@ public class PdfUtil {
         infoCell.setBorder(Rectangle.NO_BORDER);
         infoCell.setHorizontalAlignment(Element.ALIGN_RIGHT);
 
-        if (azienda != null) {
-            Paragraph companyName = new Paragraph(azienda.getNome() != null ? azienda.getNome() : "", HEADER_FONT);
+        if (intestazione.nome() != null) {
+            Paragraph companyName = new Paragraph(intestazione.nome(), HEADER_FONT);
             companyName.setAlignment(Element.ALIGN_RIGHT);
             infoCell.addElement(companyName);
 
-            if (azienda.getIndirizzo() != null) {
-                Paragraph address = new Paragraph(azienda.getIndirizzoCompleto(), SMALL_FONT);
-                address.setAlignment(Element.ALIGN_RIGHT);
-                infoCell.addElement(address);
-            }
-
-            if (azienda.getPiva() != null) {
-                Paragraph piva = new Paragraph("P.IVA: " + azienda.getPiva(), SMALL_FONT);
-                piva.setAlignment(Element.ALIGN_RIGHT);
-                infoCell.addElement(piva);
-            }
-
-            if (azienda.getTelefono() != null || azienda.getEmail() != null) {
-                String contact = "";
-                if (azienda.getTelefono() != null) contact += "Tel: " + azienda.getTelefono();
-                if (azienda.getEmail() != null) {
-                    if (!contact.isEmpty()) contact += " - ";
-                    contact += "Email: " + azienda.getEmail();
-                }
-                Paragraph contactPara = new Paragraph(contact, SMALL_FONT);
-                contactPara.setAlignment(Element.ALIGN_RIGHT);
-                infoCell.addElement(contactPara);
+            for (String riga : intestazione.righe()) {
+                Paragraph paragraph = new Paragraph(riga, SMALL_FONT);
+                paragraph.setAlignment(Element.ALIGN_RIGHT);
+                infoCell.addElement(paragraph);
             }
         }
         headerTable.addCell(infoCell);
@@ -288,6 +318,14 @@ public class PdfUtil {
         document.add(table);
     }
 
+    private static BaseFont baseFont(String nome) {
+        try {
+            return BaseFont.createFont(nome, BaseFont.CP1252, BaseFont.NOT_EMBEDDED);
+        } catch (DocumentException | IOException e) {
+            throw new IllegalStateException("Standard font not available: " + nome, e);
+        }
+    }
+
     public static void savePdfToFile(byte[] pdfData, String filePath) throws IOException {
         try (FileOutputStream fos = new FileOutputStream(filePath)) {
             fos.write(pdfData);
@@ -0,0 +1,177 @@
+package com.ingrosso.util;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+// Reads the first sheet of an XLSX file, or a CSV file, one row at a time without loading the file.
+// XLSX goes through the POI event model: the sheet XML is parsed with SAX and only the shared strings
+// table is kept in memory. Cells come as text: numbers in plain notation with a dot ("1234.5"),
+// whatever their display format, and empty cells as null. Rows with no values are skipped.
+public final class SpreadsheetReader {
+
+    @FunctionalInterface
+    public interface RigaHandler {
+        // numero is the 1-based row number shown by spreadsheet programs
+        void riga(int numero, List<String> celle);
+    }
+
+    private SpreadsheetReader() {}
+
+    public static void leggi(File file, RigaHandler handler) throws IOException {
+        if (file.getName().toLowerCase().endsWith(".xlsx")) {
+            leggiXlsx(file, handler);
+        } else {
+            leggiCsv(file, handler);
+        }
+    }
+
+    private static void leggiXlsx(File file, RigaHandler handler) throws IOException {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg, false);
+            Iterator<InputStream> fogli = reader.getSheetsData();
+            if (!fogli.hasNext()) return;
+
+            try (InputStream foglio = fogli.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(reader.getStylesTable(), null, strings,
+                        new RigheFoglio(handler), new ValoriGrezzi(), false));
+                parser.parse(new InputSource(foglio));
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("Invalid XLSX file: " + e.getMessage(), e);
+        }
+    }
+
+    // Semicolon or comma separated, chosen from the header line; quoted fields may contain either
+    // and span lines, with "" for a quote. A UTF-8 byte order mark is ignored.
+    private static void leggiCsv(File file, RigaHandler handler) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            reader.mark(1);
+            if (reader.read() != '\uFEFF') reader.reset();
+
+            reader.mark(64 * 1024);
+            String intestazione = reader.readLine();
+            if (intestazione == null) return;
+            reader.reset();
+            char separatore = intestazione.indexOf(';') >= 0 ? ';' : ',';
+
+            List<String> celle = new ArrayList<>();
+            int numero = 1;
+            while (leggiRigaCsv(reader, separatore, celle)) {
+                if (celle.stream().anyMatch(Objects::nonNull)) {
+                    handler.riga(numero, new ArrayList<>(celle));
+                }
+                numero++;
+            }
+        }
+    }
+
+    // Reads one record into celle; false at end of file
+    private static boolean leggiRigaCsv(BufferedReader reader, char separatore, List<String> celle) throws IOException {
+        celle.clear();
+        StringBuilder cella = new StringBuilder();
+        boolean traVirgolette = false;
+        boolean letto = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            letto = true;
+            if (traVirgolette) {
+                if (c == '"') {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        cella.append('"');
+                    } else {
+                        reader.reset();
+                        traVirgolette = false;
+                    }
+                } else {
+                    cella.append((char) c);
+                }
+            } else if (c == '"') {
+                traVirgolette = true;
+            } else if (c == separatore) {
+                celle.add(valore(cella));
+                cella.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                cella.append((char) c);
+            }
+        }
+        if (!letto) return false;
+        celle.add(valore(cella));
+        return true;
+    }
+
+    private static String valore(CharSequence testo) {
+        String valore = testo.toString().trim();
+        return valore.isEmpty() ? null : valore;
+    }
+
+    // Places each cell at its column, as empty cells are missing from the sheet XML
+    private static class RigheFoglio implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final RigaHandler handler;
+        private final List<String> celle = new ArrayList<>();
+        private boolean vuota;
+
+        RigheFoglio(RigaHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            celle.clear();
+            vuota = true;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (!vuota) handler.riga(rowNum + 1, new ArrayList<>(celle));
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int colonna = cellReference != null ? new CellReference(cellReference).getCol() : celle.size();
+            while (celle.size() < colonna) {
+                celle.add(null);
+            }
+            String testo = valore(formattedValue != null ? formattedValue : "");
+            celle.add(testo);
+            if (testo != null) vuota = false;
+        }
+    }
+
+    // Numbers as plain decimals instead of their display format, which depends on the locale and may
+    // round or group the digits; a barcode stored as a number keeps all of them
+    private static class ValoriGrezzi extends DataFormatter {
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing) {
+            return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+        }
+    }
+}
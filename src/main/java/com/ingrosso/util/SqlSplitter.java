@@ -0,0 +1,90 @@
+package com.ingrosso.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Splits a MySQL script into statements. Comments are dropped, delimiters inside quoted strings
+// and identifiers are ignored, and DELIMITER lines change the terminator as in the mysql client.
+public final class SqlSplitter {
+
+    private SqlSplitter() {}
+
+    public static List<String> split(String script) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder corrente = new StringBuilder();
+        String delimitatore = ";";
+        int n = script.length();
+        int i = 0;
+
+        while (i < n) {
+            char c = script.charAt(i);
+            char next = i + 1 < n ? script.charAt(i + 1) : 0;
+
+            if ((c == 'D' || c == 'd') && isDirettivaDelimiter(script, i) && corrente.toString().isBlank()) {
+                int fine = fineRiga(script, i);
+                delimitatore = script.substring(i + "DELIMITER".length(), fine).trim();
+                corrente.setLength(0);
+                i = fine;
+            } else if (c == '#' || (c == '-' && next == '-' && (i + 2 >= n || Character.isWhitespace(script.charAt(i + 2))))) {
+                i = fineRiga(script, i);
+            } else if (c == '/' && next == '*' && (i + 2 >= n || script.charAt(i + 2) != '!')) {
+                int fine = script.indexOf("*/", i + 2);
+                i = fine < 0 ? n : fine + 2;
+                corrente.append(' ');
+            } else if (c == '\'' || c == '"' || c == '`') {
+                int fine = fineStringa(script, i);
+                corrente.append(script, i, fine);
+                i = fine;
+            } else if (script.startsWith(delimitatore, i)) {
+                aggiungi(statements, corrente);
+                i += delimitatore.length();
+            } else {
+                corrente.append(c);
+                i++;
+            }
+        }
+        aggiungi(statements, corrente);
+        return statements;
+    }
+
+    private static void aggiungi(List<String> statements, StringBuilder corrente) {
+        String sql = corrente.toString().trim();
+        if (!sql.isEmpty()) {
+            statements.add(sql);
+        }
+        corrente.setLength(0);
+    }
+
+    private static boolean isDirettivaDelimiter(String script, int i) {
+        int fine = i + "DELIMITER".length();
+        return script.regionMatches(true, i, "DELIMITER", 0, "DELIMITER".length())
+                && fine < script.length() && Character.isWhitespace(script.charAt(fine));
+    }
+
+    // Index of the line break, which is kept so the next token still starts a line
+    private static int fineRiga(String script, int i) {
+        int fine = script.indexOf('\n', i);
+        return fine < 0 ? script.length() : fine;
+    }
+
+    // Index just past the closing quote; backslash escapes and doubled quotes are skipped
+    private static int fineStringa(String script, int inizio) {
+        char quote = script.charAt(inizio);
+        int i = inizio + 1;
+        while (i < script.length()) {
+            char c = script.charAt(i);
+            if (c == '\\' && quote != '`') {
+                i += 2;
+            } else if (c == quote) {
+                if (i + 1 < script.length() && script.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return script.length();
+    }
+}
@@ -0,0 +1,155 @@
+package com.ingrosso.util;
+
+import com.ingrosso.model.Ddt;
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfSmartCopy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Renders DDTs on a pool of worker threads and streams them, in the order they were added, into one
+// PDF to print or into a ZIP with one PDF per DDT. Only a few rendered documents wait to be written at
+// any time, so memory does not grow with the DDTs printed. The merged PDF is copied with PdfSmartCopy,
+// which stores the logo repeated on every page only once. The output stream is left open for the
+// caller. Not thread-safe: add DDTs from one thread.
+public class StampaDdt implements Closeable {
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    public enum Formato { PDF_UNICO, ZIP }
+
+    private record Documento(String nome, byte[] pdf, int pagine) {}
+
+    private final PdfUtil.Intestazione intestazione;
+    private final Formato formato;
+    private final OutputStream out;
+    private final int maxInCorso;
+    private final ExecutorService renderer;
+    private final Deque<Future<Documento>> inCorso = new ArrayDeque<>();
+
+    private Document unico;
+    private PdfSmartCopy copia;
+    private ZipOutputStream zip;
+    private int documenti;
+    private int pagine;
+
+    public StampaDdt(PdfUtil.Intestazione intestazione, Formato formato, OutputStream out, int threads) {
+        this.intestazione = intestazione;
+        this.formato = formato;
+        this.out = out;
+        this.maxInCorso = threads * 2;
+        this.renderer = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ddt-renderer-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // The DDT must have its righe and destinatario loaded and must not change until it is written
+    public void aggiungi(Ddt ddt) throws IOException {
+        inCorso.add(renderer.submit(() -> renderizza(ddt)));
+        while (inCorso.size() > maxInCorso) {
+            scrivi(inCorso.poll());
+        }
+    }
+
+    // Writes the DDTs still rendering and ends the PDF or ZIP
+    public void completa() throws IOException {
+        while (!inCorso.isEmpty()) {
+            scrivi(inCorso.poll());
+        }
+        if (copia != null) {
+            unico.close();
+        }
+        if (zip != null) {
+            zip.finish();
+        }
+        out.flush();
+    }
+
+    public int getDocumenti() {
+        return documenti;
+    }
+
+    public int getPagine() {
+        return pagine;
+    }
+
+    // Stops the workers; without completa the output is left incomplete
+    @Override
+    public void close() {
+        renderer.shutdownNow();
+    }
+
+    private Documento renderizza(Ddt ddt) throws DocumentException {
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream(32 * 1024);
+        int pagineDdt = PdfUtil.writeDdtPdf(ddt, intestazione, pdf);
+        return new Documento(String.format("DDT_%d_%d.pdf", ddt.getNumero(), ddt.getAnno()), pdf.toByteArray(), pagineDdt);
+    }
+
+    private void scrivi(Future<Documento> future) throws IOException {
+        Documento documento;
+        try {
+            documento = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("DDT printing interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("DDT rendering failed: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        if (formato == Formato.ZIP) {
+            aggiungiZip(documento);
+        } else {
+            aggiungiUnico(documento);
+        }
+        documenti++;
+        pagine += documento.pagine();
+    }
+
+    private void aggiungiZip(Documento documento) throws IOException {
+        if (zip == null) {
+            zip = new ZipOutputStream(out);
+            // The PDF streams are compressed already
+            zip.setLevel(Deflater.BEST_SPEED);
+        }
+        zip.putNextEntry(new ZipEntry(documento.nome()));
+        zip.write(documento.pdf());
+        zip.closeEntry();
+    }
+
+    // Opened with the first DDT: a PDF without pages cannot be closed
+    private void aggiungiUnico(Documento documento) throws IOException {
+        PdfReader reader = new PdfReader(documento.pdf());
+        try {
+            if (copia == null) {
+                unico = new Document();
+                copia = new PdfSmartCopy(unico, out);
+                copia.setCloseStream(false);
+                unico.open();
+            }
+            for (int i = 1; i <= reader.getNumberOfPages(); i++) {
+                copia.addPage(copia.getImportedPage(reader, i));
+            }
+            copia.freeReader(reader);
+        } catch (DocumentException e) {
+            throw new IOException("DDT could not be added to the print file: " + e.getMessage(), e);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.ingrosso.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+// Unit of work bound to the current thread. While a transaction is open, every DAO call made on this
+// thread (BaseDao.getConnection) runs on its connection, so services can group plain DAO methods
+// and commit once. A transaction opened inside another one becomes a savepoint of the outer one.
+public final class TransactionManager {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionManager.class);
+    private static final int MAX_TENTATIVI = 3;
+    public static final int ISOLAMENTO_DEFAULT = -1;
+
+    private static final ThreadLocal<Transazione> corrente = new ThreadLocal<>();
+
+    @FunctionalInterface
+    public interface TransactionCallback {
+        int execute(Connection conn) throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface ReadCallback<R> {
+        R execute(Connection conn) throws SQLException;
+    }
+
+    private static final class Transazione {
+        final Connection connessione;
+        final Connection vista;
+        final List<Runnable> dopoCommit = new ArrayList<>();
+        // First error swallowed by a DAO method in the current scope: the scope is rolled back
+        SQLException errore;
+
+        Transazione(Connection connessione) {
+            this.connessione = connessione;
+            this.vista = nonChiudibile(connessione);
+        }
+    }
+
+    private TransactionManager() {}
+
+    // The connection of the current transaction, or a new pooled one when none is open
+    public static Connection getConnection() throws SQLException {
+        Transazione tx = corrente.get();
+        return tx != null ? tx.vista : DatabaseUtil.getConnection();
+    }
+
+    // Inside a transaction its connection, so reads see the uncommitted work; otherwise the read pool
+    public static Connection getReadConnection() throws SQLException {
+        Transazione tx = corrente.get();
+        return tx != null ? tx.vista : DatabaseUtil.getReadConnection();
+    }
+
+    public static boolean isActive() {
+        return corrente.get() != null;
+    }
+
+    // Runs the callback in a transaction; a negative result rolls back. Deadlocks and lock wait
+    // timeouts are retried a few times before giving up. Inside another transaction the callback
+    // runs under a savepoint, and a negative result only undoes its own work.
+    public static int inTransaction(String operazione, TransactionCallback callback) {
+        return inTransaction(operazione, ISOLAMENTO_DEFAULT, callback);
+    }
+
+    // isolamento is one of the Connection.TRANSACTION_* levels; it is ignored for nested transactions
+    public static int inTransaction(String operazione, int isolamento, TransactionCallback callback) {
+        Transazione tx = corrente.get();
+        if (tx != null) {
+            return inSavepoint(tx, operazione, callback);
+        }
+        Integer result = esegui(operazione, isolamento, false, callback::execute, r -> r >= 0);
+        return result != null ? result : -1;
+    }
+
+    // Consistent read-only snapshot for reports that run several queries, taken on the replica when
+    // available; empty on error. Inside a transaction the callback simply joins it.
+    public static <R> Optional<R> readOnly(String operazione, ReadCallback<R> callback) {
+        Transazione tx = corrente.get();
+        if (tx != null) {
+            try {
+                return Optional.ofNullable(callback.execute(tx.vista));
+            } catch (SQLException e) {
+                setRollbackOnly(e);
+                logger.error("Error in read {}: {}", operazione, e.getMessage());
+                return Optional.empty();
+            }
+        }
+        return Optional.ofNullable(esegui(operazione, Connection.TRANSACTION_REPEATABLE_READ, true, callback, r -> true));
+    }
+
+    // Runs the action once the outermost transaction commits, or immediately outside a transaction.
+    // Used for caches and snapshots that must not see work that is later rolled back.
+    public static void afterCommit(Runnable action) {
+        Transazione tx = corrente.get();
+        if (tx != null) {
+            tx.dopoCommit.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    // Called by DAO methods that log and swallow their SQLException, so the enclosing scope is not committed
+    public static void setRollbackOnly(SQLException causa) {
+        Transazione tx = corrente.get();
+        if (tx != null && tx.errore == null) {
+            tx.errore = causa;
+        }
+    }
+
+    private static <R> R esegui(String operazione, int isolamento, boolean soloLettura,
+                                ReadCallback<R> callback, Predicate<R> daConfermare) {
+        for (int tentativo = 1; ; tentativo++) {
+            try (Connection conn = soloLettura ? DatabaseUtil.getReadConnection() : DatabaseUtil.getConnection()) {
+                boolean autoCommit = conn.getAutoCommit();
+                int isolamentoPrecedente = conn.getTransactionIsolation();
+                boolean readOnlyPrecedente = conn.isReadOnly();
+                if (isolamento != ISOLAMENTO_DEFAULT) conn.setTransactionIsolation(isolamento);
+                if (soloLettura) conn.setReadOnly(true);
+                conn.setAutoCommit(false);
+
+                Transazione tx = new Transazione(conn);
+                corrente.set(tx);
+                try {
+                    R result = callback.execute(tx.vista);
+                    if (tx.errore != null) {
+                        throw tx.errore;
+                    }
+                    boolean confermata = daConfermare.test(result);
+                    if (confermata) {
+                        conn.commit();
+                    } else {
+                        conn.rollback();
+                    }
+                    corrente.remove();
+                    if (confermata && !soloLettura) {
+                        DatabaseUtil.registerWrite();
+                    }
+                    if (confermata) {
+                        tx.dopoCommit.forEach(Runnable::run);
+                    }
+                    return result;
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } catch (RuntimeException | Error e) {
+                    // Restoring auto-commit below would otherwise commit the partial work
+                    annulla(conn, null, e);
+                    tx.dopoCommit.clear();
+                    throw e;
+                } finally {
+                    corrente.remove();
+                    conn.setAutoCommit(autoCommit);
+                    if (soloLettura) conn.setReadOnly(readOnlyPrecedente);
+                    if (isolamento != ISOLAMENTO_DEFAULT) conn.setTransactionIsolation(isolamentoPrecedente);
+                }
+            } catch (SQLException e) {
+                if (isRetryable(e) && tentativo < MAX_TENTATIVI) {
+                    logger.warn("Retrying {} after lock conflict (attempt {}): {}", operazione, tentativo, e.getMessage());
+                    continue;
+                }
+                logger.error("Error in transaction {}: {}", operazione, e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    private static int inSavepoint(Transazione tx, String operazione, TransactionCallback callback) {
+        SQLException errorePrecedente = tx.errore;
+        tx.errore = null;
+        // Actions registered by this scope are dropped with its work when it rolls back
+        int azioniPrecedenti = tx.dopoCommit.size();
+        try {
+            Savepoint savepoint = tx.connessione.setSavepoint();
+            try {
+                int result = callback.execute(tx.vista);
+                if (tx.errore != null) {
+                    throw tx.errore;
+                }
+                if (result >= 0) {
+                    tx.connessione.releaseSavepoint(savepoint);
+                } else {
+                    tx.connessione.rollback(savepoint);
+                    scartaAzioni(tx, azioniPrecedenti);
+                }
+                return result;
+            } catch (SQLException e) {
+                // A deadlock has already rolled back the whole transaction: only the outer scope can retry it
+                if (isRetryable(e)) throw e;
+                tx.connessione.rollback(savepoint);
+                scartaAzioni(tx, azioniPrecedenti);
+                tx.errore = null;
+                logger.error("Error in {}: {}", operazione, e.getMessage());
+                return -1;
+            } catch (RuntimeException | Error e) {
+                // Undone here too, in case the caller catches the exception and the outer scope commits
+                annulla(tx.connessione, savepoint, e);
+                scartaAzioni(tx, azioniPrecedenti);
+                throw e;
+            }
+        } catch (SQLException e) {
+            tx.errore = e;
+            return -1;
+        } finally {
+            if (tx.errore == null) tx.errore = errorePrecedente;
+        }
+    }
+
+    // Rolls back after an unchecked exception, which is then rethrown by the caller unchanged
+    private static void annulla(Connection conn, Savepoint savepoint, Throwable causa) {
+        try {
+            if (savepoint != null) {
+                conn.rollback(savepoint);
+            } else {
+                conn.rollback();
+            }
+        } catch (SQLException e) {
+            causa.addSuppressed(e);
+        }
+    }
+
+    private static void scartaAzioni(Transazione tx, int daTenere) {
+        tx.dopoCommit.subList(daTenere, tx.dopoCommit.size()).clear();
+    }
+
+    private static boolean isRetryable(SQLException e) {
+        return "40001".equals(e.getSQLState()) || e.getErrorCode() == 1213 || e.getErrorCode() == 1205;
+    }
+
+    // DAOs close their connection in try-with-resources; inside a transaction that must not end it
+    private static Connection nonChiudibile(Connection conn) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("close")) {
+                        return null;
+                    }
+                    try {
+                        return method.invoke(conn, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
@@ -4,6 +4,7 @@ module com.ingrosso {
     requires javafx.swing;
 
     requires java.sql;
+    requires java.xml;
     requires com.zaxxer.hikari;
     requires at.favre.lib.bcrypt;
 
@@ -1,7 +1,8 @@
 -- =====================================================
 -- GESTIONE INGROSSO - Schema Database MySQL
 -- =====================================================
--- Eseguire questo script per creare il database completo
+-- Migrazione 1: schema iniziale. Le modifiche successive vanno
+-- in nuovi script V<n>__descrizione.sql, mai in questo file
 -- =====================================================
 
 -- Creazione database (eseguire come root se necessario)
@@ -155,7 +156,9 @@ CREATE TABLE IF NOT EXISTS movimenti (
     FOREIGN KEY (magazzino_destinazione_id) REFERENCES magazzini(id) ON DELETE SET NULL,
     FOREIGN KEY (utente_id) REFERENCES utenti(id) ON DELETE SET NULL,
     INDEX idx_data (data_movimento),
-    INDEX idx_tipo (tipo)
+    INDEX idx_magazzino_data (magazzino_id, data_movimento),
+    INDEX idx_prodotto_data (prodotto_id, data_movimento),
+    INDEX idx_tipo_data (tipo, data_movimento)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 
 -- =====================================================
@@ -0,0 +1,32 @@
+-- Indici composti su movimenti per le ricerche per periodo. Le installazioni create prima
+-- della loro introduzione hanno solo idx_data e idx_tipo; MySQL non supporta ADD INDEX
+-- IF NOT EXISTS, quindi ogni modifica viene preparata solo se necessaria.
+
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics
+                WHERE table_schema = DATABASE() AND table_name = 'movimenti' AND index_name = 'idx_magazzino_data') = 0,
+               'ALTER TABLE movimenti ADD INDEX idx_magazzino_data (magazzino_id, data_movimento)', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics
+                WHERE table_schema = DATABASE() AND table_name = 'movimenti' AND index_name = 'idx_prodotto_data') = 0,
+               'ALTER TABLE movimenti ADD INDEX idx_prodotto_data (prodotto_id, data_movimento)', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics
+                WHERE table_schema = DATABASE() AND table_name = 'movimenti' AND index_name = 'idx_tipo_data') = 0,
+               'ALTER TABLE movimenti ADD INDEX idx_tipo_data (tipo, data_movimento)', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- Ridondante con idx_tipo_data, che ha tipo come prima colonna
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics
+                WHERE table_schema = DATABASE() AND table_name = 'movimenti' AND index_name = 'idx_tipo') > 0,
+               'ALTER TABLE movimenti DROP INDEX idx_tipo', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
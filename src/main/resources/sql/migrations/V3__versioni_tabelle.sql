@@ -0,0 +1,7 @@
+-- Versioni delle tabelle anagrafiche: incrementata a ogni modifica di una tabella,
+-- i client confrontano la versione per sapere quando ricaricare la propria cache
+CREATE TABLE IF NOT EXISTS versioni_tabelle (
+    tabella VARCHAR(50) PRIMARY KEY,
+    versione BIGINT NOT NULL DEFAULT 0,
+    aggiornata_il TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
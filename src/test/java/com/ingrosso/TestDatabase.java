@@ -0,0 +1,110 @@
+package com.ingrosso;
+
+import com.ingrosso.service.DatabaseService;
+import com.ingrosso.util.DatabaseUtil;
+import org.junit.jupiter.api.Assumptions;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+// MySQL database of the integration tests, brought up to date by the schema migrations. Configured with
+// -Dtest.db.host, test.db.port, test.db.database, test.db.username and test.db.password; the database is
+// created when missing. Tests that need it are skipped when the server cannot be reached. The
+// configuration file written by DatabaseService goes to a temporary home, never to the user's one.
+public final class TestDatabase {
+    public static final String HOST = System.getProperty("test.db.host", "localhost");
+    public static final int PORT = Integer.getInteger("test.db.port", 3306);
+    public static final String DATABASE = System.getProperty("test.db.database", "gestione_ingrosso_test");
+    public static final String USERNAME = System.getProperty("test.db.username", "root");
+    public static final String PASSWORD = System.getProperty("test.db.password", "");
+
+    private static Boolean disponibile;
+
+    private TestDatabase() {}
+
+    // Skips the calling test when the database is not available
+    public static synchronized void richiedi() {
+        if (disponibile == null || !DatabaseUtil.isInitialized()) {
+            disponibile = avvia(new Properties());
+        }
+        Assumptions.assumeTrue(disponibile, "Test database not reachable at " + HOST + ":" + PORT);
+    }
+
+    // (Re)creates the pools with extra keys in the configuration file, e.g. the db.replica.* ones
+    public static synchronized boolean avvia(Properties extra) {
+        try {
+            Path home = Files.createTempDirectory("gestione-ingrosso-test");
+            System.setProperty("user.home", home.toString());
+            Path config = home.resolve(".gestione_ingrosso").resolve("gestione_ingrosso.properties");
+            Files.createDirectories(config.getParent());
+            try (OutputStream out = Files.newOutputStream(config)) {
+                extra.store(out, null);
+            }
+            creaDatabase();
+        } catch (IOException | SQLException e) {
+            return false;
+        }
+        disponibile = DatabaseService.getInstance().initialize(HOST, PORT, DATABASE, USERNAME, PASSWORD);
+        return disponibile;
+    }
+
+    public static void esegui(String sql) throws SQLException {
+        try (Connection conn = DatabaseUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    public static long conta(String sql) throws SQLException {
+        try (Connection conn = DatabaseUtil.getConnection();
+             Statement stmt = conn.createStatement();
+             var rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    public static BigDecimal decimale(String sql) throws SQLException {
+        try (Connection conn = DatabaseUtil.getConnection();
+             Statement stmt = conn.createStatement();
+             var rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getBigDecimal(1) : null;
+        }
+    }
+
+    // Runs an INSERT and returns the generated id
+    public static int inserisci(String sql) throws SQLException {
+        try (Connection conn = DatabaseUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(sql, Statement.RETURN_GENERATED_KEYS);
+            try (var rs = stmt.getGeneratedKeys()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    // A product of its own for each test, in pieces
+    public static int creaProdotto(String codice) throws SQLException {
+        return inserisci("INSERT INTO prodotti (codice, nome, unita_misura_id) SELECT '" + codice + "', 'Prodotto "
+                + codice + "', id FROM unita_misura WHERE simbolo = 'Pz'");
+    }
+
+    public static int creaMagazzino(String codice) throws SQLException {
+        return inserisci("INSERT INTO magazzini (codice, nome) VALUES ('" + codice + "', 'Magazzino " + codice + "')");
+    }
+
+    private static void creaDatabase() throws SQLException {
+        String url = String.format("jdbc:mysql://%s:%d/?useSSL=false&allowPublicKeyRetrieval=true", HOST, PORT);
+        try (Connection conn = DriverManager.getConnection(url, USERNAME, PASSWORD);
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE DATABASE IF NOT EXISTS `" + DATABASE + "` CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci");
+        }
+    }
+}
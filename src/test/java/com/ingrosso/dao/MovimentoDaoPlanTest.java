@@ -0,0 +1,122 @@
+package com.ingrosso.dao;
+
+import com.ingrosso.TestDatabase;
+import com.ingrosso.model.TipoMovimento;
+import com.ingrosso.util.DatabaseUtil;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Guards the movimenti indexes: EXPLAIN of every period query must read movimenti through an index,
+// never with a full scan. The table is seeded once with enough rows, spread over more than a year,
+// for the optimizer to prefer the indexes over scanning it
+class MovimentoDaoPlanTest {
+    private static final String CODICE = "PIANO-MOVIMENTI";
+    private static final int RIGHE = 10000;
+    private static final LocalDateTime ULTIMO = LocalDateTime.of(2024, 6, 30, 23, 0);
+    private static final LocalDate DAL = LocalDate.of(2024, 6, 1);
+    private static final LocalDate AL = LocalDate.of(2024, 6, 7);
+
+    private final MovimentoDao movimentoDao = new MovimentoDao();
+
+    private static int magazzinoId;
+
+    @BeforeAll
+    static void popola() throws SQLException {
+        TestDatabase.richiedi();
+        magazzinoId = (int) TestDatabase.conta("SELECT id FROM magazzini WHERE codice = 'MAG01'");
+        if (TestDatabase.conta("SELECT COUNT(*) FROM prodotti WHERE codice = '" + CODICE + "'") > 0) {
+            return;
+        }
+
+        // One movimento per hour going back from ULTIMO, the tipi in rotation
+        int prodottoId = TestDatabase.creaProdotto(CODICE);
+        TestDatabase.esegui("""
+            INSERT INTO movimenti (prodotto_id, magazzino_id, tipo, quantita, quantita_precedente,
+                                   quantita_successiva, data_movimento)
+            SELECT %d, %d, ELT(1 + n %% 4, 'CARICO', 'SCARICO', 'RETTIFICA', 'TRASFERIMENTO'), 1, 0, 1,
+                   TIMESTAMP '%s' - INTERVAL n HOUR
+            FROM (SELECT u.d + 10 * t.d + 100 * c.d + 1000 * k.d AS n
+                  FROM %s u, %s t, %s c, %s k) numeri
+            WHERE n < %d
+            """.formatted(prodottoId, magazzinoId, Timestamp.valueOf(ULTIMO), cifre(), cifre(), cifre(), cifre(),
+                RIGHE));
+        TestDatabase.esegui("ANALYZE TABLE movimenti");
+    }
+
+    @Test
+    void filteredListsUseAnIndex() throws SQLException {
+        for (MovimentoDao.FiltroMovimenti filtro : filtri()) {
+            assertUsesIndex(movimentoDao.elencoQuery(filtro));
+            assertUsesIndex(movimentoDao.paginaQuery(filtro, null, 100));
+            assertUsesIndex(movimentoDao.countQuery(filtro));
+        }
+    }
+
+    @Test
+    void followingPagesUseAnIndex() throws SQLException {
+        MovimentoDao.MovimentoCompleto ultimo = new MovimentoDao.MovimentoCompleto();
+        ultimo.setId(Integer.MAX_VALUE);
+        ultimo.setDataMovimento(AL.atTime(12, 0));
+        for (MovimentoDao.FiltroMovimenti filtro : filtri()) {
+            assertUsesIndex(movimentoDao.paginaQuery(filtro, ultimo, 100));
+        }
+    }
+
+    @Test
+    void periodQueriesUseAnIndex() throws SQLException {
+        Object[] periodo = {DAL.atStartOfDay(), AL.plusDays(1).atStartOfDay()};
+        assertUsesIndex(new MovimentoDao.Query(MovimentoDao.PERIODO_SQL, periodo));
+        assertUsesIndex(new MovimentoDao.Query(MovimentoDao.COUNT_PERIODO_SQL, periodo));
+        assertUsesIndex(new MovimentoDao.Query(MovimentoDao.COUNT_PER_GIORNO_SQL,
+                new Object[] {ULTIMO.minusDays(30)}));
+    }
+
+    // The filters of the movimenti screen on a week: date only, plus magazzino, plus tipo, plus both
+    private static MovimentoDao.FiltroMovimenti[] filtri() {
+        MovimentoDao.FiltroMovimenti[] filtri = new MovimentoDao.FiltroMovimenti[4];
+        for (int i = 0; i < filtri.length; i++) {
+            filtri[i] = new MovimentoDao.FiltroMovimenti();
+            filtri[i].dataInizio = DAL;
+            filtri[i].dataFine = AL;
+        }
+        filtri[1].magazzinoId = magazzinoId;
+        filtri[2].tipo = TipoMovimento.SCARICO;
+        filtri[3].magazzinoId = magazzinoId;
+        filtri[3].tipo = TipoMovimento.CARICO;
+        return filtri;
+    }
+
+    private void assertUsesIndex(MovimentoDao.Query query) throws SQLException {
+        try (Connection conn = DatabaseUtil.getConnection();
+             var stmt = conn.prepareStatement("EXPLAIN " + query.sql())) {
+            movimentoDao.setParameters(stmt, query.params());
+            boolean letta = false;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String tabella = rs.getString("table");
+                    if (!"m".equals(tabella) && !"movimenti".equals(tabella)) {
+                        continue;
+                    }
+                    letta = true;
+                    assertNotEquals("ALL", rs.getString("type"), "Full scan of movimenti: " + query.sql());
+                    assertNotNull(rs.getString("key"), "No index used on movimenti: " + query.sql());
+                }
+            }
+            assertTrue(letta, "movimenti missing from the plan: " + query.sql());
+        }
+    }
+
+    private static String cifre() {
+        return "(SELECT 0 AS d UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4"
+                + " UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9)";
+    }
+}
@@ -0,0 +1,49 @@
+package com.ingrosso.service;
+
+import com.ingrosso.TestDatabase;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImportServiceTest {
+
+    @BeforeAll
+    static void database() {
+        TestDatabase.richiedi();
+    }
+
+    // Codici differing only in case are the same product, in the database and within the file
+    @Test
+    void matchesCodiciIgnoringCase(@TempDir Path dir) throws IOException, SQLException {
+        String prefisso = "IMP" + System.nanoTime();
+        TestDatabase.esegui("INSERT INTO prodotti (codice, nome, unita_misura_id) "
+                + "SELECT '" + prefisso + "-ABC', 'Esistente', id FROM unita_misura WHERE simbolo = 'Pz'");
+
+        Path file = dir.resolve("prodotti.csv");
+        Files.writeString(file, String.join("\n",
+                "Codice;Nome;U.M.;Prezzo vendita",
+                prefisso.toLowerCase() + "-abc;Aggiornato;Pz;2,50",
+                prefisso + "-ABC;Ripetuto;Pz;3,00",
+                prefisso.toLowerCase() + "-nuovo;Nuovo;Pz;1,00",
+                prefisso + "-NUOVO;Ripetuto;Pz;1,00"), StandardCharsets.UTF_8);
+
+        ImportService.Risultato risultato = ImportService.getInstance().importaProdotti(file.toFile(), null);
+
+        assertNull(risultato.erroreFile);
+        assertEquals(4, risultato.righeLette);
+        assertEquals(1, risultato.aggiornati);
+        assertEquals(1, risultato.inseriti);
+        assertEquals(2, risultato.scartati);
+        assertEquals(2, TestDatabase.conta("SELECT COUNT(*) FROM prodotti WHERE codice LIKE '" + prefisso + "-%'"));
+        assertEquals(1, TestDatabase.conta("SELECT COUNT(*) FROM prodotti WHERE codice = '" + prefisso
+                + "-ABC' AND nome = 'Aggiornato' AND prezzo_vendita = 2.5"));
+    }
+}
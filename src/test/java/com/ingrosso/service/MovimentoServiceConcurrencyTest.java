@@ -0,0 +1,140 @@
+package com.ingrosso.service;
+
+import com.ingrosso.TestDatabase;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Concurrent scarichi and trasferimenti on the same giacenze: the row locks must serialize them, so
+// every committed movement is reflected in the final quantities and none is lost or overdrawn
+class MovimentoServiceConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int OPERAZIONI_PER_THREAD = 50;
+    private static final BigDecimal UNO = BigDecimal.ONE;
+
+    private final MovimentoService movimentoService = MovimentoService.getInstance();
+
+    private int prodottoId;
+    private int magazzinoA;
+    private int magazzinoB;
+
+    @BeforeAll
+    static void database() {
+        TestDatabase.richiedi();
+    }
+
+    @BeforeEach
+    void dati() throws SQLException {
+        String codice = "STRESS" + System.nanoTime();
+        prodottoId = TestDatabase.creaProdotto(codice);
+        magazzinoA = TestDatabase.creaMagazzino("A" + codice.substring(codice.length() - 12));
+        magazzinoB = TestDatabase.creaMagazzino("B" + codice.substring(codice.length() - 12));
+    }
+
+    @Test
+    @Timeout(value = 120, unit = TimeUnit.SECONDS)
+    void concurrentScarichiAndTrasferimentiLoseNoUpdates() throws Exception {
+        BigDecimal iniziale = new BigDecimal("1000");
+        assertTrue(movimentoService.registraCarico(prodottoId, magazzinoA, iniziale, "Stress", null, null, null) > 0);
+
+        AtomicInteger scarichi = new AtomicInteger();
+        AtomicInteger versoB = new AtomicInteger();
+        AtomicInteger versoA = new AtomicInteger();
+        eseguiInParallelo(thread -> {
+            for (int i = 0; i < OPERAZIONI_PER_THREAD; i++) {
+                // Transfers both ways exercise the fixed lock order of registraTrasferimento
+                switch ((thread + i) % 3) {
+                    case 0 -> {
+                        if (movimentoService.registraScarico(prodottoId, magazzinoA, UNO, "Stress", null, null, null) > 0) {
+                            scarichi.incrementAndGet();
+                        }
+                    }
+                    case 1 -> {
+                        if (movimentoService.registraTrasferimento(prodottoId, magazzinoA, magazzinoB, UNO, null, null, null) > 0) {
+                            versoB.incrementAndGet();
+                        }
+                    }
+                    default -> {
+                        if (movimentoService.registraTrasferimento(prodottoId, magazzinoB, magazzinoA, UNO, null, null, null) > 0) {
+                            versoA.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        });
+
+        BigDecimal attesaA = iniziale.subtract(BigDecimal.valueOf(scarichi.get() + versoB.get() - versoA.get()));
+        BigDecimal attesaB = BigDecimal.valueOf(versoB.get() - versoA.get());
+        assertEquals(0, attesaA.compareTo(giacenza(magazzinoA)), "Giacenza A " + giacenza(magazzinoA) + ", attesa " + attesaA);
+        assertEquals(0, attesaB.compareTo(giacenza(magazzinoB)), "Giacenza B " + giacenza(magazzinoB) + ", attesa " + attesaB);
+        assertEquals(1 + scarichi.get() + versoB.get() + versoA.get(),
+                TestDatabase.conta("SELECT COUNT(*) FROM movimenti WHERE prodotto_id = " + prodottoId));
+    }
+
+    @Test
+    @Timeout(value = 60, unit = TimeUnit.SECONDS)
+    void concurrentScarichiNeverOverdraw() throws Exception {
+        int disponibili = 10;
+        assertTrue(movimentoService.registraCarico(prodottoId, magazzinoA, BigDecimal.valueOf(disponibili),
+                "Stress", null, null, null) > 0);
+
+        AtomicInteger riusciti = new AtomicInteger();
+        eseguiInParallelo(thread -> {
+            for (int i = 0; i < 5; i++) {
+                if (movimentoService.registraScarico(prodottoId, magazzinoA, UNO, "Stress", null, null, null) > 0) {
+                    riusciti.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(disponibili, riusciti.get());
+        assertEquals(0, BigDecimal.ZERO.compareTo(giacenza(magazzinoA)));
+    }
+
+    private interface Lavoro {
+        void esegui(int thread) throws Exception;
+    }
+
+    // Starts all threads together so their transactions overlap, and rethrows the first failure
+    private static void eseguiInParallelo(Lavoro lavoro) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch via = new CountDownLatch(1);
+        try {
+            List<Future<?>> futuri = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futuri.add(pool.submit(() -> {
+                    via.await();
+                    lavoro.esegui(thread);
+                    return null;
+                }));
+            }
+            via.countDown();
+            for (Future<?> futuro : futuri) {
+                futuro.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private BigDecimal giacenza(int magazzinoId) throws SQLException {
+        BigDecimal quantita = TestDatabase.decimale("SELECT quantita FROM giacenze WHERE prodotto_id = "
+                + prodottoId + " AND magazzino_id = " + magazzinoId);
+        return quantita != null ? quantita : BigDecimal.ZERO;
+    }
+}
@@ -0,0 +1,170 @@
+package com.ingrosso.util;
+
+import com.ingrosso.TestDatabase;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Read routing between the primary and a replica. Needs a second local MySQL instance, given with
+// -Dtest.db.replica.host and test.db.replica.port and the same credentials as the primary; skipped
+// without it. The servers are told apart by @@server_uuid. The lag guard tests pick the variant that
+// matches the second instance: replicating from the primary or standalone
+class DatabaseUtilReplicaTest {
+    private static final String REPLICA_HOST = System.getProperty("test.db.replica.host");
+    private static final int REPLICA_PORT = Integer.getInteger("test.db.replica.port", 3307);
+
+    private static String primario;
+
+    @BeforeAll
+    static void database() throws SQLException {
+        assumeTrue(REPLICA_HOST != null, "No replica given with -Dtest.db.replica.host");
+        TestDatabase.richiedi();
+        primario = serverUuid(DatabaseUtil.getConnection());
+
+        // A replicating instance already has the database; a standalone one gets an empty copy
+        try (Connection conn = connessioneReplica();
+             var stmt = conn.prepareStatement("SELECT COUNT(*) FROM information_schema.schemata WHERE schema_name = ?")) {
+            stmt.setString(1, TestDatabase.DATABASE);
+            try (var rs = stmt.executeQuery()) {
+                rs.next();
+                if (rs.getInt(1) == 0) {
+                    esegui(conn, "CREATE DATABASE `" + TestDatabase.DATABASE
+                            + "` CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci");
+                }
+            }
+        }
+    }
+
+    // Back to a primary-only configuration for the other test classes
+    @AfterAll
+    static void ripristina() {
+        if (REPLICA_HOST != null) {
+            TestDatabase.avvia(new Properties());
+        }
+    }
+
+    @Test
+    void readsGoToTheReplica() throws Exception {
+        avviaConReplica(REPLICA_HOST, REPLICA_PORT, 0);
+        String replica = serverUuid(DatabaseUtil.getReadConnection());
+
+        assertNotEquals(primario, replica, "Reads should be served by the replica");
+        assertEquals(primario, serverUuid(DatabaseUtil.getConnection()));
+    }
+
+    @Test
+    void unreachableReplicaFallsBackToPrimary() throws Exception {
+        avviaConReplica(TestDatabase.HOST, portaLibera(), 0);
+        assertEquals(primario, serverUuid(DatabaseUtil.getReadConnection()));
+
+        // Until the next check the replica is not tried again, so no connection timeout is paid
+        long inizio = System.nanoTime();
+        assertEquals(primario, serverUuid(DatabaseUtil.getReadConnection()));
+        assertTrue(System.nanoTime() - inizio < TimeUnit.SECONDS.toNanos(1),
+                "The unreachable replica should not be retried on every read");
+    }
+
+    @Test
+    void readsStayOnPrimaryForTheWindowAfterAWrite() throws Exception {
+        avviaConReplica(REPLICA_HOST, REPLICA_PORT, 0);
+        assertNotEquals(primario, serverUuid(DatabaseUtil.getReadConnection()));
+
+        DatabaseUtil.registerWrite();
+        assertEquals(primario, serverUuid(DatabaseUtil.getReadConnection()), "Right after a write");
+        Thread.sleep(DatabaseUtil.FINESTRA_DOPO_SCRITTURA_MS / 2);
+        assertEquals(primario, serverUuid(DatabaseUtil.getReadConnection()), "Still inside the window");
+
+        attendiFinestra();
+        assertNotEquals(primario, serverUuid(DatabaseUtil.getReadConnection()), "After the window");
+    }
+
+    @Test
+    void stoppedReplicationFailsTheLagGuard() throws Exception {
+        try (Connection conn = connessioneReplica()) {
+            assumeTrue(isReplica(conn), "The second instance does not replicate from the primary");
+
+            avviaConReplica(REPLICA_HOST, REPLICA_PORT, 60);
+            assertNotEquals(primario, serverUuid(DatabaseUtil.getReadConnection()), "A replica in sync");
+
+            // A stopped applier reports a NULL lag, which the guard treats as too far behind
+            esegui(conn, "STOP REPLICA SQL_THREAD");
+            try {
+                avviaConReplica(REPLICA_HOST, REPLICA_PORT, 60);
+                assertEquals(primario, serverUuid(DatabaseUtil.getReadConnection()));
+            } finally {
+                esegui(conn, "START REPLICA SQL_THREAD");
+            }
+        }
+    }
+
+    @Test
+    void standaloneInstancePassesTheLagGuard() throws Exception {
+        try (Connection conn = connessioneReplica()) {
+            assumeFalse(isReplica(conn), "The second instance is a real replica");
+        }
+        avviaConReplica(REPLICA_HOST, REPLICA_PORT, 60);
+        assertNotEquals(primario, serverUuid(DatabaseUtil.getReadConnection()));
+    }
+
+    // Re-creates the pools with the replica settings, then waits out the window opened by the
+    // migrations and the previous tests
+    private static void avviaConReplica(String host, int port, int maxLagSecondi) throws InterruptedException {
+        Properties props = new Properties();
+        props.setProperty("db.replica.host", host);
+        props.setProperty("db.replica.port", String.valueOf(port));
+        props.setProperty("db.replica.maxLagSeconds", String.valueOf(maxLagSecondi));
+        assertTrue(TestDatabase.avvia(props));
+        attendiFinestra();
+    }
+
+    private static void attendiFinestra() throws InterruptedException {
+        Thread.sleep(DatabaseUtil.FINESTRA_DOPO_SCRITTURA_MS + 200);
+    }
+
+    private static String serverUuid(Connection conn) throws SQLException {
+        try (conn;
+             Statement stmt = conn.createStatement();
+             var rs = stmt.executeQuery("SELECT @@server_uuid")) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    private static boolean isReplica(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             var rs = stmt.executeQuery("SHOW REPLICA STATUS")) {
+            return rs.next();
+        }
+    }
+
+    private static Connection connessioneReplica() throws SQLException {
+        String url = String.format("jdbc:mysql://%s:%d/?useSSL=false&allowPublicKeyRetrieval=true",
+                REPLICA_HOST, REPLICA_PORT);
+        return DriverManager.getConnection(url, TestDatabase.USERNAME, TestDatabase.PASSWORD);
+    }
+
+    private static void esegui(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static int portaLibera() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
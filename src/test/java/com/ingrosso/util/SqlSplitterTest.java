@@ -0,0 +1,119 @@
+package com.ingrosso.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlSplitterTest {
+
+    @Test
+    void splitsAndTrimsStatements() {
+        List<String> statements = SqlSplitter.split("""
+            CREATE TABLE a (id INT);
+
+              INSERT INTO a VALUES (1);
+            ;
+            """);
+
+        assertEquals(List.of("CREATE TABLE a (id INT)", "INSERT INTO a VALUES (1)"), statements);
+    }
+
+    @Test
+    void keepsTrailingStatementWithoutDelimiter() {
+        assertEquals(List.of("SELECT 1", "SELECT 2"), SqlSplitter.split("SELECT 1;\nSELECT 2\n"));
+        assertEquals(List.of("SELECT 1"), SqlSplitter.split("SELECT 1"));
+    }
+
+    @Test
+    void ignoresDelimitersInsideQuotes() {
+        List<String> statements = SqlSplitter.split("""
+            INSERT INTO t (`a;b`, c) VALUES ('x;y', "z;w");
+            INSERT INTO t (c) VALUES ('it''s; fine'), ('back\\'slash;'), ("dq"";");
+            SELECT ';
+            """);
+
+        assertEquals(3, statements.size());
+        assertEquals("INSERT INTO t (`a;b`, c) VALUES ('x;y', \"z;w\")", statements.get(0));
+        assertEquals("INSERT INTO t (c) VALUES ('it''s; fine'), ('back\\'slash;'), (\"dq\"\";\")", statements.get(1));
+        // An unterminated string runs to the end of the script
+        assertEquals("SELECT ';", statements.get(2));
+    }
+
+    @Test
+    void dropsComments() {
+        List<String> statements = SqlSplitter.split("""
+            -- commento; con punto e virgola
+            SELECT 1; # altro commento;
+            /* blocco;
+               su piu righe; */ SELECT 2;
+            SELECT 3 --1;
+            /*!40101 SET NAMES utf8mb4 */;
+            --
+            """);
+
+        // "--" must be followed by whitespace to start a comment, and /*! ... */ is executed by MySQL
+        assertEquals(List.of("SELECT 1", "SELECT 2", "SELECT 3 --1", "/*!40101 SET NAMES utf8mb4 */"), statements);
+    }
+
+    @Test
+    void honoursDelimiterDirective() {
+        List<String> statements = SqlSplitter.split("""
+            DELIMITER $$
+            CREATE TRIGGER t_bi BEFORE INSERT ON t FOR EACH ROW
+            BEGIN
+                SET NEW.a = 1;
+                SET NEW.b = ';';
+            END$$
+            delimiter ;
+            SELECT 1;
+            """);
+
+        assertEquals(2, statements.size());
+        assertTrue(statements.get(0).startsWith("CREATE TRIGGER t_bi"));
+        assertTrue(statements.get(0).endsWith("END"));
+        assertTrue(statements.get(0).contains("SET NEW.a = 1;"));
+        assertTrue(statements.get(0).contains("SET NEW.b = ';';"));
+        assertEquals("SELECT 1", statements.get(1));
+    }
+
+    @Test
+    void splitsPreparedStatements() {
+        List<String> statements = SqlSplitter.split("""
+            SET @ddl = IF(@n = 0, 'ALTER TABLE t ADD INDEX idx_a (a); -- not a comment', 'DO 0');
+            PREPARE stmt FROM @ddl;
+            EXECUTE stmt;
+            DEALLOCATE PREPARE stmt;
+            """);
+
+        assertEquals(List.of(
+                "SET @ddl = IF(@n = 0, 'ALTER TABLE t ADD INDEX idx_a (a); -- not a comment', 'DO 0')",
+                "PREPARE stmt FROM @ddl",
+                "EXECUTE stmt",
+                "DEALLOCATE PREPARE stmt"), statements);
+    }
+
+    @Test
+    void splitsIndexMigration() throws IOException {
+        String script;
+        try (InputStream is = getClass().getResourceAsStream("/sql/migrations/V2__indici_movimenti.sql")) {
+            assertNotNull(is);
+            script = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        List<String> statements = SqlSplitter.split(script);
+
+        // Four blocks of SET, PREPARE, EXECUTE and DEALLOCATE; the header comments are dropped
+        assertEquals(16, statements.size());
+        for (int i = 0; i < statements.size(); i += 4) {
+            assertTrue(statements.get(i).startsWith("SET @ddl = IF("), statements.get(i));
+            assertEquals("PREPARE stmt FROM @ddl", statements.get(i + 1));
+            assertEquals("EXECUTE stmt", statements.get(i + 2));
+            assertEquals("DEALLOCATE PREPARE stmt", statements.get(i + 3));
+        }
+    }
+}
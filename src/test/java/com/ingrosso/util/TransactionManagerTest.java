@@ -0,0 +1,113 @@
+package com.ingrosso.util;
+
+import com.ingrosso.TestDatabase;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionManagerTest {
+
+    @BeforeAll
+    static void creaTabella() throws SQLException {
+        TestDatabase.richiedi();
+        TestDatabase.esegui("""
+            CREATE TABLE IF NOT EXISTS test_transazioni (
+                id INT AUTO_INCREMENT PRIMARY KEY,
+                valore VARCHAR(20) NOT NULL
+            ) ENGINE=InnoDB
+            """);
+    }
+
+    @BeforeEach
+    void svuota() throws SQLException {
+        TestDatabase.esegui("TRUNCATE TABLE test_transazioni");
+    }
+
+    @Test
+    void commitsWhenCallbackSucceeds() throws SQLException {
+        int result = TransactionManager.inTransaction("test", conn -> inserisci(conn, "a"));
+
+        assertEquals(1, result);
+        assertEquals(1, righe());
+    }
+
+    @Test
+    void rollsBackAndRethrowsRuntimeException() throws SQLException {
+        AtomicBoolean dopoCommit = new AtomicBoolean();
+
+        assertThrows(IllegalStateException.class, () -> TransactionManager.inTransaction("test", conn -> {
+            inserisci(conn, "a");
+            TransactionManager.afterCommit(() -> dopoCommit.set(true));
+            throw new IllegalStateException("errore nel callback");
+        }));
+
+        assertEquals(0, righe());
+        assertFalse(dopoCommit.get());
+        assertFalse(TransactionManager.isActive());
+    }
+
+    @Test
+    void rollsBackOnError() throws SQLException {
+        assertThrows(AssertionError.class, () -> TransactionManager.inTransaction("test", conn -> {
+            inserisci(conn, "a");
+            throw new AssertionError("errore nel callback");
+        }));
+
+        assertEquals(0, righe());
+    }
+
+    @Test
+    void runtimeExceptionInNestedScopeUndoesOnlyThatScope() throws SQLException {
+        AtomicBoolean dopoCommitInterno = new AtomicBoolean();
+
+        int result = TransactionManager.inTransaction("esterna", conn -> {
+            inserisci(conn, "esterna");
+            try {
+                TransactionManager.inTransaction("interna", inner -> {
+                    inserisci(inner, "interna");
+                    TransactionManager.afterCommit(() -> dopoCommitInterno.set(true));
+                    throw new NullPointerException();
+                });
+                fail("The exception of the nested scope must propagate");
+            } catch (NullPointerException e) {
+                // The outer scope goes on and commits its own work
+            }
+            return 1;
+        });
+
+        assertEquals(1, result);
+        assertEquals(1, righe());
+        assertEquals(1, TestDatabase.conta("SELECT COUNT(*) FROM test_transazioni WHERE valore = 'esterna'"));
+        assertFalse(dopoCommitInterno.get());
+    }
+
+    @Test
+    void runtimeExceptionFromNestedScopeRollsBackEverything() throws SQLException {
+        assertThrows(IllegalArgumentException.class, () -> TransactionManager.inTransaction("esterna", conn -> {
+            inserisci(conn, "esterna");
+            return TransactionManager.inTransaction("interna", inner -> {
+                inserisci(inner, "interna");
+                throw new IllegalArgumentException();
+            });
+        }));
+
+        assertEquals(0, righe());
+    }
+
+    private static int inserisci(Connection conn, String valore) throws SQLException {
+        try (var stmt = conn.prepareStatement("INSERT INTO test_transazioni (valore) VALUES (?)")) {
+            stmt.setString(1, valore);
+            return stmt.executeUpdate();
+        }
+    }
+
+    private static long righe() throws SQLException {
+        return TestDatabase.conta("SELECT COUNT(*) FROM test_transazioni");
+    }
+}